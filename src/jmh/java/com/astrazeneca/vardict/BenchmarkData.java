@@ -0,0 +1,63 @@
+package com.astrazeneca.vardict;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reference and reads of the benchmarks, written by {@link SyntheticData} with a fixed seed so every run of a benchmark
+ * reads the same data: one chromosome of 20 kb with microsatellites, and single end reads of the given depth and length
+ * with SNVs, insertions, deletions, soft clips and duplicates, coordinate sorted and indexed.
+ */
+class BenchmarkData {
+    static final String CHR = SyntheticData.chromosome(0);
+    static final int REFERENCE_LENGTH = 20000;
+
+    final File dir;
+    final String fasta;
+    final String bam;
+    final String reference;
+
+    /**
+     * @param depth mean depth of the reads
+     * @param readLength length of the reads
+     * @param indelRate insertion and deletion sites per reference base
+     */
+    BenchmarkData(int depth, int readLength, double indelRate) throws IOException {
+        dir = Files.createTempDirectory("vardict-jmh").toFile();
+        SyntheticData data = new SyntheticData();
+        data.seed = 42;
+        data.referenceLength = REFERENCE_LENGTH;
+        data.depth = depth;
+        data.readLength = readLength;
+        data.indelRate = indelRate;
+        data.sample = "bench";
+        data.generate(dir);
+        fasta = new File(dir, "ref.fa").getPath();
+        bam = new File(dir, "reads.bam").getPath();
+        reference = data.getReference(0);
+    }
+
+    /**
+     * @return configuration of a run on the data with the given extra arguments
+     */
+    Configuration configuration(String... args) throws Exception {
+        List<String> all = new ArrayList<>();
+        Collections.addAll(all, "-G", fasta, "-b", bam, "-N", "bench", "-c", "1", "-S", "2", "-E", "3", "-g", "4");
+        Collections.addAll(all, args);
+        return Main.configuration(all.toArray(new String[all.size()]));
+    }
+
+    void delete() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,79 @@
+package com.astrazeneca.vardict;
+
+import com.astrazeneca.vardict.Tuple.Tuple2;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stages of the calling of a region, single sample: parseSAM (pileup and realignment), toVars (parseSAM and the variants)
+ * and vardict (filtering and formatting of the output lines).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({"50", "500"})
+    int depth;
+    @Param({"100", "150"})
+    int readLength;
+    @Param({"0.002"})
+    double indelRate;
+
+    BenchmarkData data;
+    Configuration conf;
+    Map<String, Integer> chrs;
+    Region region;
+    Map<Integer, Character> ref;
+
+    /**
+     * Variants of the region, computed again before each call of vardict because it adjusts the complex variants
+     */
+    @State(Scope.Thread)
+    public static class Variants {
+        Map<Integer, VarDict.Vars> vars;
+
+        @Setup(Level.Invocation)
+        public void setUp(PipelineBenchmark benchmark) throws Exception {
+            vars = benchmark.toVars();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        data = new BenchmarkData(depth, readLength, indelRate);
+        conf = data.configuration();
+        chrs = VarDict.readChr(data.bam);
+        region = new Region(BenchmarkData.CHR, 1000, BenchmarkData.REFERENCE_LENGTH - 1000, "bench");
+        ref = VarDict.getREF(region, chrs, conf.fasta, conf.numberNucleotideToExtend);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        data.delete();
+    }
+
+    @Benchmark
+    public Object parseSAM() throws Exception {
+        return VarDict.parseSAM(region, data.bam, chrs, "bench", new HashSet<String>(), null, 0, ref, conf);
+    }
+
+    @Benchmark
+    public Map<Integer, VarDict.Vars> toVars() throws Exception {
+        Tuple2<Integer, Map<Integer, VarDict.Vars>> tpl = VarDict.toVars(region, data.bam, ref, chrs, "bench", new HashSet<String>(), null, 0, conf);
+        return tpl._2;
+    }
+
+    @Benchmark
+    public int vardict(Variants variants) {
+        try (LineWriter out = new LineWriter()) {
+            VarDict.vardict(region, variants.vars, "bench", new HashSet<String>(), conf, out);
+            return out.getOutput().size();
+        }
+    }
+}
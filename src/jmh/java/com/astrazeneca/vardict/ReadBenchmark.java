@@ -0,0 +1,82 @@
+package com.astrazeneca.vardict;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per read and per variant work: modifyCigar on the reads of the data and findMSI on the flanks of positions along the
+ * reference, microsatellites included. Times are for the whole set of reads or positions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReadBenchmark {
+    private static final int READS = 2000;
+    private static final int POSITIONS = 500;
+
+    @Param({"100", "250"})
+    int readLength;
+    @Param({"0.001", "0.01"})
+    double indelRate;
+
+    BenchmarkData data;
+    Configuration conf;
+    Map<Integer, Character> ref;
+    List<SAMRecord> reads = new ArrayList<>();
+    List<String[]> flanks = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        data = new BenchmarkData(20, readLength, indelRate);
+        conf = data.configuration();
+        Map<String, Integer> chrs = VarDict.readChr(data.bam);
+        Region region = new Region(BenchmarkData.CHR, 1000, BenchmarkData.REFERENCE_LENGTH - 1000, "bench");
+        ref = VarDict.getREF(region, chrs, conf.fasta, conf.numberNucleotideToExtend);
+        try (SamReader reader = SamReaderFactory.makeDefault().open(new File(data.bam))) {
+            for (SAMRecord record : reader) {
+                reads.add(record);
+                if (reads.size() == READS) {
+                    break;
+                }
+            }
+        }
+        String reference = data.reference;
+        for (int i = 0; i < POSITIONS; i++) {
+            int p = 100 + i * (reference.length() - 200) / POSITIONS;
+            flanks.add(new String[] { reference.substring(p - 30, p + 1), reference.substring(p + 1, p + 70) });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        data.delete();
+    }
+
+    @Benchmark
+    public void modifyCigar(Blackhole blackhole) {
+        for (SAMRecord record : reads) {
+            blackhole.consume(VarDict.modifyCigar(VarDict.getInsertionDeletionLenght(record.getCigar()), ref,
+                    record.getAlignmentStart(), record.getCigarString(), record.getReadString(), record.getBaseQualityString(),
+                    conf.lowqual));
+        }
+    }
+
+    @Benchmark
+    public void findMSI(Blackhole blackhole) {
+        for (String[] flank : flanks) {
+            blackhole.consume(VarDict.findMSI(flank[0], flank[1], null));
+        }
+    }
+}
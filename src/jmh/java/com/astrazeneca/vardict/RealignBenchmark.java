@@ -0,0 +1,64 @@
+package com.astrazeneca.vardict;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Realignment passes of parseSAM on the pileup of a region. The pileup is read again before each call, as the passes change it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RealignBenchmark {
+    @Param({"100", "500"})
+    int depth;
+    @Param({"100"})
+    int readLength;
+    @Param({"0.001", "0.005"})
+    double indelRate;
+
+    BenchmarkData data;
+    Configuration conf;
+    Map<String, Integer> chrs;
+    Region region;
+    Map<Integer, Character> ref;
+    VarDict.Pileup pileup;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        data = new BenchmarkData(depth, readLength, indelRate);
+        conf = data.configuration();
+        chrs = VarDict.readChr(data.bam);
+        region = new Region(BenchmarkData.CHR, 1000, BenchmarkData.REFERENCE_LENGTH - 1000, "bench");
+        ref = VarDict.getREF(region, chrs, conf.fasta, conf.numberNucleotideToExtend);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        data.delete();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpPileup() throws Exception {
+        pileup = VarDict.readPileup(region, new String[] { data.bam }, chrs, new HashSet<String>(), null, 0, ref, null, conf);
+    }
+
+    @Benchmark
+    public Object realigndel() throws Exception {
+        VarDict.realigndel(pileup.hash, pileup.dels5, pileup.cov, pileup.sclip5, pileup.sclip3, ref, region.chr, chrs,
+                pileup.rlen, new String[] { data.bam }, conf);
+        return pileup.hash;
+    }
+
+    @Benchmark
+    public Object realignins() {
+        VarDict.realignins(pileup.hash, pileup.iHash, pileup.ins, pileup.cov, pileup.sclip5, pileup.sclip3, ref, region.chr, chrs, conf);
+        return pileup.hash;
+    }
+}
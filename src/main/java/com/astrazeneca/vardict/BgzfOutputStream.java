@@ -0,0 +1,201 @@
+package com.astrazeneca.vardict;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static htsjdk.samtools.util.BlockCompressedStreamConstants.*;
+
+/**
+ * BGZF compressed output (option --compress) with the blocks deflated by a pool of threads. Bytes written are cut in blocks of
+ * the size used by htsjdk, each block is deflated by the pool, and the compressed blocks are written in order by the writing
+ * thread as they are done, so the writer waits only if the pool falls behind by more than a few blocks per thread.
+ * The output is a valid gzip file for gunzip and zcat, and a BGZF file for tabix and htsjdk.
+ */
+public class BgzfOutputStream extends OutputStream {
+    /**
+     * Number of blocks per thread being deflated before the writer waits for the oldest
+     */
+    private static final int PENDING_PER_THREAD = 4;
+
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(DEFAULT_COMPRESSION_LEVEL, true);
+        }
+    };
+    private static final ThreadLocal<Deflater> NO_COMPRESSION = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.NO_COMPRESSION, true);
+        }
+    };
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] block = new byte[DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+    private int count;
+    private boolean closed;
+
+    /**
+     * @param out stream of the compressed output, closed with this stream
+     * @param threads number of threads deflating blocks
+     */
+    public BgzfOutputStream(OutputStream out, int threads) {
+        this.out = out;
+        this.maxPending = threads * PENDING_PER_THREAD;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "bgzf");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block[count++] = (byte) b;
+        if (count == block.length) {
+            submit();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == block.length) {
+                submit();
+            }
+        }
+    }
+
+    /**
+     * Compress the bytes written so far and write the blocks already deflated. Blocks still being deflated are written later.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            submit();
+        }
+        out.flush();
+    }
+
+    /**
+     * Write all blocks and the empty BGZF block marking the end of file, and close the output
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (count > 0) {
+                submit();
+            }
+            while (!pending.isEmpty()) {
+                writeOldest();
+            }
+            out.write(EMPTY_GZIP_BLOCK);
+        } finally {
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void submit() throws IOException {
+        final byte[] data = block;
+        final int length = count;
+        pending.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compress(data, length);
+            }
+        }));
+        block = new byte[DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+        count = 0;
+        while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > maxPending)) {
+            writeOldest();
+        }
+    }
+
+    private void writeOldest() throws IOException {
+        try {
+            out.write(pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing output", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Compression of output failed", e.getCause());
+        }
+    }
+
+    /**
+     * @return BGZF block of the data: gzip header with the block size, raw deflate data, CRC32 and uncompressed size
+     */
+    static byte[] compress(byte[] data, int length) {
+        byte[] buffer = new byte[MAX_COMPRESSED_BLOCK_SIZE];
+        int size = deflate(DEFLATER.get(), data, length, buffer);
+        if (size < 0) {
+            // incompressible data, as htsjdk does
+            size = deflate(NO_COMPRESSION.get(), data, length, buffer);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+
+        int total = BLOCK_HEADER_LENGTH + size + BLOCK_FOOTER_LENGTH;
+        System.arraycopy(buffer, 0, buffer, BLOCK_HEADER_LENGTH, size);
+        int i = 0;
+        buffer[i++] = GZIP_ID1;
+        buffer[i++] = (byte) GZIP_ID2;
+        buffer[i++] = GZIP_CM_DEFLATE;
+        buffer[i++] = GZIP_FLG;
+        i += 4; // modification time
+        buffer[i++] = GZIP_XFL;
+        buffer[i++] = (byte) GZIP_OS_UNKNOWN;
+        i = putShort(buffer, i, GZIP_XLEN);
+        buffer[i++] = BGZF_ID1;
+        buffer[i++] = BGZF_ID2;
+        i = putShort(buffer, i, BGZF_LEN);
+        putShort(buffer, i, total - 1);
+        i = putInt(buffer, BLOCK_HEADER_LENGTH + size, (int) crc.getValue());
+        putInt(buffer, i, length);
+        return Arrays.copyOf(buffer, total);
+    }
+
+    /**
+     * @return size of the deflated data or -1 if it doesn't fit in a block
+     */
+    private static int deflate(Deflater deflater, byte[] data, int length, byte[] buffer) {
+        int max = MAX_COMPRESSED_BLOCK_SIZE - BLOCK_HEADER_LENGTH - BLOCK_FOOTER_LENGTH;
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        int size = deflater.deflate(buffer, 0, max);
+        return deflater.finished() ? size : -1;
+    }
+
+    private static int putShort(byte[] buffer, int i, int value) {
+        buffer[i] = (byte) value;
+        buffer[i + 1] = (byte) (value >>> 8);
+        return i + 2;
+    }
+
+    private static int putInt(byte[] buffer, int i, int value) {
+        putShort(buffer, i, value);
+        return putShort(buffer, i + 2, value >>> 16);
+    }
+}
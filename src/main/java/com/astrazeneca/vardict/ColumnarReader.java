@@ -0,0 +1,325 @@
+package com.astrazeneca.vardict;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.astrazeneca.vardict.ColumnarWriter.*;
+
+/**
+ * Reader of the columnar output written by ColumnarWriter (option --columnar). Blocks are read one at a time, decoding only
+ * the columns asked for, so a scan of a few columns (e.g. AF and Depth) skips the bytes of the others.
+ */
+public class ColumnarReader implements Closeable {
+    private final DataInputStream in;
+    private final List<String> names;
+    private final boolean header;
+    private boolean finished;
+
+    public ColumnarReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[MAGIC.length];
+        this.in.readFully(magic);
+        // version 1 had no header flag
+        if (!Arrays.equals(Arrays.copyOf(magic, MAGIC.length - 1), Arrays.copyOf(MAGIC, MAGIC.length - 1))
+                || magic[MAGIC.length - 1] < 1 || magic[MAGIC.length - 1] > MAGIC[MAGIC.length - 1]) {
+            throw new IOException("Not a VarDict columnar file");
+        }
+        int count = (int) readVarint(this.in);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            names.add(readString(this.in));
+        }
+        this.names = Collections.unmodifiableList(names);
+        this.header = magic[MAGIC.length - 1] > 1 && this.in.readBoolean();
+    }
+
+    /**
+     * @return names of the columns, as in the header row of the output
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * @return true if the output started with the header row of the names (option -h)
+     */
+    public boolean hasHeader() {
+        return header;
+    }
+
+    /**
+     * @return index of the named column, -1 if there is no such column
+     */
+    public int column(String name) {
+        return names.indexOf(name);
+    }
+
+    /**
+     * @return next block with all columns decoded, null at the end of the file
+     */
+    public Block next() throws IOException {
+        return next(null);
+    }
+
+    /**
+     * @param columns indexes of the columns to decode, all if null. The other columns of the block are skipped.
+     * @return next block, null at the end of the file
+     */
+    public Block next(int[] columns) throws IOException {
+        if (finished) {
+            return null;
+        }
+        int rows = (int) readVarint(in);
+        if (rows == 0) {
+            finished = true;
+            return null;
+        }
+        int count = (int) readVarint(in);
+        boolean[] wanted = new boolean[count];
+        if (columns == null) {
+            Arrays.fill(wanted, true);
+        } else {
+            for (int c : columns) {
+                if (c >= 0 && c < count) {
+                    wanted[c] = true;
+                }
+            }
+        }
+        Column[] decoded = new Column[count];
+        for (int c = 0; c < count; c++) {
+            int length = (int) readVarint(in);
+            if (wanted[c]) {
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                decoded[c] = decode(new DataInputStream(new ByteArrayInputStream(bytes)), rows);
+            } else {
+                in.skipBytes(length);
+            }
+        }
+        return new Block(rows, decoded);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Print the lines of a columnar file as the tab separated output they were written from (subcommand 'export'),
+     * preceded by the header row, of the given columns only, if the output had one
+     * @param file columnar file
+     * @param columns names or 1-based indexes of the columns to print, all if empty
+     * @param out stream of the lines
+     */
+    public static void export(String file, List<String> columns, PrintStream out) throws IOException {
+        try (ColumnarReader reader = new ColumnarReader(new FileInputStream(file))) {
+            int[] selected = null;
+            if (!columns.isEmpty()) {
+                selected = new int[columns.size()];
+                for (int i = 0; i < selected.length; i++) {
+                    String column = columns.get(i);
+                    selected[i] = column.matches("\\d+") ? Integer.parseInt(column) - 1 : reader.column(column);
+                    if (selected[i] < 0) {
+                        throw new IllegalArgumentException("No column " + column + " in " + file);
+                    }
+                }
+            }
+            StringBuilder line = new StringBuilder();
+            if (reader.hasHeader()) {
+                for (int i = 0; i < (selected == null ? reader.names.size() : selected.length); i++) {
+                    int c = selected == null ? i : selected[i];
+                    line.append(i > 0 ? "\t" : "").append(c < reader.names.size() ? reader.names.get(c) : "");
+                }
+                out.println(line);
+            }
+            Block block;
+            while ((block = reader.next(selected)) != null) {
+                for (int r = 0; r < block.rows(); r++) {
+                    line.setLength(0);
+                    if (selected == null) {
+                        for (int c = 0; c < block.columns(); c++) {
+                            line.append(c > 0 ? "\t" : "").append(block.get(r, c));
+                        }
+                    } else {
+                        for (int i = 0; i < selected.length; i++) {
+                            String value = selected[i] < block.columns() ? block.get(r, selected[i]) : "";
+                            line.append(i > 0 ? "\t" : "").append(value);
+                        }
+                    }
+                    out.println(line);
+                }
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Lines of a block, with the decoded columns
+     */
+    public static class Block {
+        private final int rows;
+        private final Column[] columns;
+
+        Block(int rows, Column[] columns) {
+            this.rows = rows;
+            this.columns = columns;
+        }
+
+        public int rows() {
+            return rows;
+        }
+
+        public int columns() {
+            return columns.length;
+        }
+
+        /**
+         * @return true if the column is decoded and its values are numbers
+         */
+        public boolean isNumeric(int column) {
+            return columns[column] != null && columns[column].unscaled != null;
+        }
+
+        /**
+         * @return value of the column as printed in the output
+         * @throws IllegalStateException if the column wasn't decoded
+         */
+        public String get(int row, int column) {
+            return column(column).get(row);
+        }
+
+        /**
+         * @return value of a numeric column, without formatting it
+         */
+        public double getDouble(int row, int column) {
+            Column col = column(column);
+            if (col.unscaled == null) {
+                return Double.parseDouble(col.get(row));
+            }
+            double value = col.unscaled[row];
+            for (int i = 0; i < col.scales[row]; i++) {
+                value /= 10;
+            }
+            return value;
+        }
+
+        public long getLong(int row, int column) {
+            Column col = column(column);
+            return col.unscaled != null && col.scales[row] == 0 ? col.unscaled[row] : (long) getDouble(row, column);
+        }
+
+        private Column column(int column) {
+            if (columns[column] == null) {
+                throw new IllegalStateException("Column " + (column + 1) + " wasn't read");
+            }
+            return columns[column];
+        }
+    }
+
+    /**
+     * Values of a column of a block: numbers with their digits after the point, or strings
+     */
+    private static class Column {
+        long[] unscaled;
+        int[] scales;
+        String[] strings;
+
+        String get(int row) {
+            if (strings != null) {
+                return strings[row];
+            }
+            return format(unscaled[row], scales[row]);
+        }
+    }
+
+    private static Column decode(DataInputStream in, int rows) throws IOException {
+        Column column = new Column();
+        byte encoding = in.readByte();
+        switch (encoding) {
+            case INT:
+            case INT_DELTA:
+            case DECIMAL:
+                column.unscaled = new long[rows];
+                column.scales = new int[rows];
+                long previous = 0;
+                for (int r = 0; r < rows; r++) {
+                    long value = readVarint(in);
+                    if (encoding == DECIMAL) {
+                        column.scales[r] = (int) (value & ((1 << SCALE_BITS) - 1));
+                        value >>>= SCALE_BITS;
+                    }
+                    value = unzigzag(value);
+                    if (encoding == INT_DELTA) {
+                        value += previous;
+                        previous = value;
+                    }
+                    column.unscaled[r] = value;
+                }
+                break;
+            case DICT:
+                String[] dictionary = new String[(int) readVarint(in)];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = readString(in);
+                }
+                column.strings = new String[rows];
+                for (int r = 0; r < rows; r++) {
+                    column.strings[r] = dictionary[(int) readVarint(in)];
+                }
+                break;
+            case STRING:
+                column.strings = new String[rows];
+                for (int r = 0; r < rows; r++) {
+                    column.strings[r] = readString(in);
+                }
+                break;
+            default:
+                throw new IOException("Unknown column encoding " + encoding);
+        }
+        return column;
+    }
+
+    /**
+     * @return the decimal printed as it was in the output: digits with the given number of them after the point
+     */
+    static String format(long unscaled, int scale) {
+        String digits = Long.toString(Math.abs(unscaled));
+        if (scale == 0) {
+            return unscaled < 0 ? "-" + digits : digits;
+        }
+        StringBuilder sb = new StringBuilder();
+        if (unscaled < 0) {
+            sb.append('-');
+        }
+        for (int i = digits.length(); i <= scale; i++) {
+            sb.append('0');
+        }
+        sb.append(digits);
+        sb.insert(sb.length() - scale, '.');
+        return sb.toString();
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarint(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,223 @@
+package com.astrazeneca.vardict;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary columnar copy of the output (option --columnar), read by ColumnarReader and exported back to the same lines by
+ * the subcommand 'export'. The file starts with a magic number, the column names and whether the output starts with the
+ * header row of the names (option -h), followed by blocks of up to BLOCK_ROWS
+ * lines with the same number of columns. Each column of a block is written separately with its encoding and length, so
+ * a reader can skip the columns it doesn't need:
+ * <ul>
+ * <li>integers as zigzag varints, of the difference with the previous row if it's shorter (positions)</li>
+ * <li>decimals as fixed-point zigzag varints of the digits with the number of digits after the point</li>
+ * <li>strings with few distinct values (gene, chromosome, region) as varint indexes in a dictionary of the block</li>
+ * <li>other strings as varint length and UTF-8 bytes</li>
+ * </ul>
+ * A column is encoded as a number only if all its values of the block are printed back the same way.
+ */
+public class ColumnarWriter implements Closeable {
+    static final byte[] MAGIC = {'V', 'D', 'C', 2};
+    static final int BLOCK_ROWS = 4096;
+
+    static final byte INT = 0;
+    static final byte INT_DELTA = 1;
+    static final byte DECIMAL = 2;
+    static final byte DICT = 3;
+    static final byte STRING = 4;
+
+    /**
+     * Digits after the point of a decimal are stored in the low bits of its value
+     */
+    static final int SCALE_BITS = 4;
+
+    private final DataOutputStream out;
+    private final List<String[]> rows = new ArrayList<>();
+
+    /**
+     * @param file columnar file
+     * @param names column names written to the file
+     * @param header true if the output starts with the header row of the names, which isn't added as lines
+     */
+    public ColumnarWriter(String file, List<String> names, boolean header) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.write(MAGIC);
+        writeVarint(out, names.size());
+        for (String name : names) {
+            writeString(out, name);
+        }
+        out.writeBoolean(header);
+    }
+
+    /**
+     * Add the lines of the output of a region, UTF-8 encoded
+     */
+    public void add(ByteArrayOutputStream region) throws IOException {
+        String text = region.toString(StandardCharsets.UTF_8.name());
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            int lineEnd = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+            add(text.substring(start, lineEnd).split("\t", -1));
+            start = end + 1;
+        }
+    }
+
+    private void add(String[] row) throws IOException {
+        if (!rows.isEmpty() && rows.get(0).length != row.length) {
+            writeBlock();
+        }
+        rows.add(row);
+        if (rows.size() == BLOCK_ROWS) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Write the last block and the end mark, a block of 0 rows
+     */
+    @Override
+    public void close() throws IOException {
+        writeBlock();
+        writeVarint(out, 0);
+        out.close();
+    }
+
+    private void writeBlock() throws IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        int columns = rows.get(0).length;
+        writeVarint(out, rows.size());
+        writeVarint(out, columns);
+        for (int c = 0; c < columns; c++) {
+            ByteArrayOutputStream column = encode(c);
+            writeVarint(out, column.size());
+            column.writeTo(out);
+        }
+        rows.clear();
+    }
+
+    /**
+     * @return encoding byte and values of a column of the block
+     */
+    private ByteArrayOutputStream encode(int c) throws IOException {
+        int n = rows.size();
+        long[] unscaled = new long[n];
+        int[] scales = new int[n];
+        boolean numeric = true;
+        boolean integer = true;
+        for (int r = 0; r < n && numeric; r++) {
+            String value = rows.get(r)[c];
+            numeric = parseDecimal(value, unscaled, scales, r);
+            integer &= scales[r] == 0;
+        }
+
+        if (numeric && integer) {
+            ByteArrayOutputStream plain = new ByteArrayOutputStream();
+            ByteArrayOutputStream delta = new ByteArrayOutputStream();
+            plain.write(INT);
+            delta.write(INT_DELTA);
+            long previous = 0;
+            for (long value : unscaled) {
+                writeVarint(plain, zigzag(value));
+                writeVarint(delta, zigzag(value - previous));
+                previous = value;
+            }
+            return delta.size() < plain.size() ? delta : plain;
+        }
+        if (numeric) {
+            ByteArrayOutputStream decimal = new ByteArrayOutputStream();
+            decimal.write(DECIMAL);
+            for (int r = 0; r < n; r++) {
+                writeVarint(decimal, zigzag(unscaled[r]) << SCALE_BITS | scales[r]);
+            }
+            return decimal;
+        }
+
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        strings.write(STRING);
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> entries = new ArrayList<>();
+        int[] indexes = new int[n];
+        for (int r = 0; r < n; r++) {
+            String value = rows.get(r)[c];
+            writeString(strings, value);
+            Integer index = dictionary.get(value);
+            if (index == null) {
+                index = entries.size();
+                dictionary.put(value, index);
+                entries.add(value);
+            }
+            indexes[r] = index;
+        }
+        ByteArrayOutputStream dict = new ByteArrayOutputStream();
+        dict.write(DICT);
+        writeVarint(dict, entries.size());
+        for (String entry : entries) {
+            writeString(dict, entry);
+        }
+        for (int index : indexes) {
+            writeVarint(dict, index);
+        }
+        return dict.size() < strings.size() ? dict : strings;
+    }
+
+    /**
+     * Parse a decimal written as -?digits(.digits)? which is printed back the same way by ColumnarReader.format
+     * @return false if the value isn't such a decimal
+     */
+    static boolean parseDecimal(String value, long[] unscaled, int[] scales, int i) {
+        int length = value.length();
+        int start = length > 0 && value.charAt(0) == '-' ? 1 : 0;
+        if (start == length || length - start > 15) {
+            return false;
+        }
+        long digits = 0;
+        int point = -1;
+        for (int j = start; j < length; j++) {
+            char ch = value.charAt(j);
+            if (ch == '.' && point < 0 && j > start && j < length - 1) {
+                point = j;
+            } else if (ch >= '0' && ch <= '9') {
+                digits = digits * 10 + (ch - '0');
+            } else {
+                return false;
+            }
+        }
+        int scale = point < 0 ? 0 : length - point - 1;
+        int integerDigits = (point < 0 ? length : point) - start;
+        if (scale >= 1 << SCALE_BITS || (integerDigits > 1 && value.charAt(start) == '0') || (start == 1 && digits == 0)) {
+            return false; // leading zeros and negative zero aren't printed back
+        }
+        unscaled[i] = start == 1 ? -digits : digits;
+        scales[i] = scale;
+        return true;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+}
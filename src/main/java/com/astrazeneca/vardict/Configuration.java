@@ -2,9 +2,12 @@ package com.astrazeneca.vardict;
 
 import htsjdk.samtools.ValidationStringency;
 
+import java.util.EnumSet;
+import java.util.List;
+
 import com.astrazeneca.vardict.VarDict.BedRowFormat;
 
-public class Configuration {
+public class Configuration implements Cloneable {
     /**
      * Print a header row decribing columns
      */
@@ -63,7 +66,18 @@ public class Configuration {
      * If set, reads with mismatches more than INT will be filtered and ignored
      */
     int mismatch; //-m, default = 8
-    boolean y; //-y TODO ???
+    /**
+     * Categories of the trace of the analysis, all with option -y, none if empty (see Trace)
+     */
+    EnumSet<Trace.Category> traceCategories = EnumSet.noneOf(Trace.Category.class); // -y, --trace
+    /**
+     * Region of the trace, all regions if not set
+     */
+    String traceRegion; // --trace-region
+    /**
+     * File of the trace, stderr if not set
+     */
+    String traceFile; // --trace-file
     /**
      * The phred score for a base to be considered a good call
      */
@@ -127,6 +141,10 @@ public class Configuration {
      * Do pileup regarless the frequency
      */
     boolean doPileup = false; // -p
+    /**
+     * Lowest depths of the depth bands after the first for the reference blocks of the pileup, not merged in blocks if not set
+     */
+    int[] refBlocks; // --ref-blocks
     /**
      * The lowest frequency in normal sample allowed for a putative somatic mutations
      */
@@ -145,6 +163,158 @@ public class Configuration {
      */
     int threads;
 
+    /**
+     * Output file, stdout if not set
+     */
+    String output; // --output
+    /**
+     * Indicate to write the output BGZF compressed, set for an output file ending with .gz
+     */
+    boolean compress; // --compress
+    /**
+     * Threads count for compression of the output
+     */
+    int compressThreads = 2; // --compress-threads
+    /**
+     * Journal of written regions for resuming an interrupted run
+     */
+    String journal; // --journal
+    /**
+     * Options and arguments which affect the output (used to check that a journal belongs to the run)
+     */
+    String arguments = "";
+
+    /**
+     * Number of worker processes of a sharded run
+     */
+    int shards; // --shards
+    /**
+     * Shard analysed by a worker process, -1 for the coordinator or a run without shards
+     */
+    int shardIndex = -1; // --shard-index
+    /**
+     * Command template to launch a worker process, {cmd} is replaced by the worker command line and {shard} by the shard index
+     */
+    String shardLauncher; // --shard-launcher
+    /**
+     * Directory for outputs of the worker processes, a temporary directory if not set
+     */
+    String shardDir; // --shard-dir
+    /**
+     * JVM options of the worker processes, the options of the coordinator if not set
+     */
+    String shardJvmOptions; // --shard-jvm-options
+    /**
+     * Options and arguments passed to the worker processes
+     */
+    List<String> shardArguments;
+
+    /**
+     * Indicate to append the p-value and odds ratio of the strand bias Fisher test (somatic test for two samples) to the output
+     */
+    boolean fisher; // --fisher
+
+    /**
+     * VCF output file, not written if not set
+     */
+    String vcf; // --vcf
+    /**
+     * Indicate to write only the variants passing all filters to the VCF
+     */
+    boolean vcfPassOnly; // --vcf-pass-only
+    /**
+     * Indicate to write all alleles of a position to the VCF, not only the one with the highest frequency
+     */
+    boolean vcfAllAlleles; // --vcf-all-alleles
+    /**
+     * VCF filters: minimum total depth, mean position in reads, mean base quality, mean mapping quality and signal to noise,
+     * and mean mismatches from which a variant is likely false positive
+     */
+    int vcfMinDepth = 3; // --vcf-min-depth
+    double vcfMinPmean = 8; // --vcf-min-pmean
+    double vcfMinQmean = 22.5; // --vcf-min-qmean
+    double vcfMinMapq = 0; // --vcf-min-mapq
+    double vcfMinSn = 1.5; // --vcf-min-sn
+    double vcfMaxNm = 8; // --vcf-max-nm
+
+    /**
+     * Columnar copy of the output, not written if not set
+     */
+    String columnar; // --columnar
+
+    /**
+     * Seconds between two progress reports on stderr, 0 for none
+     */
+    int progress; // --progress
+    /**
+     * Status file of the run, replaced at each progress report, not written if not set
+     */
+    String statusFile; // --status-file
+
+    /**
+     * File of the per region metrics, not written if not set
+     */
+    String metrics; // --metrics
+    /**
+     * Metrics of the region analysed with this configuration (see forRegion)
+     */
+    RegionMetrics regionMetrics;
+
+    /**
+     * Number of slowest regions of the summary printed at the end of the run, 0 for no summary
+     */
+    int summary; // --summary
+
+    /**
+     * Fraction of the max heap above which the parallel drivers analyse fewer regions at once, 0 to disable
+     */
+    double heapLimit = 0.75; // --heap-limit
+
+    /**
+     * File of the splice counts of the pileups of the regions, not written if not set
+     */
+    String spliceOutput; // --splice-output
+    /**
+     * Splice counts of the regions analysed with this configuration (see forRegion)
+     */
+    VarDict.SpliceCounts spliceCounts;
+
+    /**
+     * Directory of the spill files of region outputs written out of order by the parallel drivers, not spilled if not set
+     */
+    String spillDir; // --spill-dir
+
+    /**
+     * Threads count for pileup of the reads within a region. If not set, reads of a region are piled up by the thread of the region
+     */
+    int readThreads; // --read-threads
+
+    /**
+     * Number of reads in a batch processed by a read thread
+     */
+    int readBatchSize = 20000; // --read-batch
+
+    /**
+     * Wall time budget of a region in seconds
+     */
+    int regionTime; // --region-time
+    /**
+     * Budget of reads seen in a region
+     */
+    long regionReads; // --region-reads
+    /**
+     * Budget of estimated pileup heap of a region in megabytes
+     */
+    int regionHeap; // --region-heap
+    /**
+     * Downsampling fraction for the re-run of a region over budget
+     */
+    double degradedDownsampling = 0.9; // --degraded-downsampling
+    /**
+     * Indicate the cheaper re-run of a region over budget
+     */
+    boolean degraded;
+
     public boolean isColumnForChromosomeSet() {
         return columnForChromosome >= 0;
     }
@@ -161,6 +331,61 @@ public class Configuration {
         return zeroBased != null;
     }
 
+    public boolean hasRegionBudget() {
+        return !degraded && hasDegradedColumn();
+    }
+
+    /**
+     * @return true if region budgets are set, so the output lines end with the column Degraded
+     */
+    public boolean hasDegradedColumn() {
+        return regionTime > 0 || regionReads > 0 || regionHeap > 0;
+    }
+
+    /**
+     * @param sample sample name
+     * @param regions the region, or the regions of the amplicon group
+     * @return configuration of the analysis of one region (or amplicon group), with its own metrics if option --metrics or
+     * --summary is set and its own splice counts if option --splice-output is set
+     */
+    public Configuration forRegion(String sample, List<Region> regions) {
+        if (metrics == null && summary == 0 && spliceOutput == null) {
+            return this;
+        }
+        try {
+            Configuration conf = (Configuration) clone();
+            if (metrics != null || summary > 0) {
+                conf.regionMetrics = new RegionMetrics();
+            }
+            if (spliceOutput != null) {
+                conf.spliceCounts = new VarDict.SpliceCounts(sample, regions);
+            }
+            return conf;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Configuration for the re-run of a region over budget: local realignment is off and reads are downsampled
+     * on top of the -Z option. Budgets are not checked in the re-run.
+     */
+    public Configuration degraded() {
+        try {
+            Configuration conf = (Configuration) clone();
+            conf.degraded = true;
+            conf.performLocalRealignment = false;
+            double kept = (isDownsampling() ? 1 - downsampling : 1) * (1 - degradedDownsampling);
+            conf.downsampling = 1 - kept;
+            if (spliceCounts != null) {
+                conf.spliceCounts = spliceCounts.restart();
+            }
+            return conf;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     public static class BamNames {
         private final String[] bamNames;
         private final String[] bams;
@@ -0,0 +1,73 @@
+package com.astrazeneca.vardict;
+
+/**
+ * Flight recorder events of the analysis: regions, BAM queries, reference fetches, realignment passes and the
+ * re-analysis of combineAnalysis. On a JVM with jdk.jfr (OpenJDK 8u262 or later, 11 or later) they are {@link JfrEvents},
+ * which are allocated only when a recording enables them. Otherwise the spans do nothing.
+ */
+final class Events {
+    private static final boolean AVAILABLE = available();
+
+    private Events() {
+    }
+
+    /**
+     * Event in progress, committed with its counts when it ends
+     */
+    interface Span {
+        Span NONE = (reads, candidates) -> { };
+
+        /**
+         * End the event
+         * @param reads reads of the event
+         * @param candidates variant candidates (or other count) of the event
+         */
+        void end(long reads, long candidates);
+    }
+
+    /**
+     * Analysis of a region or amplicon group. Ends with no reads and the number of output lines.
+     */
+    static Span region(Region region) {
+        return AVAILABLE ? JfrEvents.region(region) : Span.NONE;
+    }
+
+    /**
+     * Query of the reads of a region in one BAM file. Ends with the reads fetched and the reads piled up.
+     */
+    static Span bamQuery(Region region, String bam) {
+        return AVAILABLE ? JfrEvents.bamQuery(region, bam) : Span.NONE;
+    }
+
+    /**
+     * Fetch of the reference of a region. Ends with no reads and the number of bases.
+     */
+    static Span reference(Region region) {
+        return AVAILABLE ? JfrEvents.reference(region) : Span.NONE;
+    }
+
+    /**
+     * Realignment pass (realigndel, realignins, realignlgdel, realignlgins or realignlgins30) over a region. Ends with no reads
+     * and the number of candidates of the pass: deletions, insertions or soft clipped positions.
+     */
+    static Span realign(String pass, Region region) {
+        return AVAILABLE ? JfrEvents.realign(pass, region) : Span.NONE;
+    }
+
+    /**
+     * Re-analysis of a variant of paired calling over both BAM files. Ends with no reads and the number of positions
+     * with variants.
+     */
+    static Span combineAnalysis(String chr, int position, String variant) {
+        return AVAILABLE ? JfrEvents.combineAnalysis(chr, position, variant) : Span.NONE;
+    }
+
+    private static boolean available() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
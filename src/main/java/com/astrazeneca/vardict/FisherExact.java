@@ -0,0 +1,291 @@
+package com.astrazeneca.vardict;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Fisher's exact test of a 2x2 table with the p-value and the conditional maximum likelihood estimate of the odds ratio
+ * computed as fisher.test of R does, for the strand bias test of teststrandbias.R and the somatic test of testsomatic.R.
+ * Hypergeometric probabilities come from a table of log factorials shared by all threads, which grows to the largest depth seen.
+ */
+public class FisherExact {
+    /**
+     * Relative tolerance of fisher.test for tables as probable as the observed one
+     */
+    private static final double REL_ERR = 1 + 1e-7;
+    /**
+     * Tolerance and iterations of uniroot in fisher.test
+     */
+    private static final double ROOT_TOL = Math.pow(Math.ulp(1.0), 0.25);
+    private static final int ROOT_MAXIT = 1000;
+    /**
+     * Digits of the p-value and odds ratio, as rounded by the R scripts
+     */
+    private static final int DIGITS = 5;
+
+    private static volatile double[] logFactorials = logFactorials(new double[0], 1024);
+
+    /**
+     * Two-sided p-value
+     */
+    final double pvalue;
+    /**
+     * Conditional maximum likelihood estimate of the odds ratio, 0 or infinity if the observed table is at an end of the support
+     */
+    final double oddRatio;
+
+    private final int lo;
+    /**
+     * Log of the hypergeometric probabilities of the support lo..hi, as logdc of fisher.test
+     */
+    private final double[] logDensity;
+
+    /**
+     * Test the table matrix(c(a, b, c, d), nrow = 2) of R, i.e. with rows (a, c) and (b, d)
+     */
+    public FisherExact(int a, int b, int c, int d) {
+        int m = a + b;
+        int n = c + d;
+        int k = a + c;
+        lo = Math.max(0, k - n);
+        int hi = Math.min(k, m);
+        double[] lf = logFactorials(m + n);
+
+        logDensity = new double[hi - lo + 1];
+        for (int i = lo; i <= hi; i++) {
+            logDensity[i - lo] = lf[m] - lf[i] - lf[m - i] + lf[n] - lf[k - i] - lf[n - k + i];
+        }
+        double[] probabilities = density(0);
+        double observed = probabilities[a - lo] * REL_ERR;
+        double p = 0;
+        for (double probability : probabilities) {
+            if (probability <= observed) {
+                p += probability;
+            }
+        }
+        pvalue = Math.min(1, p);
+        oddRatio = mle(a, hi);
+    }
+
+    /**
+     * Strand bias test of a variant: reference and variant reads on forward and reverse strands (teststrandbias.R)
+     */
+    public static FisherExact strandBias(Variant var) {
+        return new FisherExact(var.rfc, var.rrc, var.fwd, var.rev);
+    }
+
+    /**
+     * Somatic test of a variant: variant and other reads in sample 1 against sample 2 (testsomatic.R)
+     * @param v1 variant printed for sample 1 or null if sample 1 has only coverage
+     * @param tcov1 coverage of sample 1 if v1 is null
+     * @param v2 variant printed for sample 2 or null if sample 2 has only coverage
+     * @param tcov2 coverage of sample 2 if v2 is null
+     */
+    public static FisherExact somatic(Variant v1, int tcov1, Variant v2, int tcov2) {
+        int cov1 = v1 == null ? 0 : v1.cov;
+        int cov2 = v2 == null ? 0 : v2.cov;
+        int other1 = Math.max(0, (v1 == null ? tcov1 : v1.tcov) - cov1);
+        int other2 = Math.max(0, (v2 == null ? tcov2 : v2.tcov) - cov2);
+        return new FisherExact(cov1, other1, cov2, other2);
+    }
+
+    /**
+     * Append the p-value and odds ratio columns as written by the R scripts (option --fisher)
+     */
+    public LineWriter columns(LineWriter out) {
+        return out.col(format(pvalue)).col(format(oddRatio));
+    }
+
+    /**
+     * @return the value rounded to 5 digits and printed as R's write.table does: up to 15 significant digits, scientific
+     * notation if it's shorter, Inf for infinity
+     */
+    static String format(double value) {
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "Inf" : "-Inf";
+        }
+        if (Double.isNaN(value)) {
+            return "NA";
+        }
+        BigDecimal rounded = new BigDecimal(value).setScale(DIGITS, RoundingMode.HALF_EVEN)
+                .round(new MathContext(15)).stripTrailingZeros();
+        if (rounded.signum() == 0) {
+            return "0";
+        }
+        String fixed = rounded.toPlainString();
+        String digits = rounded.unscaledValue().abs().toString();
+        int exponent = digits.length() - 1 - rounded.scale();
+        StringBuilder sci = new StringBuilder();
+        if (rounded.signum() < 0) {
+            sci.append('-');
+        }
+        sci.append(digits.charAt(0));
+        if (digits.length() > 1) {
+            sci.append('.').append(digits, 1, digits.length());
+        }
+        sci.append(exponent < 0 ? "e-" : "e+");
+        int abs = Math.abs(exponent);
+        sci.append(abs < 10 ? "0" : "").append(abs);
+        return sci.length() < fixed.length() ? sci.toString() : fixed;
+    }
+
+    /**
+     * Conditional maximum likelihood estimate of the odds ratio, as the mle function of fisher.test
+     */
+    private double mle(int x, int hi) {
+        if (x == lo) {
+            return 0;
+        }
+        if (x == hi) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mu = mean(1);
+        if (mu > x) {
+            return root(0, 1, x, false);
+        } else if (mu < x) {
+            return 1 / root(Math.ulp(1.0), 1, x, true);
+        }
+        return 1;
+    }
+
+    /**
+     * Probabilities of the noncentral hypergeometric distribution with the log of the odds ratio, as dnhyper of fisher.test
+     */
+    private double[] density(double logNcp) {
+        double[] d = new double[logDensity.length];
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < d.length; i++) {
+            d[i] = logDensity[i] + logNcp * (lo + i);
+            max = Math.max(max, d[i]);
+        }
+        double sum = 0;
+        for (int i = 0; i < d.length; i++) {
+            d[i] = Math.exp(d[i] - max);
+            sum += d[i];
+        }
+        for (int i = 0; i < d.length; i++) {
+            d[i] /= sum;
+        }
+        return d;
+    }
+
+    /**
+     * Mean of the noncentral hypergeometric distribution with the odds ratio, as mnhyper of fisher.test
+     */
+    private double mean(double ncp) {
+        if (ncp == 0) {
+            return lo;
+        }
+        if (Double.isInfinite(ncp)) {
+            return lo + logDensity.length - 1;
+        }
+        double[] d = density(Math.log(ncp));
+        double mean = 0;
+        for (int i = 0; i < d.length; i++) {
+            mean += (lo + i) * d[i];
+        }
+        return mean;
+    }
+
+    private double f(double t, int x, boolean inverse) {
+        return mean(inverse ? 1 / t : t) - x;
+    }
+
+    /**
+     * Root of mean(t) - x (or mean(1 / t) - x) in [ax, bx] by Brent's method, as R_zeroin2 called by uniroot
+     */
+    private double root(double ax, double bx, int x, boolean inverse) {
+        double a = ax;
+        double b = bx;
+        double fa = f(a, x, inverse);
+        double fb = f(b, x, inverse);
+        double c = a;
+        double fc = fa;
+        if (fa == 0) {
+            return a;
+        }
+        if (fb == 0) {
+            return b;
+        }
+        for (int maxit = ROOT_MAXIT + 1; maxit > 0; maxit--) {
+            double prevStep = b - a;
+            if (Math.abs(fc) < Math.abs(fb)) {
+                a = b;
+                b = c;
+                c = a;
+                fa = fb;
+                fb = fc;
+                fc = fa;
+            }
+            double tolAct = 2 * Math.ulp(1.0) * Math.abs(b) + ROOT_TOL / 2;
+            double newStep = (c - b) / 2;
+            if (Math.abs(newStep) <= tolAct || fb == 0) {
+                return b;
+            }
+            if (Math.abs(prevStep) >= tolAct && Math.abs(fa) > Math.abs(fb)) {
+                double p;
+                double q;
+                double cb = c - b;
+                if (a == c) {
+                    double t1 = fb / fa;
+                    p = cb * t1;
+                    q = 1 - t1;
+                } else {
+                    q = fa / fc;
+                    double t1 = fb / fc;
+                    double t2 = fb / fa;
+                    p = t2 * (cb * q * (q - t1) - (b - a) * (t1 - 1));
+                    q = (q - 1) * (t1 - 1) * (t2 - 1);
+                }
+                if (p > 0) {
+                    q = -q;
+                } else {
+                    p = -p;
+                }
+                if (p < (0.75 * cb * q - Math.abs(tolAct * q) / 2) && p < Math.abs(prevStep * q / 2)) {
+                    newStep = p / q;
+                }
+            }
+            if (Math.abs(newStep) < tolAct) {
+                newStep = newStep > 0 ? tolAct : -tolAct;
+            }
+            a = b;
+            fa = fb;
+            b += newStep;
+            fb = f(b, x, inverse);
+            if ((fb > 0 && fc > 0) || (fb < 0 && fc < 0)) {
+                c = a;
+                fc = fa;
+            }
+        }
+        return b;
+    }
+
+    /**
+     * @return table of log(i!) for i up to n at least
+     */
+    private static double[] logFactorials(int n) {
+        double[] table = logFactorials;
+        if (n < table.length) {
+            return table;
+        }
+        synchronized (FisherExact.class) {
+            table = logFactorials;
+            if (n >= table.length) {
+                table = logFactorials(table, Math.max(n + 1, table.length * 2));
+                logFactorials = table;
+            }
+            return table;
+        }
+    }
+
+    private static double[] logFactorials(double[] table, int size) {
+        double[] result = Arrays.copyOf(table, size);
+        for (int i = table.length; i < size; i++) {
+            result[i] = i == 0 ? 0 : result[i - 1] + Math.log(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,155 @@
+package com.astrazeneca.vardict;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Admission of regions into the parallel drivers by heap pressure (option --heap-limit).
+ * A region is admitted while the heap used after the last GC, plus the estimated pileup heap of the regions admitted since
+ * that GC and of the region itself, is below the limit. The number of regions analysed at once is halved when a GC leaves
+ * the heap above the limit (collection usage threshold of the heap pools) and grows back by one while the heap is below half
+ * of the limit. One region is always admitted, so the run goes on with any heap.
+ */
+public class HeapGovernor implements NotificationListener {
+    /**
+     * Milliseconds between two checks of the heap by a waiting region
+     */
+    private static final long POLL_MS = 200;
+    /**
+     * Weight of the last region in the estimated pileup heap per base
+     */
+    private static final double ALPHA = 0.2;
+
+    private final int maxRegions;
+    private final long maxHeap;
+    private final long limitHeap;
+    private final List<MemoryPoolMXBean> pools = new ArrayList<>();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+    /**
+     * Number of regions which can be analysed at once
+     */
+    private int limit;
+    private int admitted;
+    /**
+     * Estimated heap of the regions admitted since the last GC
+     */
+    private long reserved;
+    private long collections;
+    private double bytesPerBase;
+
+    /**
+     * @param maxRegions maximum number of regions analysed at once
+     * @param fraction fraction of the max heap to keep the heap used after GC below
+     */
+    public HeapGovernor(int maxRegions, double fraction) {
+        this.maxRegions = maxRegions;
+        this.limit = maxRegions;
+        this.maxHeap = Runtime.getRuntime().maxMemory();
+        this.limitHeap = (long) (maxHeap * fraction);
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+                pools.add(pool);
+                long max = pool.getUsage().getMax();
+                if (max > 0) {
+                    pool.setCollectionUsageThreshold((long) (max * fraction));
+                }
+            }
+        }
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
+        this.collections = collections();
+    }
+
+    /**
+     * Wait until a region can be analysed
+     * @param bases length of the region (sum of lengths for amplicon groups or several BAM files)
+     * @return estimated heap of the region, to be passed to {@link #release(long)} when the region is done
+     * @throws InterruptedException
+     */
+    public synchronized long admit(long bases) throws InterruptedException {
+        long estimate = (long) (bases * bytesPerBase);
+        while (admitted > 0) {
+            long gcs = collections();
+            if (gcs != collections) {
+                collections = gcs;
+                reserved = 0;
+            }
+            long used = usedAfterGc();
+            if (used < limitHeap / 2 && limit < maxRegions) {
+                limit++;
+            }
+            if (admitted < limit && used + reserved + estimate <= limitHeap) {
+                break;
+            }
+            wait(POLL_MS);
+        }
+        admitted++;
+        reserved += estimate;
+        return estimate;
+    }
+
+    /**
+     * Mark an admitted region as done
+     * @param estimate value returned by {@link #admit(long)}
+     */
+    public synchronized void release(long estimate) {
+        admitted--;
+        reserved = Math.max(0, reserved - estimate);
+        notifyAll();
+    }
+
+    /**
+     * Update the estimated pileup heap per base with a piled up region
+     * @param bases length of the region
+     * @param heap estimated pileup heap of the region
+     */
+    public synchronized void observe(long bases, long heap) {
+        if (bases > 0) {
+            double perBase = (double) heap / bases;
+            bytesPerBase = bytesPerBase == 0 ? perBase : bytesPerBase + ALPHA * (perBase - bytesPerBase);
+        }
+    }
+
+    @Override
+    public synchronized void handleNotification(Notification notification, Object handback) {
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            limit = Math.max(1, Math.min(limit, admitted) / 2);
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(this);
+        } catch (ListenerNotFoundException e) {
+            // already removed
+        }
+        for (MemoryPoolMXBean pool : pools) {
+            pool.setCollectionUsageThreshold(0);
+        }
+    }
+
+    private long usedAfterGc() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            used += pool.getCollectionUsage().getUsed();
+        }
+        return Math.min(used, maxHeap);
+    }
+
+    private long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+}
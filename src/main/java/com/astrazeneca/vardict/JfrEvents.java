@@ -0,0 +1,184 @@
+package com.astrazeneca.vardict;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of {@link Events}, only loaded on a JVM with jdk.jfr. An event is allocated only if its type
+ * is enabled by a recording, e.g. java -XX:StartFlightRecording=filename=vardict.jfr ...
+ */
+final class JfrEvents {
+    private static final EventType REGION = EventType.getEventType(RegionEvent.class);
+    private static final EventType BAM_QUERY = EventType.getEventType(BamQueryEvent.class);
+    private static final EventType REFERENCE = EventType.getEventType(ReferenceEvent.class);
+    private static final EventType REALIGN = EventType.getEventType(RealignEvent.class);
+    private static final EventType COMBINE_ANALYSIS = EventType.getEventType(CombineAnalysisEvent.class);
+
+    private JfrEvents() {
+    }
+
+    static Events.Span region(Region region) {
+        if (!REGION.isEnabled()) {
+            return Events.Span.NONE;
+        }
+        RegionEvent event = new RegionEvent();
+        event.set(region);
+        event.begin();
+        return event;
+    }
+
+    static Events.Span bamQuery(Region region, String bam) {
+        if (!BAM_QUERY.isEnabled()) {
+            return Events.Span.NONE;
+        }
+        BamQueryEvent event = new BamQueryEvent();
+        event.set(region);
+        event.bam = bam;
+        event.begin();
+        return event;
+    }
+
+    static Events.Span reference(Region region) {
+        if (!REFERENCE.isEnabled()) {
+            return Events.Span.NONE;
+        }
+        ReferenceEvent event = new ReferenceEvent();
+        event.set(region);
+        event.begin();
+        return event;
+    }
+
+    static Events.Span realign(String pass, Region region) {
+        if (!REALIGN.isEnabled()) {
+            return Events.Span.NONE;
+        }
+        RealignEvent event = new RealignEvent();
+        event.set(region);
+        event.pass = pass;
+        event.begin();
+        return event;
+    }
+
+    static Events.Span combineAnalysis(String chr, int position, String variant) {
+        if (!COMBINE_ANALYSIS.isEnabled()) {
+            return Events.Span.NONE;
+        }
+        CombineAnalysisEvent event = new CombineAnalysisEvent();
+        event.chr = chr;
+        event.position = position;
+        event.variant = variant;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Event over a region of a chromosome
+     */
+    @Category("VarDict")
+    @StackTrace(false)
+    abstract static class RegionSpan extends Event implements Events.Span {
+        @Label("Chromosome")
+        String chr;
+        @Label("Start")
+        int start;
+        @Label("End")
+        int end;
+
+        void set(Region region) {
+            chr = region.chr;
+            start = region.start;
+            end = region.end;
+        }
+    }
+
+    @Name("com.astrazeneca.vardict.Region")
+    @Label("Region")
+    @Description("Analysis of a region or amplicon group")
+    static class RegionEvent extends RegionSpan {
+        @Label("Output Lines")
+        long lines;
+
+        @Override
+        public void end(long reads, long candidates) {
+            lines = candidates;
+            commit();
+        }
+    }
+
+    @Name("com.astrazeneca.vardict.BamQuery")
+    @Label("BAM Query")
+    @Description("Reads of a region in one BAM file, from the query to the pileup")
+    static class BamQueryEvent extends RegionSpan {
+        @Label("BAM File")
+        String bam;
+        @Label("Reads Fetched")
+        long fetched;
+        @Label("Reads Piled Up")
+        long piled;
+
+        @Override
+        public void end(long reads, long candidates) {
+            fetched = reads;
+            piled = candidates;
+            commit();
+        }
+    }
+
+    @Name("com.astrazeneca.vardict.Reference")
+    @Label("Reference Fetch")
+    @Description("Reference sequence of a region and its extension")
+    static class ReferenceEvent extends RegionSpan {
+        @Label("Bases")
+        long bases;
+
+        @Override
+        public void end(long reads, long candidates) {
+            bases = candidates;
+            commit();
+        }
+    }
+
+    @Name("com.astrazeneca.vardict.Realign")
+    @Label("Realignment Pass")
+    @Description("Realignment pass over the pileup of a region")
+    static class RealignEvent extends RegionSpan {
+        @Label("Pass")
+        String pass;
+        @Label("Candidates")
+        @Description("Deletions, insertions or soft clipped positions realigned by the pass")
+        long candidates;
+
+        @Override
+        public void end(long reads, long candidates) {
+            this.candidates = candidates;
+            commit();
+        }
+    }
+
+    @Name("com.astrazeneca.vardict.CombineAnalysis")
+    @Label("Combine Analysis")
+    @Description("Re-analysis of a variant of paired calling over both BAM files")
+    @Category("VarDict")
+    @StackTrace(false)
+    static class CombineAnalysisEvent extends Event implements Events.Span {
+        @Label("Chromosome")
+        String chr;
+        @Label("Position")
+        int position;
+        @Label("Variant")
+        String variant;
+        @Label("Positions With Variants")
+        long positions;
+
+        @Override
+        public void end(long reads, long candidates) {
+            positions = candidates;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.astrazeneca.vardict;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Output of a region: a PrintStream over a growing byte buffer with methods appending tab separated columns straight
+ * into the buffer. The columns are the same bytes as Utils.join("\t", ...) with String.format("%.Nf") for doubles, printed
+ * by a PrintStream, but without boxing, formatting or encoding strings. The buffer is handed to the output as is, together with
+ * the VCF records of the lines.
+ */
+public class LineWriter extends PrintStream {
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+    private static final long[] POW10 = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+    /**
+     * Largest scaled value which is rounded without String.format
+     */
+    private static final double MAX_SCALED = 1e12;
+    /**
+     * The fast formatting of doubles assumes String.format prints ASCII digits and '.' in the default locale
+     */
+    private static final boolean ASCII_LOCALE;
+    static {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+        ASCII_LOCALE = symbols.getDecimalSeparator() == '.' && symbols.getZeroDigit() == '0' && symbols.getMinusSign() == '-';
+    }
+
+    private final Output buffer;
+    /**
+     * Indicate that the next column starts a line and isn't preceded by a tab
+     */
+    private boolean lineStart = true;
+
+    public LineWriter() {
+        this(new Output());
+    }
+
+    private LineWriter(Output buffer) {
+        super(buffer);
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the bytes written, not copied
+     */
+    public Output getOutput() {
+        flush();
+        return buffer;
+    }
+
+    /**
+     * Print a string in UTF-8, as the columns are, whatever the default charset
+     */
+    @Override
+    public void print(String s) {
+        byte[] bytes = String.valueOf(s).getBytes(StandardCharsets.UTF_8);
+        buffer.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Append a string column, "null" for null as in Utils.join
+     */
+    public LineWriter col(String value) {
+        separate();
+        if (value == null) {
+            value = "null";
+        }
+        int length = value.length();
+        buffer.ensure(length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = value.substring(i).getBytes(StandardCharsets.UTF_8);
+                buffer.write(bytes, 0, bytes.length);
+                return this;
+            }
+            buffer.put((byte) c);
+        }
+        return this;
+    }
+
+    public LineWriter col(int value) {
+        separate();
+        appendLong(value);
+        return this;
+    }
+
+    /**
+     * Append a region column "chr:start-end"
+     */
+    public LineWriter col(Region region) {
+        col(region.chr);
+        buffer.put((byte) ':');
+        appendLong(region.start);
+        buffer.put((byte) '-');
+        appendLong(region.end);
+        return this;
+    }
+
+    /**
+     * Append a double column with the given digits after the point, as String.format("%.Nf")
+     */
+    public LineWriter col(double value, int digits) {
+        separate();
+        appendFixed(value, digits);
+        return this;
+    }
+
+    /**
+     * Append "0" for 0, else the double with the given digits after the point
+     */
+    public LineWriter colOrZero(double value, int digits) {
+        if (value == 0) {
+            return col(0);
+        }
+        return col(value, digits);
+    }
+
+    /**
+     * Append the given number of "0" columns
+     */
+    public LineWriter zeros(int count) {
+        for (int i = 0; i < count; i++) {
+            col(0);
+        }
+        return this;
+    }
+
+    /**
+     * Terminate the line as println does
+     */
+    public void endLine() {
+        buffer.write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+        lineStart = true;
+    }
+
+    private void separate() {
+        if (lineStart) {
+            lineStart = false;
+        } else {
+            buffer.put((byte) '\t');
+        }
+    }
+
+    private void appendLong(long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                byte[] bytes = Long.toString(value).getBytes();
+                buffer.write(bytes, 0, bytes.length);
+                return;
+            }
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        appendDigits(value, 1);
+    }
+
+    /**
+     * Append the digits of a non negative number, left padded with zeros to the given width
+     */
+    private void appendDigits(long value, int width) {
+        int n = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            n++;
+        }
+        n = Math.max(n, width);
+        buffer.ensure(n);
+        for (int i = n - 1; i >= 0; i--) {
+            buffer.set(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.skip(n);
+    }
+
+    private void appendFixed(double value, int digits) {
+        if (ASCII_LOCALE && digits < POW10.length && !Double.isNaN(value) && !Double.isInfinite(value)) {
+            double scaled = Math.abs(value) * POW10[digits];
+            if (scaled < MAX_SCALED) {
+                double floor = Math.floor(scaled);
+                double tolerance = Math.max(1e-6, 16 * Math.ulp(scaled));
+                // Near a tie the rounding of String.format (of the shortest decimal of the double) may differ
+                if (Math.abs(scaled - floor - 0.5) > tolerance) {
+                    long rounded = (long) floor + (scaled - floor > 0.5 ? 1 : 0);
+                    if (Double.doubleToRawLongBits(value) < 0) {
+                        buffer.put((byte) '-');
+                    }
+                    appendDigits(rounded / POW10[digits], 1);
+                    if (digits > 0) {
+                        buffer.put((byte) '.');
+                        appendDigits(rounded % POW10[digits], digits);
+                    }
+                    return;
+                }
+            }
+        }
+        byte[] bytes = String.format("%." + digits + "f", value).getBytes(StandardCharsets.UTF_8);
+        buffer.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Add the VCF record of the last line (option --vcf)
+     * @param record record or null if the line has no VCF record
+     */
+    public void record(VcfWriter.Record record) {
+        if (record != null) {
+            buffer.records.add(record);
+        }
+    }
+
+    /**
+     * Bytes of the output with direct access for the column methods, VCF records of the lines, metrics and splice counts
+     * of the region
+     */
+    static class Output extends ByteArrayOutputStream {
+        final List<VcfWriter.Record> records = new ArrayList<>();
+        /**
+         * Metrics of the region (option --metrics), or null
+         */
+        RegionMetrics metrics;
+        /**
+         * Splice count lines of the region (option --splice-output), or null
+         */
+        Output splices;
+
+        Output() {
+            super(1024);
+        }
+
+        /**
+         * @return number of lines written
+         */
+        int lines() {
+            int lines = 0;
+            for (int i = 0; i < count; i++) {
+                if (buf[i] == '\n') {
+                    lines++;
+                }
+            }
+            return lines;
+        }
+
+        void ensure(int n) {
+            if (count + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + n));
+            }
+        }
+
+        void put(byte b) {
+            ensure(1);
+            buf[count++] = b;
+        }
+
+        void set(int i, byte b) {
+            buf[count + i] = b;
+        }
+
+        void skip(int n) {
+            count += n;
+        }
+    }
+}
@@ -3,7 +3,12 @@ package com.astrazeneca.vardict;
 import static com.astrazeneca.vardict.VarDict.DEFAULT_BED_ROW_FORMAT;
 import htsjdk.samtools.ValidationStringency;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -15,6 +20,22 @@ public class Main {
 
 
     public static void main(String[] args) throws ParseException, IOException {
+        if (args.length > 0 && "export".equals(args[0])) {
+            export(args);
+            return;
+        }
+        if (args.length > 0 && "simulate".equals(args[0])) {
+            simulate(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && "regress".equals(args[0])) {
+            regress(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && "scale".equals(args[0])) {
+            scale(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         Options options = buildOptions();
         CommandLineParser parser = new BasicParser();
         try {
@@ -39,7 +60,218 @@ public class Main {
         }
     }
 
+    /**
+     * Subcommand 'export file [column...]': print the lines of a columnar file (option --columnar) as tab separated output
+     */
+    private static void export(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: vardict export columnar_file [column_name_or_number ...]");
+            System.exit(1);
+        }
+        ColumnarReader.export(args[1], Arrays.asList(args).subList(2, args.length), new PrintStream(System.out, false, "UTF-8"));
+    }
+
+    /**
+     * Subcommand 'simulate [options] dir': write a synthetic reference, BAM and BED file (see {@link SyntheticData}) to the directory
+     */
+    private static void simulate(String[] args) throws ParseException, IOException {
+        Options options = new Options();
+        options.addOption(numberOption("seed", "Seed of the random generator.  Default: 1"));
+        options.addOption(numberOption("chromosomes", "Number of chromosomes.  Default: 1"));
+        options.addOption(numberOption("reference-length", "Length of each chromosome.  Default: 100000"));
+        options.addOption(numberOption("depth", "Mean depth of the reads.  Default: 50"));
+        options.addOption(numberOption("read-length", "Length of the reads.  Default: 100"));
+        options.addOption(numberOption("snv-rate", "SNV sites per reference base.  Default: 0.001"));
+        options.addOption(numberOption("indel-rate", "Insertion and deletion sites per reference base.  Default: 0.0005"));
+        options.addOption(numberOption("indel-length", "Maximum length of the insertions and deletions.  Default: 5"));
+        options.addOption(numberOption("allele-frequency", "Frequency of the variant of a site in the reads covering it.  Default: 0.3"));
+        options.addOption(numberOption("error-rate", "Sequencing errors per base.  Default: 0.001"));
+        options.addOption(numberOption("soft-clip-rate", "Fraction of the reads with a soft clipped end.  Default: 0.02"));
+        options.addOption(numberOption("duplicate-rate", "Fraction of the reads written twice.  Default: 0.05"));
+        options.addOption(numberOption("region-length", "Length of the regions of the BED file, or of the amplicons.  Default: 1000"));
+        options.addOption(numberOption("amplicons", "Number of amplicons per chromosome, with reads starting at their ends, "
+                + "and an 8 column BED file for option -a.  Default: 0, regions tiling the chromosomes"));
+        options.addOption(numberOption("primer-length", "Length of the primers of the amplicons.  Default: 20"));
+        options.addOption(OptionBuilder.withArgName("string")
+                .hasArg(true)
+                .withDescription("Sample name of the reads.  Default: synthetic")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("sample")
+                .create());
+
+        CommandLine cmd = new BasicParser().parse(options, args);
+        if (cmd.getArgs().length != 1) {
+            HelpFormatter formater = new HelpFormatter();
+            formater.setOptionComparator(null);
+            formater.printHelp(142, "vardict simulate [options] output_dir",
+                    "Writes ref.fa, reads.bam and regions.bed of random data to output_dir, e.g. for performance tests.  "
+                            + "The same options give the same files.\nOptions:", options, "");
+            System.exit(1);
+        }
+        SyntheticData data = new SyntheticData();
+        if (cmd.hasOption("seed")) {
+            data.seed = ((Number) cmd.getParsedOptionValue("seed")).longValue();
+        }
+        data.chromosomes = getIntValue(cmd, "chromosomes", data.chromosomes);
+        data.referenceLength = getIntValue(cmd, "reference-length", data.referenceLength);
+        data.depth = getIntValue(cmd, "depth", data.depth);
+        data.readLength = getIntValue(cmd, "read-length", data.readLength);
+        data.snvRate = getDoubleValue(cmd, "snv-rate", data.snvRate);
+        data.indelRate = getDoubleValue(cmd, "indel-rate", data.indelRate);
+        data.indelLength = getIntValue(cmd, "indel-length", data.indelLength);
+        data.alleleFrequency = getDoubleValue(cmd, "allele-frequency", data.alleleFrequency);
+        data.errorRate = getDoubleValue(cmd, "error-rate", data.errorRate);
+        data.softClipRate = getDoubleValue(cmd, "soft-clip-rate", data.softClipRate);
+        data.duplicateRate = getDoubleValue(cmd, "duplicate-rate", data.duplicateRate);
+        data.regionLength = getIntValue(cmd, "region-length", data.regionLength);
+        data.amplicons = getIntValue(cmd, "amplicons", data.amplicons);
+        data.primerLength = getIntValue(cmd, "primer-length", data.primerLength);
+        data.sample = cmd.getOptionValue("sample", data.sample);
+        if (data.referenceLength < 4 * data.readLength || data.depth < 1 || data.regionLength < 1 || data.chromosomes < 1) {
+            throw new ParseException("Reference length must be at least 4 read lengths, and depth, region length and chromosomes positive");
+        }
+        int amplicon = Math.max(data.regionLength, data.readLength);
+        if (data.amplicons > 0 && (2 * data.primerLength >= amplicon || amplicon > data.referenceLength - 2 * data.readLength)) {
+            throw new ParseException("Amplicons must be longer than their two primers and fit in the reference");
+        }
+        data.generate(new File(cmd.getArgs()[0]));
+    }
+
+    /**
+     * Subcommand 'regress [options] dir': run the regression fixtures of {@link Regression} in the directory, exit status 1
+     * if any fails
+     */
+    private static void regress(String[] args) throws ParseException, IOException {
+        Options options = new Options();
+        options.addOption(OptionBuilder.withArgName("command")
+                .hasArg(true)
+                .withDescription("Also run the fixtures with the command, e.g. 'perl vardict.pl' (samtools must be in the PATH) or the "
+                        + "bin/VarDict script of a release, and compare its output to the Java output.  Can be repeated")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("compare")
+                .create());
+        options.addOption(OptionBuilder.withArgName("file")
+                .hasArg(true)
+                .withDescription("Baseline of the time and allocation of each fixture, the run fails over it")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("baseline")
+                .create());
+        options.addOption(OptionBuilder
+                .hasArg(false)
+                .withDescription("Write the time and allocation of this run to the --baseline file instead of checking them")
+                .isRequired(false)
+                .withLongOpt("update-baseline")
+                .create());
+        options.addOption(numberOption("runs", "Runs of each fixture, the time being the fastest run after the first.  Default: 3"));
+        options.addOption(numberOption("tolerance", "Absolute difference allowed between numbers of the outputs, besides one unit "
+                + "of their last decimal.  Default: 0"));
+        options.addOption(numberOption("time-tolerance", "Fraction over the baseline time which fails.  Default: 0.25"));
+        options.addOption(numberOption("allocation-tolerance", "Fraction over the baseline allocation which fails.  Default: 0.1"));
+
+        CommandLine cmd = new BasicParser().parse(options, args);
+        if (cmd.getArgs().length != 1) {
+            HelpFormatter formater = new HelpFormatter();
+            formater.setOptionComparator(null);
+            formater.printHelp(142, "vardict regress [options] dir",
+                    "Runs the caller on synthetic fixtures written to dir (once), compares the output to the --compare commands "
+                            + "and the time and allocation to the --baseline.\nOptions:", options, "");
+            System.exit(1);
+        }
+        Regression regression = new Regression();
+        regression.dir = new File(cmd.getArgs()[0]);
+        if (cmd.hasOption("compare")) {
+            regression.references.addAll(Arrays.asList(cmd.getOptionValues("compare")));
+        }
+        regression.baseline = cmd.getOptionValue("baseline");
+        regression.updateBaseline = cmd.hasOption("update-baseline");
+        if (regression.updateBaseline && regression.baseline == null) {
+            throw new ParseException("Option --update-baseline requires --baseline");
+        }
+        regression.runs = getIntValue(cmd, "runs", regression.runs);
+        regression.tolerance = getDoubleValue(cmd, "tolerance", regression.tolerance);
+        regression.timeTolerance = getDoubleValue(cmd, "time-tolerance", regression.timeTolerance);
+        regression.allocationTolerance = getDoubleValue(cmd, "allocation-tolerance", regression.allocationTolerance);
+        try {
+            if (regression.run() > 0) {
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Subcommand 'scale [options] dir': run the thread scaling benchmark of {@link Scaling} in the directory
+     */
+    private static void scale(String[] args) throws ParseException, IOException {
+        Options options = new Options();
+        options.addOption(numberOption("threads", "Maximum number of threads, the runs having 1, 2, 4... threads up to it.  "
+                + "Default: the number of processors"));
+        options.addOption(numberOption("reference-length", "Length of the synthetic reference, with one amplicon per kb.  Default: 200000"));
+        options.addOption(numberOption("runs", "Runs of each mode and number of threads, the time being the fastest.  Default: 2"));
+        options.addOption(OptionBuilder.withArgName("modes")
+                .hasArg(true)
+                .withDescription("Comma separated modes to run among single, pileup, paired and amplicon.  Default: all")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("modes")
+                .create());
+
+        CommandLine cmd = new BasicParser().parse(options, args);
+        if (cmd.getArgs().length != 1) {
+            HelpFormatter formater = new HelpFormatter();
+            formater.setOptionComparator(null);
+            formater.printHelp(142, "vardict scale [options] dir",
+                    "Runs the caller on synthetic data written to dir (once) with more and more threads, and prints the speedup, "
+                            + "efficiency, CPU cores used, GC share, blocked and waited time and allocation of each run.\nOptions:",
+                    options, "");
+            System.exit(1);
+        }
+        Scaling scaling = new Scaling();
+        scaling.dir = new File(cmd.getArgs()[0]);
+        scaling.maxThreads = getIntValue(cmd, "threads", scaling.maxThreads);
+        scaling.referenceLength = getIntValue(cmd, "reference-length", scaling.referenceLength);
+        scaling.runs = getIntValue(cmd, "runs", scaling.runs);
+        if (cmd.hasOption("modes")) {
+            scaling.modes.addAll(Arrays.asList(cmd.getOptionValue("modes").split(",")));
+        }
+        if (scaling.maxThreads < 1 || scaling.referenceLength < 1000) {
+            throw new ParseException("Threads must be positive and the reference length at least 1000");
+        }
+        try {
+            scaling.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static Option numberOption(String name, String description) {
+        return OptionBuilder.withArgName("number")
+                .hasArg(true)
+                .withDescription(description)
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt(name)
+                .create();
+    }
+
     private void run(CommandLine cmd) throws ParseException, IOException {
+        VarDict.start(configuration(cmd));
+    }
+
+    /**
+     * @return configuration of a run with the given command line arguments, used to set up the benchmarks
+     */
+    static Configuration configuration(String... args) throws ParseException {
+        return configuration(new BasicParser().parse(buildOptions(), args));
+    }
+
+    private static Configuration configuration(CommandLine cmd) throws ParseException {
         Configuration conf = new Configuration();
 
         // -v is not used
@@ -118,7 +350,29 @@ public class Main {
             conf.freq = -1;
             conf.minr = 0;
         }
-        conf.y = cmd.hasOption("y");
+        if (cmd.hasOption("ref-blocks")) {
+            if (!conf.doPileup) {
+                throw new ParseException("Option --ref-blocks requires -p");
+            }
+            conf.refBlocks = getBands(cmd.getOptionValue("ref-blocks"));
+        }
+        if (cmd.hasOption("y")) {
+            conf.traceCategories = EnumSet.allOf(Trace.Category.class);
+        } else if (cmd.hasOption("trace")) {
+            for (String label : cmd.getOptionValue("trace").split(",")) {
+                if (label.equals("all")) {
+                    conf.traceCategories = EnumSet.allOf(Trace.Category.class);
+                    break;
+                }
+                try {
+                    conf.traceCategories.add(Trace.category(label));
+                } catch (IllegalArgumentException e) {
+                    throw new ParseException(e.getMessage());
+                }
+            }
+        }
+        conf.traceRegion = cmd.getOptionValue("trace-region");
+        conf.traceFile = cmd.getOptionValue("trace-file");
         conf.outputSplicing = cmd.hasOption('i');
 
         if (cmd.hasOption('M')) {
@@ -130,12 +384,135 @@ public class Main {
         }
 
         conf.threads = Math.max(readThreadsCount(cmd), 1);
+        conf.heapLimit = getDoubleValue(cmd, "heap-limit", 0.75d);
+        conf.spillDir = cmd.getOptionValue("spill-dir");
+        conf.readThreads = getIntValue(cmd, "read-threads", 0);
+        conf.readBatchSize = Math.max(getIntValue(cmd, "read-batch", 20000), 1);
+        conf.regionTime = getIntValue(cmd, "region-time", 0);
+        conf.regionReads = getIntValue(cmd, "region-reads", 0);
+        conf.regionHeap = getIntValue(cmd, "region-heap", 0);
+        conf.degradedDownsampling = getDoubleValue(cmd, "degraded-downsampling", 0.9d);
+
+        conf.output = cmd.getOptionValue("output");
+        conf.journal = cmd.getOptionValue("journal");
+        if (conf.journal != null && conf.output == null) {
+            throw new ParseException("Option --journal requires --output");
+        }
+        conf.compress = cmd.hasOption("compress")
+                || (conf.output != null && (conf.output.endsWith(".gz") || conf.output.endsWith(".bgz")));
+        conf.compressThreads = Math.max(getIntValue(cmd, "compress-threads", 2), 1);
+        if (conf.compress && conf.journal != null) {
+            throw new ParseException("Option --journal can't be used with compressed output");
+        }
+        conf.arguments = outputArguments(cmd);
 
-        VarDict.start(conf);
+        conf.shards = getIntValue(cmd, "shards", 0);
+        conf.shardIndex = getIntValue(cmd, "shard-index", -1);
+        if (conf.shardIndex >= conf.shards) {
+            throw new ParseException("Option --shard-index must be less than --shards");
+        }
+        conf.shardLauncher = cmd.getOptionValue("shard-launcher");
+        conf.shardDir = cmd.getOptionValue("shard-dir");
+        conf.shardJvmOptions = cmd.getOptionValue("shard-jvm-options");
+        if (conf.shards > 1 && conf.shardIndex < 0 && conf.journal != null && conf.shardDir == null) {
+            throw new ParseException("Option --journal with --shards requires --shard-dir");
+        }
+        conf.shardArguments = shardArguments(cmd);
+
+        conf.fisher = cmd.hasOption("fisher");
+        conf.vcf = cmd.getOptionValue("vcf");
+        if (conf.vcf != null && (conf.journal != null || conf.shards > 1)) {
+            throw new ParseException("Option --vcf can't be used with --journal or --shards");
+        }
+        conf.columnar = cmd.getOptionValue("columnar");
+        if (conf.columnar != null && (conf.journal != null || conf.shards > 1)) {
+            throw new ParseException("Option --columnar can't be used with --journal or --shards");
+        }
+        conf.metrics = cmd.getOptionValue("metrics");
+        if (conf.metrics != null && (conf.journal != null || conf.shards > 1 || conf.outputSplicing)) {
+            throw new ParseException("Option --metrics can't be used with --journal, --shards or -i");
+        }
+        conf.summary = getIntValue(cmd, "summary", 0);
+        if (conf.summary > 0 && (conf.shards > 1 || conf.outputSplicing)) {
+            throw new ParseException("Option --summary can't be used with --shards or -i");
+        }
+        conf.progress = getIntValue(cmd, "progress", 0);
+        conf.statusFile = cmd.getOptionValue("status-file");
+        if ((conf.progress > 0 || conf.statusFile != null) && conf.shards > 1) {
+            throw new ParseException("Options --progress and --status-file can't be used with --shards");
+        }
+        if (conf.traceFile != null && conf.shards > 1) {
+            throw new ParseException("Option --trace-file can't be used with --shards");
+        }
+        conf.vcfPassOnly = cmd.hasOption("vcf-pass-only");
+        conf.vcfAllAlleles = cmd.hasOption("vcf-all-alleles");
+        conf.vcfMinDepth = getIntValue(cmd, "vcf-min-depth", 3);
+        conf.vcfMinPmean = getDoubleValue(cmd, "vcf-min-pmean", 8d);
+        conf.vcfMinQmean = getDoubleValue(cmd, "vcf-min-qmean", 22.5d);
+        conf.vcfMinMapq = getDoubleValue(cmd, "vcf-min-mapq", 0d);
+        conf.vcfMinSn = getDoubleValue(cmd, "vcf-min-sn", 1.5d);
+        conf.vcfMaxNm = getDoubleValue(cmd, "vcf-max-nm", 8d);
+        if (conf.vcf != null && conf.outputSplicing) {
+            throw new ParseException("Option --vcf can't be used with -i");
+        }
+
+        conf.spliceOutput = cmd.getOptionValue("splice-output");
+        if (conf.spliceOutput != null && (conf.outputSplicing || conf.journal != null || conf.shards > 1)) {
+            throw new ParseException("Option --splice-output can't be used with -i, --journal or --shards");
+        }
+
+        return conf;
+    }
+
+    /**
+     * Options and arguments which affect the output, i.e. all but threads and output options
+     */
+    private static String outputArguments(CommandLine cmd) {
+        List<String> ignored = Arrays.asList("th", "heap-limit", "spill-dir", "read-threads", "read-batch", "output", "journal",
+                "shard-launcher", "shard-dir", "shard-jvm-options", "vcf", "vcf-pass-only", "vcf-all-alleles", "vcf-min-depth",
+                "vcf-min-pmean", "vcf-min-qmean", "vcf-min-mapq", "vcf-min-sn", "vcf-max-nm", "splice-output", "columnar",
+                "metrics", "summary", "progress", "status-file", "y", "trace", "trace-region", "trace-file");
+        StringBuilder sb = new StringBuilder();
+        for (Option option : cmd.getOptions()) {
+            String name = option.getOpt() != null ? option.getOpt() : option.getLongOpt();
+            if (ignored.contains(name)) {
+                continue;
+            }
+            sb.append(" -").append(name);
+            if (option.getValues() != null) {
+                for (String value : option.getValues()) {
+                    sb.append(' ').append(value);
+                }
+            }
+        }
+        for (String arg : cmd.getArgs()) {
+            sb.append(' ').append(arg);
+        }
+        return sb.toString();
+    }
 
+    /**
+     * Options and arguments of the worker processes of a sharded run, i.e. all but header, output and shard options
+     */
+    private static List<String> shardArguments(CommandLine cmd) {
+        List<String> ignored = Arrays.asList("h", "output", "journal", "compress", "compress-threads",
+                "shards", "shard-index", "shard-launcher", "shard-dir", "shard-jvm-options");
+        List<String> args = new ArrayList<>();
+        for (Option option : cmd.getOptions()) {
+            String name = option.getOpt() != null ? option.getOpt() : option.getLongOpt();
+            if (ignored.contains(name)) {
+                continue;
+            }
+            args.add(option.getOpt() != null ? "-" + name : "--" + name);
+            if (option.getValues() != null) {
+                args.addAll(Arrays.asList(option.getValues()));
+            }
+        }
+        args.addAll(Arrays.asList(cmd.getArgs()));
+        return args;
     }
 
-    private int readThreadsCount(CommandLine cmd) throws ParseException {
+    private static int readThreadsCount(CommandLine cmd) throws ParseException {
         int threads = 0;
         if (cmd.hasOption("th")) {
             Object value = cmd.getParsedOptionValue("th");
@@ -158,6 +535,25 @@ public class Main {
         return  value == null ? defaultValue : ((Number)value).doubleValue();
     }
 
+    /**
+     * @return ascending lowest depths of the bands of option --ref-blocks, e.g. 1,10,20 for bands 0, 1-9, 10-19 and 20 or more
+     */
+    private static int[] getBands(String value) throws ParseException {
+        String[] values = value.split(",");
+        int[] bands = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                bands[i] = Integer.parseInt(values[i].trim());
+            } catch (NumberFormatException e) {
+                throw new ParseException("Option --ref-blocks expects comma separated depths: " + value);
+            }
+            if (bands[i] <= 0 || (i > 0 && bands[i] <= bands[i - 1])) {
+                throw new ParseException("Option --ref-blocks expects ascending positive depths: " + value);
+            }
+        }
+        return bands;
+    }
+
     private static int getColumnValue(CommandLine cmd, String opt, int defaultValue) throws ParseException {
         Object value = cmd.getParsedOptionValue(opt);
         return  value == null ? defaultValue : ((Number)value).intValue() - 1;
@@ -173,6 +569,7 @@ public class Main {
         options.addOption("p", false, "Do pileup regarless the frequency");
         options.addOption("C", false, "Indicate the chromosome names are just numbers, such as 1, 2, not chr1, chr2");
         options.addOption("D", false, "Debug mode.  Will print some error messages and append full genotype at the end.");
+        options.addOption("y", false, "Verbose mode.  Will trace all the stages of the analysis to stderr, or to --trace-file.");
 //        options.addOption("M", false, "Similar to -D, but will append individual quality and position data instead of mean");
         options.addOption("t", false, "Indicate to remove duplicated reads.  Only one pair with same start positions will be kept");
         options.addOption("3", false, "Indicate to move indels to 3-prime if alternative alignment can be achieved.");
@@ -413,6 +810,320 @@ public class Main {
                 .isRequired(false)
                 .create("th"));
 
+        options.addOption(OptionBuilder.withArgName("double")
+                .hasArg(true)
+                .withDescription("The fraction of the max heap (-Xmx) to keep the heap used after GC below.  With -th, a region is started only "
+                        + "if its estimated pileup fits below the limit, and fewer regions are analysed at once while a GC leaves the heap "
+                        + "above it.  0 to disable.  Default: 0.75")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("heap-limit")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("dir")
+                .hasArg(true)
+                .withDescription("With -th, write the output of each region to spill files in dir as soon as it's done and merge them in "
+                        + "region order, so a slow region doesn't hold the outputs of the regions after it in memory.  Default: no spilling")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("spill-dir")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("file")
+                .hasArg(true)
+                .withDescription("Also write the splicing read counts (as -i does) of the reads piled up for the variants to file, in "
+                        + "region order.  A file name ending with .gz is BGZF compressed.  Can't be used with --journal or --shards")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("splice-output")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("INT")
+                .hasArg(true)
+                .withDescription("Threads count for pileup of the reads within a region, meant for ultra-deep regions.  The reads of a region "
+                        + "are split into batches piled up in parallel and merged, the result is the same as with one thread.  Default: 0, "
+                        + "or the reads are piled up by the thread of the region")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("read-threads")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("INT")
+                .hasArg(true)
+                .withDescription("The number of reads in a batch for --read-threads.  Default: 20000")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("read-batch")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("INT")
+                .hasArg(true)
+                .withDescription("The wall time budget of a region in seconds.  A region over any of its budgets is analysed again without local "
+                        + "realignment and with downsampling (see --degraded-downsampling).  With budgets, the output lines end with a column Degraded "
+                        + "(after the columns of --fisher), 1 for the lines of such regions and 0 for the others.  Default: no budget")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("region-time")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("INT")
+                .hasArg(true)
+                .withDescription("The budget of reads seen in a region.  Default: no budget")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("region-reads")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("INT")
+                .hasArg(true)
+                .withDescription("The budget of estimated pileup heap of a region in MB.  Default: no budget")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("region-heap")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("double")
+                .hasArg(true)
+                .withDescription("The downsampling fraction for the analysis of a region over budget, as in -Z.  Default: 0.9")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("degraded-downsampling")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("file")
+                .hasArg(true)
+                .withDescription("The output file.  Default: stdout")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("output")
+                .create());
+
+        options.addOption(OptionBuilder
+                .withDescription("Write the output BGZF compressed (readable by gunzip and tabix).  Set for an --output file ending with .gz")
+                .isRequired(false)
+                .withLongOpt("compress")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("INT")
+                .hasArg(true)
+                .withDescription("Threads count for compression of the output.  Default: 2")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("compress-threads")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("file")
+                .hasArg(true)
+                .withDescription("The journal of regions written to the --output file.  If the journal exists, the run is resumed: regions "
+                        + "already written are skipped and the missing ones are appended.  The run must have the same options and input files.")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("journal")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("INT")
+                .hasArg(true)
+                .withDescription("The number of worker processes.  The regions are split in INT contiguous shards of similar total length, "
+                        + "each analysed by a worker JVM, and the outputs of the shards are concatenated in the order of a single process.  "
+                        + "With --journal each worker keeps its own journal in --shard-dir, so a sharded run can be resumed as well.")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("shards")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("INT")
+                .hasArg(true)
+                .withDescription("The shard analysed by a worker process (set by the coordinator of --shards)")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("shard-index")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("template")
+                .hasArg(true)
+                .withDescription("The shell command to launch a worker process, e.g. 'srun -N1 {cmd}'.  {cmd} is replaced by the worker command "
+                        + "line and {shard} by the shard index.  The worker must see the --shard-dir directory.  Default: a local JVM")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("shard-launcher")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("dir")
+                .hasArg(true)
+                .withDescription("The directory for the outputs of the worker processes.  Default: a temporary directory")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("shard-dir")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("string")
+                .hasArg(true)
+                .withDescription("The JVM options of the worker processes, e.g. '-Xmx8g'.  Default: the JVM options of the coordinator")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("shard-jvm-options")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("bands")
+                .hasArg(true)
+                .withDescription("With -p, merge consecutive positions without variants into one line per reference block, as gVCF does, "
+                        + "while their depths stay in the same band.  bands are the ascending lowest depths of the bands after the first, "
+                        + "e.g. 1,10,20 for depths 0, 1-9, 10-19 and 20 or more.  A block line has the Start and End of the block, "
+                        + "the minimum depth as Depth and 'RefBlock' as variant type")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("ref-blocks")
+                .create());
+
+        options.addOption(OptionBuilder
+                .withDescription("Append the p-value and odds ratio of Fisher's exact test to each line, as teststrandbias.R (testsomatic.R "
+                        + "for two samples) does")
+                .isRequired(false)
+                .withLongOpt("fisher")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("file")
+                .hasArg(true)
+                .withDescription("Also write the output lines to a binary columnar file, read by 'vardict export file [column ...]' "
+                        + "which prints them back as tab separated lines, all or only the given columns")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("columnar")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("file")
+                .hasArg(true)
+                .withDescription("Write one line of metrics per region (amplicon group in amplicon mode) to the file: reads fetched, "
+                        + "reads dropped by each filter, bases piled up, soft clip entries, indel candidates, and wall and CPU time "
+                        + "in ms and bytes allocated of getREF, parseSAM, each realignment pass, toVars and the output.  Tab separated, or JSON lines if "
+                        + "the file name ends with .json")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("metrics")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("N")
+                .hasArg(true)
+                .withDescription("Print a summary of the run to stderr at its end: regions, reads fetched and dropped by each filter, "
+                        + "wall and CPU time and bytes allocated of each stage, the N slowest regions with their reads and dominant "
+                        + "stage, peak heap, GC time and output bytes")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("summary")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("categories")
+                .hasArg(true)
+                .withDescription("Trace the stages of the analysis to stderr, or to --trace-file: comma separated categories among sam, "
+                        + "realigndel, realignins, realignlgdel, realignlgins, realignlgins30, mnp and combine, or all")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("trace")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("chr:start-end")
+                .hasArg(true)
+                .withDescription("Trace only the regions overlapping the region, with -y or --trace")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("trace-region")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("file")
+                .hasArg(true)
+                .withDescription("Write the trace of -y or --trace to the file, as JSON objects one per line if its name ends with .json")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("trace-file")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("SECONDS")
+                .hasArg(true)
+                .withDescription("Print the progress of the run to stderr every SECONDS: regions written and analysed, bases and reads "
+                        + "per second, ETA from the bases left, depths of the region and output queues, and heap usage")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("progress")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("file")
+                .hasArg(true)
+                .withDescription("Replace the file with the progress of the run as a JSON object every --progress seconds (default 10), "
+                        + "with the time of the last region analysed or written.  Its state is 'running', then 'done' or 'failed'")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("status-file")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("file")
+                .hasArg(true)
+                .withDescription("Also write the variants to a VCF file, with the filters of var2vcf_valid.pl (var2vcf_paired.pl for two samples).  "
+                        + "A file name ending with .gz is BGZF compressed and indexed with tabix.")
+                .withType(String.class)
+                .isRequired(false)
+                .withLongOpt("vcf")
+                .create());
+
+        options.addOption(OptionBuilder
+                .withDescription("Write only the variants passing all filters to --vcf")
+                .isRequired(false)
+                .withLongOpt("vcf-pass-only")
+                .create());
+
+        options.addOption(OptionBuilder
+                .withDescription("Write all alleles of a position to --vcf.  Default: the allele with the highest frequency")
+                .isRequired(false)
+                .withLongOpt("vcf-all-alleles")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("INT")
+                .hasArg(true)
+                .withDescription("The minimum total depth of a variant in --vcf (filter d).  Default: 3")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("vcf-min-depth")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("double")
+                .hasArg(true)
+                .withDescription("The minimum mean position in reads of a variant in --vcf (filter p).  Default: 8")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("vcf-min-pmean")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("double")
+                .hasArg(true)
+                .withDescription("The minimum mean base quality of a variant in --vcf (filter q).  Default: 22.5")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("vcf-min-qmean")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("double")
+                .hasArg(true)
+                .withDescription("The minimum mean mapping quality of a variant in --vcf (filter Q).  Default: 0")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("vcf-min-mapq")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("double")
+                .hasArg(true)
+                .withDescription("The minimum signal to noise of a variant in --vcf (filter SN).  Default: 1.5")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("vcf-min-sn")
+                .create());
+
+        options.addOption(OptionBuilder.withArgName("double")
+                .hasArg(true)
+                .withDescription("The mean mismatches in reads from which a variant in --vcf is likely false positive (filter NM).  Default: 8")
+                .withType(Number.class)
+                .isRequired(false)
+                .withLongOpt("vcf-max-nm")
+                .create());
+
         options.addOption(OptionBuilder.withArgName("INT")
                 .hasArg(true)
                 .withDescription("The minimum matches for a read to be considered. If, after soft-clipping, the matched bp is less than INT, then the "
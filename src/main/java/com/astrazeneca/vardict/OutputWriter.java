@@ -0,0 +1,328 @@
+package com.astrazeneca.vardict;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the output of regions, in order, to stdout or to the file of option --output.
+ * With option --journal each written region is recorded in the journal together with the output byte offset after it.
+ * A run started again with the same arguments truncates the output to the last recorded offset and skips the regions
+ * already written.
+ */
+public class OutputWriter implements Closeable {
+    private static final String SIGNATURE = "#signature";
+
+    private final OutputStream out;
+    private final PrintStream journal;
+    /**
+     * VCF output of the run (option --vcf), null if not set
+     */
+    private VcfWriter vcf;
+    /**
+     * Columnar copy of the output (option --columnar), null if not set
+     */
+    private ColumnarWriter columnar;
+    /**
+     * Metrics of the regions (option --metrics), null if not set
+     */
+    private RegionMetrics.Writer metrics;
+    /**
+     * Splice counts of the regions (option --splice-output), null if not set
+     */
+    private OutputStream splices;
+    /**
+     * Progress of the run (options --progress and --status-file), null if not set
+     */
+    private ProgressReporter progress;
+    /**
+     * Summary of the run (option --summary), null if not set
+     */
+    private RegionMetrics.Summary summary;
+    /**
+     * Output offset when the summary was set, the bytes before being written by a previous run
+     */
+    private long summaryOffset;
+    /**
+     * Keys of the regions to be written, in order
+     */
+    private final List<String> keys;
+    /**
+     * Number of regions written, including those of the previous runs
+     */
+    private int written;
+    /**
+     * Output bytes written, including those of the previous runs
+     */
+    private long offset;
+
+    /**
+     * @param conf Configuration
+     * @param keys keys of all regions (or amplicon groups) of the run, in output order
+     * @throws IOException if the journal doesn't match the run or the output is shorter than the journal says
+     */
+    public OutputWriter(Configuration conf, List<String> keys) throws IOException {
+        this.keys = keys;
+        if (conf.journal == null) {
+            this.journal = null;
+            this.out = open(conf);
+            return;
+        }
+
+        String signature = signature(conf);
+        File journalFile = new File(conf.journal);
+        File outputFile = new File(conf.output);
+        if (journalFile.exists() && outputFile.exists()) {
+            resume(journalFile, signature);
+            try (FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE)) {
+                if (channel.size() < offset) {
+                    throw new IOException("Output " + outputFile + " is shorter than recorded in journal " + journalFile);
+                }
+                channel.truncate(offset);
+            }
+            if (written > 0) {
+                System.err.println("Resuming after " + written + " of " + keys.size() + " regions written to " + outputFile);
+            }
+            this.out = new BufferedOutputStream(new FileOutputStream(outputFile, true));
+            this.journal = new PrintStream(new FileOutputStream(journalFile, true));
+        } else {
+            this.out = new BufferedOutputStream(new FileOutputStream(outputFile));
+            this.journal = new PrintStream(new FileOutputStream(journalFile));
+            journal.println(SIGNATURE + "\t" + signature);
+            journal.flush();
+        }
+    }
+
+    /**
+     * Open the output of a run without journal, BGZF compressed if option --compress is set
+     */
+    static OutputStream open(Configuration conf) throws IOException {
+        return open(conf.output, conf.compress, conf.compressThreads);
+    }
+
+    /**
+     * Open an output without journal
+     * @param output file name, null for stdout
+     * @param compress true to compress the output with BGZF
+     * @param compressThreads threads of the compression
+     */
+    static OutputStream open(String output, boolean compress, int compressThreads) throws IOException {
+        if (!compress) {
+            return output == null ? System.out : new BufferedOutputStream(new FileOutputStream(output));
+        }
+        OutputStream out = output == null ? new FilterOutputStream(System.out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        } : new FileOutputStream(output);
+        return new BgzfOutputStream(out, compressThreads);
+    }
+
+    private void resume(File journalFile, String signature) throws IOException {
+        List<String> lines = Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(SIGNATURE + "\t" + signature)) {
+            throw new IOException("Journal " + journalFile + " was written by a run with different arguments or input files");
+        }
+        written = 0;
+        offset = 0;
+        for (String line : lines.subList(1, lines.size())) {
+            String[] cols = line.split("\t");
+            if (cols.length != 2) { // incomplete last line
+                break;
+            }
+            if (!"header".equals(cols[0])) {
+                if (written >= keys.size() || !keys.get(written).equals(cols[0])) {
+                    throw new IOException("Journal " + journalFile + " doesn't match the regions of the run at " + cols[0]);
+                }
+                written++;
+            }
+            offset = Long.parseLong(cols[1]);
+        }
+    }
+
+    /**
+     * @return number of regions (or amplicon groups) already written by previous runs
+     */
+    public int getWritten() {
+        return written;
+    }
+
+    /**
+     * Collect the VCF records of the regions written (see option --vcf)
+     */
+    public void setVcf(VcfWriter vcf) {
+        this.vcf = vcf;
+    }
+
+    /**
+     * Copy the lines of the regions written to a columnar file (see option --columnar)
+     */
+    public void setColumnar(ColumnarWriter columnar) {
+        this.columnar = columnar;
+    }
+
+    /**
+     * Write the metrics of the regions written (see option --metrics)
+     */
+    public void setMetrics(RegionMetrics.Writer metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Write the splice counts of the regions written (see option --splice-output)
+     */
+    public void setSplices(OutputStream splices) {
+        this.splices = splices;
+    }
+
+    /**
+     * Report the progress of the regions written
+     */
+    public void setProgress(ProgressReporter progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Add the metrics of the regions written and the bytes written from now on to the summary of the run (see option --summary)
+     */
+    public void setSummary(RegionMetrics.Summary summary) {
+        this.summary = summary;
+        this.summaryOffset = offset;
+    }
+
+    /**
+     * Print the header row, unless it was written by a previous run
+     */
+    public void header(String header) throws IOException {
+        if (offset > 0) {
+            return;
+        }
+        write((header + System.lineSeparator()).getBytes(StandardCharsets.UTF_8), "header");
+    }
+
+    /**
+     * Write output of the next region
+     * @param region output of the region
+     */
+    public void write(OutputStream region) throws IOException {
+        if (written >= keys.size()) {
+            throw new IllegalStateException("More regions written than expected");
+        }
+        String key = keys.get(written++);
+        if (progress != null) {
+            progress.wrote(written - 1);
+        }
+        if (vcf != null && region instanceof LineWriter.Output) {
+            vcf.add(((LineWriter.Output) region).records);
+        }
+        if (metrics != null && region instanceof LineWriter.Output && ((LineWriter.Output) region).metrics != null) {
+            metrics.write(((LineWriter.Output) region).metrics);
+        }
+        if (summary != null && region instanceof LineWriter.Output && ((LineWriter.Output) region).metrics != null) {
+            summary.add(((LineWriter.Output) region).metrics);
+        }
+        if (splices != null && region instanceof LineWriter.Output && ((LineWriter.Output) region).splices != null) {
+            ((LineWriter.Output) region).splices.writeTo(splices);
+        }
+        if (region instanceof ByteArrayOutputStream) {
+            ByteArrayOutputStream baos = (ByteArrayOutputStream) region;
+            if (columnar != null) {
+                columnar.add(baos);
+            }
+            offset += baos.size();
+            baos.writeTo(out);
+            record(key);
+        } else {
+            byte[] bytes = region.toString().getBytes(StandardCharsets.UTF_8);
+            if (columnar != null) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                baos.write(bytes);
+                columnar.add(baos);
+            }
+            write(bytes, key);
+        }
+    }
+
+    private void write(byte[] bytes, String key) throws IOException {
+        offset += bytes.length;
+        out.write(bytes);
+        record(key);
+    }
+
+    private void record(String key) throws IOException {
+        if (journal != null) {
+            out.flush();
+            journal.println(key + "\t" + offset);
+            journal.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (vcf != null) {
+            vcf.close();
+        }
+        if (columnar != null) {
+            columnar.close();
+        }
+        if (metrics != null) {
+            metrics.close();
+        }
+        if (splices != null) {
+            splices.close();
+        }
+        if (progress != null) {
+            progress.close();
+        }
+        if (summary != null) {
+            summary.wrote(offset - summaryOffset);
+        }
+        out.flush();
+        if (out != System.out) {
+            out.close();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Signature of the arguments and input files of a run
+     */
+    private static String signature(Configuration conf) {
+        StringBuilder sb = new StringBuilder(conf.arguments);
+        List<String> files = new ArrayList<>();
+        files.add(conf.bed);
+        files.add(conf.fasta);
+        for (String bam : conf.bam.getBamRaw().split("[|:]")) {
+            files.add(bam);
+        }
+        for (String name : files) {
+            if (name != null) {
+                File file = new File(name);
+                sb.append('\t').append(name).append(':').append(file.length()).append(':').append(file.lastModified());
+            }
+        }
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(sb.toString().getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
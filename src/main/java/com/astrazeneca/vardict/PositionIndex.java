@@ -0,0 +1,84 @@
+package com.astrazeneca.vardict;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Sorted positions of a map of variants (or of amplicon positions), as primitive ints. The calling loops iterate over
+ * the positions with variants, instead of every position of the region or a sorted list of boxed keys, and the positions
+ * of two samples are merged without hashing.
+ */
+public class PositionIndex {
+    private final int[] positions;
+    private final int size;
+
+    private PositionIndex(int[] positions, int size) {
+        this.positions = positions;
+        this.size = size;
+    }
+
+    /**
+     * @param keys positions, e.g. the key set of a map of variants
+     * @return index of the positions
+     */
+    public static PositionIndex of(Collection<Integer> keys) {
+        int[] positions = new int[keys.size()];
+        int i = 0;
+        for (Integer key : keys) {
+            positions[i++] = key;
+        }
+        Arrays.sort(positions);
+        return new PositionIndex(positions, i);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return i-th position, in ascending order
+     */
+    public int get(int i) {
+        return positions[i];
+    }
+
+    /**
+     * @return index of the first position not less than the given one, size() if there is none
+     */
+    public int from(int position) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (positions[mid] < position) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return positions of both indexes, each once, by a merge of the sorted positions
+     */
+    public PositionIndex union(PositionIndex other) {
+        int[] merged = new int[size + other.size];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < size || j < other.size) {
+            int p;
+            if (j == other.size || (i < size && positions[i] < other.positions[j])) {
+                p = positions[i++];
+            } else if (i == size || other.positions[j] < positions[i]) {
+                p = other.positions[j++];
+            } else {
+                p = positions[i++];
+                j++;
+            }
+            merged[n++] = p;
+        }
+        return new PositionIndex(merged, n);
+    }
+}
@@ -0,0 +1,194 @@
+package com.astrazeneca.vardict;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Periodic report of the progress of a run (options --progress and --status-file): regions and bases written out of the
+ * total, regions analysed, bases and reads per second since the last report, ETA, depths of the task and output queues
+ * of the parallel driver, and heap usage. The report is printed to stderr and the status file, a JSON object replaced
+ * atomically at each report, ends with state "done" or "failed". The workers only update atomic counters, the reports are
+ * made by a daemon thread. The cost of a region is estimated by its length, so the ETA is the remaining bases at the
+ * average rate of the run.
+ */
+public class ProgressReporter implements AutoCloseable {
+    private final long[] bases;
+    private final long totalBases;
+    /**
+     * Bases written by a previous run, not counted in the rate of this run
+     */
+    private final long resumedBases;
+    private final boolean print;
+    private final File statusFile;
+    private final long start = System.currentTimeMillis();
+    private final ScheduledExecutorService timer;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong writtenBases = new AtomicLong();
+    private final LongAdder analysed = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private volatile ThreadPoolExecutor executor;
+    private volatile Queue<?> output;
+    private volatile long lastProgress = start;
+
+    /**
+     * State of the previous report, only used by the reporting thread
+     */
+    private long lastTime = start;
+    private long lastBases;
+    private long lastReads;
+
+    /**
+     * @param bases bases of each output unit (region or amplicon group), in output order
+     * @param written number of output units already written by a previous run (option --journal)
+     * @param seconds seconds between two reports
+     * @param print indicate to print the reports to stderr
+     * @param statusFile status file, or null
+     */
+    public ProgressReporter(long[] bases, int written, int seconds, boolean print, String statusFile) {
+        this.bases = bases;
+        long total = 0;
+        for (long b : bases) {
+            total += b;
+        }
+        this.totalBases = total;
+        this.print = print;
+        this.statusFile = statusFile != null ? new File(statusFile) : null;
+        for (int i = 0; i < written; i++) {
+            wrote(i);
+        }
+        resumedBases = writtenBases.get();
+        lastBases = resumedBases;
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "vardict-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::report, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Count the output unit of the given index written
+     */
+    public void wrote(int index) {
+        written.incrementAndGet();
+        writtenBases.addAndGet(bases[index]);
+        lastProgress = System.currentTimeMillis();
+    }
+
+    /**
+     * Count a region (or amplicon group) analysed, possibly not written yet
+     */
+    public void analysed() {
+        analysed.increment();
+        lastProgress = System.currentTimeMillis();
+    }
+
+    /**
+     * Count reads fetched from the BAM files
+     */
+    public void reads(long count) {
+        reads.add(count);
+    }
+
+    /**
+     * Report the queues of a parallel driver
+     * @param executor executor of the regions
+     * @param output queue of the region outputs waiting to be written
+     */
+    public void watch(ThreadPoolExecutor executor, Queue<?> output) {
+        this.executor = executor;
+        this.output = output;
+    }
+
+    private synchronized void report() {
+        report("running");
+    }
+
+    private void report(String state) {
+        long now = System.currentTimeMillis();
+        long doneBases = writtenBases.get();
+        long doneReads = reads.sum();
+        long done = written.get();
+        double seconds = Math.max(now - lastTime, 1) / 1000.0;
+        double basesPerSecond = (doneBases - lastBases) / seconds;
+        double readsPerSecond = (doneReads - lastReads) / seconds;
+        double runBasesPerSecond = (doneBases - resumedBases) / (Math.max(now - start, 1) / 1000.0);
+        long eta = runBasesPerSecond > 0 ? (long) ((totalBases - doneBases) / runBasesPerSecond) : -1;
+        ThreadPoolExecutor executor = this.executor;
+        Queue<?> output = this.output;
+        int tasks = executor != null ? executor.getQueue().size() : 0;
+        int active = executor != null ? executor.getActiveCount() : 0;
+        int outputs = output != null ? output.size() : 0;
+        Runtime runtime = Runtime.getRuntime();
+        long heapUsed = runtime.totalMemory() - runtime.freeMemory();
+        long heapMax = runtime.maxMemory();
+
+        if (print) {
+            System.err.println(String.format(Locale.ROOT, "Progress: %d/%d regions written (%d analysed), %.1f%% of %d bases, "
+                    + "%.0f bases/s, %.0f reads/s, ETA %s, queues: tasks %d, active %d, outputs %d, heap %d/%d MB",
+                    done, bases.length, analysed.sum(), totalBases > 0 ? 100.0 * doneBases / totalBases : 100.0, totalBases,
+                    basesPerSecond, readsPerSecond, duration(eta), tasks, active, outputs, heapUsed >> 20, heapMax >> 20));
+        }
+        if (statusFile != null) {
+            String json = String.format(Locale.ROOT, "{\"state\":\"%s\",\"time\":%d,\"elapsed\":%d,\"lastProgress\":%d,"
+                    + "\"regions\":%d,\"regionsTotal\":%d,\"regionsAnalysed\":%d,\"bases\":%d,\"basesTotal\":%d,\"reads\":%d,"
+                    + "\"basesPerSecond\":%.1f,\"readsPerSecond\":%.1f,\"eta\":%d,\"taskQueue\":%d,\"activeThreads\":%d,"
+                    + "\"outputQueue\":%d,\"heapUsed\":%d,\"heapMax\":%d}",
+                    state, now, (now - start) / 1000, lastProgress, done, bases.length, analysed.sum(), doneBases, totalBases,
+                    doneReads, basesPerSecond, readsPerSecond, eta, tasks, active, outputs, heapUsed, heapMax);
+            writeStatus(json);
+        }
+        lastTime = now;
+        lastBases = doneBases;
+        lastReads = doneReads;
+    }
+
+    /**
+     * Replace the status file by a temporary file renamed atomically, so a reader never sees a partial status
+     */
+    private void writeStatus(String json) {
+        File tmp = new File(statusFile.getPath() + ".tmp");
+        try {
+            try (PrintWriter writer = new PrintWriter(tmp)) {
+                writer.println(json);
+            }
+            try {
+                Files.move(tmp.toPath(), statusFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(tmp.toPath(), statusFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String duration(long seconds) {
+        if (seconds < 0) {
+            return "unknown";
+        }
+        return String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    /**
+     * Stop the reports, with a last one of state "done" if all the regions were written, else "failed"
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        synchronized (this) {
+            report(written.get() == bases.length ? "done" : "failed");
+        }
+    }
+}
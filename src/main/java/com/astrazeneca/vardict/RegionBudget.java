@@ -0,0 +1,74 @@
+package com.astrazeneca.vardict;
+
+import com.astrazeneca.vardict.VarDict.Pileup;
+
+/**
+ * Class for holding the budget of wall time, reads and estimated heap for the analysis of one region in one BAM file
+ * (options --region-time, --region-reads and --region-heap)
+ */
+public class RegionBudget {
+    /**
+     * Reads between two checks of wall time
+     */
+    private static final int TIME_CHECK_READS = 1000;
+    /**
+     * Reads between two estimations of pileup heap
+     */
+    private static final int HEAP_CHECK_READS = 10000;
+
+    private final Region region;
+    private final int seconds;
+    private final long deadline;
+    private final long maxReads;
+    private final long maxHeap;
+    private long reads;
+
+    public RegionBudget(Region region, Configuration conf) {
+        this.region = region;
+        this.seconds = conf.regionTime;
+        this.deadline = seconds > 0 ? System.nanoTime() + seconds * 1000000000L : 0;
+        this.maxReads = conf.regionReads;
+        this.maxHeap = conf.regionHeap * 1024L * 1024L;
+    }
+
+    /**
+     * Count a read seen in the region
+     * @param pileup pileup of the region
+     * @throws Exceeded if the region is over budget
+     */
+    public void read(Pileup pileup) {
+        reads++;
+        if (maxReads > 0 && reads > maxReads) {
+            throw new Exceeded(region, "more than " + maxReads + " reads");
+        }
+        if (reads % TIME_CHECK_READS == 0) {
+            checkTime();
+        }
+        if (maxHeap > 0 && reads % HEAP_CHECK_READS == 0) {
+            long heap = pileup.estimateHeap();
+            if (heap > maxHeap) {
+                throw new Exceeded(region, "estimated pileup heap " + (heap >> 20) + " MB");
+            }
+        }
+    }
+
+    /**
+     * @throws Exceeded if the wall time of the region is over budget
+     */
+    public void checkTime() {
+        if (deadline != 0 && System.nanoTime() > deadline) {
+            throw new Exceeded(region, "more than " + seconds + " s");
+        }
+    }
+
+    /**
+     * Thrown when a region exceeds its budget. The region is then analysed again in degraded mode.
+     */
+    public static class Exceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public Exceeded(Region region, String reason) {
+            super("Region " + region.chr + ":" + region.start + "-" + region.end + " exceeded its budget: " + reason);
+        }
+    }
+}
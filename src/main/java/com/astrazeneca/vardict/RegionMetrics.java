@@ -0,0 +1,404 @@
+package com.astrazeneca.vardict;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics of the analysis of one region (or amplicon group) for options --metrics and --summary: reads fetched and dropped
+ * by each filter, bases piled up, soft clip entries, indel candidates, and wall time, CPU time and bytes allocated of each
+ * stage. The BAM files of paired calling and the amplicons of a group may be read by several threads, so the counts and
+ * times are atomic sums over them.
+ */
+public class RegionMetrics {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+    /**
+     * Allocation counter of the threads of HotSpot JVMs, null if not available
+     */
+    private static final com.sun.management.ThreadMXBean ALLOCATION = allocation();
+
+    /**
+     * Counts of a region. The reasons reads are dropped are checked in this order, a read is counted for the first one.
+     */
+    enum Counter {
+        READS("Reads"),
+        SAMFILTER("DroppedSamFilter"),
+        DOWNSAMPLED("DroppedDownsampled"),
+        MAPPING_QUALITY("DroppedMapQ"),
+        DUPLICATE("DroppedDuplicate"),
+        MISMATCHES("DroppedMismatches"),
+        AMPLICON("DroppedAmplicon"),
+        OTHER("DroppedOther"),
+        BASES("Bases"),
+        SOFT_CLIPS("SoftClips"),
+        INDELS("Indels");
+
+        final String column;
+
+        Counter(String column) {
+            this.column = column;
+        }
+    }
+
+    /**
+     * Stages of the analysis of a region, parseSAM being the pileup of the reads and the MNP adjustment
+     */
+    enum Stage {
+        GET_REF("getREF"),
+        PARSE_SAM("parseSAM"),
+        REALIGNDEL("realigndel"),
+        REALIGNINS("realignins"),
+        REALIGNLGDEL("realignlgdel"),
+        REALIGNLGINS("realignlgins"),
+        REALIGNLGINS30("realignlgins30"),
+        TO_VARS("toVars"),
+        OUTPUT("output");
+
+        final String column;
+
+        Stage(String column) {
+            this.column = column;
+        }
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(Counter.values().length);
+    private final AtomicLongArray wall = new AtomicLongArray(Stage.values().length);
+    private final AtomicLongArray cpu = new AtomicLongArray(Stage.values().length);
+    private final AtomicLongArray allocated = new AtomicLongArray(Stage.values().length);
+    private Region region;
+    private long total;
+    private boolean degraded;
+
+    void add(Counter counter, long value) {
+        counts.addAndGet(counter.ordinal(), value);
+    }
+
+    /**
+     * Add the counts indexed by the ordinals of the counters
+     */
+    void add(long[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != 0) {
+                counts.addAndGet(i, values[i]);
+            }
+        }
+    }
+
+    /**
+     * @return wall time in nanoseconds of the stage so far
+     */
+    long wall(Stage stage) {
+        return wall.get(stage.ordinal());
+    }
+
+    /**
+     * Mark the analysis of the region finished, after the given wall time in nanoseconds
+     */
+    void finish(Region region, long total, boolean degraded) {
+        this.region = region;
+        this.total = total;
+        this.degraded = degraded;
+    }
+
+    /**
+     * @return timer of the stages run by the current thread, which doesn't measure anything if the configuration has no metrics
+     */
+    static Timer timer(Configuration conf) {
+        return conf.regionMetrics == null ? Timer.NONE : new Timer(conf.regionMetrics);
+    }
+
+    private static long cpuTime() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * @return bytes allocated by the current thread, 0 if the JVM doesn't count them
+     */
+    static long allocatedBytes() {
+        return ALLOCATION != null ? ALLOCATION.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    /**
+     * @return bytes allocated by the threads of the ids, 0 if the JVM doesn't count them
+     */
+    static long[] allocatedBytes(long[] ids) {
+        return ALLOCATION != null ? ALLOCATION.getThreadAllocatedBytes(ids) : new long[ids.length];
+    }
+
+    private static com.sun.management.ThreadMXBean allocation() {
+        try {
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+                if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                    return threads;
+                }
+            }
+        } catch (LinkageError e) {
+            // not a HotSpot JVM
+        }
+        return null;
+    }
+
+    /**
+     * Timer of consecutive stages in one thread: each lap adds the time and the bytes allocated by the thread since the
+     * previous lap (or the creation of the timer) to a stage
+     */
+    static class Timer {
+        static final Timer NONE = new Timer(null);
+
+        private final RegionMetrics metrics;
+        private long wall;
+        private long cpu;
+        private long allocated;
+
+        private Timer(RegionMetrics metrics) {
+            this.metrics = metrics;
+            if (metrics != null) {
+                wall = System.nanoTime();
+                cpu = cpuTime();
+                allocated = allocatedBytes();
+            }
+        }
+
+        void lap(Stage stage) {
+            if (metrics == null) {
+                return;
+            }
+            long wall = System.nanoTime();
+            long cpu = cpuTime();
+            long allocated = allocatedBytes();
+            metrics.wall.addAndGet(stage.ordinal(), wall - this.wall);
+            metrics.cpu.addAndGet(stage.ordinal(), cpu - this.cpu);
+            metrics.allocated.addAndGet(stage.ordinal(), allocated - this.allocated);
+            this.wall = wall;
+            this.cpu = cpu;
+            this.allocated = allocated;
+        }
+    }
+
+    /**
+     * Writer of the metrics of the regions in output order: tab separated with a header row, or JSON objects, one per line,
+     * if the file name ends with .json. Times are in milliseconds and allocations in bytes, stage times and allocations summed
+     * over the threads of the region. Allocations are 0 on JVMs which don't count the bytes allocated by each thread.
+     */
+    static class Writer implements Closeable {
+        private final PrintStream out;
+        private final boolean json;
+
+        Writer(String file) throws FileNotFoundException {
+            this.out = new PrintStream(file);
+            this.json = file.endsWith(".json");
+            if (!json) {
+                StringBuilder sb = new StringBuilder("Chr\tStart\tEnd\tGene\tDegraded\tWall");
+                for (Counter counter : Counter.values()) {
+                    sb.append('\t').append(counter.column);
+                }
+                for (Stage stage : Stage.values()) {
+                    sb.append('\t').append(stage.column).append("Wall\t").append(stage.column).append("Cpu\t")
+                            .append(stage.column).append("Alloc");
+                }
+                out.println(sb);
+            }
+        }
+
+        void write(RegionMetrics metrics) {
+            StringBuilder sb = new StringBuilder();
+            Region region = metrics.region;
+            if (json) {
+                sb.append("{\"Chr\":\"").append(escape(region.chr)).append("\",\"Start\":").append(region.start)
+                        .append(",\"End\":").append(region.end).append(",\"Gene\":\"").append(escape(region.gene))
+                        .append("\",\"Degraded\":").append(metrics.degraded).append(",\"Wall\":").append(millis(metrics.total));
+                for (Counter counter : Counter.values()) {
+                    sb.append(",\"").append(counter.column).append("\":").append(metrics.counts.get(counter.ordinal()));
+                }
+                for (Stage stage : Stage.values()) {
+                    sb.append(",\"").append(stage.column).append("Wall\":").append(millis(metrics.wall.get(stage.ordinal())))
+                            .append(",\"").append(stage.column).append("Cpu\":").append(millis(metrics.cpu.get(stage.ordinal())))
+                            .append(",\"").append(stage.column).append("Alloc\":").append(metrics.allocated.get(stage.ordinal()));
+                }
+                sb.append('}');
+            } else {
+                sb.append(region.chr).append('\t').append(region.start).append('\t').append(region.end).append('\t')
+                        .append(region.gene).append('\t').append(metrics.degraded ? 1 : 0).append('\t').append(millis(metrics.total));
+                for (Counter counter : Counter.values()) {
+                    sb.append('\t').append(metrics.counts.get(counter.ordinal()));
+                }
+                for (Stage stage : Stage.values()) {
+                    sb.append('\t').append(millis(metrics.wall.get(stage.ordinal())))
+                            .append('\t').append(millis(metrics.cpu.get(stage.ordinal())))
+                            .append('\t').append(metrics.allocated.get(stage.ordinal()));
+                }
+            }
+            out.println(sb);
+        }
+
+        private static String millis(long nanos) {
+            return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+        }
+
+        private static String escape(String value) {
+            return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"");
+        }
+
+        @Override
+        public void close() {
+            out.close();
+        }
+    }
+
+    /**
+     * Summary of a run for option --summary, printed to stderr at its end: regions analysed, reads fetched and dropped by
+     * each filter, wall time, CPU time and bytes allocated of each stage summed over the regions, the slowest regions with
+     * their reads and the stage they spent most of their time in, peak heap, GC time and output bytes. The regions are added
+     * by the thread writing the output, in output order, so only the slowest ones are kept.
+     */
+    static class Summary {
+        private static final Comparator<RegionMetrics> BY_WALL = new Comparator<RegionMetrics>() {
+            @Override
+            public int compare(RegionMetrics o1, RegionMetrics o2) {
+                return Long.compare(o1.total, o2.total);
+            }
+        };
+
+        private final int top;
+        private final long start = System.nanoTime();
+        private final long gcStart = gcMillis();
+        private final long gcCountStart = gcCount();
+        private final long[] counts = new long[Counter.values().length];
+        private final long[] wall = new long[Stage.values().length];
+        private final long[] cpu = new long[Stage.values().length];
+        private final long[] allocated = new long[Stage.values().length];
+        private final PriorityQueue<RegionMetrics> slowest = new PriorityQueue<>(BY_WALL);
+        private int regions;
+        private int degraded;
+        private long outputBytes;
+
+        /**
+         * @param top number of slowest regions to print
+         */
+        Summary(int top) {
+            this.top = top;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                    pool.resetPeakUsage();
+                }
+            }
+        }
+
+        /**
+         * Add the metrics of a region written
+         */
+        void add(RegionMetrics metrics) {
+            regions++;
+            if (metrics.degraded) {
+                degraded++;
+            }
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += metrics.counts.get(i);
+            }
+            for (int i = 0; i < wall.length; i++) {
+                wall[i] += metrics.wall.get(i);
+                cpu[i] += metrics.cpu.get(i);
+                allocated[i] += metrics.allocated.get(i);
+            }
+            slowest.add(metrics);
+            if (slowest.size() > top) {
+                slowest.poll();
+            }
+        }
+
+        /**
+         * Add bytes written to an output of the run
+         */
+        void wrote(long bytes) {
+            outputBytes += bytes;
+        }
+
+        void print(PrintStream out) {
+            long elapsed = System.nanoTime() - start;
+            long gc = gcMillis() - gcStart;
+            long heapPeak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null) {
+                    heapPeak += pool.getPeakUsage().getUsed();
+                }
+            }
+            out.println(String.format(Locale.ROOT, "Summary: %d regions (%d degraded) in %.3f s, %d output bytes, "
+                    + "peak heap %d MB of %d MB, GC %.3f s (%.1f%%) in %d collections", regions, degraded, elapsed / 1e9,
+                    outputBytes, heapPeak >> 20, Runtime.getRuntime().maxMemory() >> 20, gc / 1e3,
+                    100.0 * gc / Math.max(elapsed / 1e6, 1), gcCount() - gcCountStart));
+
+            long reads = counts[Counter.READS.ordinal()];
+            StringBuilder sb = new StringBuilder("Summary reads: ");
+            for (Counter counter : Counter.values()) {
+                if (counter != Counter.READS) {
+                    sb.append(", ");
+                }
+                sb.append(counter.column).append(' ').append(counts[counter.ordinal()]);
+                if (counter.column.startsWith("Dropped")) {
+                    sb.append(String.format(Locale.ROOT, " (%.1f%%)", 100.0 * counts[counter.ordinal()] / Math.max(reads, 1)));
+                }
+            }
+            out.println(sb);
+
+            long stages = 0;
+            for (long w : wall) {
+                stages += w;
+            }
+            out.println("Summary stages:\tStage\tWallS\tShare\tCpuS\tAllocMB");
+            for (Stage stage : Stage.values()) {
+                int i = stage.ordinal();
+                out.println(String.format(Locale.ROOT, "Summary stages:\t%s\t%.3f\t%.1f%%\t%.3f\t%.1f", stage.column,
+                        wall[i] / 1e9, 100.0 * wall[i] / Math.max(stages, 1), cpu[i] / 1e9, allocated[i] / 1048576.0));
+            }
+
+            List<RegionMetrics> regions = new ArrayList<>(slowest);
+            Collections.sort(regions, Collections.reverseOrder(BY_WALL));
+            out.println("Summary slowest:\tRegion\tGene\tWallS\tReads\tStage\tShare");
+            for (RegionMetrics metrics : regions) {
+                Stage dominant = Stage.GET_REF;
+                long sum = 0;
+                for (Stage stage : Stage.values()) {
+                    long w = metrics.wall.get(stage.ordinal());
+                    sum += w;
+                    if (w > metrics.wall.get(dominant.ordinal())) {
+                        dominant = stage;
+                    }
+                }
+                Region region = metrics.region;
+                out.println(String.format(Locale.ROOT, "Summary slowest:\t%s:%d-%d\t%s\t%.3f\t%d\t%s\t%.1f%%", region.chr,
+                        region.start, region.end, region.gene, metrics.total / 1e9, metrics.counts.get(Counter.READS.ordinal()),
+                        dominant.column, 100.0 * metrics.wall.get(dominant.ordinal()) / Math.max(sum, 1)));
+            }
+        }
+
+        private static long gcMillis() {
+            long millis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                millis += Math.max(gc.getCollectionTime(), 0);
+            }
+            return millis;
+        }
+
+        private static long gcCount() {
+            long count = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(gc.getCollectionCount(), 0);
+            }
+            return count;
+        }
+    }
+}
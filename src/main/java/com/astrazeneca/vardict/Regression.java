@@ -0,0 +1,390 @@
+package com.astrazeneca.vardict;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Regression gate of the caller (subcommand 'regress'). The Java caller runs in process, with one thread, on fixtures
+ * generated by {@link SyntheticData} with fixed seeds: single sample, pileup (-p), paired and amplicon calling, and paired
+ * calling of long indels and soft clipped reads. Each fixture may also be run by reference commands, such as the Perl
+ * vardict.pl or a previous release, whose output is compared to the Java output field by field. Lines are matched by
+ * their first 7 columns (sample, gene, chromosome, start, end, ref and alt). Fields must be equal, except numbers with
+ * decimals which may differ by one unit of their last decimal (rounding of Perl's sprintf and Java's formatting), plus the
+ * absolute tolerance of the option. The time (the fastest of the runs after the
+ * first) and the bytes allocated by the Java runs are compared to a baseline file, and fail over its tolerances.
+ */
+public class Regression {
+    /**
+     * Columns of an output line which identify it
+     */
+    private static final int KEY_COLUMNS = 7;
+    /**
+     * Differences printed per fixture and command
+     */
+    private static final int MAX_PRINTED = 10;
+
+    File dir;
+    /**
+     * Reference commands, each a command line split on spaces to which the arguments of the fixture are appended
+     */
+    List<String> references = new ArrayList<>();
+    String baseline;
+    boolean updateBaseline;
+    int runs = 3;
+    double tolerance;
+    double timeTolerance = 0.25;
+    double allocationTolerance = 0.10;
+    PrintStream out = System.out;
+
+
+    /**
+     * Fixture: the data set it's run on and the arguments of the caller, relative to the directory of the data sets
+     */
+    static class Fixture {
+        final String name;
+        final String[] args;
+
+        Fixture(String name, String... args) {
+            this.name = name;
+            this.args = args;
+        }
+    }
+
+    static final Fixture[] FIXTURES = {
+            new Fixture("single", "-G", "tumor/ref.fa", "-N", "tumor", "-b", "tumor/reads.bam", "-c", "1", "-S", "2", "-E", "3",
+                    "-g", "4", "tumor/regions.bed"),
+            new Fixture("pileup", "-G", "tumor/ref.fa", "-N", "tumor", "-b", "tumor/reads.bam", "-c", "1", "-S", "2", "-E", "3",
+                    "-g", "4", "-p", "tumor/regions.bed"),
+            new Fixture("paired", "-G", "tumor/ref.fa", "-N", "tumor", "-b", "tumor/reads.bam|normal/reads.bam", "-c", "1", "-S",
+                    "2", "-E", "3", "-g", "4", "-f", "0.01", "tumor/regions.bed"),
+            new Fixture("amplicon", "-G", "amplicon/ref.fa", "-N", "amplicon", "-b", "amplicon/reads.bam", "-c", "1", "-S", "2",
+                    "-E", "3", "-g", "4", "-f", "0.01", "-r", "1", "amplicon/regions.bed"),
+            new Fixture("longindel", "-G", "longindel/ref.fa", "-N", "longindel", "-b",
+                    "longindel/reads.bam|longindel-normal/reads.bam", "-c", "1", "-S", "2", "-E", "3", "-g", "4", "-f", "0.01",
+                    "longindel/regions.bed")
+    };
+
+    /**
+     * Data sets of the fixtures: tumor and normal share the reference and variant sites, with different allele frequencies.
+     * So does the long indel pair, of insertions and deletions up to 70 bases and many soft clipped reads, for the realignment
+     * of long indels from soft clips.
+     * @param referenceLength length of the reference, with one amplicon per kb
+     */
+    static Map<String, SyntheticData> dataSets(int referenceLength) {
+        Map<String, SyntheticData> sets = new LinkedHashMap<>();
+        SyntheticData tumor = new SyntheticData();
+        tumor.seed = 7;
+        tumor.referenceLength = referenceLength;
+        tumor.sample = "tumor";
+        sets.put("tumor", tumor);
+        SyntheticData normal = new SyntheticData();
+        normal.seed = 7;
+        normal.referenceLength = referenceLength;
+        normal.alleleFrequency = 0.02;
+        normal.sample = "normal";
+        sets.put("normal", normal);
+        SyntheticData amplicon = new SyntheticData();
+        amplicon.seed = 7;
+        amplicon.referenceLength = referenceLength;
+        amplicon.amplicons = referenceLength / 1000;
+        amplicon.regionLength = 250;
+        amplicon.depth = 200;
+        amplicon.sample = "amplicon";
+        sets.put("amplicon", amplicon);
+        SyntheticData longIndel = longIndel(referenceLength);
+        longIndel.sample = "longindel";
+        sets.put("longindel", longIndel);
+        SyntheticData longIndelNormal = longIndel(referenceLength);
+        longIndelNormal.alleleFrequency = 0.05;
+        longIndelNormal.sample = "longindel-normal";
+        sets.put("longindel-normal", longIndelNormal);
+        return sets;
+    }
+
+    private static SyntheticData longIndel(int referenceLength) {
+        SyntheticData data = new SyntheticData();
+        data.seed = 15;
+        data.referenceLength = referenceLength;
+        data.readLength = 150;
+        data.depth = 100;
+        data.indelRate = 0.004;
+        data.indelLength = 70;
+        data.softClipRate = 0.15;
+        return data;
+    }
+
+    /**
+     * Run the fixtures, generating the data sets missing in the directory, and print a report
+     * @return number of failed fixtures
+     */
+    public int run() throws Exception {
+        generate(dir, dataSets(20000));
+        Map<String, long[]> base = baseline != null && !updateBaseline && new File(baseline).exists()
+                ? readBaseline(baseline) : new LinkedHashMap<String, long[]>();
+        Map<String, long[]> measured = new LinkedHashMap<>();
+        int failed = 0;
+
+        out.println("Fixture\tLines\tMillis\tBaselineMillis\tAllocatedMB\tBaselineAllocatedMB\tStatus");
+        for (Fixture fixture : FIXTURES) {
+            List<String> problems = new ArrayList<>();
+            File output = new File(dir, fixture.name + ".java.txt");
+            long millis = Long.MAX_VALUE;
+            long allocated = 0;
+            for (int i = 0; i < Math.max(runs, 1); i++) {
+                long[] m = runJava(fixture, output);
+                if (i > 0 || runs == 1) {
+                    millis = Math.min(millis, m[0]);
+                    allocated = m[1];
+                }
+            }
+            measured.put(fixture.name, new long[] {millis, allocated});
+            List<String> lines = readLines(output);
+
+            for (int i = 0; i < references.size(); i++) {
+                String command = references.get(i);
+                File reference = new File(dir, fixture.name + "." + (i + 1) + ".txt");
+                int exit = runCommand(command, fixture, reference);
+                if (exit != 0) {
+                    problems.add("'" + command + "' exited with " + exit);
+                    continue;
+                }
+                int differences = compare(lines, readLines(reference), fixture.name + " '" + command + "'");
+                if (differences > 0) {
+                    problems.add(differences + " differences with '" + command + "'");
+                }
+            }
+
+            long[] expected = base.get(fixture.name);
+            if (expected != null) {
+                if (millis > expected[0] * (1 + timeTolerance)) {
+                    problems.add(String.format(Locale.ROOT, "time %d ms over baseline %d ms + %.0f%%", millis, expected[0],
+                            timeTolerance * 100));
+                }
+                if (allocated > expected[1] * (1 + allocationTolerance)) {
+                    problems.add(String.format(Locale.ROOT, "allocation %.1f MB over baseline %.1f MB + %.0f%%", mb(allocated),
+                            mb(expected[1]), allocationTolerance * 100));
+                }
+            }
+            if (!problems.isEmpty()) {
+                failed++;
+            }
+            out.println(String.format(Locale.ROOT, "%s\t%d\t%d\t%s\t%.1f\t%s\t%s", fixture.name, lines.size(), millis,
+                    expected != null ? String.valueOf(expected[0]) : "-", mb(allocated),
+                    expected != null ? String.format(Locale.ROOT, "%.1f", mb(expected[1])) : "-",
+                    problems.isEmpty() ? "OK" : "FAIL: " + String.join("; ", problems)));
+        }
+
+        if (baseline != null && updateBaseline) {
+            writeBaseline(baseline, measured);
+        }
+        return failed;
+    }
+
+    /**
+     * Generate the data sets missing in the directory
+     */
+    static void generate(File dir, Map<String, SyntheticData> sets) throws IOException {
+        for (Map.Entry<String, SyntheticData> set : sets.entrySet()) {
+            File setDir = new File(dir, set.getKey());
+            if (!new File(setDir, "reads.bam").exists()) {
+                set.getValue().generate(setDir);
+            }
+        }
+    }
+
+    /**
+     * Run the Java caller on the fixture in this thread
+     * @return wall time in ms and bytes allocated by this thread, 0 if the JVM doesn't measure it
+     */
+    private long[] runJava(Fixture fixture, File output) throws Exception {
+        List<String> args = arguments(dir, fixture);
+        args.add("--output");
+        args.add(output.getPath());
+        Configuration conf = Main.configuration(args.toArray(new String[args.size()]));
+        long allocated = RegionMetrics.allocatedBytes();
+        long start = System.nanoTime();
+        VarDict.start(conf);
+        long millis = (System.nanoTime() - start) / 1000000;
+        return new long[] {millis, RegionMetrics.allocatedBytes() - allocated};
+    }
+
+    /**
+     * Run a reference command on the fixture, its standard output written to the file and its standard error inherited
+     * @return exit code of the command
+     */
+    private int runCommand(String command, Fixture fixture, File output) throws IOException, InterruptedException {
+        List<String> args = new ArrayList<>(Arrays.asList(command.trim().split("\\s+")));
+        args.addAll(arguments(dir, fixture));
+        ProcessBuilder builder = new ProcessBuilder(args);
+        builder.redirectOutput(output);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start().waitFor();
+    }
+
+    /**
+     * @return arguments of the fixture with the paths of the data sets in the directory
+     */
+    static List<String> arguments(File dir, Fixture fixture) {
+        List<String> args = new ArrayList<>();
+        for (String arg : fixture.args) {
+            if (arg.contains("/")) {
+                StringBuilder sb = new StringBuilder();
+                for (String path : arg.split("\\|")) {
+                    sb.append(sb.length() > 0 ? "|" : "").append(new File(dir, path).getPath());
+                }
+                arg = sb.toString();
+            }
+            args.add(arg);
+        }
+        return args;
+    }
+
+    /**
+     * Compare the output lines of the Java caller to those of a reference command, printing the first differences
+     * @return number of lines missing in either output or with different fields
+     */
+    int compare(List<String> actual, List<String> expected, String name) {
+        Map<String, List<String[]>> expectedByKey = byKey(expected);
+        Map<String, List<String[]>> actualByKey = byKey(actual);
+        int differences = 0;
+        for (Map.Entry<String, List<String[]>> entry : expectedByKey.entrySet()) {
+            List<String[]> others = actualByKey.get(entry.getKey());
+            List<String[]> lines = entry.getValue();
+            for (int i = 0; i < lines.size(); i++) {
+                String[] line = lines.get(i);
+                if (others == null || i >= others.size()) {
+                    print(differences++, name, "missing in Java: " + String.join("\t", line));
+                    continue;
+                }
+                String difference = difference(others.get(i), line);
+                if (difference != null) {
+                    print(differences++, name, entry.getKey().replace('\t', ' ') + ": " + difference);
+                }
+            }
+        }
+        for (Map.Entry<String, List<String[]>> entry : actualByKey.entrySet()) {
+            List<String[]> others = expectedByKey.get(entry.getKey());
+            List<String[]> lines = entry.getValue();
+            for (int i = others != null ? others.size() : 0; i < lines.size(); i++) {
+                print(differences++, name, "only in Java: " + String.join("\t", lines.get(i)));
+            }
+        }
+        return differences;
+    }
+
+    private static void print(int difference, String name, String message) {
+        if (difference < MAX_PRINTED) {
+            System.err.println(name + ": " + message);
+        }
+    }
+
+    /**
+     * @return description of the fields which differ beyond the tolerances, or null if none
+     */
+    private String difference(String[] actual, String[] expected) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Math.max(actual.length, expected.length); i++) {
+            String a = i < actual.length ? actual[i] : "";
+            String e = i < expected.length ? expected[i] : "";
+            if (!equal(a, e)) {
+                sb.append(sb.length() > 0 ? ", " : "").append("column ").append(i + 1).append(' ').append(a)
+                        .append(" instead of ").append(e);
+            }
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    private boolean equal(String actual, String expected) {
+        if (actual.equals(expected)) {
+            return true;
+        }
+        double a;
+        double e;
+        try {
+            a = Double.parseDouble(actual);
+            e = Double.parseDouble(expected);
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+        int decimals = Math.max(decimals(actual), decimals(expected));
+        double unit = decimals > 0 ? Math.pow(10, -decimals) : 0;
+        return Math.abs(a - e) <= unit * (1 + 1e-9) + tolerance;
+    }
+
+    private static int decimals(String number) {
+        int dot = number.indexOf('.');
+        if (dot < 0) {
+            return 0;
+        }
+        int end = dot + 1;
+        while (end < number.length() && Character.isDigit(number.charAt(end))) {
+            end++;
+        }
+        return end - dot - 1;
+    }
+
+    private static Map<String, List<String[]>> byKey(List<String> lines) {
+        Map<String, List<String[]>> byKey = new LinkedHashMap<>();
+        for (String line : lines) {
+            String[] fields = line.split("\t", -1);
+            String key = String.join("\t", Arrays.copyOf(fields, Math.min(KEY_COLUMNS, fields.length)));
+            List<String[]> list = byKey.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                byKey.put(key, list);
+            }
+            list.add(fields);
+        }
+        return byKey;
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Baseline file: tab separated fixture name, time in ms and bytes allocated
+     */
+    private static Map<String, long[]> readBaseline(String file) throws IOException {
+        Map<String, long[]> base = new LinkedHashMap<>();
+        for (String line : readLines(new File(file))) {
+            String[] cols = line.split("\t");
+            if (cols.length >= 3 && !cols[0].equals("Fixture")) {
+                base.put(cols[0], new long[] {Long.parseLong(cols[1]), Long.parseLong(cols[2])});
+            }
+        }
+        return base;
+    }
+
+    private static void writeBaseline(String file, Map<String, long[]> measured) throws IOException {
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println("Fixture\tMillis\tAllocated");
+            for (Map.Entry<String, long[]> entry : measured.entrySet()) {
+                writer.println(entry.getKey() + "\t" + entry.getValue()[0] + "\t" + entry.getValue()[1]);
+            }
+        }
+    }
+
+    private static double mb(long bytes) {
+        return bytes / 1048576.0;
+    }
+}
@@ -0,0 +1,205 @@
+package com.astrazeneca.vardict;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread scaling benchmark (subcommand 'scale'): runs the fixtures of {@link Regression} (single sample, pileup, paired,
+ * amplicon and long indel calling) on larger synthetic data at 1, 2, 4... up to the given number of threads, in process,
+ * after discarded warm-up runs of the fixture with each number of threads, and reports for each run the speedup over one
+ * thread, the parallel efficiency (speedup / threads), the CPU cores used, the share of the time in GC, the time the
+ * threads were blocked on monitors and waiting (on locks, queues and futures, idle included), the bytes allocated and
+ * whether the output is the same as with one thread. Blocked and waited times and allocation are sampled from all the
+ * threads every 50 ms, so the last 50 ms of a thread ending between two samples are not counted.
+ */
+public class Scaling {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final long SAMPLE_MILLIS = 50;
+
+    File dir;
+    int referenceLength = 200000;
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * Names of the fixtures to run, all if empty
+     */
+    List<String> modes = new ArrayList<>();
+    int runs = 2;
+    PrintStream out = System.out;
+
+    /**
+     * @return thread counts of the runs: powers of 2 below the maximum, and the maximum
+     */
+    List<Integer> threadCounts() {
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(maxThreads);
+        return counts;
+    }
+
+    public void run() throws Exception {
+        Regression.generate(dir, Regression.dataSets(referenceLength));
+        if (THREADS.isThreadContentionMonitoringSupported()) {
+            THREADS.setThreadContentionMonitoringEnabled(true);
+        }
+        out.println("Mode\tThreads\tMillis\tSpeedup\tEfficiency\tCpuCores\tGcShare\tBlockedMs\tWaitedMs\tAllocatedMB\tSameOutput");
+        for (Regression.Fixture fixture : Regression.FIXTURES) {
+            if (!modes.isEmpty() && !modes.contains(fixture.name)) {
+                continue;
+            }
+            // discarded runs, so that the JIT compilation isn't measured in the first runs, those with one thread
+            for (int threads : threadCounts()) {
+                measure(fixture, threads, new File(dir, fixture.name + ".warmup.txt"));
+            }
+            long single = 0;
+            byte[] expected = null;
+            for (int threads : threadCounts()) {
+                File output = new File(dir, fixture.name + "." + threads + ".txt");
+                Measure best = null;
+                for (int i = 0; i < Math.max(runs, 1); i++) {
+                    Measure measure = measure(fixture, threads, output);
+                    if (best == null || measure.millis < best.millis) {
+                        best = measure;
+                    }
+                }
+                byte[] bytes = Files.readAllBytes(output.toPath());
+                if (threads == 1) {
+                    single = best.millis;
+                    expected = bytes;
+                }
+                double speedup = (double) single / Math.max(best.millis, 1);
+                out.println(String.format(Locale.ROOT, "%s\t%d\t%d\t%.2f\t%.2f\t%.2f\t%.3f\t%d\t%d\t%.1f\t%s", fixture.name,
+                        threads, best.millis, speedup, speedup / threads, (double) best.cpuMillis / Math.max(best.millis, 1),
+                        (double) best.gcMillis / Math.max(best.millis, 1), best.blockedMillis, best.waitedMillis,
+                        best.allocated / 1048576.0, Arrays.equals(bytes, expected) ? "yes" : "no"));
+            }
+        }
+    }
+
+    /**
+     * Measures of a run
+     */
+    private static class Measure {
+        long millis;
+        long cpuMillis;
+        long gcMillis;
+        long blockedMillis;
+        long waitedMillis;
+        long allocated;
+    }
+
+    private Measure measure(Regression.Fixture fixture, int threads, File output) throws Exception {
+        List<String> args = Regression.arguments(dir, fixture);
+        args.addAll(Arrays.asList("-th", String.valueOf(threads), "--output", output.getPath()));
+        Configuration conf = Main.configuration(args.toArray(new String[args.size()]));
+
+        Sampler sampler = new Sampler();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "vardict-scaling-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long gc = gcMillis();
+        long cpu = processCpuNanos();
+        long start = System.nanoTime();
+        timer.scheduleAtFixedRate(sampler::sample, SAMPLE_MILLIS, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            VarDict.start(conf);
+        } finally {
+            timer.shutdown();
+            timer.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        sampler.sample();
+
+        Measure measure = new Measure();
+        measure.millis = (System.nanoTime() - start) / 1000000;
+        measure.cpuMillis = (processCpuNanos() - cpu) / 1000000;
+        measure.gcMillis = gcMillis() - gc;
+        for (long[] values : sampler.threads.values()) {
+            measure.blockedMillis += values[0];
+            measure.waitedMillis += values[1];
+            measure.allocated += values[2];
+        }
+        return measure;
+    }
+
+    /**
+     * Blocked and waited times and allocated bytes since the start of the sampler of the current thread and of the threads
+     * started after it but the sampler's, so JVM threads such as the finalizer are excluded
+     */
+    private static class Sampler {
+        private final long current = Thread.currentThread().getId();
+        private final Map<Long, long[]> initial = new HashMap<>();
+        final Map<Long, long[]> threads = new HashMap<>();
+
+        Sampler() {
+            long[] ids = THREADS.getAllThreadIds();
+            ThreadInfo[] infos = THREADS.getThreadInfo(ids);
+            long[] allocated = RegionMetrics.allocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (infos[i] != null) {
+                    initial.put(ids[i], ids[i] == current ? values(infos[i], allocated[i]) : null);
+                }
+            }
+        }
+
+        synchronized void sample() {
+            long[] ids = THREADS.getAllThreadIds();
+            ThreadInfo[] infos = THREADS.getThreadInfo(ids);
+            long[] allocated = RegionMetrics.allocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                ThreadInfo info = infos[i];
+                if (info == null || info.getThreadName().equals("vardict-scaling-sampler")) {
+                    continue;
+                }
+                if (initial.containsKey(ids[i]) && ids[i] != current) {
+                    continue;
+                }
+                long[] values = values(info, allocated[i]);
+                long[] start = initial.get(ids[i]);
+                if (start != null) {
+                    for (int j = 0; j < values.length; j++) {
+                        values[j] -= start[j];
+                    }
+                }
+                threads.put(ids[i], values);
+            }
+        }
+
+        private static long[] values(ThreadInfo info, long allocated) {
+            return new long[] {Math.max(info.getBlockedTime(), 0), Math.max(info.getWaitedTime(), 0), Math.max(allocated, 0)};
+        }
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(gc.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+}
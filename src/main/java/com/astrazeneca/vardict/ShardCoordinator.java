@@ -0,0 +1,105 @@
+package com.astrazeneca.vardict;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Coordinator of a sharded run (option --shards): launches one worker JVM per shard, each analysing a contiguous part of the
+ * regions of similar cost (see VarDict#selectShard), and concatenates the outputs of the shards in order, so the result is
+ * the same as the output of a single process.
+ */
+public class ShardCoordinator {
+    private final Configuration conf;
+
+    public ShardCoordinator(Configuration conf) {
+        this.conf = conf;
+    }
+
+    public void run() throws IOException {
+        File dir = conf.shardDir != null ? new File(conf.shardDir) : Files.createTempDirectory("vardict-shards").toFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Couldn't create directory for shards: " + dir);
+        }
+
+        List<Process> processes = new ArrayList<>();
+        List<File> outputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < conf.shards; i++) {
+                File output = new File(dir, "shard" + i + ".txt");
+                outputs.add(output);
+                processes.add(launch(i, output, new File(dir, "shard" + i + ".journal")));
+            }
+            for (int i = 0; i < processes.size(); i++) {
+                int exit = processes.get(i).waitFor();
+                if (exit != 0) {
+                    throw new IOException("Shard " + i + " failed with exit code " + exit);
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while waiting for shards", e);
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+
+        try (OutputStream out = conf.compress || conf.output != null ? OutputWriter.open(conf) : new FilterOutputStream(System.out) {
+                    @Override
+                    public void close() throws IOException {
+                        flush();
+                    }
+                }) {
+            if (conf.printHeader) {
+                out.write((VarDict.header(conf) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            }
+            for (File output : outputs) {
+                Files.copy(output.toPath(), out);
+            }
+        }
+        if (conf.journal == null) {
+            for (File output : outputs) {
+                Files.delete(output.toPath());
+            }
+            if (conf.shardDir == null) {
+                Files.delete(dir.toPath());
+            }
+        }
+    }
+
+    private Process launch(int shard, File output, File journal) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        if (conf.shardJvmOptions != null) {
+            cmd.addAll(Arrays.asList(conf.shardJvmOptions.trim().split("\\s+")));
+        } else {
+            cmd.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        }
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(Main.class.getName());
+        cmd.addAll(conf.shardArguments);
+        cmd.addAll(Arrays.asList("--shards", String.valueOf(conf.shards), "--shard-index", String.valueOf(shard),
+                "--output", output.getPath()));
+        if (conf.journal != null) {
+            cmd.addAll(Arrays.asList("--journal", journal.getPath()));
+        }
+
+        ProcessBuilder builder;
+        if (conf.shardLauncher != null) {
+            StringBuilder sb = new StringBuilder();
+            for (String arg : cmd) {
+                sb.append(sb.length() == 0 ? "" : " ").append('\'').append(arg.replace("'", "'\\''")).append('\'');
+            }
+            String command = conf.shardLauncher.replace("{shard}", String.valueOf(shard)).replace("{cmd}", sb.toString());
+            builder = new ProcessBuilder("/bin/sh", "-c", command);
+        } else {
+            builder = new ProcessBuilder(cmd);
+        }
+        return builder.inheritIO().start();
+    }
+}
@@ -0,0 +1,221 @@
+package com.astrazeneca.vardict;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Out of order output of the parallel drivers (option --spill-dir). Each region is written by the thread which analysed it,
+ * as soon as it's done, to the spill file of the thread, and its offset and length are recorded in an index. The printing
+ * thread reads the regions back from the spill files in region order and passes them to the output, so the output is the same
+ * as without spilling, but a slow region doesn't hold the outputs of the regions after it in memory nor stops them
+ * from being analysed.
+ */
+public class SpillWriter implements Closeable {
+    private final File dir;
+    /**
+     * Regions submitted and not yet spilled, to bound the regions read ahead
+     */
+    private final Semaphore running;
+    private final List<Spill> spills = new ArrayList<>();
+    private final ThreadLocal<Spill> threadSpill = new ThreadLocal<>();
+
+    /**
+     * Spilled regions not yet merged, by index
+     */
+    private final Map<Integer, Entry> index = new HashMap<>();
+    private int submitted;
+    private boolean finished;
+
+    /**
+     * @param dir directory of the spill files
+     * @param maxRunning maximum number of regions submitted and not yet spilled
+     */
+    public SpillWriter(String dir, int maxRunning) throws IOException {
+        this.dir = new File(dir);
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IOException("Couldn't create directory for spill files: " + dir);
+        }
+        this.running = new Semaphore(maxRunning);
+    }
+
+    /**
+     * Submit the analysis of the next region, waiting if too many regions are running
+     * @param executor executor of the regions
+     * @param task analysis of the region, returning its output
+     * @throws InterruptedException
+     */
+    public void submit(ExecutorService executor, final Callable<OutputStream> task) throws InterruptedException {
+        running.acquire();
+        final int region;
+        synchronized (this) {
+            region = submitted++;
+        }
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    spill(region, task.call());
+                } catch (Exception e) {
+                    failed(region, e);
+                } finally {
+                    running.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Mark the end of the regions submitted
+     */
+    public synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Write the regions to the output in order, as they are spilled, until all regions are written
+     * @param writer writer of the output
+     * @throws ExecutionException if the analysis of a region failed
+     */
+    public void merge(OutputWriter writer) throws IOException, InterruptedException, ExecutionException {
+        for (int region = 0; ; region++) {
+            Entry entry;
+            synchronized (this) {
+                while (!index.containsKey(region) && !(finished && region >= submitted)) {
+                    wait();
+                }
+                entry = index.remove(region);
+            }
+            if (entry == null) {
+                return;
+            }
+            if (entry.error != null) {
+                throw new ExecutionException(entry.error);
+            }
+            LineWriter.Output output = new LineWriter.Output();
+            if (entry.length > 0) {
+                byte[] bytes = new byte[entry.length];
+                RandomAccessFile file = entry.spill.reader();
+                file.seek(entry.offset);
+                file.readFully(bytes);
+                output.write(bytes, 0, bytes.length);
+            }
+            output.records.addAll(entry.records);
+            output.metrics = entry.metrics;
+            output.splices = entry.splices;
+            writer.write(output);
+        }
+    }
+
+    /**
+     * Delete the spill files
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (Spill spill : spills) {
+            spill.close();
+        }
+        spills.clear();
+    }
+
+    private void spill(int region, OutputStream output) throws IOException {
+        Spill spill = threadSpill.get();
+        if (spill == null) {
+            spill = new Spill(File.createTempFile("vardict-spill", ".txt", dir));
+            threadSpill.set(spill);
+            synchronized (this) {
+                spills.add(spill);
+            }
+        }
+        long offset = spill.size;
+        List<VcfWriter.Record> records = new ArrayList<>();
+        RegionMetrics metrics = null;
+        LineWriter.Output splices = null;
+        if (output instanceof ByteArrayOutputStream) {
+            ((ByteArrayOutputStream) output).writeTo(spill.out);
+            if (output instanceof LineWriter.Output) {
+                records = ((LineWriter.Output) output).records;
+                metrics = ((LineWriter.Output) output).metrics;
+                splices = ((LineWriter.Output) output).splices;
+            }
+        } else {
+            spill.out.write(output.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        spill.size = spill.out.getChannel().position();
+        synchronized (this) {
+            index.put(region, new Entry(spill, offset, (int) (spill.size - offset), records, metrics, splices, null));
+            notifyAll();
+        }
+    }
+
+    private synchronized void failed(int region, Exception e) {
+        index.put(region, new Entry(null, 0, 0, new ArrayList<VcfWriter.Record>(), null, null, e));
+        notifyAll();
+    }
+
+    /**
+     * Spill file of a thread
+     */
+    private static class Spill {
+        final File file;
+        final FileOutputStream out;
+        long size;
+        RandomAccessFile reader;
+
+        Spill(File file) throws IOException {
+            this.file = file;
+            this.out = new FileOutputStream(file);
+        }
+
+        /**
+         * @return reader of the spill file for the printing thread
+         */
+        RandomAccessFile reader() throws IOException {
+            if (reader == null) {
+                reader = new RandomAccessFile(file, "r");
+            }
+            return reader;
+        }
+
+        void close() throws IOException {
+            out.close();
+            if (reader != null) {
+                reader.close();
+            }
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * Location of a spilled region, with its VCF records, metrics and splice counts, or the error of its analysis
+     */
+    private static class Entry {
+        final Spill spill;
+        final long offset;
+        final int length;
+        final List<VcfWriter.Record> records;
+        final RegionMetrics metrics;
+        final LineWriter.Output splices;
+        final Exception error;
+
+        Entry(Spill spill, long offset, int length, List<VcfWriter.Record> records, RegionMetrics metrics,
+                LineWriter.Output splices, Exception error) {
+            this.spill = spill;
+            this.offset = offset;
+            this.length = length;
+            this.records = records;
+            this.metrics = metrics;
+            this.splices = splices;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package com.astrazeneca.vardict;
+
+import htsjdk.samtools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generator of a random reference, reads and BED file for performance tests and benchmarks (subcommand 'simulate').
+ * The reference has microsatellites every 5 kb. Variant sites (SNVs, insertions and deletions) are drawn along the reference,
+ * each with the allele frequency of the option, and the reads carry the variant of a site they cover with that frequency,
+ * plus sequencing errors, soft clipped ends and duplicates at the given rates. As aligners do, a read is soft clipped at
+ * an insertion or deletion longer than 10 bases close to one of its ends, and a long insertion may run to the end of the
+ * read. Reads are single end and start anywhere in the regions, or proper pairs starting at both ends of the amplicons.
+ * The same seed and options give the same files.
+ */
+public class SyntheticData {
+    private static final String BASES = "ACGT";
+    private static final int MICROSATELLITE_SPACING = 5000;
+    private static final int MICROSATELLITE_LENGTH = 30;
+    /**
+     * Reads are soft clipped at indels longer than this when MAX_CLIP bases or less of the read are on one side
+     */
+    private static final int CLIPPED_INDEL = 10;
+    private static final int MAX_CLIP = 30;
+
+    long seed = 1;
+    int chromosomes = 1;
+    int referenceLength = 100000;
+    int depth = 50;
+    int readLength = 100;
+    /**
+     * Variant sites per reference base
+     */
+    double snvRate = 0.001;
+    double indelRate = 0.0005;
+    /**
+     * Maximum length of the insertions and deletions, e.g. above 30 for realignlgins30
+     */
+    int indelLength = 5;
+    double alleleFrequency = 0.3;
+    /**
+     * Sequencing errors per base
+     */
+    double errorRate = 0.001;
+    /**
+     * Fractions of the reads with a soft clipped end (of up to 30 random bases) and of duplicated reads
+     */
+    double softClipRate = 0.02;
+    double duplicateRate = 0.05;
+    /**
+     * Length of the regions of the BED file, or of the amplicons with option amplicons
+     */
+    int regionLength = 1000;
+    /**
+     * Number of amplicons per chromosome, 0 for regions tiling the chromosomes
+     */
+    int amplicons;
+    /**
+     * Length of the primers, trimmed from the amplicons in the insert columns of the BED file
+     */
+    int primerLength = 20;
+    String sample = "synthetic";
+
+    private final List<String> references = new ArrayList<>();
+    private final List<Map<Integer, Site>> sites = new ArrayList<>();
+
+    /**
+     * Write ref.fa (and .fai), reads.bam (and .bai) and regions.bed to the directory
+     */
+    public void generate(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Couldn't create directory " + dir);
+        }
+        Random random = new Random(seed);
+        references.clear();
+        sites.clear();
+        for (int c = 0; c < chromosomes; c++) {
+            String reference = reference(random);
+            references.add(reference);
+            sites.add(sites(reference, random));
+        }
+        writeFasta(new File(dir, "ref.fa"));
+        List<Region> regions = regions(random);
+        writeBed(new File(dir, "regions.bed"), regions);
+        writeBam(new File(dir, "reads.bam"), regions, random);
+    }
+
+    /**
+     * @return sequence of a chromosome generated by the last call of generate
+     */
+    public String getReference(int chromosome) {
+        return references.get(chromosome);
+    }
+
+    static String chromosome(int index) {
+        return "chr" + (index + 1);
+    }
+
+    private String reference(Random random) {
+        char[] ref = new char[referenceLength];
+        for (int i = 0; i < ref.length; i++) {
+            ref[i] = BASES.charAt(random.nextInt(4));
+        }
+        for (int start = MICROSATELLITE_SPACING / 2; start + MICROSATELLITE_LENGTH < ref.length; start += MICROSATELLITE_SPACING) {
+            String unit = start / MICROSATELLITE_SPACING % 2 == 0 ? "AC" : "AGT";
+            for (int i = 0; i < MICROSATELLITE_LENGTH; i++) {
+                ref[start + i] = unit.charAt(i % unit.length());
+            }
+        }
+        return new String(ref);
+    }
+
+    /**
+     * Variant sites by 0-based position, away from the ends of the chromosome
+     */
+    private Map<Integer, Site> sites(String reference, Random random) {
+        Map<Integer, Site> sites = new HashMap<>();
+        for (int p = readLength; p < reference.length() - readLength - indelLength; p++) {
+            double r = random.nextDouble();
+            if (r < snvRate) {
+                sites.put(p, new Site(Site.SNV, String.valueOf(mutate(reference.charAt(p), random))));
+            } else if (r < snvRate + indelRate) {
+                int length = 1 + random.nextInt(Math.max(indelLength, 1));
+                if (random.nextBoolean()) {
+                    sites.put(p, new Site(Site.DELETION, reference.substring(p, p + length)));
+                } else {
+                    sites.put(p, new Site(Site.INSERTION, randomBases(length, random)));
+                }
+            }
+        }
+        return sites;
+    }
+
+    private List<Region> regions(Random random) {
+        List<Region> regions = new ArrayList<>();
+        for (int c = 0; c < chromosomes; c++) {
+            String chr = chromosome(c);
+            if (amplicons > 0) {
+                int length = Math.max(regionLength, readLength);
+                for (int a = 0; a < amplicons; a++) {
+                    int start = readLength + random.nextInt(Math.max(referenceLength - length - 2 * readLength, 1));
+                    regions.add(new Region(chr, start, start + length - 1, "A" + (regions.size() + 1),
+                            start + primerLength, start + length - 1 - primerLength));
+                }
+            } else {
+                for (int start = 1; start <= referenceLength; start += regionLength) {
+                    regions.add(new Region(chr, start, Math.min(start + regionLength - 1, referenceLength), "R" + (regions.size() + 1)));
+                }
+            }
+        }
+        return regions;
+    }
+
+    private void writeFasta(File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(file)) {
+            for (int c = 0; c < chromosomes; c++) {
+                writer.println(">" + chromosome(c));
+                String reference = references.get(c);
+                for (int i = 0; i < reference.length(); i += 60) {
+                    writer.println(reference.substring(i, Math.min(i + 60, reference.length())));
+                }
+            }
+        }
+        try (PrintWriter writer = new PrintWriter(file.getPath() + ".fai")) {
+            long offset = 0;
+            for (int c = 0; c < chromosomes; c++) {
+                String name = chromosome(c);
+                int length = references.get(c).length();
+                offset += name.length() + 2;
+                writer.println(name + "\t" + length + "\t" + offset + "\t60\t61");
+                offset += length + (length + 59) / 60;
+            }
+        }
+    }
+
+    private void writeBed(File file, List<Region> regions) throws IOException {
+        try (PrintWriter writer = new PrintWriter(file)) {
+            for (Region region : regions) {
+                if (amplicons > 0) {
+                    writer.println(region.chr + "\t" + (region.start - 1) + "\t" + region.end + "\t" + region.gene
+                            + "\t0\t.\t" + (region.istart - 1) + "\t" + region.iend);
+                } else {
+                    writer.println(region.chr + "\t" + (region.start - 1) + "\t" + region.end + "\t" + region.gene);
+                }
+            }
+        }
+    }
+
+    private void writeBam(File file, List<Region> regions, Random random) {
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        for (int c = 0; c < chromosomes; c++) {
+            header.addSequence(new SAMSequenceRecord(chromosome(c), references.get(c).length()));
+        }
+        SAMReadGroupRecord readGroup = new SAMReadGroupRecord("rg");
+        readGroup.setSample(sample);
+        header.addReadGroup(readGroup);
+
+        SAMFileWriterFactory factory = new SAMFileWriterFactory().setCreateIndex(true);
+        try (SAMFileWriter writer = factory.makeBAMWriter(header, false, file)) {
+            int n = 0;
+            for (Region region : regions) {
+                int c = header.getSequenceIndex(region.chr);
+                String reference = references.get(c);
+                int length = region.end - region.start + 1;
+                int reads = (int) ((long) length * depth / readLength);
+                if (amplicons > 0) {
+                    for (int i = 0; i < reads / 2; i++) {
+                        SAMRecord first = read(header, region.chr, reference, sites.get(c), region.start, false, random);
+                        SAMRecord second = read(header, region.chr, reference, sites.get(c), region.end - readLength + 1, true, random);
+                        String name = "r" + n++;
+                        pair(first, second, name, length, true);
+                        pair(second, first, name, length, false);
+                        boolean duplicate = random.nextDouble() < duplicateRate;
+                        add(writer, first, duplicate ? "r" + n : null);
+                        add(writer, second, duplicate ? "r" + n : null);
+                        if (duplicate) {
+                            n++;
+                        }
+                    }
+                } else {
+                    for (int i = 0; i < reads; i++) {
+                        int start = region.start - readLength / 2 + random.nextInt(length);
+                        start = Math.max(1, Math.min(start, reference.length() - readLength - indelLength));
+                        SAMRecord record = read(header, region.chr, reference, sites.get(c), start, random.nextBoolean(), random);
+                        record.setReadName("r" + n++);
+                        add(writer, record, random.nextDouble() < duplicateRate ? "r" + n++ : null);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the read, and a copy of it with the given name unless it's null
+     */
+    private static void add(SAMFileWriter writer, SAMRecord record, String duplicate) {
+        writer.addAlignment(record);
+        if (duplicate != null) {
+            SAMRecord copy = record.deepCopy();
+            copy.setReadName(duplicate);
+            writer.addAlignment(copy);
+        }
+    }
+
+    /**
+     * Set the fields of a read of a proper pair spanning an amplicon of the given length
+     */
+    private static void pair(SAMRecord record, SAMRecord mate, String name, int length, boolean first) {
+        record.setReadName(name);
+        record.setReadPairedFlag(true);
+        record.setProperPairFlag(true);
+        record.setFirstOfPairFlag(first);
+        record.setSecondOfPairFlag(!first);
+        record.setMateReferenceName(mate.getReferenceName());
+        record.setMateAlignmentStart(mate.getAlignmentStart());
+        record.setMateNegativeStrandFlag(mate.getReadNegativeStrandFlag());
+        record.setInferredInsertSize(first ? length : -length);
+    }
+
+    /**
+     * @return read starting at the 1-based position, with the variants of the sites it covers
+     */
+    private SAMRecord read(SAMFileHeader header, String chr, String reference, Map<Integer, Site> sites, int start,
+            boolean reverse, Random random) {
+        StringBuilder seq = new StringBuilder(readLength);
+        List<CigarElement> cigar = new ArrayList<>();
+        int p = start - 1;
+        int matched = 0;
+        boolean indel = false;
+        // first long indel: its CIGAR element, the read bases before and after it and the reference position after it
+        int clipElement = -1;
+        int clipBefore = 0;
+        int clipAfter = 0;
+        int clipStart = 0;
+        while (seq.length() < readLength) {
+            Site site = sites.get(p);
+            if (site != null && seq.length() > 0 && random.nextDouble() < alleleFrequency) {
+                // a deletion within the previous one is not in the read
+                if (site.type == Site.DELETION && (matched > 0 || cigar.get(cigar.size() - 1).getOperator() != CigarOperator.D)) {
+                    matched = flush(cigar, matched, CigarOperator.M);
+                    if (clipElement < 0 && site.bases.length() > CLIPPED_INDEL) {
+                        clipElement = cigar.size();
+                        clipBefore = clipAfter = seq.length();
+                        clipStart = p + site.bases.length();
+                    }
+                    cigar.add(new CigarElement(site.bases.length(), CigarOperator.D));
+                    p += site.bases.length();
+                    indel = true;
+                    continue;
+                } else if (site.type == Site.SNV) {
+                    seq.append(site.bases);
+                    matched++;
+                    p++;
+                    continue;
+                } else if (seq.length() + site.bases.length() < readLength
+                        || clipElement < 0 && site.bases.length() > CLIPPED_INDEL && seq.length() + 1 < readLength) {
+                    // a long insertion may run to the end of the read, which is then clipped
+                    seq.append(reference.charAt(p));
+                    matched = flush(cigar, matched + 1, CigarOperator.M);
+                    String bases = site.bases.substring(0, Math.min(site.bases.length(), readLength - seq.length()));
+                    if (clipElement < 0 && site.bases.length() > CLIPPED_INDEL) {
+                        clipElement = cigar.size();
+                        clipBefore = seq.length();
+                        clipAfter = seq.length() + bases.length();
+                        clipStart = p + 1;
+                    }
+                    seq.append(bases);
+                    cigar.add(new CigarElement(bases.length(), CigarOperator.I));
+                    p++;
+                    indel = true;
+                    continue;
+                }
+            }
+            seq.append(reference.charAt(p++));
+            matched++;
+        }
+        flush(cigar, matched, CigarOperator.M);
+        int alignmentStart = start;
+        // the indel is clipped with the read on its side shorter than MAX_CLIP
+        if (clipElement > 0 && readLength - clipAfter <= Math.min(clipBefore, MAX_CLIP)
+                && cigar.get(clipElement - 1).getOperator() == CigarOperator.M) {
+            List<CigarElement> clipped = new ArrayList<>(cigar.subList(0, clipElement));
+            clipped.add(new CigarElement(readLength - clipBefore, CigarOperator.S));
+            cigar = clipped;
+        } else if (clipElement >= 0 && clipBefore <= MAX_CLIP && clipElement + 1 < cigar.size()
+                && cigar.get(clipElement + 1).getOperator() == CigarOperator.M) {
+            List<CigarElement> clipped = new ArrayList<>();
+            clipped.add(new CigarElement(clipAfter, CigarOperator.S));
+            clipped.addAll(cigar.subList(clipElement + 1, cigar.size()));
+            cigar = clipped;
+            alignmentStart = clipStart + 1;
+        }
+        for (int i = 0; i < seq.length(); i++) {
+            if (random.nextDouble() < errorRate) {
+                seq.setCharAt(i, mutate(seq.charAt(i), random));
+            }
+        }
+
+        if (!indel && random.nextDouble() < softClipRate) {
+            int clip = 5 + random.nextInt(26);
+            for (int i = 0; i < clip; i++) {
+                int j = reverse ? i : seq.length() - 1 - i;
+                seq.setCharAt(j, BASES.charAt(random.nextInt(4)));
+            }
+            cigar.clear();
+            if (reverse) {
+                cigar.add(new CigarElement(clip, CigarOperator.S));
+                cigar.add(new CigarElement(readLength - clip, CigarOperator.M));
+                alignmentStart += clip;
+            } else {
+                cigar.add(new CigarElement(readLength - clip, CigarOperator.M));
+                cigar.add(new CigarElement(clip, CigarOperator.S));
+            }
+        }
+
+        char[] qualities = new char[readLength];
+        for (int i = 0; i < readLength; i++) {
+            qualities[i] = (char) (33 + 25 + random.nextInt(15));
+        }
+        SAMRecord record = new SAMRecord(header);
+        record.setReferenceName(chr);
+        record.setAlignmentStart(alignmentStart);
+        record.setCigar(new Cigar(cigar));
+        record.setMappingQuality(60);
+        record.setReadNegativeStrandFlag(reverse);
+        record.setReadString(seq.toString());
+        record.setBaseQualityString(new String(qualities));
+        record.setAttribute("RG", "rg");
+        record.setAttribute("NM", editDistance(seq, cigar, reference, alignmentStart));
+        return record;
+    }
+
+    /**
+     * @return edit distance of the read to the reference (tag NM): mismatches and inserted and deleted bases
+     */
+    private static int editDistance(CharSequence seq, List<CigarElement> cigar, String reference, int alignmentStart) {
+        int distance = 0;
+        int n = 0;
+        int p = alignmentStart - 1;
+        for (CigarElement element : cigar) {
+            int length = element.getLength();
+            switch (element.getOperator()) {
+                case M:
+                    for (int i = 0; i < length; i++) {
+                        if (seq.charAt(n + i) != reference.charAt(p + i)) {
+                            distance++;
+                        }
+                    }
+                    n += length;
+                    p += length;
+                    break;
+                case I:
+                    distance += length;
+                    n += length;
+                    break;
+                case D:
+                    distance += length;
+                    p += length;
+                    break;
+                default:
+                    n += length;
+                    break;
+            }
+        }
+        return distance;
+    }
+
+    private static int flush(List<CigarElement> cigar, int matched, CigarOperator operator) {
+        if (matched > 0) {
+            cigar.add(new CigarElement(matched, operator));
+        }
+        return 0;
+    }
+
+    private static char mutate(char base, Random random) {
+        char alt;
+        do {
+            alt = BASES.charAt(random.nextInt(4));
+        } while (alt == base);
+        return alt;
+    }
+
+    private static String randomBases(int length, Random random) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(BASES.charAt(random.nextInt(4)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Variant of a site: the alternative base of a SNV, the bases inserted after the site base or the deleted bases
+     */
+    private static class Site {
+        static final int SNV = 0;
+        static final int INSERTION = 1;
+        static final int DELETION = 2;
+
+        final int type;
+        final String bases;
+
+        Site(int type, String bases) {
+            this.type = type;
+            this.bases = bases;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.astrazeneca.vardict;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Locale;
+
+/**
+ * Trace of the analysis (option -y for all of it, or options --trace, --trace-region and --trace-file). Each message has a
+ * category, the stage of the analysis which prints it, and is built only if its category is traced and the region analysed
+ * by the thread overlaps the traced region, so a call site checks {@link #on()} before formatting it. The messages of a
+ * region are buffered by its thread and written together at the end of the region, as text, or as JSON objects, one per
+ * line, if the trace file name ends with .json.
+ */
+public class Trace {
+    /**
+     * Stages of the analysis which trace messages
+     */
+    enum Category {
+        SAM, REALIGNDEL, REALIGNINS, REALIGNLGDEL, REALIGNLGINS, REALIGNLGINS30, MNP, COMBINE;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Trace of nothing, {@link #on()} is always false
+     */
+    static final Trace OFF = new Trace();
+
+    /**
+     * Buffered messages are written before the end of the region over this size
+     */
+    private static final int FLUSH_SIZE = 1 << 16;
+
+    private final boolean enabled;
+    private final EnumSet<Category> categories;
+    private final Region region;
+    private final PrintStream out;
+    private final boolean json;
+    private final ThreadLocal<Context> context = new ThreadLocal<Context>() {
+        @Override
+        protected Context initialValue() {
+            return new Context(region == null);
+        }
+    };
+
+    /**
+     * Region and stage analysed by a thread, and its buffered messages
+     */
+    private static class Context {
+        Region region;
+        Category category = Category.SAM;
+        boolean traced;
+        final StringBuilder buffer = new StringBuilder();
+
+        Context(boolean traced) {
+            this.traced = traced;
+        }
+    }
+
+    private Trace() {
+        enabled = false;
+        categories = EnumSet.noneOf(Category.class);
+        region = null;
+        out = null;
+        json = false;
+    }
+
+    /**
+     * @param categories traced categories
+     * @param region traced region, or null for all regions
+     * @param file trace file, or null for stderr
+     */
+    Trace(Collection<Category> categories, Region region, String file) throws FileNotFoundException {
+        this.enabled = !categories.isEmpty();
+        this.categories = categories.isEmpty() ? EnumSet.noneOf(Category.class) : EnumSet.copyOf(categories);
+        this.region = region;
+        this.out = file != null ? new PrintStream(file) : System.err;
+        this.json = file != null && file.endsWith(".json");
+    }
+
+    /**
+     * @return the category of the label, e.g. realigndel
+     * @throws IllegalArgumentException if there's no such category
+     */
+    static Category category(String label) {
+        for (Category category : Category.values()) {
+            if (category.label.equals(label)) {
+                return category;
+            }
+        }
+        throw new IllegalArgumentException("Unknown trace category " + label);
+    }
+
+    /**
+     * Start tracing the region in this thread
+     */
+    void enter(Region region) {
+        if (!enabled) {
+            return;
+        }
+        Context context = this.context.get();
+        context.region = region;
+        context.category = Category.SAM;
+        context.traced = this.region == null || (region.chr.equals(this.region.chr)
+                && region.start <= this.region.end && region.end >= this.region.start);
+    }
+
+    /**
+     * Write the messages of the region of this thread
+     */
+    void exit() {
+        if (!enabled) {
+            return;
+        }
+        Context context = this.context.get();
+        flush(context);
+        context.region = null;
+        context.traced = region == null;
+    }
+
+    /**
+     * Set the stage of this thread
+     * @return the previous stage, to be restored at the end of a nested stage
+     */
+    Category stage(Category category) {
+        if (!enabled) {
+            return category;
+        }
+        Context context = this.context.get();
+        Category previous = context.category;
+        context.category = category;
+        return previous;
+    }
+
+    /**
+     * @return true if the stage of this thread is traced for its region
+     */
+    boolean on() {
+        if (!enabled) {
+            return false;
+        }
+        Context context = this.context.get();
+        return context.traced && categories.contains(context.category);
+    }
+
+    /**
+     * @return true if the category is traced for the region of this thread, whatever its stage
+     */
+    boolean on(Category category) {
+        if (!enabled) {
+            return false;
+        }
+        Context context = this.context.get();
+        return context.traced && categories.contains(category);
+    }
+
+    /**
+     * Add a message to the trace of this thread, in the category of its stage
+     */
+    void printf(String format, Object... args) {
+        print(context.get().category, String.format(format, args));
+    }
+
+    /**
+     * Add a message to the trace of this thread, in the category of its stage, followed by a line end even if it ends with
+     * one, as System.err.println did (a message ending with "\n" prints a blank line)
+     */
+    void println(String message) {
+        print(context.get().category, message + "\n");
+    }
+
+    /**
+     * Add a message of the category to the trace of this thread, with a line end if it doesn't end with one
+     */
+    void print(Category category, String message) {
+        Context context = this.context.get();
+        StringBuilder sb = context.buffer;
+        if (json) {
+            if (message.endsWith("\n")) {
+                message = message.substring(0, message.length() - 1);
+            }
+            sb.append("{\"thread\":\"").append(escape(Thread.currentThread().getName())).append("\",\"region\":\"");
+            if (context.region != null) {
+                sb.append(escape(context.region.chr)).append(':').append(context.region.start).append('-').append(context.region.end);
+            }
+            sb.append("\",\"category\":\"").append(category.label).append("\",\"message\":\"").append(escape(message)).append("\"}\n");
+        } else {
+            sb.append(message);
+            if (!message.endsWith("\n")) {
+                sb.append('\n');
+            }
+        }
+        if (sb.length() > FLUSH_SIZE) {
+            flush(context);
+        }
+    }
+
+    private void flush(Context context) {
+        if (context.buffer.length() == 0) {
+            return;
+        }
+        synchronized (out) {
+            out.print(context.buffer);
+            out.flush();
+        }
+        context.buffer.setLength(0);
+    }
+
+    private static String escape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\t') {
+                sb.append("\\t");
+            } else if (c < ' ') {
+                sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the messages of this thread and close the trace file
+     */
+    void close() {
+        if (!enabled) {
+            return;
+        }
+        flush(context.get());
+        if (out != System.err) {
+            out.close();
+        }
+    }
+}
@@ -55,12 +55,37 @@ public class VarDict {
         );
     }
 
+    /**
+     * Header row of the output (option -h)
+     */
+    static final String HEADER = join("\t",
+            "Sample", "Gene", "Chr", "Start", "End", "Ref", "Alt", "Depth", "AltDepth", "RefFwdReads",
+            "RefRevReads", "AltFwdReads", "AltRevReads", "Genotype", "AF", "Bias", "PMean", "PStd",
+            "QMean", "QStd", "5pFlankSeq", "3pFlankSeq");
+
+    /**
+     * @return header row of the output, with the columns of option --fisher if it's set and the column Degraded if region
+     * budgets are set
+     */
+    static String header(Configuration conf) {
+        String header = conf.fisher ? HEADER + "\tPValue\tOddRatio" : HEADER;
+        return conf.hasDegradedColumn() ? header + "\tDegraded" : header;
+    }
+
+    /**
+     * Print the column Degraded if region budgets are set (see Configuration#hasDegradedColumn): 1 for the lines of a region
+     * analysed again in degraded mode, else 0
+     */
+    private static void degradedColumn(Configuration conf, LineWriter out) {
+        if (conf.hasDegradedColumn()) {
+            out.col(conf.degraded ? 1 : 0);
+        }
+    }
+
     public static void start(Configuration conf) throws IOException {
-        if (conf.printHeader) {
-            System.out.println(join("\t",
-                    "Sample", "Gene", "Chr", "Start", "End", "Ref", "Alt", "Depth", "AltDepth", "RefFwdReads",
-                    "RefRevReads", "AltFwdReads", "AltRevReads", "Genotype", "AF", "Bias", "PMean", "PStd",
-                    "QMean", "QStd", "5pFlankSeq", "3pFlankSeq"));
+        if (conf.shards > 1 && conf.shardIndex < 0) {
+            new ShardCoordinator(conf).run();
+            return;
         }
 
         Tuple2<String, String> stpl = getSampleNames(conf.bam.getBamRaw(), conf.sampleName, conf.sampleNameRegexp);
@@ -69,9 +94,39 @@ public class VarDict {
 
         Map<String, Integer> chrs = readChr(conf.bam.getBamX());
 
+        if (conf.readThreads > 1) {
+            readExecutor = Executors.newFixedThreadPool(conf.readThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        if (conf.threads > 1 && conf.heapLimit > 0) {
+            governor = new HeapGovernor(conf.threads, conf.heapLimit);
+        }
+
+        if (!conf.traceCategories.isEmpty()) {
+            Region traceRegion = conf.traceRegion != null ? buildRegion(conf.traceRegion, 0, chrs, false) : null;
+            trace = new Trace(conf.traceCategories, traceRegion, conf.traceFile);
+        }
+
+        if (conf.summary > 0) {
+            summary = new RegionMetrics.Summary(conf.summary);
+        }
+
         if (conf.regionOfInterest != null) {
             Region region = buildRegion(conf.regionOfInterest, conf.numberNucleotideToExtend, chrs, conf.isZeroBasedDefined() ? conf.zeroBased : false);
-            nonAmpVardict(singletonList(singletonList(region)), chrs, conf.ampliconBasedCalling, sample, samplem, conf);
+            List<List<Region>> segs = selectShard(singletonList(singletonList(region)), false, conf);
+            try (OutputWriter writer = openWriter(segs, false, sample, samplem, conf)) {
+                if (conf.outputSplicing)
+                    spliceCounts(skipWritten(segs, writer, false), chrs, false, conf.ampliconBasedCalling, sample, writer, conf);
+                else
+                    nonAmpVardict(skipWritten(segs, writer, false), chrs, conf.ampliconBasedCalling, sample, samplem, writer, conf);
+            }
         } else {
             Tuple3<String, Boolean, List<String>> tpl = readBedFile(conf);
             String ampliconBasedCalling = tpl._1;
@@ -79,16 +134,221 @@ public class VarDict {
             List<String> segraw = tpl._3;
 
             if (ampliconBasedCalling != null) {
-                List<List<Region>> segs = toRegions(segraw, chrs, zeroBased != null ? zeroBased : false, conf.delimiter);
-                if (conf.threads == 1)
-                    ampVardictNotParallel(segs, chrs, ampliconBasedCalling, conf.bam.getBam1(), sample, conf);
-                else
-                    ampVardictParallel(segs, chrs, ampliconBasedCalling, conf.bam.getBam1(), sample, conf);
+                List<List<Region>> segs = selectShard(toRegions(segraw, chrs, zeroBased != null ? zeroBased : false, conf.delimiter), true, conf);
+                try (OutputWriter writer = openWriter(segs, true, sample, samplem, conf)) {
+                    segs = skipWritten(segs, writer, true);
+                    if (conf.outputSplicing)
+                        spliceCounts(segs, chrs, true, ampliconBasedCalling, sample, writer, conf);
+                    else if (conf.threads == 1)
+                        ampVardictNotParallel(segs, chrs, ampliconBasedCalling, conf.bam.getBam1(), sample, writer, conf);
+                    else
+                        ampVardictParallel(segs, chrs, ampliconBasedCalling, conf.bam.getBam1(), sample, writer, conf);
+                }
+            } else {
+                List<List<Region>> regions = selectShard(toRegions(segraw, chrs, zeroBased, conf), false, conf);
+                try (OutputWriter writer = openWriter(regions, false, sample, samplem, conf)) {
+                    if (conf.outputSplicing)
+                        spliceCounts(skipWritten(regions, writer, false), chrs, false, null, sample, writer, conf);
+                    else
+                        nonAmpVardict(skipWritten(regions, writer, false), chrs, null, sample, samplem, writer, conf);
+                }
+            }
+        }
+
+        if (readExecutor != null) {
+            readExecutor.shutdown();
+            readExecutor = null;
+        }
+        if (governor != null) {
+            governor.close();
+            governor = null;
+        }
+        progress = null;
+        trace.close();
+        trace = Trace.OFF;
+        if (summary != null) {
+            summary.print(System.err);
+            summary = null;
+        }
+    }
+
+    /**
+     * Open the output, print the header row if option -h is set and add the VCF output if option --vcf is set and the
+     * splice counts output if option --splice-output is set
+     * @param segs regions of the run
+     * @param amplicon true if each list of regions is an amplicon group with one output
+     * @param sample sample name
+     * @param samplem name of the second sample
+     * @param conf Configuration
+     * @return writer of the output
+     * @throws IOException
+     */
+    private static OutputWriter openWriter(List<List<Region>> segs, boolean amplicon, String sample, String samplem,
+            Configuration conf) throws IOException {
+        List<String> keys = new ArrayList<>();
+        for (List<Region> regions : segs) {
+            if (amplicon) {
+                keys.add(regionKey(regions.get(regions.size() - 1)));
+            } else {
+                for (Region region : regions) {
+                    keys.add(regionKey(region));
+                }
+            }
+        }
+        OutputWriter writer = new OutputWriter(conf, keys);
+        if (summary != null) {
+            writer.setSummary(summary);
+        }
+        if (conf.printHeader && !conf.outputSplicing) {
+            writer.header(header(conf));
+        }
+        if (conf.columnar != null) {
+            writer.setColumnar(new ColumnarWriter(conf.columnar, Arrays.asList(header(conf).split("\t")),
+                    conf.printHeader && !conf.outputSplicing));
+        }
+        if (conf.metrics != null) {
+            writer.setMetrics(new RegionMetrics.Writer(conf.metrics));
+        }
+        if (conf.spliceOutput != null) {
+            writer.setSplices(OutputWriter.open(conf.spliceOutput,
+                    conf.spliceOutput.endsWith(".gz") || conf.spliceOutput.endsWith(".bgz"), conf.compressThreads));
+        }
+        if (conf.progress > 0 || conf.statusFile != null) {
+            progress = new ProgressReporter(keyBases(segs, amplicon), writer.getWritten(), conf.progress > 0 ? conf.progress : 10,
+                    conf.progress > 0, conf.statusFile);
+            writer.setProgress(progress);
+        }
+        if (conf.vcf != null) {
+            List<String> samples;
+            if (conf.bam.hasBam2() && !amplicon) {
+                Tuple2<String, String> stpl = getSampleNames(sample, samplem, conf.bam.getBam1(), conf.bam.getBam2(), conf.sampleName, conf.sampleNameRegexp);
+                samples = Arrays.asList(stpl._1, stpl._2);
             } else {
-                List<List<Region>> regions = toRegions(segraw, chrs, zeroBased, conf);
-                nonAmpVardict(regions, chrs, null, sample, samplem, conf);
+                samples = singletonList(sample);
+            }
+            try (SamReader reader = SamReaderFactory.makeDefault().open(new File(conf.bam.getBamX()))) {
+                writer.setVcf(new VcfWriter(conf, reader.getFileHeader().getSequenceDictionary(), samples));
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * @return bases of each output unit, in the order of the keys of the writer
+     */
+    private static long[] keyBases(List<List<Region>> segs, boolean amplicon) {
+        List<Long> bases = new ArrayList<>();
+        for (List<Region> regions : segs) {
+            long sum = 0;
+            for (Region region : regions) {
+                if (amplicon) {
+                    sum += region.end - region.start + 1;
+                } else {
+                    bases.add((long) (region.end - region.start + 1));
+                }
+            }
+            if (amplicon) {
+                bases.add(sum);
+            }
+        }
+        long[] result = new long[bases.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bases.get(i);
+        }
+        return result;
+    }
+
+    private static String regionKey(Region region) {
+        return region.chr + ":" + region.start + "-" + region.end;
+    }
+
+    /**
+     * Remove regions already written by a previous run (see option --journal)
+     * @param segs regions of the run
+     * @param writer writer of the output
+     * @param amplicon true if each list of regions is an amplicon group with one output
+     * @return regions to be analysed
+     */
+    private static List<List<Region>> skipWritten(List<List<Region>> segs, OutputWriter writer, boolean amplicon) {
+        int skip = writer.getWritten();
+        if (skip == 0) {
+            return segs;
+        }
+        List<List<Region>> rest = new ArrayList<>();
+        for (List<Region> regions : segs) {
+            if (amplicon) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    rest.add(regions);
+                }
+                continue;
+            }
+            List<Region> list = new ArrayList<>();
+            for (Region region : regions) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    list.add(region);
+                }
+            }
+            if (!list.isEmpty()) {
+                rest.add(list);
+            }
+        }
+        return rest;
+    }
+
+    /**
+     * Select the regions of the shard analysed by a worker process of a sharded run (option --shards).
+     * Regions (or amplicon groups) are split in contiguous parts of similar cost, estimated by the length of the regions,
+     * so the outputs of the shards concatenated in order are the output of a single process.
+     * @param segs regions of the run
+     * @param amplicon true if each list of regions is an amplicon group with one output
+     * @param conf Configuration
+     * @return regions of the shard, or all regions if the run is not sharded
+     */
+    static List<List<Region>> selectShard(List<List<Region>> segs, boolean amplicon, Configuration conf) {
+        if (conf.shardIndex < 0) {
+            return segs;
+        }
+        long total = 0;
+        for (List<Region> regions : segs) {
+            for (Region region : regions) {
+                total += region.end - region.start + 1;
             }
         }
+        List<List<Region>> shard = new ArrayList<>();
+        long done = 0;
+        for (List<Region> regions : segs) {
+            List<Region> list = new ArrayList<>();
+            long groupCost = 0;
+            for (Region region : regions) {
+                long cost = region.end - region.start + 1;
+                if (amplicon) {
+                    groupCost += cost;
+                } else {
+                    if (shardOf(done + cost / 2, total, conf.shards) == conf.shardIndex) {
+                        list.add(region);
+                    }
+                    done += cost;
+                }
+            }
+            if (amplicon) {
+                if (shardOf(done + groupCost / 2, total, conf.shards) == conf.shardIndex) {
+                    list = regions;
+                }
+                done += groupCost;
+            }
+            if (!list.isEmpty()) {
+                shard.add(list);
+            }
+        }
+        return shard;
+    }
+
+    private static int shardOf(long position, long total, int shards) {
+        return total == 0 ? 0 : (int) Math.min(shards - 1, position * shards / total);
     }
 
     /**
@@ -263,27 +523,118 @@ public class VarDict {
         return tuple(a, zeroBased, segraw);
     }
 
-    private static void nonAmpVardict(List<List<Region>> segs, Map<String, Integer> chrs, String ampliconBasedCalling, String sample, String samplem, Configuration conf) throws IOException {
+    private static void nonAmpVardict(List<List<Region>> segs, Map<String, Integer> chrs, String ampliconBasedCalling, String sample, String samplem,
+            OutputWriter writer, Configuration conf) throws IOException {
 
         if (conf.bam.hasBam2()) {
             Tuple2<String, String> stpl = getSampleNames(sample, samplem, conf.bam.getBam1(), conf.bam.getBam2(), conf.sampleName, conf.sampleNameRegexp);
             sample = stpl._1;
             samplem = stpl._2;
             if (conf.threads == 1)
-                somaticNotParallel(segs, chrs, ampliconBasedCalling, sample, samplem, conf);
+                somaticNotParallel(segs, chrs, ampliconBasedCalling, sample, samplem, writer, conf);
             else
-                somaticParallel(segs, chrs, ampliconBasedCalling, sample, samplem, conf);
+                somaticParallel(segs, chrs, ampliconBasedCalling, sample, samplem, writer, conf);
         } else {
             if (conf.threads == 1)
-                vardictNotParallel(segs, chrs, ampliconBasedCalling, sample, conf);
+                vardictNotParallel(segs, chrs, ampliconBasedCalling, sample, writer, conf);
             else
-                vardictParallel(segs, chrs, ampliconBasedCalling, sample, conf);
+                vardictParallel(segs, chrs, ampliconBasedCalling, sample, writer, conf);
+        }
+    }
+
+    /**
+     * Analysis of a region (or of a group of amplicons) printing to the given stream
+     */
+    private interface RegionAnalysis<E extends Exception> {
+        void run(Configuration conf, LineWriter out) throws E;
+    }
+
+    /**
+     * Run the analysis of a region. If the region exceeds its budget (options --region-time, --region-reads and
+     * --region-heap), it's analysed again in degraded mode (see Configuration#degraded), which its output lines record in
+     * the column Degraded and its VCF records in the filter Degraded. The metrics of the region (option --metrics) are attached to its output, the analysis
+     * is a flight recorder event (see Events) and its trace is written at its end (see Trace). The splice counts of its
+     * pileups (option --splice-output) are attached to the output as well.
+     * @param region region
+     * @param splice set of strings representing spliced regions, cleared before the re-run
+     * @param conf Configuration of the region (see Configuration#forRegion)
+     * @param analysis analysis of the region
+     * @return output of the region
+     */
+    private static <E extends Exception> OutputStream analyseRegion(Region region, Set<String> splice, Configuration conf,
+            RegionAnalysis<E> analysis) throws E {
+        // the reference of the region is fetched before its analysis, but counts in its wall time
+        long start = System.nanoTime() - (conf.regionMetrics != null ? conf.regionMetrics.wall(RegionMetrics.Stage.GET_REF) : 0);
+        Events.Span span = Events.region(region);
+        trace.enter(region);
+        try (LineWriter out = new LineWriter()) {
+            analysis.run(conf, out);
+            return endRegion(out.getOutput(), region, start, false, span, conf);
+        } catch (RegionBudget.Exceeded e) {
+            System.err.println(e.getMessage() + ". It will be analysed without local realignment and with downsampling.");
+        }
+        splice.clear();
+        Configuration degradedConf = conf.degraded();
+        try (LineWriter out = new LineWriter()) {
+            analysis.run(degradedConf, out);
+            return endRegion(out.getOutput(), region, start, true, span, degradedConf);
+        }
+    }
+
+    /**
+     * End the analysis of a region: attach its metrics and splice counts to the output, end its event and write its trace
+     */
+    private static LineWriter.Output endRegion(LineWriter.Output output, Region region, long start, boolean degraded,
+            Events.Span span, Configuration conf) {
+        trace.exit();
+        if (span != Events.Span.NONE) {
+            span.end(0, output.lines());
+        }
+        if (conf.regionMetrics != null) {
+            conf.regionMetrics.finish(region, System.nanoTime() - start, degraded);
+            output.metrics = conf.regionMetrics;
+        }
+        if (conf.spliceCounts != null) {
+            output.splices = conf.spliceCounts.print();
+        }
+        if (progress != null) {
+            progress.analysed();
+        }
+        return output;
+    }
+
+    /**
+     * Get the reference of a region, timed as stage getREF of the metrics of the configuration
+     */
+    private static Map<Integer, Character> getREF(Region region, Map<String, Integer> chrs, Configuration conf) throws IOException {
+        RegionMetrics.Timer timer = RegionMetrics.timer(conf);
+        Map<Integer, Character> ref = getREF(region, chrs, conf.fasta, conf.numberNucleotideToExtend);
+        timer.lap(RegionMetrics.Stage.GET_REF);
+        return ref;
+    }
+
+    /**
+     * Get result of a future, rethrowing the budget exception of its region
+     */
+    private static <T> T getWithinBudget(Future<T> future) throws InterruptedException, ExecutionException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RegionBudget.Exceeded) {
+                throw (RegionBudget.Exceeded) e.getCause();
+            }
+            throw e;
         }
     }
 
-    private static void vardictParallel(final List<List<Region>> segs, final Map<String, Integer> chrs, final String ampliconBasedCalling, final String sample, final Configuration conf) throws IOException {
+    private static void vardictParallel(final List<List<Region>> segs, final Map<String, Integer> chrs, final String ampliconBasedCalling, final String sample,
+            final OutputWriter writer, final Configuration conf) throws IOException {
         final ExecutorService executor = Executors.newFixedThreadPool(conf.threads);
         final BlockingQueue<Future<OutputStream>> toPrint = new LinkedBlockingQueue<>(10);
+        final SpillWriter spill = openSpill(10, conf);
+        if (progress != null) {
+            progress.watch((ThreadPoolExecutor) executor, toPrint);
+        }
         executor.submit(new Runnable() {
 
             @Override
@@ -291,46 +642,51 @@ public class VarDict {
                 try {
                     for (List<Region> list : segs) {
                         for (Region region : list) {
-                            toPrint.put(executor.submit(new VardictWorker(region, chrs, new HashSet<String>(), ampliconBasedCalling, sample, conf)));
+                            long ticket = admit(region.end - region.start + 1);
+                            Callable<OutputStream> task = released(new VardictWorker(region, chrs, new HashSet<String>(), ampliconBasedCalling, sample, conf.forRegion(sample, singletonList(region))), ticket);
+                            if (spill != null) {
+                                spill.submit(executor, task);
+                            } else {
+                                toPrint.put(executor.submit(task));
+                            }
                         }
                     }
-                    toPrint.put(NULL_FUTURE);
                 } catch (InterruptedException e) {
                     e.printStackTrace();
+                } finally {
+                    finish(spill, toPrint);
                 }
             }
         });
 
-        try {
-            while (true) {
-                Future<OutputStream> wrk = toPrint.take();
-                if (wrk == NULL_FUTURE) {
-                    break;
-                }
-                System.out.print(wrk.get());
-            }
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
-        }
-
+        print(toPrint, spill, writer);
         executor.shutdown();
 
     }
 
-    private static void vardictNotParallel(final List<List<Region>> segs, final Map<String, Integer> chrs, final String ampliconBasedCalling, final String sample, final Configuration conf) throws IOException {
+    private static void vardictNotParallel(final List<List<Region>> segs, final Map<String, Integer> chrs, final String ampliconBasedCalling, final String sample,
+            final OutputWriter writer, final Configuration conf) throws IOException {
         for (List<Region> list : segs) {
             for (Region region : list) {
-                Map<Integer, Character> ref = getREF(region, chrs, conf.fasta, conf.numberNucleotideToExtend);
+                Configuration rconf = conf.forRegion(sample, singletonList(region));
+                Map<Integer, Character> ref = getREF(region, chrs, rconf);
                 final Set<String> splice = new HashSet<>();
-                Tuple2<Integer, Map<Integer, Vars>> tpl = toVars(region, conf.bam.getBam1(), ref, chrs, sample, splice, ampliconBasedCalling, 0, conf);
-                vardict(region, tpl._2, sample, splice, conf, System.out);
+                writer.write(analyseRegion(region, splice, rconf, (regionConf, out) -> {
+                    Tuple2<Integer, Map<Integer, Vars>> tpl = toVars(region, regionConf.bam.getBam1(), ref, chrs, sample, splice, ampliconBasedCalling, 0, regionConf);
+                    vardict(region, tpl._2, sample, splice, regionConf, out);
+                }));
             }
         }
     }
 
-    private static void somaticParallel(final List<List<Region>> segs, final Map<String, Integer> chrs, final String ampliconBasedCalling, final String sample, String samplem, final Configuration conf) throws IOException {
+    private static void somaticParallel(final List<List<Region>> segs, final Map<String, Integer> chrs, final String ampliconBasedCalling, final String sample, String samplem,
+            final OutputWriter writer, final Configuration conf) throws IOException {
         final ExecutorService executor = Executors.newFixedThreadPool(conf.threads);
         final BlockingQueue<Future<OutputStream>> toSamdict = new LinkedBlockingQueue<>(10);
+        final SpillWriter spill = openSpill(10, conf);
+        if (progress != null) {
+            progress.watch((ThreadPoolExecutor) executor, toSamdict);
+        }
 
         executor.submit(new Runnable() {
 
@@ -339,49 +695,221 @@ public class VarDict {
                 try {
                     for (List<Region> list : segs) {
                         for (Region region : list) {
+                            long ticket = admit(2L * (region.end - region.start + 1));
                             final Set<String> splice = new ConcurrentHashSet<>();
-                            Map<Integer, Character> ref = getREF(region, chrs, conf.fasta, conf.numberNucleotideToExtend);
-                            Future<Tuple2<Integer, Map<Integer, Vars>>> f1 = executor.submit(new ToVarsWorker(region, conf.bam.getBam1(), chrs, sample, splice, ampliconBasedCalling, ref, conf));
-                            Future<OutputStream> f2 = executor.submit(new SomdictWorker(region, conf.bam.getBam2(), chrs, splice, ampliconBasedCalling, ref, conf, f1, sample));
-                            toSamdict.put(f2);
+                            Configuration rconf = conf.forRegion(sample, singletonList(region));
+                            Map<Integer, Character> ref = getREF(region, chrs, rconf);
+                            Future<Tuple2<Integer, Map<Integer, Vars>>> f1 = executor.submit(new ToVarsWorker(region, conf.bam.getBam1(), chrs, sample, splice, ampliconBasedCalling, ref, rconf));
+                            Callable<OutputStream> f2 = released(new SomdictWorker(region, conf.bam.getBam2(), chrs, splice, ampliconBasedCalling, ref, rconf, f1, conf.bam.getBam1(), sample, samplem), ticket);
+                            if (spill != null) {
+                                spill.submit(executor, f2);
+                            } else {
+                                toSamdict.put(executor.submit(f2));
+                            }
                         }
                     }
-                    toSamdict.put(NULL_FUTURE);
                 } catch (IOException | InterruptedException e) {
                     e.printStackTrace();
+                } finally {
+                    finish(spill, toSamdict);
                 }
             }
         });
 
-        try {
-            while (true) {
-                Future<OutputStream> wrk = toSamdict.take();
-                if (wrk == NULL_FUTURE) {
-                    break;
-                }
-                System.out.print(wrk.get());
-            }
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
-        }
+        print(toSamdict, spill, writer);
         executor.shutdown();
     }
 
     private static void somaticNotParallel(final List<List<Region>> segs,
             final Map<String, Integer> chrs, final String ampliconBasedCalling,
-            final String sample, String samplem, final Configuration conf) throws IOException {
+            final String sample, String samplem, final OutputWriter writer, final Configuration conf) throws IOException {
         for (List<Region> list : segs) {
             for (Region region : list) {
                 final Set<String> splice = new ConcurrentHashSet<>();
-                Map<Integer, Character> ref = getREF(region, chrs, conf.fasta, conf.numberNucleotideToExtend);
-                Tuple2<Integer, Map<Integer, Vars>> t1 = toVars(region, conf.bam.getBam1(), ref, chrs, sample, splice, ampliconBasedCalling, 0, conf);
-                Tuple2<Integer, Map<Integer, Vars>> t2 = toVars(region, conf.bam.getBam2(), ref, chrs, sample, splice, ampliconBasedCalling, t1._1, conf);
-                somdict(region, t1._2, t2._2, sample, chrs, splice, ampliconBasedCalling, Math.max(t1._1, t2._1), conf, System.out);
+                Configuration rconf = conf.forRegion(sample, singletonList(region));
+                Map<Integer, Character> ref = getREF(region, chrs, rconf);
+                writer.write(analyseRegion(region, splice, rconf, (regionConf, out) -> {
+                    Tuple2<Integer, Map<Integer, Vars>> t1 = toVars(region, regionConf.bam.getBam1(), ref, chrs, sample, splice, ampliconBasedCalling, 0, regionConf);
+                    Tuple2<Integer, Map<Integer, Vars>> t2 = toVars(region, regionConf.bam.getBam2(), ref, chrs, sample, splice, ampliconBasedCalling, t1._1, regionConf);
+                    somdict(region, t1._2, t2._2, sample, samplem, chrs, splice, ampliconBasedCalling, Math.max(t1._1, t2._1), regionConf, out);
+                }));
+            }
+        }
+
+    }
+
+    /**
+     * Count the spliced reads of the regions (option -i) without piling up the reads. Each region (or amplicon group) prints its introns, sorted by start and end, as "sample chr start-end count"
+     * lines through the writer, so the counts are in region order whatever the number of threads.
+     * @param segs regions of the run
+     * @param amplicon true if each list of regions is an amplicon group with one output
+     */
+    private static void spliceCounts(List<List<Region>> segs, final Map<String, Integer> chrs, final boolean amplicon,
+            final String ampliconBasedCalling, final String sample, OutputWriter writer, final Configuration conf) throws IOException {
+        final List<List<Region>> outputs = new ArrayList<>();
+        for (List<Region> list : segs) {
+            if (amplicon) {
+                outputs.add(list);
+            } else {
+                for (Region region : list) {
+                    outputs.add(singletonList(region));
+                }
+            }
+        }
+        if (conf.threads == 1) {
+            for (List<Region> regions : outputs) {
+                writer.write(spliceCounts(regions, chrs, ampliconBasedCalling, sample, conf));
+            }
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(conf.threads);
+        final BlockingQueue<Future<OutputStream>> toPrint = new LinkedBlockingQueue<>(10);
+        final SpillWriter spill = openSpill(10, conf);
+        if (progress != null) {
+            progress.watch((ThreadPoolExecutor) executor, toPrint);
+        }
+        executor.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    for (final List<Region> regions : outputs) {
+                        Callable<OutputStream> task = new Callable<OutputStream>() {
+                            @Override
+                            public OutputStream call() throws Exception {
+                                return spliceCounts(regions, chrs, ampliconBasedCalling, sample, conf);
+                            }
+                        };
+                        if (spill != null) {
+                            spill.submit(executor, task);
+                        } else {
+                            toPrint.put(executor.submit(task));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    finish(spill, toPrint);
+                }
+            }
+        });
+
+        print(toPrint, spill, writer);
+        executor.shutdown();
+    }
+
+    /**
+     * @return splice counts of the regions, in the given order
+     */
+    private static OutputStream spliceCounts(List<Region> regions, Map<String, Integer> chrs, String ampliconBasedCalling,
+            String sample, Configuration conf) throws IOException {
+        String[] bams = conf.bam.hasBam2() ? new String[] { conf.bam.getBam1(), conf.bam.getBam2() } : new String[] { conf.bam.getBam1() };
+        try (LineWriter out = new LineWriter()) {
+            for (Region region : regions) {
+                Map<Integer, Character> ref = conf.performLocalRealignment
+                        ? getREF(region, chrs, conf.fasta, conf.numberNucleotideToExtend)
+                        : new HashMap<Integer, Character>();
+                Map<String, int[]> counts = new HashMap<>();
+                for (String bam : bams) {
+                    Pileup pileup = readPileup(region, bam.split(":"), chrs, new HashSet<String>(), ampliconBasedCalling, 0, ref, null, conf);
+                    for (Entry<String, int[]> entry : pileup.spliceCnt.entrySet()) {
+                        int[] cnt = counts.get(entry.getKey());
+                        if (cnt == null) {
+                            counts.put(entry.getKey(), entry.getValue());
+                        } else {
+                            cnt[0] += entry.getValue()[0];
+                        }
+                    }
+                }
+                printSplices(sample, region, counts, out);
+            }
+            return out.getOutput();
+        }
+    }
+
+    /**
+     * Print the splice counts of a region, sorted by start and end, as "sample chr start-end count" lines
+     */
+    private static void printSplices(String sample, Region region, Map<String, int[]> counts, LineWriter out) {
+        List<String> introns = new ArrayList<>(counts.keySet());
+        Collections.sort(introns, INTRON_ORDER);
+        for (String intron : introns) {
+            out.col(sample).col(region.chr).col(intron).col(counts.get(intron)[0]).endLine();
+        }
+    }
+
+    /**
+     * Splice counts of the regions of an output (option --splice-output), summed over the pileups of the analysis: those of
+     * both BAM files of a region and those of each region of an amplicon group. They are the counts of option -i.
+     */
+    static class SpliceCounts {
+        private final String sample;
+        private final List<Region> regions;
+        private final Map<Region, Map<String, int[]>> counts = new IdentityHashMap<>();
+
+        /**
+         * @param sample sample name of the lines
+         * @param regions regions of the output, in output order
+         */
+        SpliceCounts(String sample, List<Region> regions) {
+            this.sample = sample;
+            this.regions = regions;
+        }
+
+        /**
+         * Add the splice counts of a pileup. Pileups of other regions, such as those of combineAnalysis, are not counted.
+         */
+        synchronized void add(Region region, Map<String, int[]> spliceCnt) {
+            if (!regions.contains(region)) {
+                return;
             }
+            Map<String, int[]> sum = counts.get(region);
+            if (sum == null) {
+                sum = new HashMap<>();
+                counts.put(region, sum);
+            }
+            for (Entry<String, int[]> entry : spliceCnt.entrySet()) {
+                getOrElse(sum, entry.getKey(), new int[] { 0 })[0] += entry.getValue()[0];
+            }
+        }
+
+        /**
+         * @return empty counts of the same regions, for the re-run of the regions in degraded mode
+         */
+        SpliceCounts restart() {
+            return new SpliceCounts(sample, regions);
         }
 
+        /**
+         * @return splice count lines of the regions, in order
+         */
+        synchronized LineWriter.Output print() {
+            try (LineWriter out = new LineWriter()) {
+                for (Region region : regions) {
+                    Map<String, int[]> regionCounts = counts.get(region);
+                    if (regionCounts != null) {
+                        printSplices(sample, region, regionCounts, out);
+                    }
+                }
+                return out.getOutput();
+            }
+        }
     }
 
+    /**
+     * Order of the introns "start-end" by start, then end
+     */
+    private static final Comparator<String> INTRON_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String o1, String o2) {
+            int d1 = o1.indexOf('-', 1);
+            int d2 = o2.indexOf('-', 1);
+            int c = Long.compare(Long.parseLong(o1.substring(0, d1)), Long.parseLong(o2.substring(0, d2)));
+            return c != 0 ? c : Long.compare(Long.parseLong(o1.substring(d1 + 1)), Long.parseLong(o2.substring(d2 + 1)));
+        }
+    };
+
     final static Pattern SAMPLE_PATTERN = Pattern.compile("([^\\/\\._]+).sorted[^\\/]*.bam");
     final static Pattern SAMPLE_PATTERN2 = Pattern.compile("([^\\/]+)[_\\.][^\\/]*bam");
 
@@ -447,6 +975,7 @@ public class VarDict {
      * @param vars1 variants from BAM1
      * @param vars2 variants from BAM2
      * @param sample sample name
+     * @param samplem name of the second sample
      * @param chrs map of chromosome lengths
      * @param splice set of strings representing introns in splice
      * @param ampliconBasedCalling string of maximum_distance:minimum_overlap for amplicon based calling
@@ -457,19 +986,20 @@ public class VarDict {
      * @throws IOException
      */
     static int somdict(Region segs, Map<Integer, Vars> vars1, Map<Integer, Vars> vars2,
-            String sample,
+            String sample, String samplem,
             Map<String, Integer> chrs,
             Set<String> splice,
             String ampliconBasedCalling,
             int rlen,
-            Configuration conf, PrintStream out) throws IOException {
+            Configuration conf, LineWriter out) throws IOException {
+
+        RegionMetrics.Timer timer = RegionMetrics.timer(conf);
+        List<String> samples = conf.vcf != null ? Arrays.asList(sample, samplem) : null;
 
-        Set<Integer> ps = new HashSet<>(vars1.keySet());
-        ps.addAll(vars2.keySet());
-        List<Integer> pp = new ArrayList<>(ps);
-        Collections.sort(pp);
+        PositionIndex pp = PositionIndex.of(vars1.keySet()).union(PositionIndex.of(vars2.keySet()));
 
-        for (Integer p : pp) {
+        for (int i = 0; i < pp.size(); i++) {
+            final int p = pp.get(i);
             Vars v1 = vars1.get(p);
             Vars v2 = vars2.get(p);
             if (v1 == null && v2 == null) { // both samples have no coverage
@@ -491,25 +1021,33 @@ public class VarDict {
                 if (vartype.equals("Complex")) {
                     adjComplex(var);
                 }
-                out.println(join("\t", sample, segs.gene, segs.chr,
-                        var.sp,
-                        var.ep,
-                        var.refallele,
-                        var.varallele,
+                out.col(sample).col(segs.gene).col(segs.chr)
+                        .col(var.sp)
+                        .col(var.ep)
+                        .col(var.refallele)
+                        .col(var.varallele)
 
-                        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                        .zeros(18);
 
-                        joinVar2(var, "\t"),
-                        format("%.1f", var.nm),
+                printVar2(out, var)
+                        .col(var.nm, 1)
 
-                        var.shift3,
-                        var.msi == 0 ? 0 : format("%.3f", var.msi),
-                        var.msint,
-                        var.leftseq,
-                        var.rightseq,
+                        .col(var.shift3)
+                        .colOrZero(var.msi, 3)
+                        .col(var.msint)
+                        .col(var.leftseq)
+                        .col(var.rightseq)
 
-                        segs.chr + ":" + segs.start + "-" + segs.end,
-                        "Deletion", vartype));
+                        .col(segs)
+                        .col("Deletion").col(vartype);
+                if (conf.fisher) {
+                    FisherExact.somatic(null, 0, var, 0).columns(out);
+                }
+                degradedColumn(conf, out);
+                out.endLine();
+                if (samples != null) {
+                    out.record(VcfWriter.paired(var, null, 0, var, 0, var, segs.chr, samples, "Deletion", vartype, conf));
+                }
             } else if (v2 == null) { // no coverage for sample 2
                 if (v1.var.isEmpty()) {
                     continue;
@@ -522,26 +1060,34 @@ public class VarDict {
                 if (vartype.equals("Complex")) {
                     adjComplex(var);
                 }
-                out.println(join("\t", sample, segs.gene, segs.chr,
+                out.col(sample).col(segs.gene).col(segs.chr)
 
-                        var.sp,
-                        var.ep,
-                        var.refallele,
-                        var.varallele,
+                        .col(var.sp)
+                        .col(var.ep)
+                        .col(var.refallele)
+                        .col(var.varallele);
 
-                        joinVar2(var, "\t"),
-                        format("%.1f", var.nm),
+                printVar2(out, var)
+                        .col(var.nm, 1)
 
-                        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                        .zeros(18)
 
-                        var.shift3,
-                        var.msi == 0 ? 0 : format("%.3f", var.msi),
-                        var.msint,
-                        var.leftseq,
-                        var.rightseq,
+                        .col(var.shift3)
+                        .colOrZero(var.msi, 3)
+                        .col(var.msint)
+                        .col(var.leftseq)
+                        .col(var.rightseq)
 
-                        segs.chr + ":" + segs.start + "-" + segs.end,
-                        "SampleSpecific", vartype));
+                        .col(segs)
+                        .col("SampleSpecific").col(vartype);
+                if (conf.fisher) {
+                    FisherExact.somatic(var, 0, null, 0).columns(out);
+                }
+                degradedColumn(conf, out);
+                out.endLine();
+                if (samples != null) {
+                    out.record(VcfWriter.paired(var, var, 0, null, 0, var, segs.chr, samples, "SampleSpecific", vartype, conf));
+                }
 
             } else { // both samples have coverage
                 if (v1.var.isEmpty() && v2.var.isEmpty()) {
@@ -605,26 +1151,34 @@ public class VarDict {
                             if (isNoise(v2nt, conf.goodq, conf.lofreq) && vartype.equals("SNV")) {
                                 type = "StrongSomatic";
                             }
-                            out.println(join("\t", sample, segs.gene, segs.chr,
-                                    vref.sp,
-                                    vref.ep,
-                                    vref.refallele,
-                                    vref.varallele,
-
-                                    joinVar2(vref, "\t"),
-                                    format("%.1f", vref.nm),
-
-                                    joinVar2(v2nt, "\t"),
-                                    format("%.1f", v2nt.nm),
-
-                                    v2nt.shift3,
-                                    v2nt.msi == 0 ? 0 : format("%.3f", v2nt.msi),
-                                    v2nt.msint,
-                                    v2nt.leftseq,
-                                    v2nt.rightseq,
-
-                                    segs.chr + ":" + segs.start + "-" + segs.end,
-                                    type, vartype));
+                            out.col(sample).col(segs.gene).col(segs.chr)
+                                    .col(vref.sp)
+                                    .col(vref.ep)
+                                    .col(vref.refallele)
+                                    .col(vref.varallele);
+
+                            printVar2(out, vref)
+                                    .col(vref.nm, 1);
+
+                            printVar2(out, v2nt)
+                                    .col(v2nt.nm, 1)
+
+                                    .col(v2nt.shift3)
+                                    .colOrZero(v2nt.msi, 3)
+                                    .col(v2nt.msint)
+                                    .col(v2nt.leftseq)
+                                    .col(v2nt.rightseq)
+
+                                    .col(segs)
+                                    .col(type).col(vartype);
+                            if (conf.fisher) {
+                                FisherExact.somatic(vref, 0, v2nt, 0).columns(out);
+                            }
+                            degradedColumn(conf, out);
+                            out.endLine();
+                            if (samples != null) {
+                                out.record(VcfWriter.paired(vref, vref, 0, v2nt, 0, v2nt, segs.chr, samples, type, vartype, conf));
+                            }
 
                         } else { // sample 1 only, should be strong somatic
                             String type = "StrongSomatic";
@@ -643,55 +1197,71 @@ public class VarDict {
                                 }
                             }
                             if (type.equals("StrongSomatic")) {
-                                String tvf;
+                                out.col(sample).col(segs.gene).col(segs.chr)
+                                        .col(vref.sp)
+                                        .col(vref.ep)
+                                        .col(vref.refallele)
+                                        .col(vref.varallele);
+
+                                printVar2(out, vref)
+                                        .col(vref.nm, 1);
+
+                                Variant v2ref = null;
+                                int tcov = 0;
                                 if (v2.ref == null) {
                                     Variant v2m = getVarMaybe(v2, var, 0);
-                                    int tcov = v2m != null && v2m.tcov != 0 ? v2m.tcov : 0;
-                                    tvf = join("\t", tcov, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+                                    tcov = v2m != null && v2m.tcov != 0 ? v2m.tcov : 0;
+                                    out.col(tcov).zeros(17);
                                 } else {
-                                    Variant v2ref = vars2.get(p).ref;
-                                    tvf = join("\t", joinVar2(v2ref, "\t"), format("%.1f", v2ref.nm));
+                                    v2ref = vars2.get(p).ref;
+                                    printVar2(out, v2ref).col(v2ref.nm, 1);
+                                }
+                                out.col(vref.shift3)
+                                        .colOrZero(vref.msi, 3)
+                                        .col(vref.msint)
+                                        .col(vref.leftseq)
+                                        .col(vref.rightseq)
+
+                                        .col(segs)
+                                        .col("StrongSomatic").col(vartype);
+                                if (conf.fisher) {
+                                    FisherExact.somatic(vref, 0, v2ref, tcov).columns(out);
+                                }
+                                degradedColumn(conf, out);
+                                out.endLine();
+                                if (samples != null) {
+                                    out.record(VcfWriter.paired(vref, vref, 0, v2ref, tcov, vref, segs.chr, samples, "StrongSomatic", vartype, conf));
                                 }
-                                out.println(join("\t", sample, segs.gene, segs.chr,
-                                        vref.sp,
-                                        vref.ep,
-                                        vref.refallele,
-                                        vref.varallele,
-
-                                        joinVar2(vref, "\t"),
-                                        format("%.1f", vref.nm),
-
-                                        tvf,
-                                        vref.shift3,
-                                        vref.msi == 0 ? 0 : format("%.3f", vref.msi),
-                                        vref.msint,
-                                        vref.leftseq,
-                                        vref.rightseq,
-
-                                        segs.chr + ":" + segs.start + "-" + segs.end,
-                                        "StrongSomatic", vartype));
                             } else {
-                                out.println(join("\t", sample, segs.gene, segs.chr,
+                                out.col(sample).col(segs.gene).col(segs.chr)
 
-                                        vref.sp,
-                                        vref.ep,
-                                        vref.refallele,
-                                        vref.varallele,
+                                        .col(vref.sp)
+                                        .col(vref.ep)
+                                        .col(vref.refallele)
+                                        .col(vref.varallele);
 
-                                        joinVar2(vref, "\t"),
-                                        format("%.1f", vref.nm),
+                                printVar2(out, vref)
+                                        .col(vref.nm, 1);
 
-                                        joinVar2(v2nt, "\t"),
-                                        format("%.1f", v2nt.nm),
+                                printVar2(out, v2nt)
+                                        .col(v2nt.nm, 1)
 
-                                        vref.shift3,
-                                        vref.msi == 0 ? 0 : format("%.3f", vref.msi),
-                                        vref.msint,
-                                        vref.leftseq,
-                                        vref.rightseq,
-                                        segs.chr + ":" + segs.start + "-" + segs.end,
+                                        .col(vref.shift3)
+                                        .colOrZero(vref.msi, 3)
+                                        .col(vref.msint)
+                                        .col(vref.leftseq)
+                                        .col(vref.rightseq)
+                                        .col(segs)
 
-                                        type, vartype));
+                                        .col(type).col(vartype);
+                                if (conf.fisher) {
+                                    FisherExact.somatic(vref, 0, v2nt, 0).columns(out);
+                                }
+                                degradedColumn(conf, out);
+                                out.endLine();
+                                if (samples != null) {
+                                    out.record(VcfWriter.paired(vref, vref, 0, v2nt, 0, vref, segs.chr, samples, type, vartype, conf));
+                                }
                             }
                         }
                         n++;
@@ -713,60 +1283,72 @@ public class VarDict {
                             if ("Complex".equals(vartype)) {
                                 adjComplex(v1nt);
                             }
-                            out.println(join("\t", sample, segs.gene, segs.chr,
-                                    v1nt.sp,
-                                    v1nt.ep,
-                                    v1nt.refallele,
-                                    v1nt.varallele,
-
-                                    joinVar2(v1nt, "\t"),
-                                    format("%.1f", v1nt.nm),
-
-                                    joinVar2(v2var, "\t"),
-                                    format("%.1f", v2var.nm),
-
-                                    v2var.shift3,
-                                    v2var.msi == 0 ? 0 : format("%.3f", v2var.msi),
-                                    v2var.msint,
-                                    v2var.leftseq,
-                                    v2var.rightseq,
-
-                                    segs.chr + ":" + segs.start + "-" + segs.end,
-                                    type, varType(v1nt.refallele, v1nt.varallele)
-                                    ));
+                            out.col(sample).col(segs.gene).col(segs.chr)
+                                    .col(v1nt.sp)
+                                    .col(v1nt.ep)
+                                    .col(v1nt.refallele)
+                                    .col(v1nt.varallele);
+
+                            printVar2(out, v1nt)
+                                    .col(v1nt.nm, 1);
+
+                            printVar2(out, v2var)
+                                    .col(v2var.nm, 1)
+
+                                    .col(v2var.shift3)
+                                    .colOrZero(v2var.msi, 3)
+                                    .col(v2var.msint)
+                                    .col(v2var.leftseq)
+                                    .col(v2var.rightseq)
+
+                                    .col(segs)
+                                    .col(type).col(varType(v1nt.refallele, v1nt.varallele));
+                            if (conf.fisher) {
+                                FisherExact.somatic(v1nt, 0, v2var, 0).columns(out);
+                            }
+                            degradedColumn(conf, out);
+                            out.endLine();
+                            if (samples != null) {
+                                out.record(VcfWriter.paired(v1nt, v1nt, 0, v2var, 0, v2var, segs.chr, samples, type,
+                                        varType(v1nt.refallele, v1nt.varallele), conf));
+                            }
                         } else {
-                            String th1;
+                            if ("Complex".equals(vartype)) {
+                                adjComplex(v2var);
+                            }
+                            out.col(sample).col(segs.gene).col(segs.chr)
+                                    .col(v2var.sp)
+                                    .col(v2var.ep)
+                                    .col(v2var.refallele)
+                                    .col(v2var.varallele);
                             Variant v1ref = v1.ref;
                             if (v1ref != null) {
-                                th1 = join("\t",
-                                        joinVar2(v1ref, "\t"),
-                                        format("%.1f", v1ref.nm)
-                                        );
+                                printVar2(out, v1ref)
+                                        .col(v1ref.nm, 1);
                             } else {
-                                th1 = join("\t", v1.var.get(0).tcov, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+                                out.col(v1.var.get(0).tcov).zeros(17);
                             }
-                            if ("Complex".equals(vartype)) {
-                                adjComplex(v2var);
+
+                            printVar2(out, v2var)
+                                    .col(v2var.nm, 1)
+
+                                    .col(v2var.shift3)
+                                    .colOrZero(v2var.msi, 3)
+                                    .col(v2var.msint)
+                                    .col(v2var.leftseq)
+                                    .col(v2var.rightseq)
+
+                                    .col(segs)
+                                    .col("StrongLOH").col(vartype);
+                            if (conf.fisher) {
+                                FisherExact.somatic(v1ref, v1ref == null ? v1.var.get(0).tcov : 0, v2var, 0).columns(out);
+                            }
+                            degradedColumn(conf, out);
+                            out.endLine();
+                            if (samples != null) {
+                                out.record(VcfWriter.paired(v2var, v1ref, v1ref == null ? v1.var.get(0).tcov : 0, v2var, 0, v2var,
+                                        segs.chr, samples, "StrongLOH", vartype, conf));
                             }
-                            out.println(join("\t", sample, segs.gene, segs.chr,
-                                    v2var.sp,
-                                    v2var.ep,
-                                    v2var.refallele,
-                                    v2var.varallele,
-                                    th1,
-
-                                    joinVar2(v2var, "\t"),
-                                    format("%.1f", v2var.nm),
-
-                                    v2var.shift3,
-                                    v2var.msi == 0 ? 0 : format("%.3f", v2var.msi),
-                                    v2var.msint,
-                                    v2var.leftseq,
-                                    v2var.rightseq,
-
-                                    segs.chr + ":" + segs.start + "-" + segs.end,
-                                    "StrongLOH", vartype
-                                    ));
                         }
                     }
                 } else if (v2.var.size() > 0) { // sample 1 has only reference
@@ -793,49 +1375,50 @@ public class VarDict {
                             continue;
                         }
                     }
-                    String th1;
+                    Variant th1;
                     if (newtype.length() > 0) {
                         type = newtype;
-                        th1 = join("\t",
-                                joinVar2(v1nt, "\t"),
-                                format("%.1f", v1nt.nm)
-                                );
+                        th1 = v1nt;
                     } else {
-                        Variant v1ref = v1.ref;
-                        th1 = join("\t",
-                                joinVar2(v1ref, "\t"),
-                                format("%.1f", v1ref.nm)
-                                );
+                        th1 = v1.ref;
                     }
 
                     if ("Complex".equals(vartype)) {
                         adjComplex(v2var);
                     }
-                    out.println(join("\t", sample, segs.gene, segs.chr,
-                            v2var.sp,
-                            v2var.ep,
-                            v2var.refallele,
-                            v2var.varallele,
-
-                            th1,
-
-                            joinVar2(v2var, "\t"),
-                            format("%.1f", v2var.nm),
-
-                            v2var.shift3,
-                            v2var.msi == 0 ? 0 : format("%.3f", v2var.msi),
-                            v2var.msint,
-                            v2var.leftseq,
-                            v2var.rightseq,
-
-                            segs.chr + ":" + segs.start + "-" + segs.end,
-                            type, vartype
-
-                            ));
+                    out.col(sample).col(segs.gene).col(segs.chr)
+                            .col(v2var.sp)
+                            .col(v2var.ep)
+                            .col(v2var.refallele)
+                            .col(v2var.varallele);
+
+                    printVar2(out, th1)
+                            .col(th1.nm, 1);
+
+                    printVar2(out, v2var)
+                            .col(v2var.nm, 1)
+
+                            .col(v2var.shift3)
+                            .colOrZero(v2var.msi, 3)
+                            .col(v2var.msint)
+                            .col(v2var.leftseq)
+                            .col(v2var.rightseq)
+
+                            .col(segs)
+                            .col(type).col(vartype);
+                    if (conf.fisher) {
+                        FisherExact.somatic(th1, 0, v2var, 0).columns(out);
+                    }
+                    degradedColumn(conf, out);
+                    out.endLine();
+                    if (samples != null) {
+                        out.record(VcfWriter.paired(v2var, th1, 0, v2var, 0, v2var, segs.chr, samples, type, vartype, conf));
+                    }
                 }
             }
         }
 
+        timer.lap(RegionMetrics.Stage.OUTPUT);
         return rlen;
     }
 
@@ -860,19 +1443,21 @@ public class VarDict {
      */
     static Tuple2<Integer, String> combineAnalysis(Variant var1, Variant var2, String chr, int p, String nt,
             Map<String, Integer> chrs, String sample, Set<String> splice, String ampliconBasedCalling, int rlen, Configuration conf) throws IOException {
-        if (conf.y) {
-            System.err.printf("Start Combine %s %s\n", p, nt);
+        if (trace.on(Trace.Category.COMBINE)) {
+            trace.print(Trace.Category.COMBINE, format("Start Combine %s %s\n", p, nt));
         }
+        Events.Span span = Events.combineAnalysis(chr, p, nt);
         Region region = new Region(chr, var1.sp - rlen, var1.ep + rlen, "");
         Map<Integer, Character> ref = getREF(region, chrs, conf.fasta, conf.numberNucleotideToExtend);
         Tuple2<Integer, Map<Integer, Vars>> tpl = toVars(region, conf.bam.getBam1() + ":" + conf.bam.getBam2(), ref,
                 chrs, sample, splice, ampliconBasedCalling, rlen, conf);
         rlen = tpl._1;
         Map<Integer, Vars> vars = tpl._2;
+        span.end(0, vars.size());
         Variant vref = getVarMaybe(vars, p, varn, nt);
         if (vref != null) {
-            if (conf.y) {
-                System.err.printf("Combine: 1: %s comb: %s\n", var1.cov, vref.cov);
+            if (trace.on(Trace.Category.COMBINE)) {
+                trace.print(Trace.Category.COMBINE, format("Combine: 1: %s comb: %s\n", var1.cov, vref.cov));
             }
             if (vref.cov - var1.cov >= conf.minr) {
                 var2.tcov = vref.tcov - var1.tcov;
@@ -919,8 +1504,8 @@ public class VarDict {
                 var2.bias = strandBias(var2.rfc, var2.rrc, conf.bias, conf.minb) + ";" + strandBias(var2.fwd, var2.rev, conf.bias, conf.minb);
                 return tuple(rlen, "Germline");
             } else if (vref.cov < var1.cov - 2) {
-                if (conf.y) {
-                    System.err.printf("Combine produce less: %s %s %s %s %s\n", chr, p, nt, vref.cov, var1.cov);
+                if (trace.on(Trace.Category.COMBINE)) {
+                    trace.print(Trace.Category.COMBINE, format("Combine produce less: %s %s %s %s %s\n", chr, p, nt, vref.cov, var1.cov));
                 }
                 return tuple(rlen, "FALSE");
             } else {
@@ -967,8 +1552,19 @@ public class VarDict {
      * @param conf configuration
      * @param out output stream
      */
-    static void vardict(Region region, Map<Integer, Vars> vars, String sample, Set<String> splice, Configuration conf, PrintStream out) {
+    static void vardict(Region region, Map<Integer, Vars> vars, String sample, Set<String> splice, Configuration conf, LineWriter out) {
+        RegionMetrics.Timer timer = RegionMetrics.timer(conf);
+        RefBlock block = conf.doPileup && conf.refBlocks != null ? new RefBlock(conf.refBlocks) : null;
+        //without pileup only the positions with variants are printed, the others are skipped
+        PositionIndex index = conf.doPileup ? null : PositionIndex.of(vars.keySet());
+        int next = index == null ? 0 : index.from(region.start);
         for (int p = region.start; p <= region.end; p++) {
+            if (index != null) {
+                if (next == index.size() || index.get(next) > region.end) {
+                    break;
+                }
+                p = index.get(next++);
+            }
             List<String> vts = new ArrayList<>();
             List<Variant> vrefs = new ArrayList<>();
             if (!vars.containsKey(p) || vars.get(p).var.isEmpty()) {
@@ -976,16 +1572,30 @@ public class VarDict {
                     continue;
                 }
                 Variant vref = getVarMaybe(vars, p, ref);
+                if (block != null) {
+                    if (!block.add(p, vref)) {
+                        block.print(region, sample, conf, out);
+                        block.add(p, vref);
+                    }
+                    continue;
+                }
                 if (vref == null) {
-                    out.println(join("\t", sample, region.gene, region.chr, p, p,
-                            "", "", 0, 0, 0, 0, 0, 0, "", 0, "0;0", 0, 0, 0, 0, 0, "", 0, 0, 0, 0, 0, 0, "", "", 0, 0,
-                            region.chr + ":" + region.start + "-" + region.end, ""
-                            ));
+                    out.col(sample).col(region.gene).col(region.chr).col(p).col(p)
+                            .col("").col("").zeros(6).col("").col(0).col("0;0").zeros(5).col("").zeros(6).col("").col("").zeros(2)
+                            .col(region).col("");
+                    if (conf.fisher) {
+                        new FisherExact(0, 0, 0, 0).columns(out);
+                    }
+                    degradedColumn(conf, out);
+                    out.endLine();
                     continue;
                 }
                 vts.add("");
                 vrefs.add(vref);
             } else {
+                if (block != null) {
+                    block.print(region, sample, conf, out);
+                }
                 List<Variant> vvar = vars.get(p).var;
                 Variant rref = getVarMaybe(vars, p, ref);
                 for (int i = 0; i < vvar.size(); i++) {
@@ -1010,41 +1620,179 @@ public class VarDict {
                 if ("Complex".equals(vartype)) {
                     adjComplex(vref);
                 }
-                out.println(join("\t", sample, region.gene, region.chr,
-                        vref.sp, vref.ep, vref.refallele, vref.varallele,
-                        vref.tcov,
-                        vref.cov,
-                        vref.rfc,
-                        vref.rrc,
-                        vref.fwd,
-                        vref.rev,
-                        vref.genotype,
-                        format("%.4f", vref.freq),
-                        vref.bias,
-                        format("%.1f", vref.pmean),
-                        vref.pstd ? 1 : 0,
-                        format("%.1f", vref.qual),
-                        vref.qstd ? 1 : 0,
-                        format("%.1f", vref.mapq),
-                        format("%.3f", vref.qratio),
-                        vref.hifreq == 0 ? 0 : format("%.4f", vref.hifreq),
-                        vref.extrafreq == 0 ? 0 : format("%.4f", vref.extrafreq),
-                        vref.shift3,
-                        vref.msi == 0 ? 0 : format("%.3f", vref.msi),
-                        vref.msint,
-                        format("%.1f", vref.nm),
-                        vref.hicnt,
-                        vref.hicov,
-                        vref.leftseq.isEmpty() ? "0" : vref.leftseq,
-                        vref.rightseq.isEmpty() ? "0" : vref.rightseq,
-                        region.chr + ":" + region.start + "-" + region.end, vartype
-                        ));
+                out.col(sample).col(region.gene).col(region.chr)
+                        .col(vref.sp).col(vref.ep).col(vref.refallele).col(vref.varallele)
+                        .col(vref.tcov)
+                        .col(vref.cov)
+                        .col(vref.rfc)
+                        .col(vref.rrc)
+                        .col(vref.fwd)
+                        .col(vref.rev)
+                        .col(vref.genotype)
+                        .col(vref.freq, 4)
+                        .col(vref.bias)
+                        .col(vref.pmean, 1)
+                        .col(vref.pstd ? 1 : 0)
+                        .col(vref.qual, 1)
+                        .col(vref.qstd ? 1 : 0)
+                        .col(vref.mapq, 1)
+                        .col(vref.qratio, 3)
+                        .colOrZero(vref.hifreq, 4)
+                        .colOrZero(vref.extrafreq, 4)
+                        .col(vref.shift3)
+                        .colOrZero(vref.msi, 3)
+                        .col(vref.msint)
+                        .col(vref.nm, 1)
+                        .col(vref.hicnt)
+                        .col(vref.hicov)
+                        .col(vref.leftseq.isEmpty() ? "0" : vref.leftseq)
+                        .col(vref.rightseq.isEmpty() ? "0" : vref.rightseq)
+                        .col(region).col(vartype);
+                if (conf.fisher) {
+                    FisherExact.strandBias(vref).columns(out);
+                }
+                degradedColumn(conf, out);
+                out.endLine();
+                if (conf.vcf != null) {
+                    out.record(VcfWriter.single(vref, region, sample, vartype, conf));
+                }
                 if (conf.debug) {
                     out.println("\t" + vref.DEBUG);
                 }
             }
 
         }
+        if (block != null) {
+            block.print(region, sample, conf, out);
+        }
+        timer.lap(RegionMetrics.Stage.OUTPUT);
+    }
+
+    /**
+     * Counts of a variant for the DEBUG column of option -D, copied when the variant is created and formatted only if the
+     * column is printed
+     */
+    private static class DebugEntry {
+        final String n;
+        final int fwd;
+        final int rev;
+        final double freq;
+        final String bias;
+        final double pmean;
+        final boolean pstd;
+        final double qual;
+        final boolean qstd;
+        final double hifreq;
+        final double mapq;
+        final double qratio;
+
+        DebugEntry(String n, int fwd, int rev, double qual, Variant variant) {
+            this.n = n;
+            this.fwd = fwd;
+            this.rev = rev;
+            this.freq = variant.freq;
+            this.bias = variant.bias;
+            this.pmean = variant.pmean;
+            this.pstd = variant.pstd;
+            this.qual = qual;
+            this.qstd = variant.qstd;
+            this.hifreq = variant.hifreq;
+            this.mapq = variant.mapq;
+            this.qratio = variant.qratio;
+        }
+
+        @Override
+        public String toString() {
+            return n + ":" + (fwd + rev) + ":F-" + fwd + ":R-" + rev + ":" + format("%.3f", freq) + ":" + bias + ":" + pmean
+                    + ":" + pstd + ":" + qual + ":" + qstd + ":" + format("%.3f", hifreq) + ":" + mapq + ":" + qratio;
+        }
+    }
+
+    /**
+     * Counts of the variants of a position, printed in the DEBUG column joined by ' & '
+     */
+    private static class DebugEntries {
+        private final List<DebugEntry> entries = new ArrayList<>();
+
+        void add(DebugEntry entry) {
+            entries.add(entry);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (DebugEntry entry : entries) {
+                if (sb.length() > 0) {
+                    sb.append(" & ");
+                }
+                sb.append(entry);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Consecutive reference-only positions of the pileup whose depths are in the same band (option --ref-blocks), printed as
+     * one line as a gVCF reference block: Start and End of the block, Ref of its first position, minimum Depth of the block
+     * and 'RefBlock' as variant type
+     */
+    private static class RefBlock {
+        /**
+         * Lowest depths of the bands after the first, ascending
+         */
+        private final int[] bands;
+        private int start = -1;
+        private int end;
+        private int band;
+        private int minDepth;
+        private String refallele;
+
+        RefBlock(int[] bands) {
+            this.bands = bands;
+        }
+
+        /**
+         * Extend the block with the next position
+         * @param p position
+         * @param vref reference variant of the position or null if it isn't covered
+         * @return false if the position starts a new block, and the block must be printed first
+         */
+        boolean add(int p, Variant vref) {
+            int depth = vref == null ? 0 : vref.tcov;
+            int b = 0;
+            while (b < bands.length && depth >= bands[b]) {
+                b++;
+            }
+            if (start < 0) {
+                start = p;
+                band = b;
+                minDepth = depth;
+                refallele = vref == null ? "" : vref.refallele;
+            } else if (b != band || p != end + 1) {
+                return false;
+            }
+            end = p;
+            minDepth = Math.min(minDepth, depth);
+            return true;
+        }
+
+        /**
+         * Print the block, if any, and start a new one
+         */
+        void print(Region region, String sample, Configuration conf, LineWriter out) {
+            if (start < 0) {
+                return;
+            }
+            out.col(sample).col(region.gene).col(region.chr).col(start).col(end)
+                    .col(refallele).col("").col(minDepth).zeros(5).col("").col(0).col("0;0").zeros(5).col("").zeros(6).col("").col("").zeros(2)
+                    .col(region).col("RefBlock");
+            if (conf.fisher) {
+                new FisherExact(0, 0, 0, 0).columns(out);
+            }
+            degradedColumn(conf, out);
+            out.endLine();
+            start = -1;
+        }
     }
 
     private static String[] retriveSubSeq(String fasta, String chr, int start, int end) throws IOException {
@@ -1060,20 +1808,6 @@ public class VarDict {
      */
     private static final jregex.Pattern ALIGNED_LENGTH = new jregex.Pattern("(\\d+)[MD]");
 
-    private static Variation getVariationFromSeq(Sclip sclip, int idx, Character ch) {
-        Map<Character, Variation> map = sclip.seq.get(idx);
-        if (map == null) {
-            map = new HashMap<>();
-            sclip.seq.put(idx, map);
-        }
-        Variation variation = map.get(ch);
-        if (variation == null) {
-            variation = new Variation();
-            map.put(ch, variation);
-        }
-        return variation;
-    }
-
     /**
      * Increase count for given key
      * @param cnts map of counts
@@ -1116,12 +1850,12 @@ public class VarDict {
         return map.get(ref.toString());
     }
 
-    private static void subCnt(Variation vref, boolean dir, int rp, double q, int Q, int nm, Configuration conf) {
+    private static void subCnt(Pileup pileup, Variation vref, boolean dir, int rp, double q, int Q, int nm, Configuration conf) {
         // ref dir read_position quality
         vref.cnt--;
         vref.decDir(dir);
         vref.pmean -= rp;
-        vref.qmean -= q;
+        pileup.addQuality(vref, -q);
         vref.Qmean -= Q;
         vref.nm -= nm;
         if (q >= conf.goodq) {
@@ -1131,11 +1865,11 @@ public class VarDict {
         }
     }
 
-    private static void addCnt(Variation vref, boolean dir, int rp, double q, int Q, int nm, int goodq) {
+    private static void addCnt(Pileup pileup, Variation vref, boolean dir, int rp, double q, int Q, int nm, int goodq) {
         vref.cnt++;
         vref.incDir(dir);
         vref.pmean += rp;
-        vref.qmean += q;
+        pileup.addQuality(vref, q);
         vref.Qmean += Q;
         vref.nm += nm;
         if (q >= goodq) {
@@ -1355,6 +2089,10 @@ public class VarDict {
 
         private SAMRecordIterator iterator;
         private int filter = 0;
+        /**
+         * Number of reads skipped by the filter
+         */
+        private int filtered;
 
         public SamView(String file, String samfilter, Region region, ValidationStringency stringency) {
 
@@ -1369,6 +2107,7 @@ public class VarDict {
             while(iterator.hasNext()) {
                 SAMRecord record = iterator.next();
                 if (filter != 0 && (record.getFlags() & filter) != 0) {
+                    filtered++;
                     continue;
                 }
                 return record;
@@ -1385,153 +2124,868 @@ public class VarDict {
 
 
     /**
-     * Construct a variant structure given a region and BAM files.
-     * @param region region
-     * @param bam BAM file name
-     * @param chrs map of chromosome lengths
-     * @param splice set of strings representing spliced regions
-     * @param ampliconBasedCalling string of maximum_distance:minimum_overlap for amplicon based calling
-     * @param rlen max read length
-     * @param ref reference in a given region
-     * @param conf Configuration
-     * @return Tuple of (noninsertion variant  structure, insertion variant structure, coverage, maxmimum read length)
-     * @throws IOException
+     * Pileup of a region built by parseSAM: variants, coverage, soft-clipped sequences and indels.
+     * When reads of a region are processed in batches (option --read-threads) each batch gets its own pileup (a shard),
+     * and the shards are merged in read order into the pileup of the region.
      */
-    static Tuple4<Map<Integer, Map<String, Variation>>, Map<Integer, Map<String, Variation>>, Map<Integer, Integer>, Integer> parseSAM(Region region, String bam,
-            Map<String, Integer> chrs, String sample, Set<String> splice, String ampliconBasedCalling, int rlen, Map<Integer, Character> ref, Configuration conf) throws IOException {
+    static class Pileup {
+        final Map<Integer, Map<String, Variation>> hash;
+        final Map<Integer, Map<String, Variation>> iHash;
+        final Map<Integer, Integer> cov;
+        final Map<Integer, Sclip> sclip3; // soft clipped at 3'
+        final Map<Integer, Sclip> sclip5; // soft clipped at 5'
+        final Map<Integer, Map<String, Integer>> ins;
+        final Map<Integer, Map<String, Integer>> mnp; // Keep track of MNPs
+        final Map<Integer, Map<String, Integer>> dels5;
+        final Map<String, int[]> spliceCnt;
+        final Set<String> splice;
+        /**
+         * Max read length
+         */
+        int rlen;
 
-        String[] bams = bam.split(":");
+        /**
+         * Shard only: first observation and last copy of pstd/qstd for the variants seen in the batch
+         */
+        private final Map<Variation, Mark> marks;
+        /**
+         * Shard only: reference count adjustments for insertion reads which depend on reads of earlier batches
+         */
+        private final List<RefAdjustment> deferred;
+        /**
+         * Shard only: changes of the quality sums of the variants of the batch, in read order
+         */
+        private final Map<Variation, Qualities> qualities;
 
-        Map<Integer, Map<String, Variation>> hash = new HashMap<>();
-        Map<Integer, Map<String, Variation>> iHash = new HashMap<>();
-        Map<Integer, Integer> cov = new HashMap<>();
-        Map<Integer, Sclip> sclip3 = new HashMap<>(); // soft clipped at 3'
-        Map<Integer, Sclip> sclip5 = new HashMap<>(); // soft clipped at 5'
-        Map<Integer, Map<String, Integer>> ins = new HashMap<>();
-        Map<Integer, Map<String, Integer>> mnp = new HashMap<>(); // Keep track of MNPs
-        Map<Integer, Map<String, Integer>> dels5 = new HashMap<>();
-        Map<String, int[]> spliceCnt = new HashMap<String, int[]>();
+        /**
+         * @param splice set of strings representing spliced regions
+         * @param rlen initial max read length
+         * @param shard true for the pileup of a batch of reads. All maps of a shard keep insertion order, so that
+         *              the merged pileup is filled in the same order as the one built by a single thread.
+         */
+        Pileup(Set<String> splice, int rlen, boolean shard) {
+            this.splice = splice;
+            this.rlen = rlen;
+            this.hash = newMap(shard);
+            this.iHash = newMap(shard);
+            this.cov = newMap(shard);
+            this.sclip3 = newMap(shard);
+            this.sclip5 = newMap(shard);
+            this.ins = newMap(shard);
+            this.mnp = newMap(shard);
+            this.dels5 = newMap(shard);
+            this.spliceCnt = newMap(shard);
+            this.marks = shard ? new IdentityHashMap<Variation, Mark>() : null;
+            this.deferred = shard ? new ArrayList<RefAdjustment>() : null;
+            this.qualities = shard ? new IdentityHashMap<Variation, Qualities>() : null;
+        }
 
-        String chr = region.chr;
-        if (conf.chromosomeNameIsNumber && chr.startsWith("chr")) { //remove prefix 'chr' if option -C is set
-            chr = region.chr.substring("chr".length());
+        private static <K, V> Map<K, V> newMap(boolean shard) {
+            return shard ? new LinkedHashMap<K, V>() : new HashMap<K, V>();
         }
 
-        for (String bami : bams) {
-            String samfilter = conf.samfilter == null || conf.samfilter.isEmpty() ? "" : conf.samfilter;
-            try (SamView reader =  new SamView(bami, samfilter, region, conf.validationStringency)) {
-                //dup contains already seen reads. For each seen read dup contains either POS-RNEXT-PNEXT or POS-CIGAR (if next segment in template is unmapped).
-                Set<String> dup = new HashSet<>();
-                //position of first matching base (POS in SAM)
-                int dupp = -1;
-                SAMRecord record;
-                while ((record = reader.read()) != null) {
-                    if (conf.isDownsampling() && RND.nextDouble() <= conf.downsampling) {
-                        continue;
-                    }
+        boolean isShard() {
+            return marks != null;
+        }
 
-                    final String querySequence = record.getReadString();
-                    final Flags flag = new Flags(record.getFlags());
-                    final int mappingQuality = record.getMappingQuality();
+        /**
+         * Rough estimate of the heap used by the pileup, in bytes
+         */
+        long estimateHeap() {
+            long heap = 0;
+            for (Map<String, Variation> map : hash.values()) {
+                heap += MAP_BYTES + map.size() * VARIATION_BYTES;
+            }
+            for (Map<String, Variation> map : iHash.values()) {
+                heap += MAP_BYTES + map.size() * VARIATION_BYTES;
+            }
+            for (Sclip sclip : sclip3.values()) {
+                heap += VARIATION_BYTES + sclip.nt.size() * (MAP_BYTES + VARIATION_BYTES);
+            }
+            for (Sclip sclip : sclip5.values()) {
+                heap += VARIATION_BYTES + sclip.nt.size() * (MAP_BYTES + VARIATION_BYTES);
+            }
+            heap += cov.size() * ENTRY_BYTES + (ins.size() + mnp.size() + dels5.size()) * MAP_BYTES;
+            return heap;
+        }
 
-                    if (conf.hasMappingQuality() && mappingQuality < conf.mappingQuality) { // ignore low mapping quality reads
-                        continue;
-                    }
+        private static final long ENTRY_BYTES = 48;
+        private static final long MAP_BYTES = 160;
+        private static final long VARIATION_BYTES = 120;
 
-                    if (flag.isNotPrimaryAlignment() && conf.samfilter != null) {
-                        continue;
-                    }
+        <K, V> Map<K, V> newMap() {
+            return newMap(isShard());
+        }
 
-                    if (querySequence.length() == 1 && querySequence.charAt(0) == '*') {
-                        continue;
-                    }
+        Variation getVariationFromSeq(Sclip sclip, int idx, Character ch) {
+            Map<Character, Variation> map = sclip.seq.get(idx);
+            if (map == null) {
+                map = newMap();
+                sclip.seq.put(idx, map);
+            }
+            Variation variation = map.get(ch);
+            if (variation == null) {
+                variation = new Variation();
+                map.put(ch, variation);
+            }
+            return variation;
+        }
 
+        void increment(Map<Integer, Map<String, Integer>> counters, int idx, String s) {
+            Map<String, Integer> map = counters.get(idx);
+            if (map == null) {
+                map = newMap();
+                counters.put(idx, map);
+            }
+            incCnt(map, s, 1);
+        }
 
-                    final String mrnm = getMrnm(record);
+        /**
+         * Remember position in read and quality of the first instance of the variant in the batch
+         */
+        void markObservation(Variation variation, int tp, double q) {
+            if (marks != null && !marks.containsKey(variation)) {
+                marks.put(variation, new Mark(tp, q));
+            }
+        }
 
+        /**
+         * Remember that pstd/qstd of the variant were copied from the insertion
+         * @param insertion key of the insertion in iHash at the same position
+         */
+        void markCopy(Variation variation, String insertion) {
+            if (marks != null) {
+                Mark mark = marks.get(variation);
+                if (mark == null) {
+                    mark = new Mark(0, 0);
+                    marks.put(variation, mark);
+                }
+                mark.copiedFrom = insertion;
+            }
+        }
 
-                    // filter duplicated reads if option -t is set
-                    if (conf.removeDuplicatedReads) {
-                        if (record.getAlignmentStart() != dupp) {
-                            dup.clear();
-                        }
-                        if (record.getMateAlignmentStart() < 10) {
-                            String dupKey = record.getAlignmentStart() + "-" + mrnm + "-" + record.getMateAlignmentStart();
-                            if (dup.contains(dupKey)) {
-                                continue;
-                            }
-                            dup.add(dupKey);
-                            dupp = record.getAlignmentStart();
-                        } else if (flag.isUnmappedMate()) {
-                            String dupKey = record.getAlignmentStart() + "-" + record.getCigarString();
-                            if (dup.contains(dupKey)) {
-                                continue;
-                            }
-                            dup.add(dupKey);
-                            dupp = record.getAlignmentStart();
-                        }
-                    }
+        /**
+         * Add a quality to the quality sum of the variant. A shard also records the change, for the merge to add it to
+         * the sum of the region in the same order as a single thread does, since sums of mean qualities aren't exact.
+         */
+        void addQuality(Variation variation, double q) {
+            variation.qmean += q;
+            if (qualities != null) {
+                Qualities changes = qualities.get(variation);
+                if (changes == null) {
+                    changes = new Qualities();
+                    qualities.put(variation, changes);
+                }
+                changes.add(q);
+            }
+        }
 
-                    final Cigar readCigar = record.getCigar();
-                    final int indel = getInsertionDeletionLenght(readCigar);
+        void deferSubCnt(int position, String base, boolean dir, int rp, int q, int Q, int nm) {
+            deferred.add(new RefAdjustment(position, base, dir, rp, q, Q, nm));
+        }
 
-                    int tnm = 0;
-                    Integer nmi = record.getIntegerAttribute(SAMTag.NM.name());
-                    if (nmi != null) { // number of mismatches. Don't use NM since it includes gaps, which can be from indels
-                        tnm = nmi - indel;
-                        if (tnm > conf.mismatch) { // edit distance - indels is the # of mismatches
-                            continue;
-                        }
-                    } else { //Skip the read if number of mismatches is not available
-                        if (conf.y && !record.getCigarString().equals("*")) {
-                            System.err.println("No NM tag for mismatches. " + record.getSAMString());
-                        }
-                        if (record.getReadUnmappedFlag() || record.getCigarString().equals(SAMRecord.NO_ALIGNMENT_CIGAR)) {
-                            continue;
-                        }
+        /**
+         * Merge the pileup of the next batch of reads.
+         * The result is the same as if reads of the batch were added to this pileup one by one.
+         * @param shard pileup of the batch
+         * @param conf Configuration
+         */
+        void merge(Pileup shard, Configuration conf) {
+            //reference count adjustments apply if the reference variant was created before the batch
+            List<Tuple2<Variation, RefAdjustment>> adjustments = new ArrayList<>();
+            for (RefAdjustment adj : shard.deferred) {
+                Map<String, Variation> map = hash.get(adj.position);
+                if (map != null && map.containsKey(adj.base)) {
+                    adjustments.add(tuple(map.get(adj.base), adj));
+                }
+            }
+            //an adjustment is deferred only while the batch has no reference variant at the position, so it comes before
+            //the changes of the batch to the variant
+            for (Tuple2<Variation, RefAdjustment> tpl : adjustments) {
+                RefAdjustment adj = tpl._2;
+                subCnt(this, tpl._1, adj.dir, adj.rp, adj.q, adj.Q, adj.nm, conf);
+            }
+
+            //hash is merged before iHash: copied pstd/qstd depend on the state of insertions before the batch
+            for (Entry<Integer, Map<String, Variation>> entry : shard.hash.entrySet()) {
+                Map<String, Variation> map = getOrElse(hash, entry.getKey(), new LinkedHashMap<String, Variation>());
+                for (Entry<String, Variation> ventry : entry.getValue().entrySet()) {
+                    Variation variation = getOrElse(map, ventry.getKey(), new Variation());
+                    Mark mark = shard.marks.get(ventry.getValue());
+                    if (mark != null && mark.copiedFrom != null) {
+                        Variation insertion = getVariationMaybe(iHash, entry.getKey(), mark.copiedFrom);
+                        Mark insMark = shard.marks.get(shard.iHash.get(entry.getKey()).get(mark.copiedFrom));
+                        mergeCopied(variation, ventry.getValue(), insertion, insMark, shard);
+                    } else {
+                        mergeObserved(variation, ventry.getValue(), mark, shard);
                     }
+                }
+            }
+            for (Entry<Integer, Map<String, Variation>> entry : shard.iHash.entrySet()) {
+                Map<String, Variation> map = getOrElse(iHash, entry.getKey(), new LinkedHashMap<String, Variation>());
+                for (Entry<String, Variation> ventry : entry.getValue().entrySet()) {
+                    Variation variation = getOrElse(map, ventry.getKey(), new Variation());
+                    mergeObserved(variation, ventry.getValue(), shard.marks.get(ventry.getValue()), shard);
+                }
+            }
 
+            for (Entry<Integer, Integer> entry : shard.cov.entrySet()) {
+                incCnt(cov, entry.getKey(), entry.getValue());
+            }
+            mergeSclips(sclip3, shard.sclip3, false, shard);
+            mergeSclips(sclip5, shard.sclip5, true, shard);
+            mergeCounters(ins, shard.ins);
+            mergeCounters(mnp, shard.mnp);
+            mergeCounters(dels5, shard.dels5);
+            for (Entry<String, int[]> entry : shard.spliceCnt.entrySet()) {
+                getOrElse(spliceCnt, entry.getKey(), new int[] { 0 })[0] += entry.getValue()[0];
+            }
+            splice.addAll(shard.splice);
+            if (shard.rlen > rlen) {
+                rlen = shard.rlen;
+            }
+        }
 
-                    final String queryQuality = record.getBaseQualityString();
-                    final boolean isMrnmEqual = record.getReferenceName().equals(record.getMateReferenceName());
+        private static Variation getVariationMaybe(Map<Integer, Map<String, Variation>> hash, int start, String key) {
+            Map<String, Variation> map = hash.get(start);
+            return map == null ? null : map.get(key);
+        }
 
-                    //number of mismatches
-                    final int nm = tnm;
-                    int n = 0; // keep track the read position, including softclipped
-                    int p = 0; // keep track the position in the alignment, excluding softclipped
-                    boolean dir = flag.isReverseStrand();
-                    if (ampliconBasedCalling != null) {
-                        String[] split = ampliconBasedCalling.split(":");
-                        //distance to amplicon (specified in -a option)
-                        int dis;
-                        //overlap fraction (in -a option)
-                        double ovlp;
-                        try {
-                            dis = toInt(split[0]);
-                            ovlp = Double.parseDouble(split.length > 1 ? split[1] : "");
-                        } catch (NumberFormatException e) {
-                            dis = 10;
-                            ovlp = 0.95;
-                        }
-                        //rlen3 holds sum of lengths of matched and deleted segments
-                        int rlen3 = getAlignedLenght(readCigar); // The total aligned length, excluding soft-clipped
-                                                                                // bases and insertions
-                        int segstart = record.getAlignmentStart();
-                        int segend = segstart + rlen3 - 1;
+        private static void addCounts(Variation to, Variation from, Pileup shard) {
+            to.cnt += from.cnt;
+            to.dirPlus += from.dirPlus;
+            to.dirMinus += from.dirMinus;
+            to.pmean += from.pmean;
+            Qualities changes = shard.qualities.get(from);
+            if (changes != null) {
+                changes.addTo(to);
+            }
+            to.Qmean += from.Qmean;
+            to.nm += from.nm;
+            to.locnt += from.locnt;
+            to.hicnt += from.hicnt;
+            to.extracnt += from.extracnt;
+        }
 
+        /**
+         * Variant whose pstd/qstd were only updated by observations in the batch (or not at all).
+         * The first observation of the batch is compared to the last one before the batch.
+         */
+        private static void mergeObserved(Variation to, Variation from, Mark mark, Pileup shard) {
+            addCounts(to, from, shard);
+            if (mark == null) {
+                return;
+            }
+            to.pstd = to.pstd || from.pstd || (to.pp != 0 && mark.pp != to.pp);
+            to.qstd = to.qstd || from.qstd || (to.pq != 0 && mark.pq != to.pq);
+            to.pp = from.pp;
+            to.pq = from.pq;
+        }
 
-                        if (readCigar.getCigarElement(0).getOperator() == CigarOperator.S) { //If read starts with soft-clipped sequence
-                            //Ignore reads that overlap with region of interest by fraction less than ovlp
-                            int ts1 = segstart > region.start ? segstart : region.start;
-                            int te1 = segend < region.end ? segend : region.end;
-                            if (Math.abs(ts1 - te1) / (double)(segend - segstart) > ovlp == false) {
-                                continue;
-                            }
-                        } else if (readCigar.getCigarElement(readCigar.numCigarElements() - 1).getOperator() == CigarOperator.S) { //If read ends with contains soft-clipped sequence
-                            //Ignore reads that overlap with region of interest by fraction less than ovlp
-                            int ts1 = segstart > region.start ? segstart : region.start;
-                            int te1 = segend < region.end ? segend : region.end;
+        /**
+         * Variant whose pstd/qstd were last copied from an insertion in the batch: the state before the batch is
+         * overwritten, except for what the insertion inherited from it.
+         * @param insertion the insertion before the batch (null if it was not seen yet)
+         * @param insMark first observation of the insertion in the batch
+         */
+        private static void mergeCopied(Variation to, Variation from, Variation insertion, Mark insMark, Pileup shard) {
+            addCounts(to, from, shard);
+            to.pstd = from.pstd;
+            to.qstd = from.qstd;
+            if (insertion != null) {
+                to.pstd = to.pstd || insertion.pstd || (insertion.pp != 0 && insMark.pp != insertion.pp);
+                to.qstd = to.qstd || insertion.qstd || (insertion.pq != 0 && insMark.pq != insertion.pq);
+            }
+            to.pp = from.pp;
+            to.pq = from.pq;
+        }
+
+        private static void mergeSclips(Map<Integer, Sclip> to, Map<Integer, Sclip> from, boolean five, Pileup shard) {
+            for (Entry<Integer, Sclip> entry : from.entrySet()) {
+                Sclip sclip = getOrElse(to, entry.getKey(), new Sclip());
+                Sclip shardSclip = entry.getValue();
+                addCounts(sclip, shardSclip, shard);
+                for (Entry<Integer, Map<Character, Integer>> nt : shardSclip.nt.entrySet()) {
+                    Map<Character, Integer> cnts = sclip.nt.get(nt.getKey());
+                    if (cnts == null) {
+                        //same map types as in addRead
+                        cnts = five ? new LinkedHashMap<Character, Integer>() : new HashMap<Character, Integer>();
+                        sclip.nt.put(nt.getKey(), cnts);
+                    }
+                    for (Entry<Character, Integer> cnt : nt.getValue().entrySet()) {
+                        incCnt(cnts, cnt.getKey(), cnt.getValue());
+                    }
+                }
+                for (Entry<Integer, Map<Character, Variation>> seq : shardSclip.seq.entrySet()) {
+                    Map<Character, Variation> map = getOrElse(sclip.seq, seq.getKey(), new HashMap<Character, Variation>());
+                    for (Entry<Character, Variation> ventry : seq.getValue().entrySet()) {
+                        addCounts(getOrElse(map, ventry.getKey(), new Variation()), ventry.getValue(), shard);
+                    }
+                }
+            }
+        }
+
+        private static void mergeCounters(Map<Integer, Map<String, Integer>> to, Map<Integer, Map<String, Integer>> from) {
+            for (Entry<Integer, Map<String, Integer>> entry : from.entrySet()) {
+                Map<String, Integer> map = getOrElse(to, entry.getKey(), new HashMap<String, Integer>());
+                for (Entry<String, Integer> cnt : entry.getValue().entrySet()) {
+                    incCnt(map, cnt.getKey(), cnt.getValue());
+                }
+            }
+        }
+
+        /**
+         * Changes of the quality sum of a variant in a batch, in read order: base qualities are integral and kept as
+         * bytes, mean qualities of indels and soft clips as doubles
+         */
+        private static class Qualities {
+            private static final byte FRACTIONAL = Byte.MIN_VALUE;
+
+            private byte[] changes = new byte[8];
+            private int size;
+            private double[] fractional;
+            private int fractionalSize;
+
+            void add(double q) {
+                if (size == changes.length) {
+                    changes = Arrays.copyOf(changes, size * 2);
+                }
+                if (q == Math.rint(q) && Math.abs(q) < 128) {
+                    changes[size++] = (byte) q;
+                    return;
+                }
+                changes[size++] = FRACTIONAL;
+                if (fractional == null) {
+                    fractional = new double[4];
+                } else if (fractionalSize == fractional.length) {
+                    fractional = Arrays.copyOf(fractional, fractionalSize * 2);
+                }
+                fractional[fractionalSize++] = q;
+            }
+
+            /**
+             * Add the changes to the quality sum of the variant one by one
+             */
+            void addTo(Variation variation) {
+                int f = 0;
+                for (int i = 0; i < size; i++) {
+                    variation.qmean += changes[i] == FRACTIONAL ? fractional[f++] : changes[i];
+                }
+            }
+        }
+
+        private static class Mark {
+            final int pp;
+            final double pq;
+            String copiedFrom;
+
+            Mark(int pp, double pq) {
+                this.pp = pp;
+                this.pq = pq;
+            }
+        }
+
+        private static class RefAdjustment {
+            final int position;
+            final String base;
+            final boolean dir;
+            final int rp;
+            final int q;
+            final int Q;
+            final int nm;
+
+            RefAdjustment(int position, String base, boolean dir, int rp, int q, int Q, int nm) {
+                this.position = position;
+                this.base = base;
+                this.dir = dir;
+                this.rp = rp;
+                this.q = q;
+                this.Q = Q;
+                this.nm = nm;
+            }
+        }
+    }
+
+    /**
+     * Executor of the read threads (option --read-threads), shared by all regions
+     */
+    private static ExecutorService readExecutor;
+
+    /**
+     * Admission of regions into the parallel drivers by heap pressure (option --heap-limit), null if not set
+     */
+    private static HeapGovernor governor;
+    /**
+     * Progress of the run (options --progress and --status-file), null if not set
+     */
+    private static ProgressReporter progress;
+    /**
+     * Summary of the run printed at its end (option --summary), null if not set
+     */
+    private static RegionMetrics.Summary summary;
+    /**
+     * Trace of the analysis (options -y, --trace, --trace-region and --trace-file), Trace.OFF if not set
+     */
+    private static Trace trace = Trace.OFF;
+
+    /**
+     * @param maxRunning maximum number of regions analysed and not yet spilled
+     * @return spill of the region outputs if option --spill-dir is set, else null
+     */
+    private static SpillWriter openSpill(int maxRunning, Configuration conf) throws IOException {
+        return conf.spillDir != null ? new SpillWriter(conf.spillDir, conf.threads + maxRunning) : null;
+    }
+
+    /**
+     * Mark the end of the regions submitted by a parallel driver
+     */
+    private static void finish(SpillWriter spill, BlockingQueue<Future<OutputStream>> toPrint) {
+        if (spill != null) {
+            spill.finish();
+            return;
+        }
+        try {
+            toPrint.put(NULL_FUTURE);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Print the outputs of a parallel driver in region order, from the spill files if option --spill-dir is set
+     */
+    private static void print(BlockingQueue<Future<OutputStream>> toPrint, SpillWriter spill, OutputWriter writer) throws IOException {
+        try {
+            if (spill != null) {
+                try {
+                    spill.merge(writer);
+                } finally {
+                    spill.close();
+                }
+                return;
+            }
+            while (true) {
+                Future<OutputStream> wrk = toPrint.take();
+                if (wrk == NULL_FUTURE) {
+                    break;
+                }
+                writer.write(wrk.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Wait until the heap allows another region to be analysed (see option --heap-limit)
+     * @param bases length of the region, summed over amplicons and BAM files
+     * @return ticket to pass to {@link #released(Callable, long)}
+     * @throws InterruptedException
+     */
+    private static long admit(long bases) throws InterruptedException {
+        return governor != null ? governor.admit(bases) : 0;
+    }
+
+    /**
+     * @return task which marks its admitted region as done when it completes
+     */
+    private static <T> Callable<T> released(final Callable<T> task, final long ticket) {
+        if (governor == null) {
+            return task;
+        }
+        final HeapGovernor regionGovernor = governor;
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    return task.call();
+                } finally {
+                    regionGovernor.release(ticket);
+                }
+            }
+        };
+    }
+
+    /**
+     * Splits the reads of a region into batches piled up by the read threads and merges the shards, in read order,
+     * into the pileup of the region. If all reads of the region fit into one batch, they are piled up by the caller.
+     */
+    private static class ReadBatcher {
+        private final Pileup pileup;
+        private final Region region;
+        private final Map<String, Integer> chrs;
+        private final String chr;
+        private final Map<Integer, Character> ref;
+        private final Configuration conf;
+        private final Deque<Future<Pileup>> shards = new ArrayDeque<>();
+        private List<Tuple3<SAMRecord, String, Integer>> batch = new ArrayList<>();
+
+        ReadBatcher(Pileup pileup, Region region, Map<String, Integer> chrs, String chr, Map<Integer, Character> ref, Configuration conf) {
+            this.pileup = pileup;
+            this.region = region;
+            this.chrs = chrs;
+            this.chr = chr;
+            this.ref = ref;
+            this.conf = conf;
+        }
+
+        void add(SAMRecord record, String querySequence, int nm) {
+            batch.add(tuple(record, querySequence, nm));
+            if (batch.size() >= conf.readBatchSize) {
+                submit();
+            }
+        }
+
+        private void submit() {
+            final List<Tuple3<SAMRecord, String, Integer>> reads = batch;
+            batch = new ArrayList<>();
+            shards.add(readExecutor.submit(new Callable<Pileup>() {
+                @Override
+                public Pileup call() throws Exception {
+                    Pileup shard = new Pileup(new HashSet<String>(), 0, true);
+                    for (Tuple3<SAMRecord, String, Integer> read : reads) {
+                        addRead(shard, read._1, read._2, read._3, region, chrs, chr, ref, conf);
+                    }
+                    return shard;
+                }
+            }));
+            //limit the number of batches kept in memory
+            while (shards.size() > 2 * conf.readThreads) {
+                mergeNext();
+            }
+        }
+
+        private void mergeNext() {
+            try {
+                pileup.merge(shards.poll().get(), conf);
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("Pileup of reads failed for region " + region.chr + ":" + region.start + "-" + region.end, e);
+            }
+        }
+
+        void finish() {
+            if (shards.isEmpty()) {
+                for (Tuple3<SAMRecord, String, Integer> read : batch) {
+                    addRead(pileup, read._1, read._2, read._3, region, chrs, chr, ref, conf);
+                }
+                return;
+            }
+            if (!batch.isEmpty()) {
+                submit();
+            }
+            while (!shards.isEmpty()) {
+                mergeNext();
+            }
+        }
+    }
+
+
+    /**
+     * Construct a variant structure given a region and BAM files.
+     * @param region region
+     * @param bam BAM file name
+     * @param chrs map of chromosome lengths
+     * @param splice set of strings representing spliced regions
+     * @param ampliconBasedCalling string of maximum_distance:minimum_overlap for amplicon based calling
+     * @param rlen max read length
+     * @param ref reference in a given region
+     * @param conf Configuration
+     * @return Tuple of (noninsertion variant  structure, insertion variant structure, coverage, maxmimum read length)
+     * @throws IOException
+     */
+    static Tuple4<Map<Integer, Map<String, Variation>>, Map<Integer, Map<String, Variation>>, Map<Integer, Integer>, Integer> parseSAM(Region region, String bam,
+            Map<String, Integer> chrs, String sample, Set<String> splice, String ampliconBasedCalling, int rlen, Map<Integer, Character> ref, Configuration conf) throws IOException {
+
+        String[] bams = bam.split(":");
+        RegionBudget budget = conf.hasRegionBudget() ? new RegionBudget(region, conf) : null;
+        RegionMetrics.Timer timer = RegionMetrics.timer(conf);
+        Pileup pileup = readPileup(region, bams, chrs, splice, ampliconBasedCalling, rlen, ref, budget, conf);
+        rlen = pileup.rlen;
+        timer.lap(RegionMetrics.Stage.PARSE_SAM);
+        if (conf.spliceCounts != null) {
+            conf.spliceCounts.add(region, pileup.spliceCnt);
+        }
+        Map<Integer, Map<String, Variation>> hash = pileup.hash;
+        Map<Integer, Map<String, Variation>> iHash = pileup.iHash;
+        Map<Integer, Integer> cov = pileup.cov;
+        Map<Integer, Sclip> sclip3 = pileup.sclip3;
+        Map<Integer, Sclip> sclip5 = pileup.sclip5;
+        Map<Integer, Map<String, Integer>> ins = pileup.ins;
+        Map<Integer, Map<String, Integer>> mnp = pileup.mnp;
+        Map<Integer, Map<String, Integer>> dels5 = pileup.dels5;
+
+        if (conf.performLocalRealignment) {
+            Events.Span span;
+            checkTime(budget);
+            trace.stage(Trace.Category.REALIGNDEL);
+            if (trace.on())
+                trace.println("Start Realigndel");
+            span = Events.realign("realigndel", region);
+            realigndel(hash, dels5, cov, sclip5, sclip3, ref, region.chr, chrs, rlen, bams, conf);
+            span.end(0, dels5.size());
+            timer.lap(RegionMetrics.Stage.REALIGNDEL);
+            checkTime(budget);
+            trace.stage(Trace.Category.REALIGNINS);
+            if (trace.on())
+                trace.println("Start Realignins");
+            span = Events.realign("realignins", region);
+            realignins(hash, iHash, ins, cov, sclip5, sclip3, ref, region.chr, chrs, conf);
+            span.end(0, ins.size());
+            timer.lap(RegionMetrics.Stage.REALIGNINS);
+            checkTime(budget);
+            trace.stage(Trace.Category.REALIGNLGDEL);
+            if (trace.on())
+                trace.println("Start Realignlgdel");
+            span = Events.realign("realignlgdel", region);
+            realignlgdel(hash, cov, sclip5, sclip3, ref, region.chr, chrs, rlen, bams, conf);
+            span.end(0, sclip5.size() + sclip3.size());
+            timer.lap(RegionMetrics.Stage.REALIGNLGDEL);
+            checkTime(budget);
+            trace.stage(Trace.Category.REALIGNLGINS);
+            if (trace.on())
+                trace.println("Start Realignlgins");
+            span = Events.realign("realignlgins", region);
+            realignlgins(hash, iHash, cov, sclip5, sclip3, ref, region.chr, chrs, rlen, bams, conf);
+            span.end(0, sclip5.size() + sclip3.size());
+            timer.lap(RegionMetrics.Stage.REALIGNLGINS);
+            checkTime(budget);
+            trace.stage(Trace.Category.REALIGNLGINS30);
+            if (trace.on())
+                trace.println("Start Realignlgins30");
+            span = Events.realign("realignlgins30", region);
+            realignlgins30(hash, iHash, cov, sclip5, sclip3, ref, region.chr, chrs, rlen, bams, conf);
+            span.end(0, sclip5.size() + sclip3.size());
+            timer.lap(RegionMetrics.Stage.REALIGNLGINS30);
+        }
+
+        checkTime(budget);
+        trace.stage(Trace.Category.MNP);
+        adjMNP(hash, mnp, cov, ref, sclip3, sclip5, conf);
+        timer.lap(RegionMetrics.Stage.PARSE_SAM);
+
+        if (conf.regionMetrics != null) {
+            int indels = 0;
+            for (Map<String, Variation> variations : hash.values()) {
+                for (String key : variations.keySet()) {
+                    if (key.startsWith("-")) {
+                        indels++;
+                    }
+                }
+            }
+            for (Map<String, Variation> variations : iHash.values()) {
+                indels += variations.size();
+            }
+            conf.regionMetrics.add(RegionMetrics.Counter.INDELS, indels);
+        }
+        return tuple(hash, iHash, cov, rlen);
+    }
+
+    /**
+     * Count the introns of a read (option -i) without piling it up: the CIGAR is adjusted as addRead does, and each N segment
+     * is counted with the key of addRead, start-end of the reference positions flanking the intron. As in addRead, the
+     * introns after the start of an overlapping mate are left to the mate.
+     */
+    private static void addSplices(Pileup pileup, SAMRecord record, String querySequence, Map<Integer, Character> ref, Configuration conf) {
+        int start;
+        Cigar cigar;
+        if (conf.performLocalRealignment) {
+            Tuple2<Integer, String> mc = modifyCigar(getInsertionDeletionLenght(record.getCigar()), ref, record.getAlignmentStart(),
+                    record.getCigarString(), querySequence, record.getBaseQualityString(), conf.lowqual);
+            start = mc._1;
+            cigar = TextCigarCodec.decode(mc._2);
+        } else {
+            start = record.getAlignmentStart();
+            cigar = record.getCigar();
+        }
+        if (conf.minmatch != 0 && getMatchInsertionLenght(cigar) < conf.minmatch) {
+            return;
+        }
+        int mateAlignmentStart = record.getMateAlignmentStart();
+        boolean readsOverlap = isReadsOverlap(record);
+        for (CigarElement element : cigar.getCigarElements()) {
+            int m = element.getLength();
+            switch (element.getOperator()) {
+                case N:
+                    String key = (start - 1) + "-" + (start + m - 1);
+                    int[] cnt = pileup.spliceCnt.get(key);
+                    if (cnt == null) {
+                        cnt = new int[] { 0 };
+                        pileup.spliceCnt.put(key, cnt);
+                    }
+                    cnt[0]++;
+                    start += m;
+                    break;
+                case M:
+                case D:
+                case EQ:
+                case X:
+                    start += m;
+                    if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) {
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Read the reads of a region into a pileup, or only count their introns if option -i is set
+     * @param region region
+     * @param bams BAM file names
+     * @param chrs map of chromosome lengths
+     * @param splice set of strings representing spliced regions
+     * @param ampliconBasedCalling string of maximum_distance:minimum_overlap for amplicon based calling
+     * @param rlen max read length
+     * @param ref reference in a given region
+     * @param budget budget of the region or null
+     * @param conf Configuration, with the metrics of the region counting the reads and the reasons they are dropped
+     * @return pileup of the reads
+     * @throws IOException
+     */
+    static Pileup readPileup(Region region, String[] bams, Map<String, Integer> chrs, Set<String> splice, String ampliconBasedCalling,
+            int rlen, Map<Integer, Character> ref, RegionBudget budget, Configuration conf) throws IOException {
+        Pileup pileup = new Pileup(splice, rlen, false);
+
+        String chr = region.chr;
+        if (conf.chromosomeNameIsNumber && chr.startsWith("chr")) { //remove prefix 'chr' if option -C is set
+            chr = region.chr.substring("chr".length());
+        }
+        ReadBatcher batcher = readExecutor != null && !conf.outputSplicing ? new ReadBatcher(pileup, region, chrs, chr, ref, conf) : null;
+        //counts of the metrics of the region, indexed by RegionMetrics.Counter
+        long[] counts = new long[RegionMetrics.Counter.values().length];
+
+        for (String bami : bams) {
+
+            String samfilter = conf.samfilter == null || conf.samfilter.isEmpty() ? "" : conf.samfilter;
+            Events.Span span = Events.bamQuery(region, bami);
+            long fetched = counts[RegionMetrics.Counter.READS.ordinal()];
+            int piled = 0;
+            try (SamView reader =  new SamView(bami, samfilter, region, conf.validationStringency)) {
+                //dup contains already seen reads. For each seen read dup contains either POS-RNEXT-PNEXT or POS-CIGAR (if next segment in template is unmapped).
+                Set<String> dup = new HashSet<>();
+                //position of first matching base (POS in SAM)
+                int dupp = -1;
+                SAMRecord record;
+                while ((record = reader.read()) != null) {
+                    counts[RegionMetrics.Counter.READS.ordinal()]++;
+                    if (budget != null) {
+                        budget.read(pileup);
+                    }
+                    if (conf.isDownsampling() && RND.nextDouble() <= conf.downsampling) {
+                        counts[RegionMetrics.Counter.DOWNSAMPLED.ordinal()]++;
+                        continue;
+                    }
+
+                    final String querySequence = record.getReadString();
+                    final Flags flag = new Flags(record.getFlags());
+                    final int mappingQuality = record.getMappingQuality();
+
+                    if (conf.hasMappingQuality() && mappingQuality < conf.mappingQuality) { // ignore low mapping quality reads
+                        counts[RegionMetrics.Counter.MAPPING_QUALITY.ordinal()]++;
+                        continue;
+                    }
+
+                    if (flag.isNotPrimaryAlignment() && conf.samfilter != null) {
+                        counts[RegionMetrics.Counter.OTHER.ordinal()]++;
+                        continue;
+                    }
+
+                    if (querySequence.length() == 1 && querySequence.charAt(0) == '*') {
+                        counts[RegionMetrics.Counter.OTHER.ordinal()]++;
+                        continue;
+                    }
+
+
+                    final String mrnm = getMrnm(record);
+
+
+                    // filter duplicated reads if option -t is set
+                    if (conf.removeDuplicatedReads) {
+                        if (record.getAlignmentStart() != dupp) {
+                            dup.clear();
+                        }
+                        if (record.getMateAlignmentStart() < 10) {
+                            String dupKey = record.getAlignmentStart() + "-" + mrnm + "-" + record.getMateAlignmentStart();
+                            if (dup.contains(dupKey)) {
+                                counts[RegionMetrics.Counter.DUPLICATE.ordinal()]++;
+                                continue;
+                            }
+                            dup.add(dupKey);
+                            dupp = record.getAlignmentStart();
+                        } else if (flag.isUnmappedMate()) {
+                            String dupKey = record.getAlignmentStart() + "-" + record.getCigarString();
+                            if (dup.contains(dupKey)) {
+                                counts[RegionMetrics.Counter.DUPLICATE.ordinal()]++;
+                                continue;
+                            }
+                            dup.add(dupKey);
+                            dupp = record.getAlignmentStart();
+                        }
+                    }
+
+                    final Cigar readCigar = record.getCigar();
+                    final int indel = getInsertionDeletionLenght(readCigar);
+
+                    int tnm = 0;
+                    Integer nmi = record.getIntegerAttribute(SAMTag.NM.name());
+                    if (nmi != null) { // number of mismatches. Don't use NM since it includes gaps, which can be from indels
+                        tnm = nmi - indel;
+                        if (tnm > conf.mismatch) { // edit distance - indels is the # of mismatches
+                            counts[RegionMetrics.Counter.MISMATCHES.ordinal()]++;
+                            continue;
+                        }
+                    } else { //Skip the read if number of mismatches is not available
+                        if (trace.on(Trace.Category.SAM) && !record.getCigarString().equals("*")) {
+                            trace.print(Trace.Category.SAM, "No NM tag for mismatches. " + record.getSAMString());
+                        }
+                        if (record.getReadUnmappedFlag() || record.getCigarString().equals(SAMRecord.NO_ALIGNMENT_CIGAR)) {
+                            counts[RegionMetrics.Counter.OTHER.ordinal()]++;
+                            continue;
+                        }
+                    }
+
+
+                    final String queryQuality = record.getBaseQualityString();
+                    final boolean isMrnmEqual = record.getReferenceName().equals(record.getMateReferenceName());
+
+                    //number of mismatches
+                    final int nm = tnm;
+                    if (ampliconBasedCalling != null) {
+                        String[] split = ampliconBasedCalling.split(":");
+                        //distance to amplicon (specified in -a option)
+                        int dis;
+                        //overlap fraction (in -a option)
+                        double ovlp;
+                        try {
+                            dis = toInt(split[0]);
+                            ovlp = Double.parseDouble(split.length > 1 ? split[1] : "");
+                        } catch (NumberFormatException e) {
+                            dis = 10;
+                            ovlp = 0.95;
+                        }
+                        //rlen3 holds sum of lengths of matched and deleted segments
+                        int rlen3 = getAlignedLenght(readCigar); // The total aligned length, excluding soft-clipped
+                                                                                // bases and insertions
+                        int segstart = record.getAlignmentStart();
+                        int segend = segstart + rlen3 - 1;
+
+
+                        if (readCigar.getCigarElement(0).getOperator() == CigarOperator.S) { //If read starts with soft-clipped sequence
+                            //Ignore reads that overlap with region of interest by fraction less than ovlp
+                            int ts1 = segstart > region.start ? segstart : region.start;
+                            int te1 = segend < region.end ? segend : region.end;
+                            if (Math.abs(ts1 - te1) / (double)(segend - segstart) > ovlp == false) {
+                                counts[RegionMetrics.Counter.AMPLICON.ordinal()]++;
+                                continue;
+                            }
+                        } else if (readCigar.getCigarElement(readCigar.numCigarElements() - 1).getOperator() == CigarOperator.S) { //If read ends with contains soft-clipped sequence
+                            //Ignore reads that overlap with region of interest by fraction less than ovlp
+                            int ts1 = segstart > region.start ? segstart : region.start;
+                            int te1 = segend < region.end ? segend : region.end;
                             if (Math.abs(te1 - ts1) / (double)(segend - segstart) > ovlp == false) {
+                                counts[RegionMetrics.Counter.AMPLICON.ordinal()]++;
                                 continue;
                             }
 
@@ -1551,6 +3005,7 @@ public class VarDict {
                             //ignore reads that are more than dis from region of interest and overlap is less than ovlp
                             if ((abs(segstart - region.start) > dis || abs(segend - region.end) > dis)
                                     || abs((ts1 - te1) / (double)(segend - segstart)) <= ovlp) {
+                                counts[RegionMetrics.Counter.AMPLICON.ordinal()]++;
                                 continue;
                             }
                         }
@@ -1562,1025 +3017,1072 @@ public class VarDict {
                             //if 'SA' tag (supplementary alignment) is present
                             if (record.getStringAttribute(SAMTag.SA.name()) != null) {
                                 if (flag.isSupplementaryAlignment()) { // the supplementary alignment
+                                    counts[RegionMetrics.Counter.OTHER.ordinal()]++;
                                     continue; // Ignore the supplementary for now so that it won't skew the coverage
                                 }
                             }
                         }
 
                     }
-                    final int position;
-                    final Cigar cigar;
-
-                    if (conf.performLocalRealignment) {
-                        // Modify the CIGAR for potential mis-alignment for indels at the end of reads to softclipping and let VarDict's
-                        // algorithm to figure out indels
-                        Tuple2<Integer, String> mc = modifyCigar(indel, ref, record.getAlignmentStart(), record.getCigarString(), querySequence, queryQuality, conf.lowqual);
-                        position = mc._1;
-                        cigar = TextCigarCodec.decode(mc._2);
+                    counts[RegionMetrics.Counter.BASES.ordinal()] += querySequence.length();
+                    piled++;
+                    if (conf.outputSplicing) {
+                        addSplices(pileup, record, querySequence, ref, conf);
+                    } else if (batcher != null) {
+                        batcher.add(record, querySequence, nm);
                     } else {
-                        position = record.getAlignmentStart();
-                        cigar = record.getCigar();
+                        addRead(pileup, record, querySequence, nm, region, chrs, chr, ref, conf);
                     }
+                }
+                counts[RegionMetrics.Counter.READS.ordinal()] += reader.filtered;
+                counts[RegionMetrics.Counter.SAMFILTER.ordinal()] += reader.filtered;
+            }
+            span.end(counts[RegionMetrics.Counter.READS.ordinal()] - fetched, piled);
+        }
 
-                    //adjusted start position
-                    int start = position;
-                    int offset = 0;
-                     // Only match and insertion counts toward read length
-                     // For total length, including soft-clipped bases
-                    int rlen1 = getMatchInsertionLenght(cigar); // The read length for matched bases
-                    if ( conf.minmatch != 0 && rlen1 < conf.minmatch) {
-                        continue;
-                    }
-                    int rlen2 = getSoftClippedLenght(cigar); // The total length, including soft-clipped bases
-                    if (rlen2 > rlen) { // Determine the read length
-                        rlen = rlen2;
-                    }
+        if (batcher != null) {
+            batcher.finish();
+        }
+        if (conf.regionMetrics != null) {
+            counts[RegionMetrics.Counter.SOFT_CLIPS.ordinal()] = pileup.sclip5.size() + pileup.sclip3.size();
+            conf.regionMetrics.add(counts);
+        }
+        if (governor != null && !conf.outputSplicing) {
+            governor.observe(region.end - region.start + 1, pileup.estimateHeap());
+        }
+        if (progress != null) {
+            progress.reads(counts[RegionMetrics.Counter.READS.ordinal()]);
+        }
+        return pileup;
+    }
 
-                    int mateAlignmentStart = record.getMateAlignmentStart();
-                    boolean readsOverlap = isReadsOverlap(record);
+    private static void checkTime(RegionBudget budget) {
+        if (budget != null) {
+            budget.checkTime();
+        }
+    }
 
-                    processReadCigar:
-                    //Loop over CIGAR records
-                    for (int ci = 0; ci < cigar.numCigarElements(); ci++) {
+    private static boolean isPositionOverlapMate(int start, int mateAlignmentStart, boolean readsOverlap) {
+        return readsOverlap && start >= mateAlignmentStart;
+    }
 
-                        //length of segment in CIGAR
-                        int m =  cigar.getCigarElement(ci).getLength();
+    private static boolean isReadsOverlap(SAMRecord record) {
+        return record.getReadPairedFlag() && !record.getReadNegativeStrandFlag()
+                && record.getMateNegativeStrandFlag()
+                && record.getMateReferenceName().equals(record.getReferenceName())
+                && record.getMateAlignmentStart() <= record.getAlignmentEnd();
+    }
 
-                        //letter from CIGAR
-                        final CigarOperator operator = getCigarOperator(cigar, ci);
+    private static CigarOperator getCigarOperator(Cigar cigar, int ci) {
+        CigarOperator operator =  cigar.getCigarElement(ci).getOperator();
+        // Treat insertions at the edge as soft-clipping
+        if ((ci == 0 || ci == cigar.numCigarElements() - 1) && operator == CigarOperator.I) {
+            operator = CigarOperator.S;
+        }
+        return operator;
+    }
 
-                        switch (operator) {
-                            case N: //N in CIGAR - skipped region from reference
-                                //Skip the region and add string start-end to %SPLICE
-                                String key = (start - 1) + "-" + (start + m - 1);
-                                splice.add(key);
-                                int[] cnt = spliceCnt.get(key);
-                                if (cnt == null) {
-                                    cnt = new int[] { 0 };
-                                    spliceCnt.put(key, cnt);
-                                }
-                                cnt[0]++;
+    private static int getAlignedLenght(Cigar readCigar) {
+        int lenght = 0;
+        for (CigarElement element : readCigar.getCigarElements()) {
+            if (element.getOperator() == CigarOperator.M || element.getOperator() == CigarOperator.D) {
+                lenght += element.getLength();
+            }
+        }
+        return lenght;
+    }
 
-                                start += m;
-                                offset = 0;
-                                continue;
+    private static int getSoftClippedLenght(Cigar readCigar) {
+        int lenght = 0;
+        for (CigarElement element : readCigar.getCigarElements()) {
+            CigarOperator operator = element.getOperator();
+            if (operator == CigarOperator.M || operator == CigarOperator.I || operator == CigarOperator.S) {
+                lenght += element.getLength();
+            }
+        }
+        return lenght;
+    }
 
-                            case S:
-                                //First record in CIGAR
-                                if (ci == 0) { // 5' soft clipped
-                                    // align softclipped but matched sequences due to mis-softclipping
-                                    /*
-                                    Conditions:
-                                    1). segment length > 1
-                                    2). start between 0 and chromosome length,
-                                    3). reference genome is known at this position
-                                    4). reference and read bases match
-                                    5). read quality is more than 10
-                                     */
-                                    while (m - 1 >= 0 && start - 1 > 0 && start - 1 <= chrs.get(chr)
-                                            && isHasAndEquals(querySequence.charAt(m - 1), ref, start - 1)
-                                            && queryQuality.charAt(m - 1) - 33 > 10) {
-                                        //create variant if it is not present
-                                        Variation variation = getVariation(hash, start - 1, ref.get(start - 1).toString());
-                                        //add count
-                                        addCnt(variation, dir, m, queryQuality.charAt(m - 1) - 33, mappingQuality, nm, conf.goodq);
-                                        //increase coverage
-                                        incCnt(cov, start - 1, 1);
-                                        start--;
-                                        m--;
-                                    }
-                                    if (m > 0) { //If there remains a soft-clipped sequence at the beginning (not everything was matched)
-                                        int q = 0; //sum of read qualities (to get mean quality)
-                                        int qn = 0; //number of quality figures
-                                        int lowqcnt = 0; //number of low-quality bases in the sequence
-
-                                        //loop over remaining soft-clipped sequence
-                                        for (int si = m - 1; si >= 0; si--) {
-                                            //stop if unknown base (N - any of ATGC) is found
-                                            if (querySequence.charAt(si) == 'N') {
-                                                break;
-                                            }
-                                            //tq - base quality
-                                            int tq = queryQuality.charAt(si) - 33;
-                                            if (tq <= 12)
-                                                lowqcnt++;
-                                            //Stop if a low-quality base is found
-                                            if (lowqcnt > 1)
-                                                break;
-
-                                            q += tq;
-                                            qn++;
-                                        }
-                                        //If we have at least 1 high-quality soft-clipped base within conf.buffer of region of interest
-                                        if (qn >= 1 && qn > lowqcnt && start >= region.start - conf.buffer && start <= region.end + conf.buffer) {
-                                            //add record to $sclip5
-                                            Sclip sclip = sclip5.get(start);
-                                            if (sclip == null) {
-                                                sclip = new Sclip();
-                                                sclip5.put(start, sclip);
-                                            }
-                                            for (int si = m - 1; m - si <= qn; si--) {
-                                                Character ch = querySequence.charAt(si);
-                                                int idx = m - 1 - si;
-                                                Map<Character, Integer> cnts = sclip.nt.get(idx);
-                                                if (cnts == null) {
-                                                    cnts = new LinkedHashMap<>();
-                                                    sclip.nt.put(idx, cnts);
-                                                }
-                                                incCnt(cnts, ch, 1);
-                                                Variation seqVariation = getVariationFromSeq(sclip, idx, ch);
-                                                addCnt(seqVariation, dir, si - (m - qn), queryQuality.charAt(si) - 33, mappingQuality, nm, conf.goodq);
-                                            }
-                                            addCnt(sclip, dir, m, q / (double)qn, mappingQuality, nm, conf.goodq);
-                                        }
+    private static int getMatchInsertionLenght(Cigar readCigar) {
+        int lenght = 0;
+        for (CigarElement element : readCigar.getCigarElements()) {
+            if (element.getOperator() == CigarOperator.M || element.getOperator() == CigarOperator.I) {
+                lenght += element.getLength();
+            }
+        }
+        return lenght;
+    }
 
-                                    }
-                                    m = cigar.getCigarElement(ci).getLength();
-                                } else if (ci == cigar.numCigarElements() - 1) { // 3' soft clipped
-                                    /*
-                                    Conditions:
-                                    1). read position is less than sequence length
-                                    2). reference base is defined for start
-                                    3). reference base at start matches read base at n
-                                    4). read quality is more than 10
-                                     */
-                                    while (n < querySequence.length()
-                                            && isHasAndEquals(querySequence.charAt(n), ref, start)
-                                            && queryQuality.charAt(n) - 33 > 10) {
-                                        //initialize entry in $hash if not present
-                                        Variation variation = getVariation(hash, start, ref.get(start).toString());
-                                        //add count
-                                        addCnt(variation, dir, rlen2 - p, queryQuality.charAt(n) - 33, mappingQuality, nm, conf.goodq);
-                                        //add coverage
-                                        incCnt(cov, start, 1);
-                                        n++;
-                                        start++;
-                                        m--;
-                                        p++;
-                                    }
-                                    if (querySequence.length() - n > 0) { //If there remains a soft-clipped sequence at the end (not everything was matched)
-                                        int q = 0; //sum of read qualities (to get mean quality)
-                                        int qn = 0; //number of quality figures
-                                        int lowqcnt = 0; //number of low-quality bases in the sequence
-                                        for (int si = 0; si < m; si++) { //loop over remaining soft-clipped sequence
-                                            if (querySequence.charAt(n + si) == 'N') { //stop if unknown base (N - any of ATGC) is found
-                                                break;
-                                            }
-                                            int tq = queryQuality.charAt(n + si) - 33; //base quality
-                                            if (tq <= 12) {
-                                                lowqcnt++;
-                                            }
-                                            //Stop if a low-quality base is found
-                                            if (lowqcnt > 1) {
-                                                break;
-                                            }
-                                            q += tq;
-                                            qn++;
-                                        }
-                                        //If we have at least 1 high-quality soft-clipped base within conf.buffer of region of interest
-                                        if (qn >= 1 && qn > lowqcnt && start >= region.start - conf.buffer && start <= region.end + conf.buffer) {
-                                            //add record to $sclip3
-                                            Sclip sclip = sclip3.get(start);
-                                            if (sclip == null) {
-                                                sclip = new Sclip();
-                                                sclip3.put(start, sclip);
-                                            }
-                                            for (int si = 0; si < qn; si++) {
-                                                Character ch = querySequence.charAt(n + si);
-                                                int idx = si;
-                                                Map<Character, Integer> cnts = sclip.nt.get(idx);
-                                                if (cnts == null) {
-                                                    cnts = new HashMap<>();
-                                                    sclip.nt.put(idx, cnts);
-                                                }
-                                                incCnt(cnts, ch, 1);
-                                                Variation variation = getVariationFromSeq(sclip, idx, ch);
-                                                addCnt(variation, dir, qn - si, queryQuality.charAt(n + si) - 33, mappingQuality, nm, conf.goodq);
-                                            }
-                                            addCnt(sclip, dir, m, q / (double)qn, mappingQuality, nm, conf.goodq);
-                                        }
+    static int getInsertionDeletionLenght(Cigar readCigar) {
+        int lenght = 0;
+        for (CigarElement element : readCigar.getCigarElements()) {
+            if (element.getOperator() == CigarOperator.I || element.getOperator() == CigarOperator.D) {
+                lenght += element.getLength();
+            }
+        }
+        return lenght;
+    }
 
-                                    }
+    private static String getMrnm(SAMRecord record) {
+        if (record.getMateReferenceName() == null) {
+            return "*";
+        }
 
-                                }
-                                //move read position by m (length of segment in CIGAR)
-                                n += m;
-                                offset = 0;
-                                start = position; // had to reset the start due to softclipping adjustment
-                                continue;
-                            case H: //Hard clipping - skip
-                                offset = 0;
-                                continue;
-                            case I: { //Insertion
-                                offset = 0;
-                                //inserted segment of read sequence
-                                StringBuilder s = new StringBuilder(substr(querySequence, n, m));
-                                //quality of this segment
-                                StringBuilder q = new StringBuilder(substr(queryQuality, n, m));
-                                //sequence to be appended if next segment is matched
-                                String ss = "";
-
-                                // For multiple indels within 10bp
-
-                                //offset for read position if next segment is matched
-                                int multoffs = 0;
-                                //offset for reference position if next segment is matched
-                                int multoffp = 0;
-                                int nmoff = 0;
-
-                                /*
-                                Condition:
-                                1). CIGAR string has next entry
-                                2). length of next CIGAR segment is less than conf.vext
-                                3). next segment is matched
-                                4). CIGAR string has one more entry after next one
-                                5). this entry is insertion or deletion
-                                 */
-                                if (conf.performLocalRealignment && cigar.numCigarElements() > ci + 2
-                                        && cigar.getCigarElement(ci + 1).getLength() <= conf.vext
-                                        && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.M
-                                        && (cigar.getCigarElement(ci + 2).getOperator()  == CigarOperator.I
-                                            || cigar.getCigarElement(ci + 2).getOperator()  == CigarOperator.D)) {
-
-                                    int mLen = cigar.getCigarElement(ci + 1).getLength();
-                                    int indelLen = cigar.getCigarElement(ci + 2).getLength();
-                                    CigarOperator indelOperator = cigar.getCigarElement(ci + 2).getOperator();
-                                    //append to s '#' and part of read sequence corresponding to next CIGAR segment (matched one)
-                                    s.append("#").append(substr(querySequence, n + m, mLen));
-                                    //append next segment quality to q
-                                    q.append(substr(queryQuality, n + m, mLen));
-
-                                    //if an insertion is two segments ahead, append '^' + part of sequence corresponding to next-next segment
-                                    //otherwise (deletion) append '^' + length of a next-next segment
-                                    s.append('^').append(indelOperator == CigarOperator.I ? substr(querySequence, n + m + mLen, indelLen) : indelLen);
-                                    //if an insertion is two segments ahead, append part of quality string sequence corresponding to next-next segment
-                                    //otherwise (deletion) append first quality score of next segment
-                                    q.append(indelOperator == CigarOperator.I ? substr(queryQuality, n + m + mLen, indelLen) : queryQuality.charAt(n + m + mLen));
-
-                                    //add length of next segment to both multoffs and multoffp
-                                    //add length of next-next segment to multoffp (for insertion) or to multoffs (for deletion)
-                                    multoffs += mLen + (indelOperator == CigarOperator.D ? indelLen : 0);
-                                    multoffp += mLen + (indelOperator == CigarOperator.I ? indelLen : 0);
-
-                                    int ci6 = cigar.numCigarElements() > ci + 3 ? cigar.getCigarElement(ci + 3).getLength() : 0;
-                                    if (ci6 != 0 && cigar.getCigarElement(ci + 3).getOperator()  == CigarOperator.M) {
-                                        Tuple4<Integer, String, String, Integer> tpl = finndOffset(start + multoffs,
-                                                n + m + multoffp, ci6, querySequence, queryQuality, ref, cov, conf.vext, conf.goodq);
-                                        offset = tpl._1;
-                                        ss = tpl._2;
-                                        q.append(tpl._3);
-                                    }
-                                    //skip 2 CIGAR segments
-                                    ci += 2;
-                                } else {
-                                    /*
-                                    Condition:
-                                    1). CIGAR string has next entry
-                                    2). next CIGAR segment is matched
-                                     */
-                                    if (conf.performLocalRealignment && cigar.numCigarElements() > ci + 1 && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.M) {
-                                        int vsn = 0;
-                                        //Loop over next CIGAR segment (no more than conf.vext bases ahead)
-                                        for (int vi = 0; vsn <= conf.vext && vi < cigar.getCigarElement(ci + 1).getLength(); vi++) {
-                                            //If base is unknown, exit loop
-                                            if (querySequence.charAt(n + m + vi) == 'N') {
-                                                break;
-                                            }
-                                            //If base quality is less than conf.goodq, exit loop
-                                            if (queryQuality.charAt(n + m + vi) - 33 < conf.goodq) {
-                                                break;
-                                            }
-                                            //If reference sequence has base at this position and it matches read base, update offset
-                                            if (ref.containsKey(start + vi)) {
-                                                if (isNotEquals(querySequence.charAt(n + m + vi), ref.get(start + vi))) {
-                                                    offset = vi + 1;
-                                                    vsn = 0;
-                                                } else {
-                                                    vsn++;
-                                                }
-                                            }
-                                        }
-                                        if (offset != 0) { //If next CIGAR segment has good matching base
-                                            //Append first offset bases of next segment to ss and q
-                                            ss += substr(querySequence, n + m, offset);
-                                            q.append(substr(queryQuality, n + m, offset));
-                                            //Increase coverage for positions corresponding to first offset bases of next segment
-                                            for (int osi = 0; osi < offset; osi++) {
-                                                incCnt(cov, start + osi, 1);
-                                            }
-                                        }
-                                    }
-                                }
+        if (record.getReferenceName().equals(record.getMateReferenceName())) {
+            return "=";
+        }
+        return record.getMateReferenceName();
+    }
 
-                                //offset should be reset to 0 on every loop, so it is non-zero only if previous part of code was executed
-                                //Append '&' and $ss to s if next segment has good matching base
-                                if (offset > 0) {
-                                    s.append("&").append(ss);
-                                }
+    /**
+     * Add the read to the pileup: walk along its CIGAR and update coverage, variants, soft-clipped sequences and indels.
+     * @param pileup pileup of the region (or of a batch of its reads)
+     * @param record read which passed the filters of parseSAM
+     * @param querySequence read sequence
+     * @param nm number of mismatches (edit distance excluding indels)
+     * @param region region
+     * @param chrs map of chromosome lengths
+     * @param chr chromosome name as it is given in the BAM file
+     * @param ref reference in a given region
+     * @param conf Configuration
+     */
+    private static void addRead(Pileup pileup, SAMRecord record, String querySequence, int nm, Region region,
+            Map<String, Integer> chrs, String chr, Map<Integer, Character> ref, Configuration conf) {
+
+        Map<Integer, Map<String, Variation>> hash = pileup.hash;
+        Map<Integer, Map<String, Variation>> iHash = pileup.iHash;
+        Map<Integer, Integer> cov = pileup.cov;
+        Map<Integer, Sclip> sclip3 = pileup.sclip3;
+        Map<Integer, Sclip> sclip5 = pileup.sclip5;
+        Map<Integer, Map<String, Integer>> ins = pileup.ins;
+        Map<Integer, Map<String, Integer>> mnp = pileup.mnp;
+        Map<Integer, Map<String, Integer>> dels5 = pileup.dels5;
+        Map<String, int[]> spliceCnt = pileup.spliceCnt;
+        Set<String> splice = pileup.splice;
+
+        final String queryQuality = record.getBaseQualityString();
+        final int mappingQuality = record.getMappingQuality();
+        final int indel = getInsertionDeletionLenght(record.getCigar());
+        int n = 0; // keep track the read position, including softclipped
+        int p = 0; // keep track the position in the alignment, excluding softclipped
+        boolean dir = record.getReadNegativeStrandFlag();
+        final int position;
+        final Cigar cigar;
 
-                                //If start of the segment is within region of interest and the segment does not have unknown bases
-                                if (start - 1 >= region.start && start - 1 <= region.end && !s.toString().contains("N")) {
-                                    //add '+' + s to insertions at start - 1
-                                    incCnt(getOrElse(ins, start - 1, new HashMap<String, Integer>()), "+" + s, 1);
-                                    //add insertion to table of variations
-                                    Variation hv = getVariation(iHash, start - 1, "+" + s); //variant structure for this insertion
-                                    hv.incDir(dir);
-                                    //add count
-                                    hv.cnt++;
-                                    //minimum of positions from start of read and end of read
-                                    int tp = p < rlen1 - p ? p + 1 : rlen1 - p;
-
-                                    //mean read quality of the segment
-                                    double tmpq = 0;
-                                    for (int i = 0; i < q.length(); i++) {
-                                        tmpq += q.charAt(i) - 33;
-                                    }
-                                    tmpq = tmpq / q.length();
+        if (conf.performLocalRealignment) {
+            // Modify the CIGAR for potential mis-alignment for indels at the end of reads to softclipping and let VarDict's
+            // algorithm to figure out indels
+            Tuple2<Integer, String> mc = modifyCigar(indel, ref, record.getAlignmentStart(), record.getCigarString(), querySequence, queryQuality, conf.lowqual);
+            position = mc._1;
+            cigar = TextCigarCodec.decode(mc._2);
+        } else {
+            position = record.getAlignmentStart();
+            cigar = record.getCigar();
+        }
 
-                                    //pstd is a flag that is 1 if the variant is covered by at least 2 read segments with different positions
-                                    if (hv.pstd == false && hv.pp != 0 && tp != hv.pp) {
-                                        hv.pstd = true;
-                                    }
-                                    //qstd is a flag that is 1 if the variant is covered by at least 2 segment reads with different qualities
-                                    if (hv.qstd == false && hv.pq != 0 && tmpq != hv.pq) {
-                                        hv.qstd = true;
-                                    }
-                                    hv.pmean += tp;
-                                    hv.qmean += tmpq;
-                                    hv.Qmean += mappingQuality;
-                                    hv.pp = tp;
-                                    hv.pq = tmpq;
-                                    if (tmpq >= conf.goodq) {
-                                        hv.hicnt++;
-                                    } else {
-                                        hv.locnt++;
-                                    }
-                                    hv.nm += nm - nmoff;
-
-                                    // Adjust the reference count for insertion reads
-
-                                    /*
-                                    Condition:
-                                    1). reference sequence has base for the position
-                                    2). hash contains variant structure for the position
-                                    3). read base at position n-1 matches reference at start-1
-                                     */
-                                    if (getVariationMaybe(hash, start - 1, ref.get(start - 1)) != null
-                                            && isHasAndEquals(querySequence.charAt(n - 1), ref, start - 1)) {
-
-                                        // subCnt(getVariation(hash, start - 1, ref.get(start - 1 ).toString()), dir, tp, tmpq,
-                                        // Qmean, nm, conf);
-                                        Variation tv = getVariation(hash, start - 1, String.valueOf(querySequence.charAt(n - 1)));
-                                        //Substract count.
-                                        subCnt(tv, dir, tp, queryQuality.charAt(n - 1) - 33, mappingQuality, nm, conf);
-                                    }
-                                    // Adjust count if the insertion is at the edge so that the AF won't > 1
-                                    /*
-                                    Condition:
-                                    1). looking at second segment in CIGAR string
-                                    2). first segment is a soft-clipping or a hard-clipping
-                                    */
-                                    if (ci == 1 && (cigar.getCigarElement(0).getOperator() == CigarOperator.S || cigar.getCigarElement(0).getOperator() == CigarOperator.H)) {
-                                        //Add one more variant corresponding to base at start - 1 to hash
-                                        Variation ttref = getVariation(hash, start - 1, ref.get(start - 1).toString());
-                                        ttref.incDir(dir);
-                                        ttref.cnt++;
-                                        ttref.pstd = hv.pstd;
-                                        ttref.qstd = hv.qstd;
-                                        ttref.pmean += tp;
-                                        ttref.qmean += tmpq;
-                                        ttref.Qmean += mappingQuality;
-                                        ttref.pp = tp;
-                                        ttref.pq = tmpq;
-                                        ttref.nm += nm - nmoff;
-                                        incCnt(cov, start - 1, 1);
-                                    }
-                                }
+        //adjusted start position
+        int start = position;
+        int offset = 0;
+         // Only match and insertion counts toward read length
+         // For total length, including soft-clipped bases
+        int rlen1 = getMatchInsertionLenght(cigar); // The read length for matched bases
+        if ( conf.minmatch != 0 && rlen1 < conf.minmatch) {
+            return;
+        }
+        int rlen2 = getSoftClippedLenght(cigar); // The total length, including soft-clipped bases
+        if (rlen2 > pileup.rlen) { // Determine the read length
+            pileup.rlen = rlen2;
+        }
 
-                                //adjust read position by m (CIGAR segment length) + offset + multoffp
-                                n += m + offset + multoffp;
-                                p += m + offset + multoffp;
-                                //adjust reference position by offset + multoffs
-                                start += offset + multoffs;
-                                continue;
-                            }
-                            case D: { //deletion
-                                offset = 0;
-                                //description string of deleted segment
-                                StringBuilder s = new StringBuilder("-").append(m);
-                                //sequence to be appended if next segment is matched
-                                StringBuilder ss = new StringBuilder();
-                                //quality of last base before deletion
-                                char q1 = queryQuality.charAt(n - 1);
-                                //quality of this segment
-                                StringBuilder q = new StringBuilder();
-
-                                // For multiple indels within $VEXT bp
-                                //offset for read position if next segment is matched
-                                int multoffs = 0;
-                                //offset for reference position if next segment is matched
-                                int multoffp = 0;
-                                int nmoff = 0;
-
-                                /*
-                                Condition:
-                                1). CIGAR string has next entry
-                                2). length of next CIGAR segment is less than conf.vext
-                                3). next segment is matched
-                                4). CIGAR string has one more entry after next one
-                                5). this entry is insertion or deletion
-                                 */
-                                if (conf.performLocalRealignment && cigar.numCigarElements() > ci + 2
-                                        && cigar.getCigarElement(ci + 1).getLength() <= conf.vext
-                                        && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.M
-                                        && (cigar.getCigarElement(ci + 2).getOperator() == CigarOperator.I
-                                         || cigar.getCigarElement(ci + 2).getOperator() == CigarOperator.D)) {
-
-                                    int mLen = cigar.getCigarElement(ci + 1).getLength();
-                                    int indelLen = cigar.getCigarElement(ci + 2).getLength();
-
-                                    //append '#' + next matched segment from read
-                                    s.append("#").append(substr(querySequence, n, mLen));
-                                    //append quality string of next matched segment from read
-                                    q.append(substr(queryQuality, n, mLen));
-
-                                    //if an insertion is two segments ahead, append '^' + part of sequence corresponding to next-next segment
-                                    //otherwise (deletion) append '^' + length of a next-next segment
-                                    s.append('^').append(cigar.getCigarElement(ci + 2).getOperator() == CigarOperator.I ? substr(querySequence, n + mLen, indelLen) : indelLen);
-                                    //same for quality string
-                                    q.append(cigar.getCigarElement(ci + 2).getOperator() == CigarOperator.I ? substr(queryQuality, n + mLen, indelLen) : "");
-
-                                    //add length of next segment to both read and reference offsets
-                                    //add length of next-next segment to reference position (for insertion) or to read position(for deletion)
-                                    multoffs += mLen + (cigar.getCigarElement(ci + 2).getOperator() == CigarOperator.D ? indelLen : 0);
-                                    multoffp += mLen + (cigar.getCigarElement(ci + 2).getOperator() == CigarOperator.I ? indelLen : 0);
-                                    if (cigar.numCigarElements() > ci + 3
-                                            && cigar.getCigarElement(ci + 3).getOperator() == CigarOperator.M) {
-                                        int vsn = 0;
-                                        int tn = n + multoffp;
-                                        int ts = start + multoffs + m;
-                                        for (int vi = 0; vsn <= conf.vext && vi < cigar.getCigarElement(ci + 3).getLength(); vi++) {
-                                            if (querySequence.charAt(tn + vi) == 'N') {
-                                                break;
-                                            }
-                                            if (queryQuality.charAt(tn + vi) - 33 < conf.goodq) {
-                                                break;
-                                            }
-                                            if (isHasAndEquals('N', ref, ts + vi)) {
-                                                break;
-                                            }
-                                            Character refCh = ref.get(ts + vi);
-                                            if (refCh != null) {
-                                                if (isNotEquals(querySequence.charAt(tn + vi), refCh)) {
-                                                    offset = vi + 1;
-                                                    nmoff++;
-                                                    vsn = 0;
-                                                } else {
-                                                    vsn++;
-                                                }
-                                            }
-                                        }
-                                        if (offset != 0) {
-                                            ss.append(substr(querySequence, tn, offset));
-                                            q.append(substr(queryQuality, tn, offset));
-                                        }
-                                    }
-                                    // skip next 2 CIGAR segments
-                                    ci += 2;
-                                } else if (conf.performLocalRealignment && cigar.numCigarElements() > ci + 1 && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.I) {
-                                    /*
-                                    Condition:
-                                    1). CIGAR string has next entry
-                                    2). next CIGAR segment is an insertion
-                                     */
-
-                                    int insLen = cigar.getCigarElement(ci + 1).getLength();
-                                    //Append '^' + next segment (inserted)
-                                    s.append("^").append(substr(querySequence, n, insLen));
-                                    //Append next segement to quality string
-                                    q.append(substr(queryQuality, n, insLen));
-
-                                    //Shift reference position by length of next segment
-                                    //skip next CIGAR segment
-                                    multoffp += insLen;
-                                    if (cigar.numCigarElements() > ci + 2
-                                            && cigar.getCigarElement(ci + 2).getOperator() == CigarOperator.M) {
-                                        int mLen = cigar.getCigarElement(ci + 2).getLength();
-                                        int vsn = 0;
-                                        int tn = n + multoffp;
-                                        int ts = start + m;
-                                        for (int vi = 0; vsn <= conf.vext && vi < mLen; vi++) {
-                                            char seqCh = querySequence.charAt(tn + vi);
-                                            if (seqCh == 'N') {
-                                                break;
-                                            }
-                                            if (queryQuality.charAt(tn + vi) - 33 < conf.goodq) {
-                                                break;
-                                            }
-                                            Character refCh = ref.get(ts + vi);
-                                            if (refCh != null) {
-                                                if (isEquals('N', refCh)) {
-                                                    break;
-                                                }
-                                                if (isNotEquals(seqCh, refCh)) {
-                                                    offset = vi + 1;
-                                                    nmoff++;
-                                                    vsn = 0;
-                                                } else {
-                                                    vsn++;
-                                                }
-                                            }
-                                        }
-                                        if (offset != 0) {
-                                            ss.append(substr(querySequence, tn, offset));
-                                            q.append(substr(queryQuality, tn, offset));
-                                        }
-                                    }
-                                    ci += 1;
-                                } else {
-                                    /*
-                                    Condition:
-                                    1). CIGAR string has next entry
-                                    2). next CIGAR segment is matched
-                                     */
-                                    if (conf.performLocalRealignment && cigar.numCigarElements() > ci + 1 && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.M) {
-                                        int mLen = cigar.getCigarElement(ci + 1).getLength();
-                                        int vsn = 0;
-                                        //Loop over next CIGAR segment (no more than conf.vext bases ahead)
-                                        for (int vi = 0; vsn <= conf.vext && vi < mLen; vi++) {
-                                            char seqCh = querySequence.charAt(n + vi);
-                                            //If base is unknown, exit loop
-                                            if (seqCh == 'N') {
-                                                break;
-                                            }
-                                            //If base quality is less than $GOODQ, exit loop
-                                            if (queryQuality.charAt(n + vi) - 33 < conf.goodq) {
-                                                break;
-                                            }
-                                            //If reference sequence has base at this position and it matches read base, update offset
-                                            Character refCh = ref.get(start + m + vi);
-                                            if (refCh != null) {
-                                                if (isEquals('N', refCh)) {
-                                                    break;
-                                                }
-                                                if (isNotEquals(seqCh, refCh)) {
-                                                    offset = vi + 1;
-                                                    nmoff++;
-                                                    vsn = 0;
-                                                } else {
-                                                    vsn++;
-                                                }
-                                            }
-
-                                        }
-
-                                        //If next CIGAR segment has good matching base
-                                        if (offset != 0) {
-                                            //Append first offset bases of next segment to ss and q
-                                            ss.append(substr(querySequence, n, offset));
-                                            q.append(substr(queryQuality, n, offset));
-                                        }
-                                    }
-                                }
-                                //offset should be reset to 0 on every loop, so it is non-zero only if previous next CIGAR segment is matched
-                                // Append '&' and ss to s if next segment has good matching base
-                                if (offset > 0) {
-                                    s.append("&").append(ss);
-                                }
+        int mateAlignmentStart = record.getMateAlignmentStart();
+        boolean readsOverlap = isReadsOverlap(record);
 
-                                //quality of first matched base after deletion
-                                //append best of $q1 and $q2
-                                if (n + offset >= queryQuality.length()) {
-                                    q.append(q1);
-                                } else {
-                                    char q2 = queryQuality.charAt(n + offset);
-                                    q.append(q1 > q2 ? q1 : q2);
-                                }
+        processReadCigar:
+        //Loop over CIGAR records
+        for (int ci = 0; ci < cigar.numCigarElements(); ci++) {
 
-                                //If reference position is inside region of interest
-                                if (start >= region.start && start <= region.end) {
-                                    //add variant structure for deletion at this position
-                                    Variation hv = getVariation(hash, start, s.toString()); //variation structure
-                                    //add record for deletion in deletions map
-                                    increment(dels5, start, s.toString());
-                                    hv.incDir(dir);
-                                    //increase count
-                                    hv.cnt++;
+            //length of segment in CIGAR
+            int m =  cigar.getCigarElement(ci).getLength();
 
-                                    //minimum of positions from start of read and end of read
-                                    int tp = p < rlen1 - p ? p + 1 : rlen1 - p;
+            //letter from CIGAR
+            final CigarOperator operator = getCigarOperator(cigar, ci);
 
-                                    //average quality of bases
-                                    double tmpq = 0;
+            switch (operator) {
+                case N: //N in CIGAR - skipped region from reference
+                    //Skip the region and add string start-end to %SPLICE
+                    String key = (start - 1) + "-" + (start + m - 1);
+                    splice.add(key);
+                    int[] cnt = spliceCnt.get(key);
+                    if (cnt == null) {
+                        cnt = new int[] { 0 };
+                        spliceCnt.put(key, cnt);
+                    }
+                    cnt[0]++;
 
-                                    for (int i = 0; i < q.length(); i++) {
-                                        tmpq += q.charAt(i) - 33;
-                                    }
+                    start += m;
+                    offset = 0;
+                    continue;
 
-                                    tmpq = tmpq / q.length();
+                case S:
+                    //First record in CIGAR
+                    if (ci == 0) { // 5' soft clipped
+                        // align softclipped but matched sequences due to mis-softclipping
+                        /*
+                        Conditions:
+                        1). segment length > 1
+                        2). start between 0 and chromosome length,
+                        3). reference genome is known at this position
+                        4). reference and read bases match
+                        5). read quality is more than 10
+                         */
+                        while (m - 1 >= 0 && start - 1 > 0 && start - 1 <= chrs.get(chr)
+                                && isHasAndEquals(querySequence.charAt(m - 1), ref, start - 1)
+                                && queryQuality.charAt(m - 1) - 33 > 10) {
+                            //create variant if it is not present
+                            Variation variation = getVariation(hash, start - 1, ref.get(start - 1).toString());
+                            //add count
+                            addCnt(pileup, variation, dir, m, queryQuality.charAt(m - 1) - 33, mappingQuality, nm, conf.goodq);
+                            //increase coverage
+                            incCnt(cov, start - 1, 1);
+                            start--;
+                            m--;
+                        }
+                        if (m > 0) { //If there remains a soft-clipped sequence at the beginning (not everything was matched)
+                            int q = 0; //sum of read qualities (to get mean quality)
+                            int qn = 0; //number of quality figures
+                            int lowqcnt = 0; //number of low-quality bases in the sequence
+
+                            //loop over remaining soft-clipped sequence
+                            for (int si = m - 1; si >= 0; si--) {
+                                //stop if unknown base (N - any of ATGC) is found
+                                if (querySequence.charAt(si) == 'N') {
+                                    break;
+                                }
+                                //tq - base quality
+                                int tq = queryQuality.charAt(si) - 33;
+                                if (tq <= 12)
+                                    lowqcnt++;
+                                //Stop if a low-quality base is found
+                                if (lowqcnt > 1)
+                                    break;
 
-                                    //pstd is a flag that is 1 if the variant is covered by at least 2 read segments with different positions
-                                    if (hv.pstd == false && hv.pp != 0 && tp != hv.pp) {
-                                        hv.pstd = true;
+                                q += tq;
+                                qn++;
+                            }
+                            //If we have at least 1 high-quality soft-clipped base within conf.buffer of region of interest
+                            if (qn >= 1 && qn > lowqcnt && start >= region.start - conf.buffer && start <= region.end + conf.buffer) {
+                                //add record to $sclip5
+                                Sclip sclip = sclip5.get(start);
+                                if (sclip == null) {
+                                    sclip = new Sclip();
+                                    sclip5.put(start, sclip);
+                                }
+                                for (int si = m - 1; m - si <= qn; si--) {
+                                    Character ch = querySequence.charAt(si);
+                                    int idx = m - 1 - si;
+                                    Map<Character, Integer> cnts = sclip.nt.get(idx);
+                                    if (cnts == null) {
+                                        cnts = new LinkedHashMap<>();
+                                        sclip.nt.put(idx, cnts);
                                     }
+                                    incCnt(cnts, ch, 1);
+                                    Variation seqVariation = pileup.getVariationFromSeq(sclip, idx, ch);
+                                    addCnt(pileup, seqVariation, dir, si - (m - qn), queryQuality.charAt(si) - 33, mappingQuality, nm, conf.goodq);
+                                }
+                                addCnt(pileup, sclip, dir, m, q / (double)qn, mappingQuality, nm, conf.goodq);
+                            }
 
-                                    //qstd is a flag that is 1 if the variant is covered by at least 2 segment reads with different qualities
-                                    if (hv.qstd == false && hv.pq != 0 && tmpq != hv.pq) {
-                                        hv.qstd = true;
-                                    }
-                                    hv.pmean += tp;
-                                    hv.qmean += tmpq;
-                                    hv.Qmean += mappingQuality;
-                                    hv.pp = tp;
-                                    hv.pq = tmpq;
-                                    hv.nm += nm - nmoff;
-                                    if (tmpq >= conf.goodq) {
-                                        hv.hicnt++;
-                                    } else {
-                                        hv.locnt++;
+                        }
+                        m = cigar.getCigarElement(ci).getLength();
+                    } else if (ci == cigar.numCigarElements() - 1) { // 3' soft clipped
+                        /*
+                        Conditions:
+                        1). read position is less than sequence length
+                        2). reference base is defined for start
+                        3). reference base at start matches read base at n
+                        4). read quality is more than 10
+                         */
+                        while (n < querySequence.length()
+                                && isHasAndEquals(querySequence.charAt(n), ref, start)
+                                && queryQuality.charAt(n) - 33 > 10) {
+                            //initialize entry in $hash if not present
+                            Variation variation = getVariation(hash, start, ref.get(start).toString());
+                            //add count
+                            addCnt(pileup, variation, dir, rlen2 - p, queryQuality.charAt(n) - 33, mappingQuality, nm, conf.goodq);
+                            //add coverage
+                            incCnt(cov, start, 1);
+                            n++;
+                            start++;
+                            m--;
+                            p++;
+                        }
+                        if (querySequence.length() - n > 0) { //If there remains a soft-clipped sequence at the end (not everything was matched)
+                            int q = 0; //sum of read qualities (to get mean quality)
+                            int qn = 0; //number of quality figures
+                            int lowqcnt = 0; //number of low-quality bases in the sequence
+                            for (int si = 0; si < m; si++) { //loop over remaining soft-clipped sequence
+                                if (querySequence.charAt(n + si) == 'N') { //stop if unknown base (N - any of ATGC) is found
+                                    break;
+                                }
+                                int tq = queryQuality.charAt(n + si) - 33; //base quality
+                                if (tq <= 12) {
+                                    lowqcnt++;
+                                }
+                                //Stop if a low-quality base is found
+                                if (lowqcnt > 1) {
+                                    break;
+                                }
+                                q += tq;
+                                qn++;
+                            }
+                            //If we have at least 1 high-quality soft-clipped base within conf.buffer of region of interest
+                            if (qn >= 1 && qn > lowqcnt && start >= region.start - conf.buffer && start <= region.end + conf.buffer) {
+                                //add record to $sclip3
+                                Sclip sclip = sclip3.get(start);
+                                if (sclip == null) {
+                                    sclip = new Sclip();
+                                    sclip3.put(start, sclip);
+                                }
+                                for (int si = 0; si < qn; si++) {
+                                    Character ch = querySequence.charAt(n + si);
+                                    int idx = si;
+                                    Map<Character, Integer> cnts = sclip.nt.get(idx);
+                                    if (cnts == null) {
+                                        cnts = pileup.newMap();
+                                        sclip.nt.put(idx, cnts);
                                     }
+                                    incCnt(cnts, ch, 1);
+                                    Variation variation = pileup.getVariationFromSeq(sclip, idx, ch);
+                                    addCnt(pileup, variation, dir, qn - si, queryQuality.charAt(n + si) - 33, mappingQuality, nm, conf.goodq);
+                                }
+                                addCnt(pileup, sclip, dir, m, q / (double)qn, mappingQuality, nm, conf.goodq);
+                            }
+
+                        }
+
+                    }
+                    //move read position by m (length of segment in CIGAR)
+                    n += m;
+                    offset = 0;
+                    start = position; // had to reset the start due to softclipping adjustment
+                    continue;
+                case H: //Hard clipping - skip
+                    offset = 0;
+                    continue;
+                case I: { //Insertion
+                    offset = 0;
+                    //inserted segment of read sequence
+                    StringBuilder s = new StringBuilder(substr(querySequence, n, m));
+                    //quality of this segment
+                    StringBuilder q = new StringBuilder(substr(queryQuality, n, m));
+                    //sequence to be appended if next segment is matched
+                    String ss = "";
+
+                    // For multiple indels within 10bp
+
+                    //offset for read position if next segment is matched
+                    int multoffs = 0;
+                    //offset for reference position if next segment is matched
+                    int multoffp = 0;
+                    int nmoff = 0;
 
-                                    //increase coverage count for reference bases missing from the read
-                                    for (int i = 0; i < m; i++) {
-                                        incCnt(cov, start + i, 1);
+                    /*
+                    Condition:
+                    1). CIGAR string has next entry
+                    2). length of next CIGAR segment is less than conf.vext
+                    3). next segment is matched
+                    4). CIGAR string has one more entry after next one
+                    5). this entry is insertion or deletion
+                     */
+                    if (conf.performLocalRealignment && cigar.numCigarElements() > ci + 2
+                            && cigar.getCigarElement(ci + 1).getLength() <= conf.vext
+                            && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.M
+                            && (cigar.getCigarElement(ci + 2).getOperator()  == CigarOperator.I
+                                || cigar.getCigarElement(ci + 2).getOperator()  == CigarOperator.D)) {
+
+                        int mLen = cigar.getCigarElement(ci + 1).getLength();
+                        int indelLen = cigar.getCigarElement(ci + 2).getLength();
+                        CigarOperator indelOperator = cigar.getCigarElement(ci + 2).getOperator();
+                        //append to s '#' and part of read sequence corresponding to next CIGAR segment (matched one)
+                        s.append("#").append(substr(querySequence, n + m, mLen));
+                        //append next segment quality to q
+                        q.append(substr(queryQuality, n + m, mLen));
+
+                        //if an insertion is two segments ahead, append '^' + part of sequence corresponding to next-next segment
+                        //otherwise (deletion) append '^' + length of a next-next segment
+                        s.append('^').append(indelOperator == CigarOperator.I ? substr(querySequence, n + m + mLen, indelLen) : indelLen);
+                        //if an insertion is two segments ahead, append part of quality string sequence corresponding to next-next segment
+                        //otherwise (deletion) append first quality score of next segment
+                        q.append(indelOperator == CigarOperator.I ? substr(queryQuality, n + m + mLen, indelLen) : queryQuality.charAt(n + m + mLen));
+
+                        //add length of next segment to both multoffs and multoffp
+                        //add length of next-next segment to multoffp (for insertion) or to multoffs (for deletion)
+                        multoffs += mLen + (indelOperator == CigarOperator.D ? indelLen : 0);
+                        multoffp += mLen + (indelOperator == CigarOperator.I ? indelLen : 0);
+
+                        int ci6 = cigar.numCigarElements() > ci + 3 ? cigar.getCigarElement(ci + 3).getLength() : 0;
+                        if (ci6 != 0 && cigar.getCigarElement(ci + 3).getOperator()  == CigarOperator.M) {
+                            Tuple4<Integer, String, String, Integer> tpl = finndOffset(start + multoffs,
+                                    n + m + multoffp, ci6, querySequence, queryQuality, ref, cov, conf.vext, conf.goodq);
+                            offset = tpl._1;
+                            ss = tpl._2;
+                            q.append(tpl._3);
+                        }
+                        //skip 2 CIGAR segments
+                        ci += 2;
+                    } else {
+                        /*
+                        Condition:
+                        1). CIGAR string has next entry
+                        2). next CIGAR segment is matched
+                         */
+                        if (conf.performLocalRealignment && cigar.numCigarElements() > ci + 1 && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.M) {
+                            int vsn = 0;
+                            //Loop over next CIGAR segment (no more than conf.vext bases ahead)
+                            for (int vi = 0; vsn <= conf.vext && vi < cigar.getCigarElement(ci + 1).getLength(); vi++) {
+                                //If base is unknown, exit loop
+                                if (querySequence.charAt(n + m + vi) == 'N') {
+                                    break;
+                                }
+                                //If base quality is less than conf.goodq, exit loop
+                                if (queryQuality.charAt(n + m + vi) - 33 < conf.goodq) {
+                                    break;
+                                }
+                                //If reference sequence has base at this position and it matches read base, update offset
+                                if (ref.containsKey(start + vi)) {
+                                    if (isNotEquals(querySequence.charAt(n + m + vi), ref.get(start + vi))) {
+                                        offset = vi + 1;
+                                        vsn = 0;
+                                    } else {
+                                        vsn++;
                                     }
                                 }
+                            }
+                            if (offset != 0) { //If next CIGAR segment has good matching base
+                                //Append first offset bases of next segment to ss and q
+                                ss += substr(querySequence, n + m, offset);
+                                q.append(substr(queryQuality, n + m, offset));
+                                //Increase coverage for positions corresponding to first offset bases of next segment
+                                for (int osi = 0; osi < offset; osi++) {
+                                    incCnt(cov, start + osi, 1);
+                                }
+                            }
+                        }
+                    }
 
-                                //adjust reference position by offset + multoffs
-                                start += m + offset + multoffs;
+                    //offset should be reset to 0 on every loop, so it is non-zero only if previous part of code was executed
+                    //Append '&' and $ss to s if next segment has good matching base
+                    if (offset > 0) {
+                        s.append("&").append(ss);
+                    }
 
-                                //adjust read position by m (CIGAR segment length) + offset + multoffp
-                                n += offset + multoffp;
-                                p += offset + multoffp;
+                    //If start of the segment is within region of interest and the segment does not have unknown bases
+                    if (start - 1 >= region.start && start - 1 <= region.end && !s.toString().contains("N")) {
+                        //add '+' + s to insertions at start - 1
+                        incCnt(getOrElse(ins, start - 1, pileup.<String, Integer>newMap()), "+" + s, 1);
+                        //add insertion to table of variations
+                        Variation hv = getVariation(iHash, start - 1, "+" + s); //variant structure for this insertion
+                        hv.incDir(dir);
+                        //add count
+                        hv.cnt++;
+                        //minimum of positions from start of read and end of read
+                        int tp = p < rlen1 - p ? p + 1 : rlen1 - p;
+
+                        //mean read quality of the segment
+                        double tmpq = 0;
+                        for (int i = 0; i < q.length(); i++) {
+                            tmpq += q.charAt(i) - 33;
+                        }
+                        tmpq = tmpq / q.length();
 
-                                if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) break processReadCigar;
-                                continue;
-                            }
-                            default:
-                                break;
+                        //pstd is a flag that is 1 if the variant is covered by at least 2 read segments with different positions
+                        if (hv.pstd == false && hv.pp != 0 && tp != hv.pp) {
+                            hv.pstd = true;
                         }
-                        //End branch on CIGAR segment type
-                        // Now dealing with matching part
-                        int nmoff = 0;
-                        int moffset = 0;
-                        //Loop over bases of CIGAR segment
-                        for (int i = offset; i < m; i++) {
-                            //flag to trim reads at opt_T bases from start or end (depending on direction)
-                            boolean trim = false;
-                            if (conf.trimBasesAfter != 0) {
-                                if (dir == false) {
-                                    if (n > conf.trimBasesAfter) {
-                                        trim = true;
-                                    }
-                                } else {
-                                    if (rlen2 - n > conf.trimBasesAfter) {
-                                        trim = true;
+                        //qstd is a flag that is 1 if the variant is covered by at least 2 segment reads with different qualities
+                        if (hv.qstd == false && hv.pq != 0 && tmpq != hv.pq) {
+                            hv.qstd = true;
+                        }
+                        pileup.markObservation(hv, tp, tmpq);
+                        hv.pmean += tp;
+                        pileup.addQuality(hv, tmpq);
+                        hv.Qmean += mappingQuality;
+                        hv.pp = tp;
+                        hv.pq = tmpq;
+                        if (tmpq >= conf.goodq) {
+                            hv.hicnt++;
+                        } else {
+                            hv.locnt++;
+                        }
+                        hv.nm += nm - nmoff;
+
+                        // Adjust the reference count for insertion reads
+
+                        /*
+                        Condition:
+                        1). reference sequence has base for the position
+                        2). hash contains variant structure for the position
+                        3). read base at position n-1 matches reference at start-1
+                         */
+                        if (getVariationMaybe(hash, start - 1, ref.get(start - 1)) != null
+                                && isHasAndEquals(querySequence.charAt(n - 1), ref, start - 1)) {
+
+                            // subCnt(getVariation(hash, start - 1, ref.get(start - 1 ).toString()), dir, tp, tmpq,
+                            // Qmean, nm, conf);
+                            Variation tv = getVariation(hash, start - 1, String.valueOf(querySequence.charAt(n - 1)));
+                            //Substract count.
+                            subCnt(pileup, tv, dir, tp, queryQuality.charAt(n - 1) - 33, mappingQuality, nm, conf);
+                        } else if (pileup.isShard() && isHasAndEquals(querySequence.charAt(n - 1), ref, start - 1)) {
+                            // The reference variant may have been created by the reads of an earlier batch
+                            pileup.deferSubCnt(start - 1, String.valueOf(querySequence.charAt(n - 1)), dir, tp,
+                                    queryQuality.charAt(n - 1) - 33, mappingQuality, nm);
+                        }
+                        // Adjust count if the insertion is at the edge so that the AF won't > 1
+                        /*
+                        Condition:
+                        1). looking at second segment in CIGAR string
+                        2). first segment is a soft-clipping or a hard-clipping
+                        */
+                        if (ci == 1 && (cigar.getCigarElement(0).getOperator() == CigarOperator.S || cigar.getCigarElement(0).getOperator() == CigarOperator.H)) {
+                            //Add one more variant corresponding to base at start - 1 to hash
+                            Variation ttref = getVariation(hash, start - 1, ref.get(start - 1).toString());
+                            ttref.incDir(dir);
+                            ttref.cnt++;
+                            ttref.pstd = hv.pstd;
+                            ttref.qstd = hv.qstd;
+                            ttref.pmean += tp;
+                            pileup.addQuality(ttref, tmpq);
+                            ttref.Qmean += mappingQuality;
+                            ttref.pp = tp;
+                            ttref.pq = tmpq;
+                            pileup.markCopy(ttref, "+" + s);
+                            ttref.nm += nm - nmoff;
+                            incCnt(cov, start - 1, 1);
+                        }
+                    }
+
+                    //adjust read position by m (CIGAR segment length) + offset + multoffp
+                    n += m + offset + multoffp;
+                    p += m + offset + multoffp;
+                    //adjust reference position by offset + multoffs
+                    start += offset + multoffs;
+                    continue;
+                }
+                case D: { //deletion
+                    offset = 0;
+                    //description string of deleted segment
+                    StringBuilder s = new StringBuilder("-").append(m);
+                    //sequence to be appended if next segment is matched
+                    StringBuilder ss = new StringBuilder();
+                    //quality of last base before deletion
+                    char q1 = queryQuality.charAt(n - 1);
+                    //quality of this segment
+                    StringBuilder q = new StringBuilder();
+
+                    // For multiple indels within $VEXT bp
+                    //offset for read position if next segment is matched
+                    int multoffs = 0;
+                    //offset for reference position if next segment is matched
+                    int multoffp = 0;
+                    int nmoff = 0;
+
+                    /*
+                    Condition:
+                    1). CIGAR string has next entry
+                    2). length of next CIGAR segment is less than conf.vext
+                    3). next segment is matched
+                    4). CIGAR string has one more entry after next one
+                    5). this entry is insertion or deletion
+                     */
+                    if (conf.performLocalRealignment && cigar.numCigarElements() > ci + 2
+                            && cigar.getCigarElement(ci + 1).getLength() <= conf.vext
+                            && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.M
+                            && (cigar.getCigarElement(ci + 2).getOperator() == CigarOperator.I
+                             || cigar.getCigarElement(ci + 2).getOperator() == CigarOperator.D)) {
+
+                        int mLen = cigar.getCigarElement(ci + 1).getLength();
+                        int indelLen = cigar.getCigarElement(ci + 2).getLength();
+
+                        //append '#' + next matched segment from read
+                        s.append("#").append(substr(querySequence, n, mLen));
+                        //append quality string of next matched segment from read
+                        q.append(substr(queryQuality, n, mLen));
+
+                        //if an insertion is two segments ahead, append '^' + part of sequence corresponding to next-next segment
+                        //otherwise (deletion) append '^' + length of a next-next segment
+                        s.append('^').append(cigar.getCigarElement(ci + 2).getOperator() == CigarOperator.I ? substr(querySequence, n + mLen, indelLen) : indelLen);
+                        //same for quality string
+                        q.append(cigar.getCigarElement(ci + 2).getOperator() == CigarOperator.I ? substr(queryQuality, n + mLen, indelLen) : "");
+
+                        //add length of next segment to both read and reference offsets
+                        //add length of next-next segment to reference position (for insertion) or to read position(for deletion)
+                        multoffs += mLen + (cigar.getCigarElement(ci + 2).getOperator() == CigarOperator.D ? indelLen : 0);
+                        multoffp += mLen + (cigar.getCigarElement(ci + 2).getOperator() == CigarOperator.I ? indelLen : 0);
+                        if (cigar.numCigarElements() > ci + 3
+                                && cigar.getCigarElement(ci + 3).getOperator() == CigarOperator.M) {
+                            int vsn = 0;
+                            int tn = n + multoffp;
+                            int ts = start + multoffs + m;
+                            for (int vi = 0; vsn <= conf.vext && vi < cigar.getCigarElement(ci + 3).getLength(); vi++) {
+                                if (querySequence.charAt(tn + vi) == 'N') {
+                                    break;
+                                }
+                                if (queryQuality.charAt(tn + vi) - 33 < conf.goodq) {
+                                    break;
+                                }
+                                if (isHasAndEquals('N', ref, ts + vi)) {
+                                    break;
+                                }
+                                Character refCh = ref.get(ts + vi);
+                                if (refCh != null) {
+                                    if (isNotEquals(querySequence.charAt(tn + vi), refCh)) {
+                                        offset = vi + 1;
+                                        nmoff++;
+                                        vsn = 0;
+                                    } else {
+                                        vsn++;
                                     }
                                 }
                             }
-
-                            //variation string. Initialize to first base of the read sequence
-                            final char ch1 = querySequence.charAt(n);
-                            String s = String.valueOf(ch1);
-                            boolean startWithDelition = false;
-                            //skip if base is unknown
-                            if (ch1 == 'N') {
-                                start++;
-                                n++;
-                                p++;
-                                if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) break processReadCigar;
-                                continue;
+                            if (offset != 0) {
+                                ss.append(substr(querySequence, tn, offset));
+                                q.append(substr(queryQuality, tn, offset));
                             }
-
-                            //sum of qualities for bases
-                            double q = queryQuality.charAt(n) - 33;
-                            //number of bases for quality calculation
-                            int qbases = 1;
-                            //number of bases in insertion for quality calculation
-                            int qibases = 0;
-                            // for more than one nucleotide mismatch
-                            StringBuilder ss = new StringBuilder();
-                            // More than one mismatches will only perform when all nucleotides have queryQuality > $GOODQ
-                            // Update: Forgo the queryQuality check. Will recover later
-
-                            /*
-                            Condition:
-                            1). start + 1 is in region of interest
-                            2). base index is not more than segment length
-                            3). reference sequence has base at start
-                            4). base at n in read is not equal to base in reference sequence
-                             */
-                            while ((start + 1) >= region.start
-                                    && (start + 1) <= region.end && (i + 1) < m
-                                    && q >= conf.goodq
-                                    && isHasAndNotEquals(ref, start, querySequence, n)
-                                    && isNotEquals('N', ref.get(start))) {
-
-                                //Break if base is unknown in the read
-                                char nuc = querySequence.charAt(n + 1);
-                                if (nuc == 'N') {
+                        }
+                        // skip next 2 CIGAR segments
+                        ci += 2;
+                    } else if (conf.performLocalRealignment && cigar.numCigarElements() > ci + 1 && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.I) {
+                        /*
+                        Condition:
+                        1). CIGAR string has next entry
+                        2). next CIGAR segment is an insertion
+                         */
+
+                        int insLen = cigar.getCigarElement(ci + 1).getLength();
+                        //Append '^' + next segment (inserted)
+                        s.append("^").append(substr(querySequence, n, insLen));
+                        //Append next segement to quality string
+                        q.append(substr(queryQuality, n, insLen));
+
+                        //Shift reference position by length of next segment
+                        //skip next CIGAR segment
+                        multoffp += insLen;
+                        if (cigar.numCigarElements() > ci + 2
+                                && cigar.getCigarElement(ci + 2).getOperator() == CigarOperator.M) {
+                            int mLen = cigar.getCigarElement(ci + 2).getLength();
+                            int vsn = 0;
+                            int tn = n + multoffp;
+                            int ts = start + m;
+                            for (int vi = 0; vsn <= conf.vext && vi < mLen; vi++) {
+                                char seqCh = querySequence.charAt(tn + vi);
+                                if (seqCh == 'N') {
                                     break;
                                 }
-                                if (isHasAndEquals('N', ref, start + 1)) {
+                                if (queryQuality.charAt(tn + vi) - 33 < conf.goodq) {
                                     break;
                                 }
-
-                                //Condition: base at n + 1 does not match reference base at start + 1
-                                if (isNotEquals(ref.get(start + 1), nuc)) {
-
-                                    //append the base from read
-                                    ss.append(nuc);
-                                    //add quality to total sum
-                                    q += queryQuality.charAt(n + 1) - 33;
-                                    //increase number of bases
-                                    qbases++;
-                                    //shift read position by 1
-                                    n++;
-                                    p++;
-                                    i++;
-                                    //shift reference position by 1
-                                    start++;
-                                    nmoff++;
-                                    if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) break processReadCigar;
-                                } else { //if bases match, exit loop
-                                    break;
+                                Character refCh = ref.get(ts + vi);
+                                if (refCh != null) {
+                                    if (isEquals('N', refCh)) {
+                                        break;
+                                    }
+                                    if (isNotEquals(seqCh, refCh)) {
+                                        offset = vi + 1;
+                                        nmoff++;
+                                        vsn = 0;
+                                    } else {
+                                        vsn++;
+                                    }
                                 }
                             }
-
-                            //If multi-base mismatch is found, append it to s after '&'
-                            if (ss.length() > 0) {
-                                s += "&" + ss;
+                            if (offset != 0) {
+                                ss.append(substr(querySequence, tn, offset));
+                                q.append(substr(queryQuality, tn, offset));
                             }
-                            int ddlen = 0;
-
-                            /*
-                            Condition:
-                            1). index $i is no farther than $VEXT from end of CIGAR segment
-                            2). CIGAR string contains next entry
-                            3). next CIGAR entry is a deletion
-                            4). reference sequence contains a base at $start
-                            5). either multi-nucleotide mismatch is found or read base at $n does not match reference base
-                            6). read base at $n has good quality
-                             */
-                            if (conf.performLocalRealignment && m - i <= conf.vext
-                                    && cigar.numCigarElements() > ci + 1 && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.D
-                                    && ref.containsKey(start)
-                                    && (ss.length() > 0 || isNotEquals(querySequence.charAt(n), ref.get(start)))
-                                    && queryQuality.charAt(n) - 33 > conf.goodq) {
-
-                                //loop until end of CIGAR segments
-                                while (i + 1 < m) {
-                                    //append next base to s and add its quality to q
-                                    s += querySequence.charAt(n + 1);
-                                    q += queryQuality.charAt(n + 1) - 33;
-                                    //increase number of bases
-                                    qbases++;
-
-                                    //shift read and reference indices by 1
-                                    i++;
-                                    n++;
-                                    p++;
-                                    start++;
-                                    if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) break processReadCigar;
+                        }
+                        ci += 1;
+                    } else {
+                        /*
+                        Condition:
+                        1). CIGAR string has next entry
+                        2). next CIGAR segment is matched
+                         */
+                        if (conf.performLocalRealignment && cigar.numCigarElements() > ci + 1 && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.M) {
+                            int mLen = cigar.getCigarElement(ci + 1).getLength();
+                            int vsn = 0;
+                            //Loop over next CIGAR segment (no more than conf.vext bases ahead)
+                            for (int vi = 0; vsn <= conf.vext && vi < mLen; vi++) {
+                                char seqCh = querySequence.charAt(n + vi);
+                                //If base is unknown, exit loop
+                                if (seqCh == 'N') {
+                                    break;
                                 }
-
-                                //remove '&' delimiter from s
-                                s = s.replaceFirst("&", "");
-                                //prepend s with deletion of length of next CIGAR segment + '&' delimiter
-                                s = "-" + cigar.getCigarElement(ci + 1).getLength() + "&" + s;
-                                startWithDelition = true;
-                                ddlen = cigar.getCigarElement(ci + 1).getLength();
-                                ci += 1;
-
-                                //If CIGAR has insertion two segments ahead
-                                if (cigar.numCigarElements() > ci + 1 && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.I) {
-                                    //append '^' + next-next segment sequence
-                                    s += "^" + substr(querySequence, n + 1, cigar.getCigarElement(ci + 1).getLength());
-
-                                    //Loop over next-next segment
-                                    int nextLen = cigar.getCigarElement(ci + 1).getLength();
-                                    for (int qi = 1; qi <= nextLen; qi++) {
-                                        //add base quality to total quality
-                                        q += queryQuality.charAt(n + 1 + qi) - 33;
-                                        //increase number of insertion bases
-                                        qibases++;
-                                    }
-
-                                    //adjust read position by length of next-next segment
-                                    n += nextLen;
-                                    p += nextLen;
-                                    ci += 1;
+                                //If base quality is less than $GOODQ, exit loop
+                                if (queryQuality.charAt(n + vi) - 33 < conf.goodq) {
+                                    break;
                                 }
-                                if (cigar.numCigarElements() > ci + 1 && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.M) {
-                                    Tuple4<Integer, String, String, Integer> tpl =
-                                            finndOffset(start + ddlen + 1, n + 1, cigar.getCigarElement(ci + 1).getLength(), querySequence, queryQuality, ref, cov, conf.vext, conf.goodq);
-                                    int toffset = tpl._1;
-                                    if (toffset != 0) {
-                                        moffset = toffset;
-                                        nmoff += tpl._4;
-                                        s += "&" + tpl._2;
-                                        String tq = tpl._3;
-                                        for (int qi = 0; qi < tq.length(); qi++) {
-                                            q += tq.charAt(qi) - 33;
-                                            qibases++;
-                                        }
+                                //If reference sequence has base at this position and it matches read base, update offset
+                                Character refCh = ref.get(start + m + vi);
+                                if (refCh != null) {
+                                    if (isEquals('N', refCh)) {
+                                        break;
                                     }
-                                }
-                            }
-                            if (trim == false) {
-                                //If start - qbases + 1 is in region of interest
-                                final int pos = start - qbases + 1;
-                                if (pos >= region.start && pos <= region.end) {
-                                    //add variation record for $s
-                                    Variation hv = getVariation(hash, pos, s); //reference to variant structure
-                                    hv.incDir(dir);
-
-                                    if(isBEGIN_ATGC_AMP_ATGCs_END(s)) {
-                                        //if s is one base followed by '&' and one or more bases
-                                        //add variant record for s to mnp
-                                        increment(mnp, pos, s);
+                                    if (isNotEquals(seqCh, refCh)) {
+                                        offset = vi + 1;
+                                        nmoff++;
+                                        vsn = 0;
+                                    } else {
+                                        vsn++;
                                     }
+                                }
 
-                                    //increment count
-                                    ++hv.cnt;
+                            }
 
-                                    //minimum of positions from start of read and end of read
-                                    int tp = p < rlen1 - p ? p + 1 : rlen1 - p;
+                            //If next CIGAR segment has good matching base
+                            if (offset != 0) {
+                                //Append first offset bases of next segment to ss and q
+                                ss.append(substr(querySequence, n, offset));
+                                q.append(substr(queryQuality, n, offset));
+                            }
+                        }
+                    }
+                    //offset should be reset to 0 on every loop, so it is non-zero only if previous next CIGAR segment is matched
+                    // Append '&' and ss to s if next segment has good matching base
+                    if (offset > 0) {
+                        s.append("&").append(ss);
+                    }
 
-                                    //average quality of bases in the variation
-                                    q = q / (qbases + qibases);
+                    //quality of first matched base after deletion
+                    //append best of $q1 and $q2
+                    if (n + offset >= queryQuality.length()) {
+                        q.append(q1);
+                    } else {
+                        char q2 = queryQuality.charAt(n + offset);
+                        q.append(q1 > q2 ? q1 : q2);
+                    }
 
-                                    //pstd is a flag that is 1 if the variant is covered by at least 2 read segments with different positions
-                                    if (hv.pstd == false && hv.pp != 0 && tp != hv.pp) {
-                                        hv.pstd = true;
-                                    }
+                    //If reference position is inside region of interest
+                    if (start >= region.start && start <= region.end) {
+                        //add variant structure for deletion at this position
+                        Variation hv = getVariation(hash, start, s.toString()); //variation structure
+                        //add record for deletion in deletions map
+                        pileup.increment(dels5, start, s.toString());
+                        hv.incDir(dir);
+                        //increase count
+                        hv.cnt++;
 
-                                    //qstd is a flag that is 1 if the variant is covered by at least 2 segment reads with different qualities
-                                    if (hv.qstd == false && hv.pq != 0 && q != hv.pq) {
-                                        hv.qstd = true;
-                                    }
-                                    hv.pmean += tp;
-                                    hv.qmean += q;
-                                    hv.Qmean += mappingQuality;
-                                    hv.pp = tp;
-                                    hv.pq = q;
-                                    hv.nm += nm - nmoff;
-                                    if (q >= conf.goodq) {
-                                        hv.hicnt++;
-                                    } else {
-                                        hv.locnt++;
-                                    }
+                        //minimum of positions from start of read and end of read
+                        int tp = p < rlen1 - p ? p + 1 : rlen1 - p;
 
-                                    //increase coverage for bases covered by the variation
-                                    for (int qi = 1; qi <= qbases; qi++) {
-                                        incCnt(cov, start - qi + 1, 1);
-                                    }
+                        //average quality of bases
+                        double tmpq = 0;
 
-                                    //If variation starts with a deletion ('-' character)
-                                    if (startWithDelition) {
-                                        //add variation to deletions map
-                                        increment(dels5, pos, s);
+                        for (int i = 0; i < q.length(); i++) {
+                            tmpq += q.charAt(i) - 33;
+                        }
 
-                                       //increase coverage for next CIGAR segment
-                                        for (int qi = 1; qi < ddlen; qi++) {
-                                            incCnt(cov, start + qi, 1);
-                                        }
-                                    }
-                                }
-                            }
+                        tmpq = tmpq / q.length();
 
-                            //If variation starts with a deletion ('-' character)
-                            if (startWithDelition) {
-                                start += ddlen;
-                                if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) break processReadCigar;
-                            }
+                        //pstd is a flag that is 1 if the variant is covered by at least 2 read segments with different positions
+                        if (hv.pstd == false && hv.pp != 0 && tp != hv.pp) {
+                            hv.pstd = true;
+                        }
 
-                            //Shift reference position by 1 if CIGAR segment is not insertion
-                            if (operator != CigarOperator.I) {
-                                start++;
-                                if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) break processReadCigar;
-                            }
-                            //Shift read position by 1 if CIGAR segment is not deletion
-                            if (operator != CigarOperator.D) {
-                                n++;
-                                p++;
-                            }
+                        //qstd is a flag that is 1 if the variant is covered by at least 2 segment reads with different qualities
+                        if (hv.qstd == false && hv.pq != 0 && tmpq != hv.pq) {
+                            hv.qstd = true;
                         }
-                        if (moffset != 0) {
-                            offset = moffset;
-                            n += moffset;
-                            start += moffset;
-                            p += moffset;
-                            if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) break processReadCigar;
+                        pileup.markObservation(hv, tp, tmpq);
+                        hv.pmean += tp;
+                        pileup.addQuality(hv, tmpq);
+                        hv.Qmean += mappingQuality;
+                        hv.pp = tp;
+                        hv.pq = tmpq;
+                        hv.nm += nm - nmoff;
+                        if (tmpq >= conf.goodq) {
+                            hv.hicnt++;
+                        } else {
+                            hv.locnt++;
                         }
-                        if (start > region.end) { //end if reference position is outside region of interest
-                            break;
+
+                        //increase coverage count for reference bases missing from the read
+                        for (int i = 0; i < m; i++) {
+                            incCnt(cov, start + i, 1);
                         }
                     }
+
+                    //adjust reference position by offset + multoffs
+                    start += m + offset + multoffs;
+
+                    //adjust read position by m (CIGAR segment length) + offset + multoffp
+                    n += offset + multoffp;
+                    p += offset + multoffp;
+
+                    if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) break processReadCigar;
+                    continue;
                 }
+                default:
+                    break;
             }
-        }
+            //End branch on CIGAR segment type
+            // Now dealing with matching part
+            int nmoff = 0;
+            int moffset = 0;
+            //Loop over bases of CIGAR segment
+            for (int i = offset; i < m; i++) {
+                //flag to trim reads at opt_T bases from start or end (depending on direction)
+                boolean trim = false;
+                if (conf.trimBasesAfter != 0) {
+                    if (dir == false) {
+                        if (n > conf.trimBasesAfter) {
+                            trim = true;
+                        }
+                    } else {
+                        if (rlen2 - n > conf.trimBasesAfter) {
+                            trim = true;
+                        }
+                    }
+                }
 
-        if (conf.outputSplicing) {
-            for (Entry<String, int[]> entry : spliceCnt.entrySet()) {
-                System.out.printf("%s\t%s\t%s\t%s\n", sample, region.chr, entry.getKey(), entry.getValue()[0]);
-            }
-            return null;
-        }
+                //variation string. Initialize to first base of the read sequence
+                final char ch1 = querySequence.charAt(n);
+                String s = String.valueOf(ch1);
+                boolean startWithDelition = false;
+                //skip if base is unknown
+                if (ch1 == 'N') {
+                    start++;
+                    n++;
+                    p++;
+                    if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) break processReadCigar;
+                    continue;
+                }
 
-        if (conf.performLocalRealignment) {
-            if (conf.y)
-                System.err.println("Start Realigndel");
-            realigndel(hash, dels5, cov, sclip5, sclip3, ref, region.chr, chrs, rlen, bams, conf);
-            if (conf.y)
-                System.err.println("Start Realignins");
-            realignins(hash, iHash, ins, cov, sclip5, sclip3, ref, region.chr, chrs, conf);
-            if (conf.y)
-                System.err.println("Start Realignlgdel");
-            realignlgdel(hash, cov, sclip5, sclip3, ref, region.chr, chrs, rlen, bams, conf);
-            if (conf.y)
-                System.err.println("Start Realignlgins");
-            realignlgins(hash, iHash, cov, sclip5, sclip3, ref, region.chr, chrs, rlen, bams, conf);
-            if (conf.y)
-                System.err.println("Start Realignlgins30");
-            realignlgins30(hash, iHash, cov, sclip5, sclip3, ref, region.chr, chrs, rlen, bams, conf);
-        }
+                //sum of qualities for bases
+                double q = queryQuality.charAt(n) - 33;
+                //number of bases for quality calculation
+                int qbases = 1;
+                //number of bases in insertion for quality calculation
+                int qibases = 0;
+                // for more than one nucleotide mismatch
+                StringBuilder ss = new StringBuilder();
+                // More than one mismatches will only perform when all nucleotides have queryQuality > $GOODQ
+                // Update: Forgo the queryQuality check. Will recover later
 
-        adjMNP(hash, mnp, cov, ref, sclip3, sclip5, conf);
+                /*
+                Condition:
+                1). start + 1 is in region of interest
+                2). base index is not more than segment length
+                3). reference sequence has base at start
+                4). base at n in read is not equal to base in reference sequence
+                 */
+                while ((start + 1) >= region.start
+                        && (start + 1) <= region.end && (i + 1) < m
+                        && q >= conf.goodq
+                        && isHasAndNotEquals(ref, start, querySequence, n)
+                        && isNotEquals('N', ref.get(start))) {
+
+                    //Break if base is unknown in the read
+                    char nuc = querySequence.charAt(n + 1);
+                    if (nuc == 'N') {
+                        break;
+                    }
+                    if (isHasAndEquals('N', ref, start + 1)) {
+                        break;
+                    }
 
-        return tuple(hash, iHash, cov, rlen);
-    }
+                    //Condition: base at n + 1 does not match reference base at start + 1
+                    if (isNotEquals(ref.get(start + 1), nuc)) {
 
-    private static boolean isPositionOverlapMate(int start, int mateAlignmentStart, boolean readsOverlap) {
-        return readsOverlap && start >= mateAlignmentStart;
-    }
+                        //append the base from read
+                        ss.append(nuc);
+                        //add quality to total sum
+                        q += queryQuality.charAt(n + 1) - 33;
+                        //increase number of bases
+                        qbases++;
+                        //shift read position by 1
+                        n++;
+                        p++;
+                        i++;
+                        //shift reference position by 1
+                        start++;
+                        nmoff++;
+                        if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) break processReadCigar;
+                    } else { //if bases match, exit loop
+                        break;
+                    }
+                }
 
-    private static boolean isReadsOverlap(SAMRecord record) {
-        return record.getReadPairedFlag() && !record.getReadNegativeStrandFlag()
-                && record.getMateNegativeStrandFlag()
-                && record.getMateReferenceName().equals(record.getReferenceName())
-                && record.getMateAlignmentStart() <= record.getAlignmentEnd();
-    }
+                //If multi-base mismatch is found, append it to s after '&'
+                if (ss.length() > 0) {
+                    s += "&" + ss;
+                }
+                int ddlen = 0;
 
-    private static CigarOperator getCigarOperator(Cigar cigar, int ci) {
-        CigarOperator operator =  cigar.getCigarElement(ci).getOperator();
-        // Treat insertions at the edge as soft-clipping
-        if ((ci == 0 || ci == cigar.numCigarElements() - 1) && operator == CigarOperator.I) {
-            operator = CigarOperator.S;
-        }
-        return operator;
-    }
+                /*
+                Condition:
+                1). index $i is no farther than $VEXT from end of CIGAR segment
+                2). CIGAR string contains next entry
+                3). next CIGAR entry is a deletion
+                4). reference sequence contains a base at $start
+                5). either multi-nucleotide mismatch is found or read base at $n does not match reference base
+                6). read base at $n has good quality
+                 */
+                if (conf.performLocalRealignment && m - i <= conf.vext
+                        && cigar.numCigarElements() > ci + 1 && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.D
+                        && ref.containsKey(start)
+                        && (ss.length() > 0 || isNotEquals(querySequence.charAt(n), ref.get(start)))
+                        && queryQuality.charAt(n) - 33 > conf.goodq) {
+
+                    //loop until end of CIGAR segments
+                    while (i + 1 < m) {
+                        //append next base to s and add its quality to q
+                        s += querySequence.charAt(n + 1);
+                        q += queryQuality.charAt(n + 1) - 33;
+                        //increase number of bases
+                        qbases++;
+
+                        //shift read and reference indices by 1
+                        i++;
+                        n++;
+                        p++;
+                        start++;
+                        if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) break processReadCigar;
+                    }
 
-    private static int getAlignedLenght(Cigar readCigar) {
-        int lenght = 0;
-        for (CigarElement element : readCigar.getCigarElements()) {
-            if (element.getOperator() == CigarOperator.M || element.getOperator() == CigarOperator.D) {
-                lenght += element.getLength();
-            }
-        }
-        return lenght;
-    }
+                    //remove '&' delimiter from s
+                    s = s.replaceFirst("&", "");
+                    //prepend s with deletion of length of next CIGAR segment + '&' delimiter
+                    s = "-" + cigar.getCigarElement(ci + 1).getLength() + "&" + s;
+                    startWithDelition = true;
+                    ddlen = cigar.getCigarElement(ci + 1).getLength();
+                    ci += 1;
+
+                    //If CIGAR has insertion two segments ahead
+                    if (cigar.numCigarElements() > ci + 1 && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.I) {
+                        //append '^' + next-next segment sequence
+                        s += "^" + substr(querySequence, n + 1, cigar.getCigarElement(ci + 1).getLength());
+
+                        //Loop over next-next segment
+                        int nextLen = cigar.getCigarElement(ci + 1).getLength();
+                        for (int qi = 1; qi <= nextLen; qi++) {
+                            //add base quality to total quality
+                            q += queryQuality.charAt(n + 1 + qi) - 33;
+                            //increase number of insertion bases
+                            qibases++;
+                        }
 
-    private static int getSoftClippedLenght(Cigar readCigar) {
-        int lenght = 0;
-        for (CigarElement element : readCigar.getCigarElements()) {
-            CigarOperator operator = element.getOperator();
-            if (operator == CigarOperator.M || operator == CigarOperator.I || operator == CigarOperator.S) {
-                lenght += element.getLength();
-            }
-        }
-        return lenght;
-    }
+                        //adjust read position by length of next-next segment
+                        n += nextLen;
+                        p += nextLen;
+                        ci += 1;
+                    }
+                    if (cigar.numCigarElements() > ci + 1 && cigar.getCigarElement(ci + 1).getOperator() == CigarOperator.M) {
+                        Tuple4<Integer, String, String, Integer> tpl =
+                                finndOffset(start + ddlen + 1, n + 1, cigar.getCigarElement(ci + 1).getLength(), querySequence, queryQuality, ref, cov, conf.vext, conf.goodq);
+                        int toffset = tpl._1;
+                        if (toffset != 0) {
+                            moffset = toffset;
+                            nmoff += tpl._4;
+                            s += "&" + tpl._2;
+                            String tq = tpl._3;
+                            for (int qi = 0; qi < tq.length(); qi++) {
+                                q += tq.charAt(qi) - 33;
+                                qibases++;
+                            }
+                        }
+                    }
+                }
+                if (trim == false) {
+                    //If start - qbases + 1 is in region of interest
+                    final int pos = start - qbases + 1;
+                    if (pos >= region.start && pos <= region.end) {
+                        //add variation record for $s
+                        Variation hv = getVariation(hash, pos, s); //reference to variant structure
+                        hv.incDir(dir);
+
+                        if(isBEGIN_ATGC_AMP_ATGCs_END(s)) {
+                            //if s is one base followed by '&' and one or more bases
+                            //add variant record for s to mnp
+                            pileup.increment(mnp, pos, s);
+                        }
 
-    private static int getMatchInsertionLenght(Cigar readCigar) {
-        int lenght = 0;
-        for (CigarElement element : readCigar.getCigarElements()) {
-            if (element.getOperator() == CigarOperator.M || element.getOperator() == CigarOperator.I) {
-                lenght += element.getLength();
-            }
-        }
-        return lenght;
-    }
+                        //increment count
+                        ++hv.cnt;
 
-    private static int getInsertionDeletionLenght(Cigar readCigar) {
-        int lenght = 0;
-        for (CigarElement element : readCigar.getCigarElements()) {
-            if (element.getOperator() == CigarOperator.I || element.getOperator() == CigarOperator.D) {
-                lenght += element.getLength();
-            }
-        }
-        return lenght;
-    }
+                        //minimum of positions from start of read and end of read
+                        int tp = p < rlen1 - p ? p + 1 : rlen1 - p;
 
-    private static String getMrnm(SAMRecord record) {
-        if (record.getMateReferenceName() == null) {
-            return "*";
-        }
+                        //average quality of bases in the variation
+                        q = q / (qbases + qibases);
 
-        if (record.getReferenceName().equals(record.getMateReferenceName())) {
-            return "=";
+                        //pstd is a flag that is 1 if the variant is covered by at least 2 read segments with different positions
+                        if (hv.pstd == false && hv.pp != 0 && tp != hv.pp) {
+                            hv.pstd = true;
+                        }
+
+                        //qstd is a flag that is 1 if the variant is covered by at least 2 segment reads with different qualities
+                        if (hv.qstd == false && hv.pq != 0 && q != hv.pq) {
+                            hv.qstd = true;
+                        }
+                        pileup.markObservation(hv, tp, q);
+                        hv.pmean += tp;
+                        pileup.addQuality(hv, q);
+                        hv.Qmean += mappingQuality;
+                        hv.pp = tp;
+                        hv.pq = q;
+                        hv.nm += nm - nmoff;
+                        if (q >= conf.goodq) {
+                            hv.hicnt++;
+                        } else {
+                            hv.locnt++;
+                        }
+
+                        //increase coverage for bases covered by the variation
+                        for (int qi = 1; qi <= qbases; qi++) {
+                            incCnt(cov, start - qi + 1, 1);
+                        }
+
+                        //If variation starts with a deletion ('-' character)
+                        if (startWithDelition) {
+                            //add variation to deletions map
+                            pileup.increment(dels5, pos, s);
+
+                           //increase coverage for next CIGAR segment
+                            for (int qi = 1; qi < ddlen; qi++) {
+                                incCnt(cov, start + qi, 1);
+                            }
+                        }
+                    }
+                }
+
+                //If variation starts with a deletion ('-' character)
+                if (startWithDelition) {
+                    start += ddlen;
+                    if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) break processReadCigar;
+                }
+
+                //Shift reference position by 1 if CIGAR segment is not insertion
+                if (operator != CigarOperator.I) {
+                    start++;
+                    if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) break processReadCigar;
+                }
+                //Shift read position by 1 if CIGAR segment is not deletion
+                if (operator != CigarOperator.D) {
+                    n++;
+                    p++;
+                }
+            }
+            if (moffset != 0) {
+                offset = moffset;
+                n += moffset;
+                start += moffset;
+                p += moffset;
+                if (isPositionOverlapMate(start, mateAlignmentStart, readsOverlap)) break processReadCigar;
+            }
+            if (start > region.end) { //end if reference position is outside region of interest
+                break;
+            }
         }
-        return record.getMateReferenceName();
     }
 
     /**
@@ -2601,6 +4103,7 @@ public class VarDict {
 
         Tuple4<Map<Integer, Map<String, Variation>>, Map<Integer, Map<String, Variation>>, Map<Integer, Integer>, Integer> parseTpl =
                 parseSAM(region, bam, chrs, sample, SPLICE, ampliconBasedCalling, Rlen, ref, conf);
+        RegionMetrics.Timer timer = RegionMetrics.timer(conf);
 
         Map<Integer, Map<String, Variation>> hash = parseTpl._1;
         Map<Integer, Map<String, Variation>> iHash = parseTpl._2;
@@ -2609,6 +4112,8 @@ public class VarDict {
 
         //the variant structure
         Map<Integer, Vars> vars = new HashMap<>();
+        //only the variants passing isGoodVar are printed by vardict(), the others needn't be completed
+        final boolean lazy = !conf.doPileup && !conf.bam.hasBam2() && ampliconBasedCalling == null && conf.ampliconBasedCalling == null;
         //Loop over positions
         for (Entry<Integer, Map<String, Variation>> entH : hash.entrySet()) {
             final int p = entH.getKey();
@@ -2649,8 +4154,8 @@ public class VarDict {
 
             //array of all variants for the position
             List<Variant> var = new ArrayList<>();
-            //temporary array used for debugging
-            List<String> tmp = new ArrayList<>();
+            //counts of the variants used for debugging (option -D)
+            DebugEntries tmp = conf.debug ? new DebugEntries() : null;
             List<String> keys = new ArrayList<>(v.keySet());
             Collections.sort(keys);
 
@@ -2712,19 +4217,7 @@ public class VarDict {
                 //append variant record
                 var.add(tvref);
                 if (conf.debug) { //debugging output
-                    tmp.add(n
-                            + ":" + (fwd + rev)
-                            + ":F-" + fwd
-                            + ":R-" + rev
-                            + ":" + format("%.3f", tvref.freq)
-                            + ":" + tvref.bias
-                            + ":" + tvref.pmean
-                            + ":" + tvref.pstd
-                            + ":" + vqual
-                            + ":" + tvref.qstd
-                            + ":" + format("%.3f", tvref.hifreq)
-                            + ":" + tvref.mapq
-                            + ":" + tvref.qratio);
+                    tmp.add(new DebugEntry(n, fwd, rev, vqual, tvref));
                 }
 
             }
@@ -2785,19 +4278,7 @@ public class VarDict {
 
                     var.add(tvref);
                     if (conf.debug) {
-                        tmp.add("I" + n
-                                + ":" + (fwd + rev)
-                                + ":F-" + fwd
-                                + ":R-" + rev
-                                + ":" + format("%.3f", tvref.freq)
-                                + ":" + tvref.bias
-                                + ":" + tvref.pmean
-                                + ":" + tvref.pstd
-                                + ":" + vqual
-                                + ":" + tvref.qstd
-                                + ":" + format("%.3f", tvref.hifreq)
-                                + ":" + tvref.mapq
-                                + ":" + tvref.qratio);
+                        tmp.add(new DebugEntry("I" + n, fwd, rev, vqual, tvref));
                     }
 
                 }
@@ -2868,6 +4349,8 @@ public class VarDict {
                 for (Variant vref : varsAtp.var) {
                     //vref - variant reference
 
+                    //variant failing the thresholds of isGoodVar: only the alleles are computed, and genotype1 which is shared
+                    final boolean skip = lazy && !canPass(vref, conf);
                     genotype2 = vref.n;
                     if (genotype2.startsWith("+")) {
                         genotype2 = "+" + (genotype2.length() - 1);
@@ -2902,7 +4385,7 @@ public class VarDict {
                     if (vn.startsWith("+")) {
                         //If no '&' and '#' symbols are found in variant string
                         //These symbols are in variant if a matched sequence follows insertion
-                        if (!vn.contains("&") && !vn.contains("#")) {
+                        if (!skip && !vn.contains("&") && !vn.contains("#")) {
                             //variant description string without first symbol '+'
                             String tseq1 = vn.substring(1);
                             //left 50 bases in reference sequence
@@ -2945,29 +4428,31 @@ public class VarDict {
                         //remove '-' and number from beginning of variant string
                         varallele = vn.replaceFirst("^-\\d+", "");
 
-                        //left 70 bases in reference sequence
-                        String leftseq = joinRef(ref, (p - 70 > 1 ? p - 70 : 1), p - 1); // left 10 nt
-                        int chr0 = getOrElse(chrs, region.chr, 0);
-                        //right 70 + dellen bases in reference sequence
-                        String tseq = joinRef(ref, p, p + dellen + 70 > chr0 ? chr0 : p + dellen + 70);
-
-                        //Try to adjust for microsatellite instability
-                        Tuple3<Double, Integer, String> tpl = findMSI(substr(tseq, 0, dellen), substr(tseq, dellen), leftseq);
-                        msi = tpl._1;
-                        shift3 = tpl._2;
-                        msint = tpl._3;
-
-                        tpl = findMSI(leftseq, substr(tseq, dellen), leftseq);
-                        double tmsi = tpl._1;
-                        int tshift3 = tpl._2;
-                        String tmsint = tpl._3;
-                        if (msi < tmsi) {
-                            msi = tmsi;
-                            shift3 = tshift3;
-                            msint = tmsint;
-                        }
-                        if (msi <= shift3 / (double)dellen) {
-                            msi = shift3 / (double)dellen;
+                        if (!skip) {
+                            //left 70 bases in reference sequence
+                            String leftseq = joinRef(ref, (p - 70 > 1 ? p - 70 : 1), p - 1); // left 10 nt
+                            int chr0 = getOrElse(chrs, region.chr, 0);
+                            //right 70 + dellen bases in reference sequence
+                            String tseq = joinRef(ref, p, p + dellen + 70 > chr0 ? chr0 : p + dellen + 70);
+
+                            //Try to adjust for microsatellite instability
+                            Tuple3<Double, Integer, String> tpl = findMSI(substr(tseq, 0, dellen), substr(tseq, dellen), leftseq);
+                            msi = tpl._1;
+                            shift3 = tpl._2;
+                            msint = tpl._3;
+
+                            tpl = findMSI(leftseq, substr(tseq, dellen), leftseq);
+                            double tmsi = tpl._1;
+                            int tshift3 = tpl._2;
+                            String tmsint = tpl._3;
+                            if (msi < tmsi) {
+                                msi = tmsi;
+                                shift3 = tshift3;
+                                msint = tmsint;
+                            }
+                            if (msi <= shift3 / (double)dellen) {
+                                msi = shift3 / (double)dellen;
+                            }
                         }
 
                         //If no matched sequence or indel follows the variant
@@ -2986,15 +4471,17 @@ public class VarDict {
                         refallele += joinRef(ref, p, p + dellen - 1);
                     } else { //Not insertion/deletion variant. SNP or MNP
 
-                        //Find MSI adjustment
-                        String tseq1 = joinRef(ref, p - 30 > 1 ? p - 30 : 1, p + 1);
-                        int chr0 = getOrElse(chrs, region.chr, 0);
-                        String tseq2 = joinRef(ref, p + 2, p + 70 > chr0 ? chr0 : p + 70);
+                        if (!skip) {
+                            //Find MSI adjustment
+                            String tseq1 = joinRef(ref, p - 30 > 1 ? p - 30 : 1, p + 1);
+                            int chr0 = getOrElse(chrs, region.chr, 0);
+                            String tseq2 = joinRef(ref, p + 2, p + 70 > chr0 ? chr0 : p + 70);
 
-                        Tuple3<Double, Integer, String> tpl = findMSI(tseq1, tseq2, null);
-                        msi = tpl._1;
-                        shift3 = tpl._2;
-                        msint = tpl._3;
+                            Tuple3<Double, Integer, String> tpl = findMSI(tseq1, tseq2, null);
+                            msi = tpl._1;
+                            shift3 = tpl._2;
+                            msint = tpl._3;
+                        }
                         //reference allele is 1 base from reference sequence
                         refallele = ref.containsKey(p) ? ref.get(p).toString() : "";
                         //variant allele is same as description string
@@ -3075,6 +4562,16 @@ public class VarDict {
                         genotype2 = genotype2.replaceFirst("\\^", "i");
                     }
 
+                    if (skip) {
+                        vref.freq = round(vref.freq, 4);
+                        vref.sp = sp;
+                        vref.ep = ep;
+                        vref.refallele = refallele;
+                        vref.varallele = varallele;
+                        vref.tcov = tcov;
+                        continue;
+                    }
+
                     //preceding reference sequence
                     vref.leftseq = joinRef(ref, sp - 20 < 1 ? 1 : sp - 20, sp - 1); // left 20 nt
                     int chr0 = getOrElse(chrs, region.chr, 0);
@@ -3114,14 +4611,7 @@ public class VarDict {
                         vref.bias = "0;" + vref.bias;
                     }
                     if (conf.debug) {
-                        StringBuilder sb = new StringBuilder();
-                        for (String str : tmp) {
-                            if (sb.length() > 0) {
-                                sb.append(" & ");
-                            }
-                            sb.append(str);
-                        }
-                        vref.DEBUG = sb.toString();
+                        vref.DEBUG = tmp;
                     }
                 }
             } else {
@@ -3152,19 +4642,13 @@ public class VarDict {
                 vref.leftseq = "";
                 vref.rightseq = "";
                 if (conf.debug) {
-                    StringBuilder sb = new StringBuilder();
-                    for (String str : tmp) {
-                        if (sb.length() > 0) {
-                            sb.append(" & ");
-                        }
-                        sb.append(str);
-                    }
-                    vref.DEBUG = sb.toString();
+                    vref.DEBUG = tmp;
                 }
             }
 
         }
 
+        timer.lap(RegionMetrics.Stage.TO_VARS);
         return tuple(Rlen, vars);
     }
 
@@ -3191,6 +4675,7 @@ public class VarDict {
      * @throws IOException
      */
     static Map<Integer, Character> getREF(Region region, Map<String, Integer> chrs, String fasta, int numberNucleotideToExtend) throws IOException {
+        Events.Span span = Events.reference(region);
         Map<Integer, Character> ref = new HashMap<Integer, Character>();
 
         int s_start = region.start - numberNucleotideToExtend - 700 < 1 ? 1 : region.start - numberNucleotideToExtend - 700;
@@ -3205,6 +4690,7 @@ public class VarDict {
             ref.put(i, Character.toUpperCase(exon.charAt(i - s_start)));
         }
 
+        span.end(0, exon.length());
         return ref;
     }
 
@@ -3359,14 +4845,14 @@ public class VarDict {
                 if (p3 - p5 > rlen - 10) { // if they're too far away, don't even try
                     continue;
                 }
-                final String seq5 = findconseq(sc5v, conf.y);
-                final String seq3 = findconseq(sc3v, conf.y);
+                final String seq5 = findconseq(sc5v, trace.on());
+                final String seq3 = findconseq(sc3v, trace.on());
                 //next until at least one of consensus sequences has length > 10
                 if (seq5.length() <= 10 || seq3.length() <= 10) {
                     continue;
                 }
-                if (conf.y) {
-                    System.err.printf("  Working lgins30: %s %s 3: %s %s 5: %s %s\n",
+                if (trace.on()) {
+                    trace.printf("  Working lgins30: %s %s 3: %s %s 5: %s %s\n",
                             p3, p5, seq3, cnt3, new StringBuilder(seq5).reverse(), cnt5);
                 }
                 Tuple3<Integer, Integer, Integer> tpl = find35match(seq5, seq3, p5, p3, ref);
@@ -3384,27 +4870,27 @@ public class VarDict {
                     ins += new StringBuilder(substr(seq5, 0, bp5)).reverse();
                 }
                 if (islowcomplexseq(ins)) {
-                    if (conf.y) {
-                        System.err.println("  Discard low complex insertion found " + ins + ".");
+                    if (trace.on()) {
+                        trace.println("  Discard low complex insertion found " + ins + ".");
                     }
                     continue;
                 }
                 int bi = 0;
                 Variation vref;
-                if (conf.y) {
-                    System.err.printf("  Found candidate lgins30: %s %s %s\n", p3, p5, ins);
+                if (trace.on()) {
+                    trace.printf("  Found candidate lgins30: %s %s %s\n", p3, p5, ins);
                 }
                 if (p5 > p3) {
                     if (seq3.length() > ins.length()
-                            && !ismatch(substr(seq3, ins.length()), joinRef(ref, p5, p5 + seq3.length() - ins.length() + 2), 1, conf.y)) {
+                            && !ismatch(substr(seq3, ins.length()), joinRef(ref, p5, p5 + seq3.length() - ins.length() + 2), 1, trace.on())) {
                         continue;
                     }
                     if (seq5.length() > ins.length()
-                            && !ismatch(substr(seq5, ins.length()), joinRef(ref, p3 - seq5.length() - ins.length() - 2, p3 - 1), -1, conf.y)) {
+                            && !ismatch(substr(seq5, ins.length()), joinRef(ref, p3 - seq5.length() - ins.length() - 2, p3 - 1), -1, trace.on())) {
                         continue;
                     }
-                    if (conf.y) {
-                        System.err.printf("  Found lgins30 complex: %s %s %s %s\n", p3, p5, ins.length(), ins);
+                    if (trace.on()) {
+                        trace.printf("  Found lgins30 complex: %s %s %s %s\n", p3, p5, ins.length(), ins);
                     }
                     String tmp = joinRef(ref, p3, p5 - 1);
                     if (tmp.length() > ins.length()) { // deletion is longer
@@ -3425,17 +4911,17 @@ public class VarDict {
                     }
                 } else {
                     if (seq3.length() > ins.length()
-                            && !ismatch(substr(seq3, ins.length()), joinRef(ref, p5, p5 + seq3.length() - ins.length() + 2), 1, conf.y)) {
+                            && !ismatch(substr(seq3, ins.length()), joinRef(ref, p5, p5 + seq3.length() - ins.length() + 2), 1, trace.on())) {
                         continue;
                     }
                     if (seq5.length() > ins.length()
-                            && !ismatch(substr(seq5, ins.length()), joinRef(ref, p3 - (seq5.length() - ins.length()) - 2, p3 - 1), -1, conf.y)) {
+                            && !ismatch(substr(seq5, ins.length()), joinRef(ref, p3 - (seq5.length() - ins.length()) - 2, p3 - 1), -1, trace.on())) {
                         continue;
                     }
                     String tmp = ins.length() > p3 - p5 ? joinRef(ref, p5, p3)
                             : joinRef(ref, p5, p5 + (p3 - p5 - ins.length()) / 2); // Tandem duplication
-                    if (conf.y) {
-                        System.err.printf("Found lgins30: %s %s %s %s + %s\n", p3, p5, ins.length(), tmp, ins);
+                    if (trace.on()) {
+                        trace.printf("Found lgins30: %s %s %s %s + %s\n", p3, p5, ins.length(), tmp, ins);
                     }
                     ins = "+" + tmp + ins;
                     bi = p5 - 1;
@@ -3446,8 +4932,8 @@ public class VarDict {
                 vref.pstd = true;
                 vref.qstd = true;
                 incCnt(cov, bi, sc5v.cnt);
-                if (conf.y) {
-                    System.err.printf(" lgins30 Found: '%s' %s %s %s\n", ins, bi, bp3, bp5);
+                if (trace.on()) {
+                    trace.printf(" lgins30 Found: '%s' %s %s %s\n", ins, bi, bp3, bp5);
                 }
 
                 if (ins.startsWith("+")) {
@@ -3482,8 +4968,8 @@ public class VarDict {
             }
 
         }
-        if (conf.y) {
-            System.err.println("Done: lgins30\n");
+        if (trace.on()) {
+            trace.println("Done: lgins30\n");
         }
     }
 
@@ -3572,12 +5058,12 @@ public class VarDict {
             if (sc5v.used) {
                 continue;
             }
-            String seq = findconseq(sc5v, conf.y);
+            String seq = findconseq(sc5v, trace.on());
             if (seq.isEmpty()) {
                 continue;
             }
-            if (conf.y) {
-                System.err.println("  Working lgins: 5: " + p + " " + seq);
+            if (trace.on()) {
+                trace.println("  Working lgins: 5: " + p + " " + seq);
             }
             if (B_A8.matcher(seq).find() || B_T8.matcher(seq).find()) {
                 continue;
@@ -3594,8 +5080,8 @@ public class VarDict {
             if (bi == 0) {
                 continue;
             }
-            if (conf.y) {
-                System.err.printf("  Found candidate lgins from 5: %s +%s %s %s\n", bi, ins, p, seq);
+            if (trace.on()) {
+                trace.printf("  Found candidate lgins from 5: %s +%s %s %s\n", bi, ins, p, seq);
             }
             final Variation iref = getVariation(iHash, bi, "+" + ins);
             iref.pstd = true;
@@ -3653,12 +5139,12 @@ public class VarDict {
             if (sc3v.used) {
                 continue;
             }
-            String seq = findconseq(sc3v, conf.y);
+            String seq = findconseq(sc3v, trace.on());
             if (seq.isEmpty()) {
                 continue;
             }
-            if (conf.y) {
-                System.err.println("  Working lgins 3: " + seq);
+            if (trace.on()) {
+                trace.println("  Working lgins 3: " + seq);
             }
             if (B_A7.matcher(seq).find() || B_T7.matcher(seq).find()) {
                 continue;
@@ -3930,7 +5416,7 @@ public class VarDict {
             if (sc5v.used) {
                 continue;
             }
-            String seq = findconseq(sc5v, conf.y);
+            String seq = findconseq(sc5v, trace.on());
             if (seq.isEmpty()) {
                 continue;
             }
@@ -3943,7 +5429,7 @@ public class VarDict {
             if (islowcomplexseq(seq)) {
                 continue;
             }
-            int bp = findbp(seq, p - 5, ref, conf.indelsize, -1, chr, chrs, conf.y);
+            int bp = findbp(seq, p - 5, ref, conf.indelsize, -1, chr, chrs, trace.on());
             final int dellen = p - bp;
             if (bp == 0) {
                 continue;
@@ -3962,8 +5448,8 @@ public class VarDict {
             } else {
                 gt = String.valueOf(-dellen);
             }
-            if (conf.y) {
-                System.err.printf("  Found Realignlgdel: %s %s 5' %s %s %s\n", bp, gt, p, seq, cnt);
+            if (trace.on()) {
+                trace.printf("  Found Realignlgdel: %s %s 5' %s %s %s\n", bp, gt, p, seq, cnt);
             }
             final Variation tv = getVariation(hash, bp, gt);
             tv.qstd = true; // more accurate implementation lat
@@ -4027,8 +5513,8 @@ public class VarDict {
             }
             Map<Integer, Map<String, Integer>> dels5 = singletonMap(bp, singletonMap(gt, tv.cnt));
             realigndel(hash, dels5, cov, sclip5, sclip3, ref, chr, chrs, rlen, bams, conf);
-            if (conf.y) {
-                System.err.printf("  Found lgdel done: %s %s %s 5' %s %s\n\n", bp, gt, p, seq, tv.cnt);
+            if (trace.on()) {
+                trace.printf("  Found lgdel done: %s %s %s 5' %s %s\n\n", bp, gt, p, seq, tv.cnt);
             }
         }
 
@@ -4044,7 +5530,7 @@ public class VarDict {
             if (sc3v.used) {
                 continue;
             }
-            String seq = findconseq(sc3v, conf.y);
+            String seq = findconseq(sc3v, trace.on());
             if (seq.isEmpty()) {
                 continue;
             }
@@ -4057,7 +5543,7 @@ public class VarDict {
             if (islowcomplexseq(seq)) {
                 continue;
             }
-            int bp = findbp(seq, p + 5, ref, conf.indelsize, 1, chr, chrs, conf.y);
+            int bp = findbp(seq, p + 5, ref, conf.indelsize, 1, chr, chrs, trace.on());
             final int dellen = bp - p;
             if (bp == 0) {
                 continue;
@@ -4078,8 +5564,8 @@ public class VarDict {
                     bp--;
                 }
             }
-            if (conf.y) {
-                System.err.printf("  Found Realignlgdel: %s %s 3' %s %s %s\n", bp, gt, p, seq, cnt);
+            if (trace.on()) {
+                trace.printf("  Found Realignlgdel: %s %s 3' %s %s %s\n", bp, gt, p, seq, cnt);
             }
             Variation tv = getVariation(hash, bp, gt);
             tv.qstd = true; // more accurate implementation later
@@ -4096,12 +5582,12 @@ public class VarDict {
             map.put(gt, tv.cnt);
             dels5.put(bp, map);
             realigndel(hash, dels5, cov, sclip5, sclip3, ref, chr, chrs, rlen, bams, conf);
-            if (conf.y) {
-                System.err.printf("  Found lgdel: %s %s $p 3' %s %s\n\n", bp, gt, p, tv.cnt);
+            if (trace.on()) {
+                trace.printf("  Found lgdel: %s %s $p 3' %s %s\n\n", bp, gt, p, tv.cnt);
             }
         }
-        if (conf.y) {
-            System.err.println("  Done: Realignlgdel\n");
+        if (trace.on()) {
+            trace.println("  Done: Realignlgdel\n");
         }
     }
 
@@ -4206,7 +5692,7 @@ public class VarDict {
                 int lbp = sp + dir * n - (dir < 0 ? dir : 0);
                 if (mm == 0 && i == seq.length()) {
                     if (debugLog) {
-                        System.err.printf("  Findbp: %s %s %s %s %s\n", seq, sp, lbp, mm, i);
+                        trace.printf("  Findbp: %s %s %s %s %s\n", seq, sp, lbp, mm, i);
                     }
                     return lbp;
                 } else if (i - mm > score) {
@@ -4216,7 +5702,7 @@ public class VarDict {
             }
         }
         if (debugLog && bp != 0) {
-            System.err.printf("  Findbp with mismatches: %s %s %s %s %s\n", seq, sp, bp, dir, score);
+            trace.printf("  Findbp with mismatches: %s %s %s %s %s\n", seq, sp, bp, dir, score);
         }
         return bp;
     }
@@ -4333,8 +5819,8 @@ public class VarDict {
             Integer p = (Integer)objects[0];
             String vn = (String)objects[1];
             Integer icnt = (Integer)objects[2];
-            if (conf.y) {
-                System.err.println(format("  Realign Ins: %s %s %s", p, vn, icnt));
+            if (trace.on()) {
+                trace.println(format("  Realign Ins: %s %s %s", p, vn, icnt));
             }
             String insert;
             Matcher mtch = BEGIN_PLUS_ATGC.matcher(vn);
@@ -4442,8 +5928,8 @@ public class VarDict {
                 if (tv.cnt >= icnt + insert.length() || tv.cnt / icnt >= 8) {
                     continue;
                 }
-                if (conf.y) {
-                    System.err.printf("    insMM: %s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\n", mm, mp, me, nm3, nm5, vn, icnt, tv.cnt, tv.qmean, tv.pmean, cov.get(p));
+                if (trace.on()) {
+                    trace.printf("    insMM: %s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\n", mm, mp, me, nm3, nm5, vn, icnt, tv.cnt, tv.qmean, tv.pmean, cov.get(p));
                 }
                 // Adjust ref cnt so that AF won't > 1
                 if (mp > p && me == 5) {
@@ -4473,13 +5959,13 @@ public class VarDict {
             for (Integer sc5pp : sc5p) {
                 Sclip tv = sclip5.get(sc5pp);
                 if (tv != null && !tv.used) {
-                    String seq = findconseq(tv, conf.y);
-                    if (conf.y) {
-                        System.err.printf("    ins5: %s %s %s %s %s %s\n", p, sc5pp, seq, wupseq, icnt, tv.cnt);
+                    String seq = findconseq(tv, trace.on());
+                    if (trace.on()) {
+                        trace.printf("    ins5: %s %s %s %s %s %s\n", p, sc5pp, seq, wupseq, icnt, tv.cnt);
                     }
-                    if (!seq.isEmpty() && ismatch(seq, wupseq, -1, conf.y)) {
-                        if (conf.y) {
-                            System.err.printf("    ins5: %s %s $s %s %s %s used\n", p, sc5pp, seq, wupseq, icnt, tv.cnt);
+                    if (!seq.isEmpty() && ismatch(seq, wupseq, -1, trace.on())) {
+                        if (trace.on()) {
+                            trace.printf("    ins5: %s %s $s %s %s %s used\n", p, sc5pp, seq, wupseq, icnt, tv.cnt);
                         }
                         if (sc5pp > p) {
                             incCnt(cov, p, tv.cnt);
@@ -4491,17 +5977,17 @@ public class VarDict {
             }
             for (Integer sc3pp : sc3p) {
                 Sclip tv = sclip3.get(sc3pp);
-                if (conf.y) {
-                    System.err.printf("    33: %s %s %s %s\n", p, sc3pp, vn, sanpseq);
+                if (trace.on()) {
+                    trace.printf("    33: %s %s %s %s\n", p, sc3pp, vn, sanpseq);
                 }
                 if (tv != null && !tv.used) {
-                    String seq = findconseq(tv, conf.y);
-                    if (conf.y) {
-                        System.err.printf("    ins3: %s %s %s %s %s %s %s\n", p, sc3pp, seq, sanpseq, vn, icnt, tv.cnt);
+                    String seq = findconseq(tv, trace.on());
+                    if (trace.on()) {
+                        trace.printf("    ins3: %s %s %s %s %s %s %s\n", p, sc3pp, seq, sanpseq, vn, icnt, tv.cnt);
                     }
-                    if (!seq.isEmpty() && ismatch(seq, substr(sanpseq, sc3pp - p - 1), 1, conf.y)) {
-                        if (conf.y) {
-                            System.err.printf("    ins3: %s %s %s %s %s %s used\n", p, sc3pp, seq, vn, icnt, tv.cnt);
+                    if (!seq.isEmpty() && ismatch(seq, substr(sanpseq, sc3pp - p - 1), 1, trace.on())) {
+                        if (trace.on()) {
+                            trace.printf("    ins3: %s %s %s %s %s %s used\n", p, sc3pp, seq, vn, icnt, tv.cnt);
                         }
                         if (sc3pp <= p) {
                             incCnt(cov, p, tv.cnt);
@@ -4581,8 +6067,8 @@ public class VarDict {
             Integer p = (Integer)objects[0];
             String vn = (String)objects[1];
             Integer dcnt = (Integer)objects[2];
-            if (conf.y) {
-                System.err.printf("  Realigndel for: %s %s %s cov: %s\n", p, vn, dcnt, cov.get(p));
+            if (trace.on()) {
+                trace.printf("  Realigndel for: %s %s %s cov: %s\n", p, vn, dcnt, cov.get(p));
             }
             final Variation vref = getVariation(hash, p, vn);
             int dellen = 0;
@@ -4630,8 +6116,8 @@ public class VarDict {
             int nm5 = r5.nm;
             int misp5 = r5.misp;
             String misnt5 = r5.misnt;
-            if (conf.y) {
-                System.err.printf("  Mismatches: misp3: %s-%s misp5: %s-%s sclip3: %s sclip5: %s\n",
+            if (trace.on()) {
+                trace.printf("  Mismatches: misp3: %s-%s misp5: %s-%s sclip3: %s sclip5: %s\n",
                         misp3, misnt3, misp5, misnt5, Utils.toString(sc3p), Utils.toString(sc5p));
             }
 
@@ -4664,8 +6150,8 @@ public class VarDict {
                 if (tv.cnt >= dcnt + dellen || tv.cnt / dcnt >= 8) {
                     continue;
                 }
-                if (conf.y) {
-                    System.err.printf("  Realigndel Adj: %s %s %s %s %s %s %s %s cov: %s\n",
+                if (trace.on()) {
+                    trace.printf("  Realigndel Adj: %s %s %s %s %s %s %s %s cov: %s\n",
                             mm, mp, me, nm3, nm5, p, tv.cnt, tv.qmean, cov.get(p));
                 }
                 // Adjust ref cnt so that AF won't > 1
@@ -4683,8 +6169,8 @@ public class VarDict {
                 if (hash.get(mp).isEmpty()) {
                     hash.remove(mp);
                 }
-                if (conf.y) {
-                    System.err.printf("  Realigndel AdjA: %s %s %s %s %s %s %s %s cov: %s\n",
+                if (trace.on()) {
+                    trace.printf("  Realigndel AdjA: %s %s %s %s %s %s %s %s cov: %s\n",
                             mm, mp, me, nm3, nm5, p, tv.cnt, tv.qmean, cov.get(p));
                 }
             }
@@ -4698,19 +6184,19 @@ public class VarDict {
             for (Integer sc5pp : sc5p) {
                 if (sclip5.containsKey(sc5pp) && !sclip5.get(sc5pp).used) {
                     Sclip tv = sclip5.get(sc5pp);
-                    String seq = findconseq(tv, conf.y);
-                    if (conf.y) {
-                        System.err.printf("  Realigndel 5: %s %s Seq: '%s' %s %s %s %s %s cov: %s\n",
+                    String seq = findconseq(tv, trace.on());
+                    if (trace.on()) {
+                        trace.printf("  Realigndel 5: %s %s Seq: '%s' %s %s %s %s %s cov: %s\n",
                                 p, sc5pp, seq, new StringBuilder(wupseq).reverse(), tv.cnt, dcnt, vn, p, cov.get(p));
                     }
-                    if (!seq.isEmpty() && ismatch(seq, wupseq, -1, conf.y)) {
+                    if (!seq.isEmpty() && ismatch(seq, wupseq, -1, trace.on())) {
                         if (sc5pp > p) {
                             incCnt(cov, p, tv.cnt);
                         }
                         adjCnt(vref, tv, conf);
                         sclip5.get(sc5pp).used = true;
-                        if (conf.y) {
-                            System.err.printf("  Realigndel 5: %s %s %s %s %s %s %s %s used cov: %s\n",
+                        if (trace.on()) {
+                            trace.printf("  Realigndel 5: %s %s %s %s %s %s %s %s used cov: %s\n",
                                     p, sc5pp, seq, new StringBuilder(wupseq).reverse(), tv.cnt, dcnt, vn, p, cov.get(p));
                         }
                     }
@@ -4720,14 +6206,14 @@ public class VarDict {
             for (Integer sc3pp : sc3p) {
                 if (sclip3.containsKey(sc3pp) && !sclip3.get(sc3pp).used) {
                     Sclip tv = sclip3.get(sc3pp);
-                    String seq = findconseq(tv, conf.y);
-                    if (conf.y) {
-                        System.err.printf("  Realigndel 3: %s %s seq '%s' %s %s %s %s %s %s %s\n",
+                    String seq = findconseq(tv, trace.on());
+                    if (trace.on()) {
+                        trace.printf("  Realigndel 3: %s %s seq '%s' %s %s %s %s %s %s %s\n",
                                 p, sc3pp, seq, sanpseq, tv.cnt, dcnt, vn, p, dellen, substr(sanpseq, sc3pp - p));
                     }
-                    if (!seq.isEmpty() && ismatch(seq, substr(sanpseq, sc3pp - p), 1, conf.y)) {
-                        if (conf.y) {
-                            System.err.printf("  Realigndel 3: %s %s %s %s %s %s %s %s used\n", p, sc3pp, seq, sanpseq, tv.cnt, dcnt, vn, p);
+                    if (!seq.isEmpty() && ismatch(seq, substr(sanpseq, sc3pp - p), 1, trace.on())) {
+                        if (trace.on()) {
+                            trace.printf("  Realigndel 3: %s %s %s %s %s %s %s %s used\n", p, sc3pp, seq, sanpseq, tv.cnt, dcnt, vn, p);
                         }
                         if (sc3pp <= p) {
                             incCnt(cov, p, tv.cnt);
@@ -4818,8 +6304,8 @@ public class VarDict {
 
             }
         }
-        if (conf.y) {
-            System.err.printf("    Passing Read CNT: %s %s %s %s %s\n", cnt, chr, s, e, midcnt);
+        if (trace.on()) {
+            trace.printf("    Passing Read CNT: %s %s %s %s %s\n", cnt, chr, s, e, midcnt);
         }
         return cnt <= 0;
     }
@@ -4834,7 +6320,7 @@ public class VarDict {
      */
     static boolean ismatch(String seq1, String seq2, int dir, boolean debugLog) {
         if (debugLog) {
-            System.err.printf("    Matching %s %s %s\n", seq1, seq2, dir);
+            trace.printf("    Matching %s %s %s\n", seq1, seq2, dir);
         }
         seq2 = seq2.replaceAll("#|\\^", "");
         int mm = 0;
@@ -4906,7 +6392,7 @@ public class VarDict {
             scv.sequence = "";
         }
         if (debugLog) {
-            System.err.printf("  candidate consensus: %s M: %s T: %s Final: %s\n", seq, match, total, scv.sequence);
+            trace.printf("  candidate consensus: %s M: %s T: %s Final: %s\n", seq, match, total, scv.sequence);
         }
         return scv.sequence;
 
@@ -5146,8 +6632,8 @@ public class VarDict {
                         Variation tref = hashP.get(left);
                         if (tref != null) {
                             if (tref.cnt < vref.cnt && tref.pmean / tref.cnt <= i + 1) {
-                                if (conf.y) {
-                                    System.err.printf(" AdjMnt Left: %s %s %s\n", p, vn, tref.cnt);
+                                if (trace.on()) {
+                                    trace.printf(" AdjMnt Left: %s %s %s\n", p, vn, tref.cnt);
                                 }
                                 adjCnt(vref, tref, conf);
                                 hashP.remove(left);
@@ -5158,8 +6644,8 @@ public class VarDict {
                         Variation tref = hash.get(p + i + 1).get(right);
                         if (tref != null) {
                             if (tref.cnt < vref.cnt && tref.pmean / tref.cnt <= mnt.length() - i - 1) {
-                                if (conf.y) {
-                                    System.err.printf(" AdjMnt Right: %s %s %s\n", p, vn, tref.cnt);
+                                if (trace.on()) {
+                                    trace.printf(" AdjMnt Right: %s %s %s\n", p, vn, tref.cnt);
                                 }
                                 adjCnt(vref, tref, conf);
                                 incCnt(cov, p, tref.cnt);
@@ -5172,9 +6658,9 @@ public class VarDict {
                 if (sclip3.containsKey(p)) {
                     final Sclip sc3v = sclip3.get(p);
                     if (!sc3v.used) {
-                        final String seq = findconseq(sc3v, conf.y);
+                        final String seq = findconseq(sc3v, trace.on());
                         if (seq.startsWith(mnt)) {
-                            if(seq.length() == mnt.length() || ismatchref(seq.substring(mnt.length()), ref, p + mnt.length(), 1, conf.y)) {
+                            if(seq.length() == mnt.length() || ismatchref(seq.substring(mnt.length()), ref, p + mnt.length(), 1, trace.on())) {
                                 adjCnt(hash.get(p).get(vn), sc3v, conf);
                                 incCnt(cov, p, sc3v.cnt);
                                 sc3v.used = true;
@@ -5185,11 +6671,11 @@ public class VarDict {
                 if (sclip5.containsKey(p + mnt.length())) {
                     final Sclip sc5v = sclip5.get(p + mnt.length());
                     if (!sc5v.used) {
-                        String seq =  findconseq(sc5v, conf.y);
+                        String seq =  findconseq(sc5v, trace.on());
                         if (!seq.isEmpty() && seq.length() >= mnt.length()) {
                             seq =  new StringBuffer(seq).reverse().toString();
                             if (seq.endsWith(mnt)) {
-                                if (seq.length() == mnt.length() || ismatchref(seq.substring(0, seq.length() - mnt.length()), ref, p - 1, -1, conf.y)) {
+                                if (seq.length() == mnt.length() || ismatchref(seq.substring(0, seq.length() - mnt.length()), ref, p - 1, -1, trace.on())) {
                                     adjCnt(hash.get(p).get(vn), sc5v, conf);
                                     incCnt(cov, p, sc5v.cnt);
                                     sc5v.used = true;
@@ -5206,7 +6692,7 @@ public class VarDict {
 
     private static boolean ismatchref(String seq, Map<Integer, Character> ref, int p, int dir, boolean debugLog) {
         if (debugLog) {
-            System.err.println(format("      Matching REF %s %s %s", seq, p, dir));
+            trace.println(format("      Matching REF %s %s %s", seq, p, dir));
         }
         int mm = 0;
         for (int n = 0; n < seq.length(); n++) {
@@ -5250,10 +6736,10 @@ public class VarDict {
         vref.addDir(true, tv.getDir(true));
         vref.addDir(false, tv.getDir(false));
 
-        if (conf.y) {
+        if (trace.on()) {
             String refCnt = ref != null ? String.valueOf(ref.cnt) : "NA";
-            System.err.printf("    AdjCnt: '+' %s %s %s %s Ref: %s\n", vref.cnt, tv.cnt, vref.getDir(false), tv.getDir(false), refCnt);
-            System.err.printf("    AdjCnt: '-' %s %s %s %s Ref: %s\n", vref.cnt, tv.cnt, vref.getDir(true), tv.getDir(true), refCnt);
+            trace.printf("    AdjCnt: '+' %s %s %s %s Ref: %s\n", vref.cnt, tv.cnt, vref.getDir(false), tv.getDir(false), refCnt);
+            trace.printf("    AdjCnt: '-' %s %s %s %s Ref: %s\n", vref.cnt, tv.cnt, vref.getDir(true), tv.getDir(true), refCnt);
         }
 
         if (ref == null)
@@ -5325,15 +6811,6 @@ public class VarDict {
         correctCnt(ref);
     }
 
-    private static void increment(Map<Integer, Map<String, Integer>> counters, int idx, String s) {
-        Map<String, Integer> map = counters.get(idx);
-        if (map == null) {
-            map = new HashMap<>();
-            counters.put(idx, map);
-        }
-        incCnt(map, s, 1);
-    }
-
     public static final BedRowFormat DEFAULT_BED_ROW_FORMAT = new BedRowFormat(2, 6, 7, 9, 10, 12);
     private static final BedRowFormat CUSTOM_BED_ROW_FORMAT = new BedRowFormat(0, 1, 2, 3, 1, 2);
 
@@ -5380,8 +6857,12 @@ public class VarDict {
 
         @Override
         public Tuple2<Integer, Map<Integer, Vars>> call() throws Exception {
+            return call(conf);
+        }
+
+        Tuple2<Integer, Map<Integer, Vars>> call(Configuration conf) throws IOException {
             if (ref == null)
-                ref = getREF(region, chrs, conf.fasta, conf.numberNucleotideToExtend);
+                ref = getREF(region, chrs, conf);
             return toVars(region, bam, ref, chrs, sample, splice, ampliconBasedCalling, 0, conf);
         }
 
@@ -5390,26 +6871,35 @@ public class VarDict {
     private static class SomdictWorker implements Callable<OutputStream> {
 
         final Future<Tuple2<Integer, Map<Integer, Vars>>> first;
+        final ToVarsWorker firstWorker;
         final ToVarsWorker second;
         final String sample;
+        final String samplem;
 
         public SomdictWorker(Region region, String bam, Map<String, Integer> chrs, Set<String> splice, String ampliconBasedCalling, Map<Integer, Character> ref, Configuration conf,
-                Future<Tuple2<Integer, Map<Integer, Vars>>> first,
-                String sample) {
+                Future<Tuple2<Integer, Map<Integer, Vars>>> first, String firstBam,
+                String sample, String samplem) {
             this.first = first;
+            this.firstWorker = new ToVarsWorker(region, firstBam, chrs, sample, splice, ampliconBasedCalling, ref, conf);
             this.second = new ToVarsWorker(region, bam, chrs, sample, splice, ampliconBasedCalling, ref, conf);
             this.sample = sample;
+            this.samplem = samplem;
         }
 
         @Override
         public OutputStream call() throws Exception {
-            Tuple2<Integer, Map<Integer, Vars>> t2 = second.call();
-            Tuple2<Integer, Map<Integer, Vars>> t1 = first.get();
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            PrintStream out = new PrintStream(baos);
-            somdict(second.region, t1._2, t2._2, sample, second.chrs, second.splice, second.ampliconBasedCalling, Math.max(t1._1, t2._1), second.conf, out);
-            out.close();
-            return baos;
+            return analyseRegion(second.region, second.splice, second.conf, (regionConf, out) -> {
+                Tuple2<Integer, Map<Integer, Vars>> t1;
+                Tuple2<Integer, Map<Integer, Vars>> t2;
+                if (regionConf.degraded) {
+                    t1 = firstWorker.call(regionConf);
+                    t2 = second.call(regionConf);
+                } else {
+                    t2 = second.call();
+                    t1 = getWithinBudget(first);
+                }
+                somdict(second.region, t1._2, t2._2, sample, samplem, second.chrs, second.splice, second.ampliconBasedCalling, Math.max(t1._1, t2._1), regionConf, out);
+            });
         }
 
     }
@@ -5435,13 +6925,11 @@ public class VarDict {
 
         @Override
         public OutputStream call() throws Exception {
-            Map<Integer, Character> ref = getREF(region, chrs, conf.fasta, conf.numberNucleotideToExtend);
-            Tuple2<Integer, Map<Integer, Vars>> tpl = toVars(region, conf.bam.getBam1(), ref, chrs, sample, splice, ampliconBasedCalling, 0, conf);
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            PrintStream out = new PrintStream(baos);
-            vardict(region, tpl._2, sample, splice, conf, out);
-            out.close();
-            return baos;
+            Map<Integer, Character> ref = getREF(region, chrs, conf);
+            return analyseRegion(region, splice, conf, (regionConf, out) -> {
+                Tuple2<Integer, Map<Integer, Vars>> tpl = toVars(region, regionConf.bam.getBam1(), ref, chrs, sample, splice, ampliconBasedCalling, 0, regionConf);
+                vardict(region, tpl._2, sample, splice, regionConf, out);
+            });
         }
 
     }
@@ -5450,32 +6938,39 @@ public class VarDict {
         final Map<Integer, List<Tuple2<Integer, Region>>> pos;
         final Region rg;
         final List<Future<Tuple2<Integer, Map<Integer, Vars>>>> workers;
+        final List<ToVarsWorker> toVarsWorkers;
         final ToVarsWorker worker;
         final String sample;
 
         public AmpVardictWorker(Map<Integer, List<Tuple2<Integer, Region>>> pos, Region rg, String sample, List<Future<Tuple2<Integer,
-                Map<Integer, Vars>>>> workers,
+                Map<Integer, Vars>>>> workers, List<ToVarsWorker> toVarsWorkers,
                 ToVarsWorker worker) {
             this.pos = pos;
             this.rg = rg;
             this.workers = workers;
+            this.toVarsWorkers = toVarsWorkers;
             this.worker = worker;
             this.sample = sample;
         }
 
         @Override
         public OutputStream call() throws Exception {
-            Tuple2<Integer, Map<Integer, Vars>> last = worker.call();
-            List<Map<Integer, Vars>> vars = new ArrayList<>();
-            for (Future<Tuple2<Integer, Map<Integer, Vars>>> future : workers) {
-                vars.add(future.get()._2);
-            }
-            vars.add(last._2);
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            PrintStream out = new PrintStream(baos);
-            ampVardict(rg, vars, pos, sample, worker.splice, worker.conf, out);
-            out.close();
-            return baos;
+            return analyseRegion(rg, worker.splice, worker.conf, (regionConf, out) -> {
+                List<Map<Integer, Vars>> vars = new ArrayList<>();
+                if (regionConf.degraded) {
+                    for (ToVarsWorker toVars : toVarsWorkers) {
+                        vars.add(toVars.call(regionConf)._2);
+                    }
+                    vars.add(worker.call(regionConf)._2);
+                } else {
+                    Tuple2<Integer, Map<Integer, Vars>> last = worker.call();
+                    for (Future<Tuple2<Integer, Map<Integer, Vars>>> future : workers) {
+                        vars.add(getWithinBudget(future)._2);
+                    }
+                    vars.add(last._2);
+                }
+                ampVardict(rg, vars, pos, sample, worker.splice, regionConf, out);
+            });
         }
     }
 
@@ -5487,21 +6982,32 @@ public class VarDict {
     });
 
     private static void ampVardictParallel(final List<List<Region>> segs, final Map<String, Integer> chrs, final String ampliconBasedCalling,
-            final String bam1, final String sample, final Configuration conf) throws IOException {
+            final String bam1, final String sample, final OutputWriter writer, final Configuration conf) throws IOException {
 
         final ExecutorService executor = Executors.newFixedThreadPool(conf.threads);
         final BlockingQueue<Future<OutputStream>> toPrint = new LinkedBlockingQueue<>(21);
+        final SpillWriter spill = openSpill(21, conf);
+        if (progress != null) {
+            progress.watch((ThreadPoolExecutor) executor, toPrint);
+        }
 
         executor.submit(new Runnable() {
             @Override
             public void run() {
                 try {
                     for (List<Region> regions : segs) {
+                        long bases = 0;
+                        for (Region region : regions) {
+                            bases += region.end - region.start + 1;
+                        }
+                        long ticket = admit(bases);
                         Map<Integer, List<Tuple2<Integer, Region>>> pos = new HashMap<>();
                         int j = 0;
                         Region rg = null;
                         List<Future<Tuple2<Integer, Map<Integer, Vars>>>> workers = new ArrayList<>(regions.size() - 1);
+                        List<ToVarsWorker> toVarsWorkers = new ArrayList<>(regions.size() - 1);
                         final Set<String> splice = new ConcurrentHashSet<>();
+                        Configuration rconf = conf.forRegion(sample, regions);
                         for (Region region : regions) {
                             rg = region; // ??
                             for (int p = region.istart; p <= region.iend; p++) {
@@ -5512,46 +7018,42 @@ public class VarDict {
                                 }
                                 list.add(tuple(j, region));
                             }
-                            ToVarsWorker toVars = new ToVarsWorker(region, bam1, chrs, sample, splice, ampliconBasedCalling, null, conf);
+                            ToVarsWorker toVars = new ToVarsWorker(region, bam1, chrs, sample, splice, ampliconBasedCalling, null, rconf);
                             if (workers.size() == regions.size() - 1) {
-                                toPrint.put(executor.submit(new AmpVardictWorker(pos, rg, sample, workers, toVars)));
+                                Callable<OutputStream> task = released(new AmpVardictWorker(pos, rg, sample, workers, toVarsWorkers, toVars), ticket);
+                                if (spill != null) {
+                                    spill.submit(executor, task);
+                                } else {
+                                    toPrint.put(executor.submit(task));
+                                }
                             } else {
                                 workers.add(executor.submit(toVars));
+                                toVarsWorkers.add(toVars);
                             }
                             j++;
 
                         }
                     }
-                    toPrint.put(NULL_FUTURE);
                 } catch (InterruptedException e) {
                     e.printStackTrace();
+                } finally {
+                    finish(spill, toPrint);
                 }
             }
         });
 
-        try {
-            while (true) {
-                Future<OutputStream> seg = toPrint.take();
-                if (seg == NULL_FUTURE) {
-                    break;
-                }
-                System.out.print(seg.get());
-            }
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
-        }
+        print(toPrint, spill, writer);
         executor.shutdown();
     }
 
     private static void ampVardictNotParallel(final List<List<Region>> segs, final Map<String, Integer> chrs, final String ampliconBasedCalling,
-            final String bam1, final String sample, final Configuration conf) throws IOException {
+            final String bam1, final String sample, final OutputWriter writer, final Configuration conf) throws IOException {
 
         for (List<Region> regions : segs) {
             Map<Integer, List<Tuple2<Integer, Region>>> pos = new HashMap<>();
             int j = 0;
             Region rg = null;
             final Set<String> splice = new HashSet<>();
-            List<Map<Integer, Vars>> vars = new ArrayList<>();
             for (Region region : regions) {
                 rg = region; // ??
                 for (int p = region.istart; p <= region.iend; p++) {
@@ -5562,10 +7064,16 @@ public class VarDict {
                     }
                     list.add(tuple(j, region));
                 }
-                vars.add(toVars(region, bam1, getREF(region, chrs, conf.fasta, conf.numberNucleotideToExtend), chrs, sample, splice, ampliconBasedCalling, 0, conf)._2);
                 j++;
             }
-            ampVardict(rg, vars, pos, sample, splice, conf, System.out);
+            final Region lastRegion = rg;
+            writer.write(analyseRegion(rg, splice, conf.forRegion(sample, regions), (regionConf, out) -> {
+                List<Map<Integer, Vars>> vars = new ArrayList<>();
+                for (Region region : regions) {
+                    vars.add(toVars(region, bam1, getREF(region, chrs, regionConf), chrs, sample, splice, ampliconBasedCalling, 0, regionConf)._2);
+                }
+                ampVardict(lastRegion, vars, pos, sample, splice, regionConf, out);
+            }));
         }
     }
 
@@ -5584,11 +7092,12 @@ public class VarDict {
      */
     static void ampVardict(Region rg, List<Map<Integer, Vars>> vars, Map<Integer, List<Tuple2<Integer, Region>>> positions,
             final String sample, final Set<String> splice, final Configuration conf,
-            PrintStream out) {
+            LineWriter out) {
 
-        List<Integer> pp = new ArrayList<>(positions.keySet());
-        Collections.sort(pp);
-        for (Integer p : pp) {
+        RegionMetrics.Timer timer = RegionMetrics.timer(conf);
+        PositionIndex pp = PositionIndex.of(positions.keySet());
+        for (int i = 0; i < pp.size(); i++) {
+            final int p = pp.get(i);
 
             final List<Tuple2<Integer, Region>> v = positions.get(p);
 
@@ -5673,9 +7182,14 @@ public class VarDict {
                     if (!ref.isEmpty()) {
                         vref = ref.get(0);
                     } else {
-                        out.println(join("\t", sample, rg.gene, rg.chr, p, p, "", "", 0, 0, 0, 0, 0, 0, "", 0,
-                                "0;0", 0, 0, 0, 0, 0, "", 0, 0, 0, 0, 0, 0, "", "", 0, 0,
-                                rg.chr + ":", +p + "-" + p, "", 0, 0, 0, 0));
+                        out.col(sample).col(rg.gene).col(rg.chr).col(p).col(p).col("").col("").zeros(6).col("").col(0)
+                                .col("0;0").zeros(5).col("").zeros(6).col("").col("").zeros(2)
+                                .col(rg.chr + ":").col(p + "-" + p).col("").zeros(4);
+                        if (conf.fisher) {
+                            new FisherExact(0, 0, 0, 0).columns(out);
+                        }
+                        degradedColumn(conf, out);
+                        out.endLine();
                         continue;
                     }
                 } else {
@@ -5737,8 +7251,16 @@ public class VarDict {
             if (vartype.equals("Complex")) {
                 adjComplex(vref);
             }
-            out.print(join("\t", sample, rg.gene, rg.chr,
-                    joinVar1(vref, "\t"), gvs.get(0)._2, vartype, gvscnt, gvscnt + badv.size(), nocov, flag ? 1 : 0));
+            out.col(sample).col(rg.gene).col(rg.chr);
+            printVar1(out, vref)
+                    .col(gvs.get(0)._2).col(vartype).col(gvscnt).col(gvscnt + badv.size()).col(nocov).col(flag ? 1 : 0);
+            if (conf.fisher) {
+                FisherExact.strandBias(vref).columns(out);
+            }
+            degradedColumn(conf, out);
+            if (conf.vcf != null) {
+                out.record(VcfWriter.amplicon(vref, rg.chr, sample, vartype, gvscnt, gvscnt + badv.size(), nocov, flag, conf));
+            }
             if (conf.debug) {
                 out.print("\t" + vref.DEBUG);
             }
@@ -5752,8 +7274,9 @@ public class VarDict {
                     out.print("\tBad" + bvi + " " + join(" ", joinVar2(tp._1, " "), tp._2));
                 }
             }
-            out.println();
+            out.endLine();
         }
+        timer.lap(RegionMetrics.Stage.OUTPUT);
     }
 
     final static Comparator<Variant> VAR_TCOV_COMPARATOR = new Comparator<Variant>() {
@@ -5797,26 +7320,46 @@ public class VarDict {
         return sb.toString();
     }
 
-    private static String joinVar1(Variant var, String delm) {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append(var.sp).append(delm);
-        sb.append(var.ep).append(delm);
-        sb.append(var.refallele).append(delm);
-        sb.append(var.varallele).append(delm);
-
-        sb.append(joinVar2(var, delm)).append(delm);
-
-        sb.append(var.shift3).append(delm);
-        sb.append(var.msi == 0 ? 0 : format("%.3f", var.msi)).append(delm);
-        sb.append(var.msint).append(delm);
-        sb.append(format("%.1f", var.nm)).append(delm);
-        sb.append(var.hicnt).append(delm);
-        sb.append(var.hicov).append(delm);
-        sb.append(var.leftseq).append(delm);
-        sb.append(var.rightseq);
+    /**
+     * Print the columns of {@link #joinVar2(Variant, String)} with tab delimiter
+     */
+    private static LineWriter printVar2(LineWriter out, Variant var) {
+        return out.col(var.tcov)
+                .col(var.cov)
+                .col(var.rfc)
+                .col(var.rrc)
+                .col(var.fwd)
+                .col(var.rev)
+                .col(var.genotype)
+                .colOrZero(var.freq, 4)
+                .col(var.bias)
+                .col(var.pmean, 1)
+                .col(var.pstd ? 1 : 0)
+                .col(var.qual, 1)
+                .col(var.qstd ? 1 : 0)
+                .col(var.mapq, 1)
+                .col(var.qratio, 3)
+                .colOrZero(var.hifreq, 4)
+                .colOrZero(var.extrafreq, 4);
+    }
 
-        return sb.toString();
+    /**
+     * Print the position, alleles and all columns of a variant
+     */
+    private static LineWriter printVar1(LineWriter out, Variant var) {
+        out.col(var.sp)
+                .col(var.ep)
+                .col(var.refallele)
+                .col(var.varallele);
+        return printVar2(out, var)
+                .col(var.shift3)
+                .colOrZero(var.msi, 3)
+                .col(var.msint)
+                .col(var.nm, 1)
+                .col(var.hicnt)
+                .col(var.hicov)
+                .col(var.leftseq)
+                .col(var.rightseq);
     }
 
     /**
@@ -5959,6 +7502,18 @@ public class VarDict {
         return true;
     }
 
+    /**
+     * Thresholds of isGoodVar on the fields of a variant known before its alleles, MSI and flanking sequences are computed
+     * @return false if isGoodVar will reject the variant
+     */
+    private static boolean canPass(Variant vref, Configuration conf) {
+        return round(vref.freq, 4) >= conf.freq
+                && vref.hicnt >= conf.minr
+                && vref.pmean >= conf.readPosFilter
+                && vref.qual >= conf.goodq
+                && vref.qratio >= conf.qratio;
+    }
+
     /**
      * Find variant type based on variant sequence
      * @param ref reference sequence
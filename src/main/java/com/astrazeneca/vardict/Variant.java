@@ -164,7 +164,7 @@ public class Variant {
     String refallele;
 
     /**
-     * Debug information
+     * Debug information (option -D), formatted when it's printed
      */
-    String DEBUG;
+    Object DEBUG;
 }
@@ -0,0 +1,497 @@
+package com.astrazeneca.vardict;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.*;
+
+import static java.lang.String.format;
+
+/**
+ * VCF 4.2 output (option --vcf) built from the variants as they are printed, with the filters and annotations of
+ * var2vcf_valid.pl (single sample and amplicon mode) and var2vcf_paired.pl (two samples). Records are collected in output
+ * order and written sorted by the reference dictionary and position when the run ends. Output file names ending with .gz
+ * are BGZF compressed and indexed with tabix.
+ */
+public class VcfWriter implements Closeable {
+    /**
+     * Genotype is homozygous if the frequency of reference is less than that
+     */
+    private static final double HOMOZYGOUS_REF_FREQ = 0.2;
+    /**
+     * Strand bias Fisher p-value below which a variant with reads on one strand only is filtered as Bias
+     */
+    private static final double BIAS_PVALUE = 0.01;
+    /**
+     * Somatic Fisher p-value above which a somatic variant is filtered as not significant
+     */
+    private static final double SOMATIC_PVALUE = 0.05;
+
+    /**
+     * Variant in a VCF record and its allele frequency for choosing the best variant of a position
+     */
+    static class Record {
+        final VariantContext context;
+        final double af;
+
+        Record(VariantContext context, double af) {
+            this.context = context;
+            this.af = af;
+        }
+    }
+
+    private final Configuration conf;
+    private final SAMSequenceDictionary dictionary;
+    private final List<String> samples;
+    private final List<Record> records = new ArrayList<>();
+
+    /**
+     * @param conf Configuration
+     * @param dictionary sequences of the reference, in output order
+     * @param samples sample names: one, or tumor and normal for paired mode
+     */
+    public VcfWriter(Configuration conf, SAMSequenceDictionary dictionary, List<String> samples) {
+        this.conf = conf;
+        this.dictionary = dictionary;
+        this.samples = samples;
+    }
+
+    /**
+     * Add records of a region, in output order
+     */
+    public void add(List<Record> region) {
+        records.addAll(region);
+    }
+
+    @Override
+    public void close() {
+        List<Record> sorted = new ArrayList<>();
+        for (Record record : records) {
+            if (!conf.vcfPassOnly || record.context.isNotFiltered()) {
+                sorted.add(record);
+            }
+        }
+        Collections.sort(sorted, new Comparator<Record>() {
+            @Override
+            public int compare(Record o1, Record o2) {
+                int c = Integer.compare(dictionary.getSequenceIndex(o1.context.getContig()), dictionary.getSequenceIndex(o2.context.getContig()));
+                return c != 0 ? c : Integer.compare(o1.context.getStart(), o2.context.getStart());
+            }
+        });
+
+        File file = new File(conf.vcf);
+        VariantContextWriterBuilder builder = new VariantContextWriterBuilder()
+                .setOutputFile(file)
+                .setReferenceDictionary(dictionary)
+                .clearOptions();
+        if (conf.vcf.endsWith(".gz") || conf.vcf.endsWith(".bgz")) {
+            builder.setOutputFileType(VariantContextWriterBuilder.OutputType.BLOCK_COMPRESSED_VCF)
+                    .setOption(Options.INDEX_ON_THE_FLY);
+        } else {
+            builder.setOutputFileType(VariantContextWriterBuilder.OutputType.VCF);
+        }
+        try (VariantContextWriter writer = builder.build()) {
+            writer.writeHeader(header());
+            for (int i = 0; i < sorted.size(); ) {
+                int j = i + 1;
+                while (j < sorted.size() && sameSite(sorted.get(i), sorted.get(j))) {
+                    j++;
+                }
+                if (conf.vcfAllAlleles) {
+                    Set<String> written = new HashSet<>();
+                    for (Record record : sorted.subList(i, j)) {
+                        if (written.add(record.context.getReference() + ">" + record.context.getAlternateAllele(0))) {
+                            writer.add(record.context);
+                        }
+                    }
+                } else {
+                    Record best = sorted.get(i);
+                    for (Record record : sorted.subList(i + 1, j)) {
+                        if (record.af > best.af) {
+                            best = record;
+                        }
+                    }
+                    writer.add(best.context);
+                }
+                i = j;
+            }
+        }
+    }
+
+    private static boolean sameSite(Record r1, Record r2) {
+        return r1.context.getContig().equals(r2.context.getContig()) && r1.context.getStart() == r2.context.getStart();
+    }
+
+    private VCFHeader header() {
+        Set<VCFHeaderLine> lines = new LinkedHashSet<>();
+        lines.add(new VCFHeaderLine("source", "VarDictJava"));
+        boolean paired = samples.size() > 1;
+
+        if (paired) {
+            lines.add(new VCFInfoHeaderLine("SOMATIC", 0, VCFHeaderLineType.Flag, "Indicates if record is a somatic mutation"));
+            lines.add(new VCFInfoHeaderLine("STATUS", 1, VCFHeaderLineType.String, "Somatic or germline status"));
+        }
+        if (paired) {
+            lines.add(new VCFInfoHeaderLine("SSF", 1, VCFHeaderLineType.Float, "P-value of the somatic Fisher test"));
+            lines.add(new VCFInfoHeaderLine("SOR", 1, VCFHeaderLineType.Float, "Odds ratio of the somatic Fisher test"));
+        }
+        lines.add(new VCFInfoHeaderLine("SAMPLE", 1, VCFHeaderLineType.String, "Sample name"));
+        lines.add(new VCFInfoHeaderLine("TYPE", 1, VCFHeaderLineType.String, "Variant Type: SNV Insertion Deletion Complex"));
+        lines.add(new VCFInfoHeaderLine("DP", 1, VCFHeaderLineType.Integer, "Total Depth"));
+        lines.add(new VCFInfoHeaderLine("VD", 1, VCFHeaderLineType.Integer, "Variant Depth"));
+        lines.add(new VCFInfoHeaderLine("AF", 1, VCFHeaderLineType.Float, "Allele Frequency"));
+        lines.add(new VCFInfoHeaderLine("END", 1, VCFHeaderLineType.Integer, "Chr End Position"));
+        lines.add(new VCFInfoHeaderLine("SHIFT3", 1, VCFHeaderLineType.Integer, "No. of bases to be shifted to 3 prime for deletions due to alternative alignment"));
+        lines.add(new VCFInfoHeaderLine("MSI", 1, VCFHeaderLineType.Float, "MicroSatellite. > 1 indicates MSI"));
+        lines.add(new VCFInfoHeaderLine("MSILEN", 1, VCFHeaderLineType.Float, "MicroSatellite unit length in bp"));
+        lines.add(new VCFInfoHeaderLine("LSEQ", 1, VCFHeaderLineType.String, "5' flanking seq"));
+        lines.add(new VCFInfoHeaderLine("RSEQ", 1, VCFHeaderLineType.String, "3' flanking seq"));
+        if (!paired) {
+            lines.add(new VCFInfoHeaderLine("BIAS", 1, VCFHeaderLineType.String, "Strand Bias Info"));
+            lines.add(new VCFInfoHeaderLine("REFBIAS", 1, VCFHeaderLineType.String, "Reference depth by strand"));
+            lines.add(new VCFInfoHeaderLine("VARBIAS", 1, VCFHeaderLineType.String, "Variant depth by strand"));
+            lines.add(new VCFInfoHeaderLine("SBF", 1, VCFHeaderLineType.Float, "Strand Bias Fisher p-value"));
+            lines.add(new VCFInfoHeaderLine("ODDRATIO", 1, VCFHeaderLineType.Float, "Strand Bias Odds ratio"));
+            lines.add(new VCFInfoHeaderLine("PMEAN", 1, VCFHeaderLineType.Float, "Mean position in reads"));
+            lines.add(new VCFInfoHeaderLine("PSTD", 1, VCFHeaderLineType.Float, "Position STD in reads"));
+            lines.add(new VCFInfoHeaderLine("QUAL", 1, VCFHeaderLineType.Float, "Mean quality score in reads"));
+            lines.add(new VCFInfoHeaderLine("QSTD", 1, VCFHeaderLineType.Float, "Quality score STD in reads"));
+            lines.add(new VCFInfoHeaderLine("MQ", 1, VCFHeaderLineType.Float, "Mean Mapping Quality"));
+            lines.add(new VCFInfoHeaderLine("SN", 1, VCFHeaderLineType.Float, "Signal to noise"));
+            lines.add(new VCFInfoHeaderLine("HIAF", 1, VCFHeaderLineType.Float, "Allele frequency using only high quality bases"));
+            lines.add(new VCFInfoHeaderLine("ADJAF", 1, VCFHeaderLineType.Float, "Adjusted AF for indels due to local realignment"));
+            lines.add(new VCFInfoHeaderLine("NM", 1, VCFHeaderLineType.Float, "Mean mismatches in reads"));
+            lines.add(new VCFInfoHeaderLine("HICNT", 1, VCFHeaderLineType.Integer, "High quality variant reads"));
+            lines.add(new VCFInfoHeaderLine("HICOV", 1, VCFHeaderLineType.Integer, "High quality total reads"));
+            lines.add(new VCFInfoHeaderLine("GDAMP", 1, VCFHeaderLineType.Integer, "No. of amplicons supporting variant"));
+            lines.add(new VCFInfoHeaderLine("TLAMP", 1, VCFHeaderLineType.Integer, "Total of amplicons covering variant"));
+            lines.add(new VCFInfoHeaderLine("NCAMP", 1, VCFHeaderLineType.Integer, "No. of amplicons don't work"));
+            lines.add(new VCFInfoHeaderLine("AMPFLAG", 1, VCFHeaderLineType.Integer, "Top variant in amplicons don't match"));
+        }
+
+        lines.add(new VCFFormatHeaderLine("GT", 1, VCFHeaderLineType.String, "Genotype"));
+        lines.add(new VCFFormatHeaderLine("DP", 1, VCFHeaderLineType.Integer, "Total Depth"));
+        lines.add(new VCFFormatHeaderLine("VD", 1, VCFHeaderLineType.Integer, "Variant Depth"));
+        lines.add(new VCFFormatHeaderLine("AD", VCFHeaderLineCount.R, VCFHeaderLineType.Integer, "Allelic depths for the ref and alt alleles in the order listed"));
+        lines.add(new VCFFormatHeaderLine("AF", 1, VCFHeaderLineType.Float, "Allele Frequency"));
+        lines.add(new VCFFormatHeaderLine("RD", 2, VCFHeaderLineType.Integer, "Reference forward, reverse reads"));
+        lines.add(new VCFFormatHeaderLine("ALD", 2, VCFHeaderLineType.Integer, "Variant forward, reverse reads"));
+        if (paired) {
+            lines.add(new VCFFormatHeaderLine("BIAS", 1, VCFHeaderLineType.String, "Strand Bias Info"));
+            lines.add(new VCFFormatHeaderLine("PMEAN", 1, VCFHeaderLineType.Float, "Mean position in reads"));
+            lines.add(new VCFFormatHeaderLine("PSTD", 1, VCFHeaderLineType.Float, "Position STD in reads"));
+            lines.add(new VCFFormatHeaderLine("QUAL", 1, VCFHeaderLineType.Float, "Mean quality score in reads"));
+            lines.add(new VCFFormatHeaderLine("QSTD", 1, VCFHeaderLineType.Float, "Quality score STD in reads"));
+            lines.add(new VCFFormatHeaderLine("MQ", 1, VCFHeaderLineType.Float, "Mean Mapping Quality"));
+            lines.add(new VCFFormatHeaderLine("SN", 1, VCFHeaderLineType.Float, "Signal to noise"));
+            lines.add(new VCFFormatHeaderLine("HIAF", 1, VCFHeaderLineType.Float, "Allele frequency using only high quality bases"));
+            lines.add(new VCFFormatHeaderLine("ADJAF", 1, VCFHeaderLineType.Float, "Adjusted AF for indels due to local realignment"));
+            lines.add(new VCFFormatHeaderLine("NM", 1, VCFHeaderLineType.Float, "Mean mismatches in reads"));
+        }
+
+        lines.add(new VCFFilterHeaderLine("q" + number(conf.vcfMinQmean), "Mean Base Quality Below " + number(conf.vcfMinQmean)));
+        lines.add(new VCFFilterHeaderLine("Q" + number(conf.vcfMinMapq), "Mean Mapping Quality Below " + number(conf.vcfMinMapq)));
+        lines.add(new VCFFilterHeaderLine("p" + number(conf.vcfMinPmean), "Mean Position in Reads Less than " + number(conf.vcfMinPmean)));
+        lines.add(new VCFFilterHeaderLine("SN" + number(conf.vcfMinSn), "Signal to Noise Less than " + number(conf.vcfMinSn)));
+        lines.add(new VCFFilterHeaderLine("pSTD", "Position in Reads has STD of 0"));
+        lines.add(new VCFFilterHeaderLine("d" + conf.vcfMinDepth, "Total Depth < " + conf.vcfMinDepth));
+        lines.add(new VCFFilterHeaderLine("v" + conf.minr, "Var Depth < " + conf.minr));
+        lines.add(new VCFFilterHeaderLine("f" + number(conf.freq), "Allele frequency < " + number(conf.freq)));
+        lines.add(new VCFFilterHeaderLine("MSI12", "Variant in MSI region with 12 non-monomer MSI or 13 monomer MSI"));
+        lines.add(new VCFFilterHeaderLine("NM" + number(conf.vcfMaxNm), "Mean mismatches in reads >= " + number(conf.vcfMaxNm) + ", thus likely false positive"));
+        lines.add(new VCFFilterHeaderLine("Bias", "Strand Bias: variant reads on one strand only and strand bias Fisher p-value < "
+                + number(BIAS_PVALUE)));
+        lines.add(new VCFFilterHeaderLine("P" + number(SOMATIC_PVALUE), "Somatic variant not significant: somatic Fisher p-value > "
+                + number(SOMATIC_PVALUE)));
+        lines.add(new VCFFilterHeaderLine("AMPBIAS", "Indicate the variant has amplicon bias."));
+        lines.add(new VCFFilterHeaderLine("Degraded", "The region exceeded its budget and was analysed without local realignment and with downsampling"));
+
+        VCFHeader header = new VCFHeader(lines, samples);
+        header.setSequenceDictionary(dictionary);
+        return header;
+    }
+
+    /**
+     * Record of a variant in single sample mode (line of vardict)
+     * @param var variant
+     * @param region region of the variant
+     * @param sample sample name
+     * @param vartype variant type
+     * @param conf Configuration
+     * @return record or null if the variant can't be written to VCF (no alternative allele)
+     */
+    static Record single(Variant var, Region region, String sample, String vartype, Configuration conf) {
+        VariantContextBuilder builder = builder(var, region.chr, conf);
+        if (builder == null || vartype.isEmpty()) {
+            return null;
+        }
+        Set<String> filters = filters(var, conf);
+        Map<String, Object> info = info(var, sample, vartype);
+        strandBias(var, filters, info);
+        builder.filters(filters);
+        builder.attributes(info);
+        builder.genotypes(genotype(sample, var, var.tcov, builder, conf).make());
+        return new Record(builder.make(), var.freq);
+    }
+
+    /**
+     * Record of a variant in amplicon mode (line of ampVardict)
+     * @param var variant
+     * @param chr chromosome
+     * @param sample sample name
+     * @param vartype variant type
+     * @param goodAmplicons number of amplicons supporting the variant
+     * @param totalAmplicons number of amplicons covering the variant
+     * @param noCoverage number of amplicons without coverage
+     * @param flag indicate different top variants in the amplicons
+     * @param conf Configuration
+     * @return record or null if the variant can't be written to VCF (no alternative allele)
+     */
+    static Record amplicon(Variant var, String chr, String sample, String vartype, int goodAmplicons, int totalAmplicons,
+            int noCoverage, boolean flag, Configuration conf) {
+        VariantContextBuilder builder = builder(var, chr, conf);
+        if (builder == null || vartype.isEmpty()) {
+            return null;
+        }
+        Set<String> filters = filters(var, conf);
+        if (flag || goodAmplicons < totalAmplicons) {
+            filters.add("AMPBIAS");
+        }
+        Map<String, Object> info = info(var, sample, vartype);
+        strandBias(var, filters, info);
+        builder.filters(filters);
+        info.put("GDAMP", goodAmplicons);
+        info.put("TLAMP", totalAmplicons);
+        info.put("NCAMP", noCoverage);
+        info.put("AMPFLAG", flag ? 1 : 0);
+        builder.attributes(info);
+        builder.genotypes(genotype(sample, var, var.tcov, builder, conf).make());
+        return new Record(builder.make(), var.freq);
+    }
+
+    /**
+     * Record of a variant in paired mode (line of somdict)
+     * @param var variant defining the position and alleles, filters are applied to it
+     * @param v1 variant in sample 1 or null if it has only coverage
+     * @param tcov1 coverage of sample 1 if v1 is null
+     * @param v2 variant in sample 2 or null if it has only coverage
+     * @param tcov2 coverage of sample 2 if v2 is null
+     * @param flanking variant with the microsatellite and flanking sequences of the line
+     * @param chr chromosome
+     * @param samples tumor and normal sample names
+     * @param status somatic status (StrongSomatic, Germline, ...)
+     * @param vartype variant type
+     * @param conf Configuration
+     * @return record or null if the variant can't be written to VCF (no alternative allele)
+     */
+    static Record paired(Variant var, Variant v1, int tcov1, Variant v2, int tcov2, Variant flanking, String chr,
+            List<String> samples, String status, String vartype, Configuration conf) {
+        VariantContextBuilder builder = builder(var, chr, conf);
+        if (builder == null || vartype.isEmpty()) {
+            return null;
+        }
+        Set<String> filters = filters(var, conf);
+        Map<String, Object> info = new HashMap<>();
+        FisherExact test = FisherExact.somatic(v1, tcov1, v2, tcov2);
+        if (status.endsWith("Somatic")) {
+            info.put("SOMATIC", true);
+            if (test.pvalue > SOMATIC_PVALUE) {
+                filters.add("P" + number(SOMATIC_PVALUE));
+            }
+        }
+        builder.filters(filters);
+        info.put("SSF", FisherExact.format(test.pvalue));
+        info.put("SOR", FisherExact.format(test.oddRatio));
+        info.put("STATUS", status);
+        info.put("SAMPLE", samples.get(0));
+        info.put("TYPE", vartype);
+        info.put("DP", v1 == null ? tcov1 : v1.tcov);
+        info.put("VD", v1 == null ? 0 : v1.cov);
+        info.put("AF", v1 == null ? "0" : format("%.4f", v1.freq));
+        info.put("END", stop(var));
+        flanking(info, flanking);
+        builder.attributes(info);
+        builder.genotypes(pairedGenotype(samples.get(0), v1, tcov1, builder, conf),
+                pairedGenotype(samples.get(1), v2, tcov2, builder, conf));
+        return new Record(builder.make(), v1 == null ? 0 : v1.freq);
+    }
+
+    /**
+     * @return builder with position and alleles of the variant or null if they aren't valid VCF alleles
+     */
+    private static VariantContextBuilder builder(Variant var, String chr, Configuration conf) {
+        if (var.refallele == null || var.varallele == null || var.refallele.equals(var.varallele)
+                || !Allele.acceptableAlleleBases(var.refallele, true) || !Allele.acceptableAlleleBases(var.varallele, false)) {
+            return null;
+        }
+        List<Allele> alleles = Arrays.asList(Allele.create(var.refallele, true), Allele.create(var.varallele, false));
+        VariantContextBuilder builder = new VariantContextBuilder("VarDict", chr, var.sp, stop(var), alleles);
+        if (var.qual > 0) {
+            builder.log10PError(var.qual / -10.0);
+        }
+        return builder;
+    }
+
+    private static int stop(Variant var) {
+        return var.sp + var.refallele.length() - 1;
+    }
+
+    /**
+     * Filters of var2vcf_valid.pl, and Degraded for the regions analysed again in degraded mode
+     */
+    private static Set<String> filters(Variant var, Configuration conf) {
+        Set<String> filters = new LinkedHashSet<>();
+        if (var.tcov < conf.vcfMinDepth) {
+            filters.add("d" + conf.vcfMinDepth);
+        }
+        if (var.cov < conf.minr) {
+            filters.add("v" + conf.minr);
+        }
+        if (var.freq < conf.freq) {
+            filters.add("f" + number(conf.freq));
+        }
+        if (var.pmean < conf.vcfMinPmean) {
+            filters.add("p" + number(conf.vcfMinPmean));
+        }
+        if (!var.pstd) {
+            filters.add("pSTD");
+        }
+        if (var.qual < conf.vcfMinQmean) {
+            filters.add("q" + number(conf.vcfMinQmean));
+        }
+        if (var.mapq < conf.vcfMinMapq) {
+            filters.add("Q" + number(conf.vcfMinMapq));
+        }
+        if (var.qratio < conf.vcfMinSn) {
+            filters.add("SN" + number(conf.vcfMinSn));
+        }
+        if (var.nm >= conf.vcfMaxNm) {
+            filters.add("NM" + number(conf.vcfMaxNm));
+        }
+        if ((var.msint == 1 && var.msi >= 13) || (var.msint > 1 && var.msi >= 12)) {
+            filters.add("MSI12");
+        }
+        if (conf.degraded) {
+            filters.add("Degraded");
+        }
+        return filters;
+    }
+
+    /**
+     * Add the strand bias test of the variant to the filters and INFO fields
+     */
+    private static void strandBias(Variant var, Set<String> filters, Map<String, Object> info) {
+        FisherExact test = FisherExact.strandBias(var);
+        if (("2;1".equals(var.bias) || "2;0".equals(var.bias)) && test.pvalue < BIAS_PVALUE) {
+            filters.add("Bias");
+        }
+        info.put("SBF", FisherExact.format(test.pvalue));
+        info.put("ODDRATIO", FisherExact.format(test.oddRatio));
+    }
+
+    private static Map<String, Object> info(Variant var, String sample, String vartype) {
+        Map<String, Object> info = new HashMap<>();
+        info.put("SAMPLE", sample);
+        info.put("TYPE", vartype);
+        info.put("DP", var.tcov);
+        info.put("VD", var.cov);
+        info.put("AF", format("%.4f", var.freq));
+        info.put("BIAS", var.bias.replace(';', ':'));
+        info.put("REFBIAS", var.rfc + ":" + var.rrc);
+        info.put("VARBIAS", var.fwd + ":" + var.rev);
+        info.put("PMEAN", format("%.1f", var.pmean));
+        info.put("PSTD", var.pstd ? 1 : 0);
+        info.put("QUAL", format("%.1f", var.qual));
+        info.put("QSTD", var.qstd ? 1 : 0);
+        info.put("MQ", format("%.1f", var.mapq));
+        info.put("SN", format("%.3f", var.qratio));
+        info.put("HIAF", var.hifreq == 0 ? "0" : format("%.4f", var.hifreq));
+        info.put("ADJAF", var.extrafreq == 0 ? "0" : format("%.4f", var.extrafreq));
+        info.put("NM", format("%.1f", var.nm));
+        info.put("HICNT", var.hicnt);
+        info.put("HICOV", var.hicov);
+        info.put("END", stop(var));
+        flanking(info, var);
+        return info;
+    }
+
+    private static void flanking(Map<String, Object> info, Variant var) {
+        info.put("SHIFT3", var.shift3);
+        info.put("MSI", var.msi == 0 ? "0" : format("%.3f", var.msi));
+        info.put("MSILEN", var.msint);
+        info.put("LSEQ", var.leftseq == null || var.leftseq.isEmpty() ? "0" : var.leftseq);
+        info.put("RSEQ", var.rightseq == null || var.rightseq.isEmpty() ? "0" : var.rightseq);
+    }
+
+    /**
+     * @return genotype of a sample with the fields of var2vcf_valid.pl. If var is null, the sample has only coverage tcov.
+     * If var has other alleles (reference of the sample), the sample has no reads of the alternative allele.
+     */
+    private static GenotypeBuilder genotype(String sample, Variant var, int tcov, VariantContextBuilder builder, Configuration conf) {
+        List<Allele> alleles = builder.getAlleles();
+        Allele ref = alleles.get(0);
+        Allele alt = alleles.get(1);
+        if (var == null) {
+            return new GenotypeBuilder(sample, Arrays.asList(ref, ref)).DP(tcov).AD(new int[] {0, 0})
+                    .attribute("VD", 0).attribute("AF", "0").attribute("RD", new int[] {0, 0}).attribute("ALD", new int[] {0, 0});
+        }
+        if (!ref.getBaseString().equals(var.refallele) || !alt.getBaseString().equals(var.varallele)) {
+            return new GenotypeBuilder(sample, Arrays.asList(ref, ref)).DP(var.tcov).AD(new int[] {var.rfc + var.rrc, 0})
+                    .attribute("VD", 0).attribute("AF", "0").attribute("RD", new int[] {var.rfc, var.rrc}).attribute("ALD", new int[] {0, 0});
+        }
+        List<Allele> gt;
+        if (1 - var.freq < HOMOZYGOUS_REF_FREQ) {
+            gt = Arrays.asList(alt, alt);
+        } else if (var.freq >= 0.5) {
+            gt = Arrays.asList(alt, ref);
+        } else if (var.freq >= conf.freq) {
+            gt = Arrays.asList(ref, alt);
+        } else {
+            gt = Arrays.asList(ref, ref);
+        }
+        return new GenotypeBuilder(sample, gt)
+                .DP(var.tcov)
+                .AD(new int[] {var.rfc + var.rrc, var.cov})
+                .attribute("VD", var.cov)
+                .attribute("AF", format("%.4f", var.freq))
+                .attribute("RD", new int[] {var.rfc, var.rrc})
+                .attribute("ALD", new int[] {var.fwd, var.rev});
+    }
+
+    /**
+     * @return genotype of a sample with the fields of var2vcf_paired.pl
+     */
+    private static Genotype pairedGenotype(String sample, Variant var, int tcov, VariantContextBuilder builder, Configuration conf) {
+        GenotypeBuilder genotype = genotype(sample, var, tcov, builder, conf);
+        if (var != null) {
+            genotype.attribute("BIAS", var.bias.replace(';', ','))
+                    .attribute("PMEAN", format("%.1f", var.pmean))
+                    .attribute("PSTD", var.pstd ? 1 : 0)
+                    .attribute("QUAL", format("%.1f", var.qual))
+                    .attribute("QSTD", var.qstd ? 1 : 0)
+                    .attribute("MQ", format("%.1f", var.mapq))
+                    .attribute("SN", format("%.3f", var.qratio))
+                    .attribute("HIAF", var.hifreq == 0 ? "0" : format("%.4f", var.hifreq))
+                    .attribute("ADJAF", var.extrafreq == 0 ? "0" : format("%.4f", var.extrafreq))
+                    .attribute("NM", format("%.1f", var.nm));
+        }
+        return genotype.make();
+    }
+
+    /**
+     * @return number as printed by perl: without fraction if it's integer
+     */
+    private static String number(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+}
@@ -0,0 +1,113 @@
+package com.astrazeneca.vardict;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * BGZF output read back by htsjdk and by java.util.zip as gzip
+ */
+public class BgzfOutputStreamTest {
+
+    @Test
+    public void readBack() throws IOException {
+        for (int threads : new int[] {1, 4}) {
+            byte[] data = data(1 << 20);
+            byte[] compressed = compress(data, threads);
+            assertArrayEquals(data, read(new BlockCompressedInputStream(new ByteArrayInputStream(compressed))));
+            assertArrayEquals(data, read(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+            assertArrayEquals(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK,
+                    Arrays.copyOfRange(compressed, compressed.length - 28, compressed.length));
+        }
+    }
+
+    @Test
+    public void sameBytesWithThreads() throws IOException {
+        byte[] data = data(300000);
+        assertArrayEquals(compress(data, 1), compress(data, 3));
+    }
+
+    @Test
+    public void emptyHasEofBlock() throws IOException {
+        byte[] compressed = compress(new byte[0], 2);
+        assertArrayEquals(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK, compressed);
+        assertEquals(0, read(new BlockCompressedInputStream(new ByteArrayInputStream(compressed))).length);
+    }
+
+    @Test
+    public void flushEndsBlock() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BgzfOutputStream out = new BgzfOutputStream(bytes, 2)) {
+            out.write("first line\n".getBytes());
+            out.flush();
+            out.write("second line\n".getBytes());
+        }
+        byte[] compressed = bytes.toByteArray();
+        // two data blocks and the end of file block
+        assertEquals(3, blocks(compressed));
+        assertEquals("first line\nsecond line\n", new String(read(new BlockCompressedInputStream(new ByteArrayInputStream(compressed)))));
+    }
+
+    /**
+     * @return number of BGZF blocks, from the block sizes of their headers
+     */
+    private static int blocks(byte[] compressed) {
+        int blocks = 0;
+        int i = 0;
+        while (i < compressed.length) {
+            i += ((compressed[i + 16] & 0xff) | (compressed[i + 17] & 0xff) << 8) + 1;
+            blocks++;
+        }
+        return blocks;
+    }
+
+    /**
+     * Lines of text, compressible as the output is
+     */
+    private static byte[] data(int length) {
+        Random random = new Random(5);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) {
+            sb.append("tumor\tchr1\t").append(random.nextInt(1000000)).append("\tA\tG\t").append(random.nextDouble()).append('\n');
+        }
+        return sb.substring(0, length).getBytes();
+    }
+
+    private static byte[] compress(byte[] data, int threads) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BgzfOutputStream out = new BgzfOutputStream(bytes, threads)) {
+            // writes of several sizes across block boundaries
+            int i = 0;
+            int size = 1;
+            while (i < data.length) {
+                int n = Math.min(size, data.length - i);
+                out.write(data, i, n);
+                i += n;
+                size = size * 3 % 100003 + 1;
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+}
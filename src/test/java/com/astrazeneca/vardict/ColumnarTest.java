@@ -0,0 +1,136 @@
+package com.astrazeneca.vardict;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Columnar files written by ColumnarWriter and read back by ColumnarReader
+ */
+public class ColumnarTest {
+    private static final String NL = System.lineSeparator();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void exportReproducesLines() throws Exception {
+        StringBuilder text = new StringBuilder();
+        File file = tmp.newFile("output.col");
+        Random random = new Random(3);
+        try (ColumnarWriter writer = new ColumnarWriter(file.getPath(), Arrays.asList("Sample", "Gene", "Start", "AF", "Note"), false)) {
+            for (int region = 0; region < 30; region++) {
+                StringBuilder lines = new StringBuilder();
+                for (int i = 0; i < random.nextInt(200); i++) {
+                    lines.append("tumor\tG").append(region % 3).append('\t').append(1000 * region + i).append('\t')
+                            .append(decimal(random)).append('\t').append(note(random)).append(NL);
+                }
+                if (region == 10) {
+                    // a line with other columns starts a new block
+                    lines.append("tumor\tG1\t10000").append(NL);
+                }
+                text.append(lines);
+                writer.add(bytes(lines.toString()));
+            }
+        }
+        assertEquals(text.toString(), export(file));
+    }
+
+    @Test
+    public void exportHeader() throws Exception {
+        File file = tmp.newFile("output.col");
+        try (ColumnarWriter writer = new ColumnarWriter(file.getPath(), Arrays.asList("A", "B", "C"), true)) {
+            writer.add(bytes("1\tx\t0.5" + NL));
+        }
+        assertEquals("A\tB\tC" + NL + "1\tx\t0.5" + NL, export(file));
+        assertEquals("C\tA" + NL + "0.5\t1" + NL, export(file, "C", "1"));
+    }
+
+    @Test
+    public void exportUtf8() throws Exception {
+        File file = tmp.newFile("output.col");
+        String lines = "tumör\tG1\t10" + NL + "腫瘍\tG1\t20" + NL;
+        try (ColumnarWriter writer = new ColumnarWriter(file.getPath(), Arrays.asList("Sample", "Gene", "Start"), false)) {
+            writer.add(bytes(lines));
+        }
+        assertEquals(lines, export(file));
+    }
+
+    @Test
+    public void exportColumns() throws Exception {
+        File file = tmp.newFile("output.col");
+        try (ColumnarWriter writer = new ColumnarWriter(file.getPath(), Arrays.asList("A", "B", "C"), false)) {
+            writer.add(bytes("1\tx\t0.5" + NL + "2\ty\t0.25" + NL));
+        }
+        assertEquals("0.5\t1" + NL + "0.25\t2" + NL, export(file, "C", "1"));
+    }
+
+    @Test
+    public void readColumns() throws Exception {
+        File file = tmp.newFile("output.col");
+        try (ColumnarWriter writer = new ColumnarWriter(file.getPath(), Arrays.asList("Start", "AF"), false)) {
+            writer.add(bytes("100\t0.010" + NL + "-5\t1e-05" + NL + "7\tNA" + NL));
+        }
+        try (ColumnarReader reader = new ColumnarReader(new FileInputStream(file))) {
+            assertEquals(Arrays.asList("Start", "AF"), reader.getNames());
+            assertEquals(1, reader.column("AF"));
+            ColumnarReader.Block block = reader.next();
+            assertEquals(3, block.rows());
+            assertEquals("-5", block.get(1, 0));
+            assertEquals("0.010", block.get(0, 1));
+            assertEquals("1e-05", block.get(1, 1));
+            assertEquals("NA", block.get(2, 1));
+            assertNull(reader.next());
+        }
+    }
+
+    private static String decimal(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return String.format("%.3f", random.nextDouble());
+            case 1:
+                return String.valueOf(random.nextInt(100) - 50);
+            case 2:
+                return "0";
+            default:
+                return String.format("%.1f", random.nextDouble() * 100);
+        }
+    }
+
+    private static String note(Random random) {
+        switch (random.nextInt(3)) {
+            case 0:
+                return "";
+            case 1:
+                return "ACGT".substring(random.nextInt(4));
+            default:
+                return "0010";
+        }
+    }
+
+    private static ByteArrayOutputStream bytes(String text) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(text.getBytes(StandardCharsets.UTF_8));
+        return bytes;
+    }
+
+    private static String export(File file, String... columns) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(bytes, false, "UTF-8")) {
+            ColumnarReader.export(file.getPath(), columns.length == 0 ? Collections.<String>emptyList() : Arrays.asList(columns), out);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,62 @@
+package com.astrazeneca.vardict;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * p-values and odds ratios compared to fisher.test of R
+ */
+public class FisherExactTest {
+
+    @Test
+    public void teaTasting() {
+        // fisher.test(matrix(c(3, 1, 1, 3), nrow = 2)): p-value = 0.4857, odds ratio 6.408309
+        FisherExact test = new FisherExact(3, 1, 1, 3);
+        assertEquals(0.4857143, test.pvalue, 1e-7);
+        assertEquals(6.408309, test.oddRatio, 1e-6);
+    }
+
+    @Test
+    public void convictions() {
+        // fisher.test(matrix(c(2, 10, 15, 3), nrow = 2)): p-value = 0.0005367, odds ratio 0.04693661
+        FisherExact test = new FisherExact(2, 10, 15, 3);
+        assertEquals(0.0005367, test.pvalue, 1e-7);
+        assertEquals(0.04693661, test.oddRatio, 1e-8);
+    }
+
+    @Test
+    public void endsOfSupport() {
+        FisherExact test = new FisherExact(10, 0, 0, 10);
+        assertEquals(2.0 / 184756, test.pvalue, 1e-12);
+        assertEquals(Double.POSITIVE_INFINITY, test.oddRatio, 0);
+
+        test = new FisherExact(0, 5, 5, 0);
+        assertEquals(2.0 / 252, test.pvalue, 1e-12);
+        assertEquals(0, test.oddRatio, 0);
+    }
+
+    @Test
+    public void columns() {
+        assertEquals("0.48571\t6.40831" + System.lineSeparator(), line(new FisherExact(3, 1, 1, 3)));
+        assertEquals("0.00054\t0.04694" + System.lineSeparator(), line(new FisherExact(2, 10, 15, 3)));
+        assertEquals("1e-05\tInf" + System.lineSeparator(), line(new FisherExact(10, 0, 0, 10)));
+    }
+
+    @Test
+    public void format() {
+        assertEquals("0.5", FisherExact.format(0.5));
+        assertEquals("1", FisherExact.format(1.0));
+        assertEquals("0", FisherExact.format(0.000001));
+        assertEquals("1e-05", FisherExact.format(0.000012345));
+        assertEquals("123456.7", FisherExact.format(123456.7));
+        assertEquals("Inf", FisherExact.format(Double.POSITIVE_INFINITY));
+        assertEquals("NA", FisherExact.format(Double.NaN));
+    }
+
+    private static String line(FisherExact test) {
+        LineWriter out = new LineWriter();
+        test.columns(out).endLine();
+        return out.getOutput().toString();
+    }
+}
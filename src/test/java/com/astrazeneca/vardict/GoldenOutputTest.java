@@ -0,0 +1,126 @@
+package com.astrazeneca.vardict;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Output of the fixtures of {@link Regression} (single sample, pileup, paired, amplicon and long indel calling) on the small
+ * data sets of src/test/resources/fixtures, compared to the expected outputs of fixtures/expected, single-threaded and with
+ * the parallel drivers and read threads. The data sets were generated by Regression.generate(dir, Regression.dataSets(3000)),
+ * and the expected output of longindel, which goes through the realignment of long indels, by the baseline release.
+ * Run with -Dvardict.updateGolden=true from the project directory to rewrite the expected outputs of src/test/resources
+ * after an intended change of the output.
+ */
+public class GoldenOutputTest {
+    private static final boolean UPDATE = Boolean.getBoolean("vardict.updateGolden");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    private int runs;
+
+    @Test
+    public void single() throws Exception {
+        check("single");
+    }
+
+    @Test
+    public void pileup() throws Exception {
+        check("pileup");
+    }
+
+    @Test
+    public void paired() throws Exception {
+        check("paired");
+    }
+
+    @Test
+    public void amplicon() throws Exception {
+        check("amplicon");
+    }
+
+    @Test
+    public void longIndels() throws Exception {
+        check("longindel");
+    }
+
+    @Test
+    public void degradedColumn() throws Exception {
+        String golden = read(new File(new File(fixtures(), "expected"), "single.txt"));
+        StringBuilder expected = new StringBuilder(VarDict.HEADER + "\tDegraded" + System.lineSeparator());
+        for (String line : golden.split(System.lineSeparator())) {
+            expected.append(line).append("\t0").append(System.lineSeparator());
+        }
+        assertEquals(expected.toString(), run("single", "-h", "--region-reads", "100000000"));
+
+        // every region over budget: the lines of the re-run without local realignment, not downsampled as it's random
+        String[] lines = run("single", "-h", "--region-reads", "1", "--degraded-downsampling", "0").split(System.lineSeparator());
+        assertEquals(VarDict.HEADER + "\tDegraded", lines[0]);
+        assertTrue(lines.length > 1);
+        for (int i = 1; i < lines.length; i++) {
+            assertTrue(lines[i], lines[i].endsWith("\t1"));
+        }
+    }
+
+    private void check(String name) throws Exception {
+        File expected = new File(new File(fixtures(), "expected"), name + ".txt");
+        String single = run(name);
+        if (UPDATE) {
+            Files.write(new File("src/test/resources/fixtures/expected", name + ".txt").toPath(), single.getBytes(StandardCharsets.UTF_8));
+            Files.write(expected.toPath(), single.getBytes(StandardCharsets.UTF_8));
+        }
+        String golden = read(expected);
+        assertEquals(name, golden, single);
+        assertEquals(name + " with threads", golden, run(name, "-th", "3"));
+        assertEquals(name + " with read threads", golden, run(name, "--read-threads", "2", "--read-batch", "40"));
+    }
+
+    /**
+     * @return output of the fixture with the extra arguments
+     */
+    String run(String name, String... extra) throws Exception {
+        File output = new File(tmp.getRoot(), name + "." + runs++ + ".txt");
+        VarDict.start(Main.configuration(arguments(name, output, extra)));
+        return read(output);
+    }
+
+    /**
+     * @return arguments of the fixture on the checked-in data sets, writing to the output file
+     */
+    static String[] arguments(String name, File output, String... extra) throws URISyntaxException {
+        List<String> args = null;
+        for (Regression.Fixture fixture : Regression.FIXTURES) {
+            if (fixture.name.equals(name)) {
+                args = Regression.arguments(fixtures(), fixture);
+            }
+        }
+        if (args == null) {
+            throw new IllegalArgumentException("No fixture " + name);
+        }
+        args = new ArrayList<>(args);
+        args.addAll(Arrays.asList(extra));
+        args.add("--output");
+        args.add(output.getPath());
+        return args.toArray(new String[args.size()]);
+    }
+
+    static File fixtures() throws URISyntaxException {
+        return new File(GoldenOutputTest.class.getResource("/fixtures").toURI());
+    }
+
+    static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
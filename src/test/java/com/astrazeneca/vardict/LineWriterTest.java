@@ -0,0 +1,76 @@
+package com.astrazeneca.vardict;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Columns of LineWriter compared to the String.format and Utils.join output they replace
+ */
+public class LineWriterTest {
+
+    @Test
+    public void fixedAsFormat() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            double value;
+            switch (i % 4) {
+                case 0:
+                    value = random.nextDouble();
+                    break;
+                case 1:
+                    value = (random.nextDouble() - 0.5) * 2000;
+                    break;
+                case 2:
+                    // ties and near ties of the rounding
+                    value = random.nextInt(100000) / 1000.0 + 0.00005;
+                    break;
+                default:
+                    value = random.nextInt(1000) / 8.0;
+                    break;
+            }
+            for (int digits = 0; digits <= 4; digits++) {
+                assertEquals(value + " %." + digits + "f", String.format("%." + digits + "f", value), fixed(value, digits));
+            }
+        }
+    }
+
+    @Test
+    public void fixedSpecialValues() {
+        double[] values = {0.0, -0.0, 0.5, 1.5, 2.5, -0.5, 0.05, 0.15, 0.25, 0.35, 1e11, 1e13, -1e13, Double.NaN,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, 1 - Math.ulp(1.0)};
+        for (double value : values) {
+            for (int digits = 0; digits <= 9; digits++) {
+                assertEquals(value + " %." + digits + "f", String.format("%." + digits + "f", value), fixed(value, digits));
+            }
+        }
+    }
+
+    @Test
+    public void columns() {
+        LineWriter out = new LineWriter();
+        out.col("chr1").col(12345).col(-7).col(Integer.MIN_VALUE).col((String) null)
+                .col(new Region("chr2", 10, 20, "G")).colOrZero(0, 4).colOrZero(0.25, 1).zeros(2).endLine();
+        out.col("x").endLine();
+        String expected = Utils.join("\t", "chr1", 12345, -7, Integer.MIN_VALUE, null, "chr2:10-20", 0,
+                String.format("%.1f", 0.25), 0, 0) + System.lineSeparator() + "x" + System.lineSeparator();
+        assertEquals(expected, out.getOutput().toString());
+        assertEquals(2, out.getOutput().lines());
+    }
+
+    @Test
+    public void utf8() throws Exception {
+        LineWriter out = new LineWriter();
+        out.col("tumör").col(1).endLine();
+        out.print("腫瘍");
+        assertEquals("tumör\t1" + System.lineSeparator() + "腫瘍", out.getOutput().toString("UTF-8"));
+    }
+
+    private static String fixed(double value, int digits) {
+        LineWriter out = new LineWriter();
+        out.col(value, digits);
+        return out.getOutput().toString();
+    }
+}
@@ -0,0 +1,111 @@
+package com.astrazeneca.vardict;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Output with a journal (option --journal), resumed after an interrupted run
+ */
+public class OutputWriterTest {
+    private static final List<String> KEYS = Arrays.asList("chr1:1-100", "chr1:101-200", "chr2:1-100", "chr2:101-200");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void resume() throws Exception {
+        Configuration conf = conf("-b x.bam");
+        OutputWriter writer = new OutputWriter(conf, KEYS);
+        writer.header("Sample\tStart");
+        writer.write(region(0));
+        writer.write(region(1));
+        // interrupted in the middle of the third region, after the output was flushed but before the journal
+        try (FileOutputStream out = new FileOutputStream(conf.output, true)) {
+            out.write("partial".getBytes(StandardCharsets.UTF_8));
+        }
+
+        writer = new OutputWriter(conf, KEYS);
+        assertEquals(2, writer.getWritten());
+        writer.header("Sample\tStart");
+        writer.write(region(2));
+        writer.write(region(3));
+        writer.close();
+
+        assertEquals("Sample\tStart" + System.lineSeparator() + lines(0) + lines(1) + lines(2) + lines(3),
+                GoldenOutputTest.read(new File(conf.output)));
+    }
+
+    @Test
+    public void complete() throws Exception {
+        Configuration conf = conf("-b x.bam");
+        try (OutputWriter writer = new OutputWriter(conf, KEYS)) {
+            for (int i = 0; i < KEYS.size(); i++) {
+                writer.write(region(i));
+            }
+        }
+        try (OutputWriter writer = new OutputWriter(conf, KEYS)) {
+            assertEquals(KEYS.size(), writer.getWritten());
+        }
+        assertEquals(lines(0) + lines(1) + lines(2) + lines(3), GoldenOutputTest.read(new File(conf.output)));
+    }
+
+    @Test
+    public void otherArguments() throws Exception {
+        Configuration conf = conf("-b x.bam");
+        try (OutputWriter writer = new OutputWriter(conf, KEYS)) {
+            writer.write(region(0));
+        }
+        conf.arguments = "-b x.bam -f 0.05";
+        try {
+            new OutputWriter(conf, KEYS);
+            fail("Journal of other arguments accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void otherRegions() throws Exception {
+        Configuration conf = conf("-b x.bam");
+        try (OutputWriter writer = new OutputWriter(conf, KEYS)) {
+            writer.write(region(0));
+        }
+        try {
+            new OutputWriter(conf, KEYS.subList(1, KEYS.size()));
+            fail("Journal of other regions accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private Configuration conf(String arguments) throws IOException {
+        Configuration conf = new Configuration();
+        conf.arguments = arguments;
+        conf.bam = new Configuration.BamNames(tmp.newFile("x.bam").getPath());
+        conf.output = new File(tmp.getRoot(), "out.txt").getPath();
+        conf.journal = new File(tmp.getRoot(), "out.journal").getPath();
+        return conf;
+    }
+
+    private static String lines(int region) {
+        return "tumor\t" + KEYS.get(region) + "\t1\ntumor\t" + KEYS.get(region) + "\t2\n";
+    }
+
+    private static ByteArrayOutputStream region(int region) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(lines(region).getBytes(StandardCharsets.UTF_8));
+        return bytes;
+    }
+}
@@ -0,0 +1,89 @@
+package com.astrazeneca.vardict;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Merge of the pileups of batches of reads (option --read-threads) into the pileup of the region: the counts and quality
+ * sums are those of a single thread adding the reads one by one. The end to end check is in GoldenOutputTest.
+ */
+public class PileupMergeTest {
+
+    @Test
+    public void qualitiesInReadOrder() {
+        VarDict.Pileup region = pileup(false);
+        VarDict.Variation insertion = variation(region.iHash, 100, "+AC");
+        observe(region, insertion, 0.1);
+
+        VarDict.Pileup shard = pileup(true);
+        VarDict.Variation batch = variation(shard.iHash, 100, "+AC");
+        observe(shard, batch, 0.2);
+        observe(shard, batch, 0.3);
+        observe(shard, variation(shard.iHash, 200, "+T"), 31.0 / 3);
+
+        region.merge(shard, new Configuration());
+
+        // (0.1 + 0.2) + 0.3 != 0.1 + (0.2 + 0.3)
+        assertEquals(0.1 + 0.2 + 0.3, region.iHash.get(100).get("+AC").qmean, 0);
+        assertEquals(3, region.iHash.get(100).get("+AC").cnt);
+        assertEquals(31.0 / 3, region.iHash.get(200).get("+T").qmean, 0);
+        assertEquals(Arrays.asList(100, 200), new ArrayList<>(region.iHash.keySet()));
+    }
+
+    @Test
+    public void deferredAdjustmentBeforeBatch() {
+        VarDict.Pileup region = pileup(false);
+        VarDict.Variation base = variation(region.hash, 99, "A");
+        observe(region, base, 0.7);
+        observe(region, base, 40);
+
+        // an insertion read of the batch subtracts its base before the batch sees the reference base
+        VarDict.Pileup shard = pileup(true);
+        shard.deferSubCnt(99, "A", true, 5, 30, 60, 0);
+        observe(shard, variation(shard.hash, 99, "A"), 35.1);
+
+        region.merge(shard, new Configuration());
+
+        double expected = 0.7;
+        expected += 40;
+        expected -= 30;
+        expected += 35.1;
+        VarDict.Variation merged = region.hash.get(99).get("A");
+        assertEquals(expected, merged.qmean, 0);
+        assertEquals(2, merged.cnt);
+    }
+
+    private static VarDict.Pileup pileup(boolean shard) {
+        return new VarDict.Pileup(new HashSet<String>(), 0, shard);
+    }
+
+    private static VarDict.Variation variation(Map<Integer, Map<String, VarDict.Variation>> hash, int position, String key) {
+        Map<String, VarDict.Variation> map = hash.get(position);
+        if (map == null) {
+            map = new LinkedHashMap<>();
+            hash.put(position, map);
+        }
+        VarDict.Variation variation = map.get(key);
+        if (variation == null) {
+            variation = new VarDict.Variation();
+            map.put(key, variation);
+        }
+        return variation;
+    }
+
+    /**
+     * Count a read of the variant with the quality, as addRead does
+     */
+    private static void observe(VarDict.Pileup pileup, VarDict.Variation variation, double q) {
+        variation.cnt++;
+        variation.incDir(true);
+        pileup.addQuality(variation, q);
+    }
+}
@@ -0,0 +1,47 @@
+package com.astrazeneca.vardict;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PositionIndexTest {
+
+    @Test
+    public void sorted() {
+        PositionIndex index = PositionIndex.of(new HashSet<>(Arrays.asList(500, 7, 1200, 30)));
+        assertArrayEquals(new int[] {7, 30, 500, 1200}, positions(index));
+    }
+
+    @Test
+    public void from() {
+        PositionIndex index = PositionIndex.of(Arrays.asList(10, 20, 30));
+        assertEquals(0, index.from(5));
+        assertEquals(0, index.from(10));
+        assertEquals(1, index.from(11));
+        assertEquals(2, index.from(30));
+        assertEquals(3, index.from(31));
+        assertEquals(0, PositionIndex.of(Collections.<Integer>emptyList()).from(1));
+    }
+
+    @Test
+    public void union() {
+        PositionIndex a = PositionIndex.of(Arrays.asList(1, 4, 9, 12));
+        PositionIndex b = PositionIndex.of(Arrays.asList(2, 4, 12, 15));
+        assertArrayEquals(new int[] {1, 2, 4, 9, 12, 15}, positions(a.union(b)));
+        assertArrayEquals(new int[] {1, 2, 4, 9, 12, 15}, positions(b.union(a)));
+        assertArrayEquals(positions(a), positions(a.union(PositionIndex.of(Collections.<Integer>emptyList()))));
+    }
+
+    private static int[] positions(PositionIndex index) {
+        int[] positions = new int[index.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = index.get(i);
+        }
+        return positions;
+    }
+}
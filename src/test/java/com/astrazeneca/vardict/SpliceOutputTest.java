@@ -0,0 +1,168 @@
+package com.astrazeneca.vardict;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMReadGroupRecord;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Splice counts of spliced reads, some of them overlapping their mate, counted by option -i and by the pileups of the
+ * variant calling for option --splice-output
+ */
+public class SpliceOutputTest {
+    private static final int EXON = 30;
+    private static final int[] INTRONS = {120, 250, 400};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void countsOfPileups() throws Exception {
+        String expected = writeBam(new Random(11));
+        assertEquals(expected, run("-i"));
+        assertEquals(expected, spliceOutput());
+        assertEquals(expected, spliceOutput("-th", "2"));
+        assertEquals(expected, spliceOutput("--read-threads", "2", "--read-batch", "7"));
+    }
+
+    private String spliceOutput(String... extra) throws Exception {
+        File splices = new File(tmp.getRoot(), "splices." + extra.length + ".txt");
+        List<String> args = new ArrayList<>(Arrays.asList(extra));
+        args.add("--splice-output");
+        args.add(splices.getPath());
+        run(args.toArray(new String[args.size()]));
+        return GoldenOutputTest.read(splices);
+    }
+
+    private String run(String... extra) throws Exception {
+        File output = new File(tmp.getRoot(), "output.txt");
+        List<String> args = new ArrayList<>(Arrays.asList("-G", reference().getPath(), "-N", "spliced", "-b",
+                new File(tmp.getRoot(), "reads.bam").getPath(), "-c", "1", "-S", "2", "-E", "3", "-g", "4", "--output", output.getPath()));
+        args.addAll(Arrays.asList(extra));
+        args.add(new File(tmp.getRoot(), "regions.bed").getPath());
+        VarDict.start(Main.configuration(args.toArray(new String[args.size()])));
+        return GoldenOutputTest.read(output);
+    }
+
+    private static File reference() throws Exception {
+        return new File(GoldenOutputTest.fixtures(), "tumor/ref.fa");
+    }
+
+    /**
+     * Write reads of two exons in one region, half of them forward reads of pairs whose reverse mate starts before or
+     * within the intron
+     * @return expected splice counts: the intron of a read is counted unless its mate starts before the intron
+     */
+    private String writeBam(Random random) throws Exception {
+        String reference;
+        try (IndexedFastaSequenceFile fasta = new IndexedFastaSequenceFile(reference())) {
+            reference = new String(fasta.getSequence("chr1").getBases());
+        }
+        try (PrintWriter bed = new PrintWriter(new File(tmp.getRoot(), "regions.bed"))) {
+            bed.println("chr1\t0\t" + reference.length() + "\tS");
+        }
+
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        header.addSequence(new SAMSequenceRecord("chr1", reference.length()));
+        SAMReadGroupRecord readGroup = new SAMReadGroupRecord("rg");
+        readGroup.setSample("spliced");
+        header.addReadGroup(readGroup);
+
+        // counts by last base of the first exon, then last base of the intron
+        TreeMap<Integer, TreeMap<Integer, Integer>> counts = new TreeMap<>();
+        try (SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, false,
+                new File(tmp.getRoot(), "reads.bam"))) {
+            for (int i = 0; i < 300; i++) {
+                int intron = INTRONS[random.nextInt(INTRONS.length)];
+                int start = 100 + random.nextInt(2000);
+                SAMRecord read = read(header, reference, "r" + i, start, intron);
+                if (i % 2 == 0) {
+                    // mate within the first exon or within the intron
+                    int mateStart = start + (i % 4 == 0 ? EXON / 2 : EXON + intron / 2);
+                    SAMRecord mate = read(header, reference, "r" + i, mateStart, intron);
+                    pair(read, mate, true);
+                    pair(mate, read, false);
+                    writer.addAlignment(mate);
+                    count(counts, mateStart, intron);
+                    if (mateStart > start + EXON) {
+                        count(counts, start, intron);
+                    }
+                } else {
+                    count(counts, start, intron);
+                }
+                writer.addAlignment(read);
+            }
+        }
+
+        StringBuilder expected = new StringBuilder();
+        for (int last : counts.keySet()) {
+            for (int end : counts.get(last).keySet()) {
+                expected.append("spliced\tchr1\t").append(last).append('-').append(end).append('\t')
+                        .append(counts.get(last).get(end)).append(System.lineSeparator());
+            }
+        }
+        return expected.toString();
+    }
+
+    /**
+     * Count the intron of a read starting at start, with the key of addRead: last bases of the first exon and of the intron
+     */
+    private static void count(TreeMap<Integer, TreeMap<Integer, Integer>> counts, int start, int intron) {
+        int last = start + EXON - 1;
+        TreeMap<Integer, Integer> ends = counts.get(last);
+        if (ends == null) {
+            ends = new TreeMap<>();
+            counts.put(last, ends);
+        }
+        Integer count = ends.get(last + intron);
+        ends.put(last + intron, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * @return read of two exons of EXON bases around an intron, starting at start
+     */
+    private static SAMRecord read(SAMFileHeader header, String reference, String name, int start, int intron) {
+        SAMRecord record = new SAMRecord(header);
+        record.setReadName(name);
+        record.setReferenceName("chr1");
+        record.setAlignmentStart(start);
+        record.setCigarString(EXON + "M" + intron + "N" + EXON + "M");
+        int second = start - 1 + EXON + intron;
+        record.setReadString(reference.substring(start - 1, start - 1 + EXON) + reference.substring(second, second + EXON));
+        char[] qualities = new char[2 * EXON];
+        Arrays.fill(qualities, 'I');
+        record.setBaseQualityString(new String(qualities));
+        record.setMappingQuality(60);
+        record.setAttribute("RG", "rg");
+        record.setAttribute("NM", 0);
+        return record;
+    }
+
+    private static void pair(SAMRecord read, SAMRecord mate, boolean first) {
+        read.setReadPairedFlag(true);
+        read.setProperPairFlag(true);
+        read.setFirstOfPairFlag(first);
+        read.setSecondOfPairFlag(!first);
+        read.setReadNegativeStrandFlag(!first);
+        read.setMateNegativeStrandFlag(first);
+        read.setMateReferenceName("chr1");
+        read.setMateAlignmentStart(mate.getAlignmentStart());
+    }
+}
@@ -0,0 +1,75 @@
+package com.astrazeneca.vardict;
+
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * VCF of paired calling (option --vcf) read back by htsjdk: the genotype fields of the samples are those of the text output
+ */
+public class VcfWriterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void pairedGenotypes() throws Exception {
+        File output = new File(tmp.getRoot(), "paired.txt");
+        File vcf = new File(tmp.getRoot(), "paired.vcf");
+        VarDict.start(Main.configuration(GoldenOutputTest.arguments("paired", output, "--vcf", vcf.getPath())));
+
+        Map<String, String[]> lines = new HashMap<>();
+        for (String line : GoldenOutputTest.read(output).split("\n")) {
+            String[] cols = line.split("\t");
+            lines.put(cols[2] + ":" + cols[3] + ":" + cols[5] + ":" + cols[6], cols);
+        }
+
+        int records = 0;
+        try (VCFFileReader reader = new VCFFileReader(vcf, false)) {
+            for (VariantContext context : reader) {
+                String key = context.getContig() + ":" + context.getStart() + ":" + context.getReference().getBaseString()
+                        + ":" + context.getAlternateAllele(0).getBaseString();
+                String[] cols = lines.get(key);
+                assertNotNull(key, cols);
+                checkSample(key, context.getGenotype(0), cols, 7);
+                checkSample(key, context.getGenotype(1), cols, 25);
+                records++;
+            }
+        }
+        assertTrue(records > 0);
+    }
+
+    /**
+     * Compare the genotype to the columns of its sample in the text output, from the total depth at column first
+     */
+    private static void checkSample(String key, Genotype genotype, String[] cols, int first) {
+        assertEquals(key, Integer.parseInt(cols[first]), genotype.getDP());
+        assertEquals(key, cols[first + 1], attribute(genotype, "VD"));
+        assertEquals(key, cols[first + 2] + "," + cols[first + 3], attribute(genotype, "RD"));
+        assertEquals(key, cols[first + 4] + "," + cols[first + 5], attribute(genotype, "ALD"));
+        assertEquals(key, cols[first + 7], attribute(genotype, "AF"));
+        assertEquals(key, cols[first + 8].replace(';', ','), attribute(genotype, "BIAS"));
+        assertEquals(key, cols[first + 9], attribute(genotype, "PMEAN"));
+        assertEquals(key, cols[first + 10], attribute(genotype, "PSTD"));
+        assertEquals(key, cols[first + 11], attribute(genotype, "QUAL"));
+        assertEquals(key, cols[first + 12], attribute(genotype, "QSTD"));
+        assertEquals(key, cols[first + 13], attribute(genotype, "MQ"));
+        assertEquals(key, cols[first + 14], attribute(genotype, "SN"));
+        assertEquals(key, cols[first + 17], attribute(genotype, "NM"));
+    }
+
+    private static String attribute(Genotype genotype, String name) {
+        return String.valueOf(genotype.getExtendedAttribute(name));
+    }
+}